@@ -108,8 +108,9 @@ public class CalProcessingServer {
     long end = endDateTime.toInstant().toEpochMilli();
 
     DataStore ds = new DataStore();
-    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName);
-    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName);
+    // only the records around the calibration window need to be decoded
+    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName, start, end);
+    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName, start, end);
     InstrumentResponse ir;
     if (useEmbeddedResp) {
       ir = InstrumentResponse.loadEmbeddedResponse(respName);
@@ -160,8 +161,9 @@ public class CalProcessingServer {
     DataStore ds = new DataStore();
     String[] calFileName = new String[]{calFileNameD1, calFileNameD2};
     String[] outFileName = new String[]{outFileNameD1, outFileNameD2};
-    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName);
-    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName);
+    // only the records around the calibration window need to be decoded
+    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName, start, end);
+    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName, start, end);
     InstrumentResponse ir;
     if (useEmbeddedResp) {
       ir = InstrumentResponse.loadEmbeddedResponse(respName);
@@ -207,8 +209,9 @@ public class CalProcessingServer {
     DataStore ds = new DataStore();
     String[] calFileName = new String[]{calFileNameD1, calFileNameD2};
     String[] outFileName = new String[]{outFileNameD1, outFileNameD2};
-    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName);
-    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName);
+    // only the records around the calibration window need to be decoded
+    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName, start, end);
+    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName, start, end);
     InstrumentResponse ir;
     if (useEmbeddedResp) {
       ir = InstrumentResponse.loadEmbeddedResponse(respName);
@@ -250,8 +253,9 @@ public class CalProcessingServer {
     long end = endDateTime.toInstant().toEpochMilli();
 
     DataStore ds = new DataStore();
-    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName);
-    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName);
+    // only the records around the calibration window need to be decoded
+    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName, start, end);
+    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName, start, end);
     InstrumentResponse ir;
     if (useEmbeddedResp) {
       ir = InstrumentResponse.loadEmbeddedResponse(respName);
@@ -290,8 +294,9 @@ public class CalProcessingServer {
     long end = endDateTime.toInstant().toEpochMilli();
 
     DataStore ds = new DataStore();
-    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName);
-    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName);
+    // only the records around the calibration window need to be decoded
+    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName, start, end);
+    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName, start, end);
 
     ds.setBlock(0, calBlock);
     ds.setBlock(1, outBlock);
@@ -327,8 +332,9 @@ public class CalProcessingServer {
     DataStore ds = new DataStore();
     String[] calFileName = new String[]{calFileNameD1, calFileNameD2};
     String[] outFileName = new String[]{outFileNameD1, outFileNameD2};
-    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName);
-    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName);
+    // only the records around the calibration window need to be decoded
+    DataBlock calBlock = TimeSeriesUtils.getFirstTimeSeries(calFileName, start, end);
+    DataBlock outBlock = TimeSeriesUtils.getFirstTimeSeries(outFileName, start, end);
 
     ds.setBlock(0, calBlock);
     ds.setBlock(1, outBlock);
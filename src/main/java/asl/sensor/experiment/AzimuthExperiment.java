@@ -192,9 +192,13 @@ public class AzimuthExperiment extends Experiment {
     long startTime = testNorthBlock.getStartTime();
     long endTime = testNorthBlock.getEndTime();
 
-    double[] testNorth = testNorthBlock.getData();
-    double[] testEast = testEastBlock.getData();
-    double[] refNorth = refNorthBlock.getData();
+    // decimated to 1Hz while reading the data in, rather than copying out the data at its full rate
+    // first (the decimation in backendHelper then does nothing)
+    long target = TimeSeriesUtils.ONE_HZ_INTERVAL;
+    double[] testNorth = TimeSeriesUtils.decimate(testNorthBlock.segmentedView(), target);
+    double[] testEast = TimeSeriesUtils.decimate(testEastBlock.segmentedView(), target);
+    double[] refNorth = TimeSeriesUtils.decimate(refNorthBlock.segmentedView(), target);
+    interval = Math.max(interval, target);
 
     backendHelper(testNorth, testEast, refNorth, interval, startTime, endTime);
 
@@ -18,6 +18,7 @@ import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
+import asl.sensor.utils.FFTResult;
 import asl.sensor.utils.NumericUtils;
 
 /**
@@ -121,8 +122,9 @@ public abstract class Experiment {
     XYSeries powerSeries =
         new XYSeries("PSD " + dataStore.getBlock(index).getName() + " [" + index + "]");
 
-    Complex[] resultPSD = dataStore.getPSD(index).getFFT();
-    double[] freqs = dataStore.getPSD(index).getFreqs();
+    FFTResult psd = dataStore.getPSD(index);
+    Complex[] resultPSD = psd.getFFT();
+    double[] freqs = psd.getFreqs();
 
     addToPlot(powerSeries, resultPSD, freqs, freqSpace, xysc);
   }
@@ -2,6 +2,7 @@ package asl.sensor.experiment;
 
 import asl.sensor.input.DataStore;
 import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.ComplexArrays;
 import asl.sensor.utils.FFTResult;
 import asl.sensor.utils.NumericUtils;
 import org.apache.commons.math3.complex.Complex;
@@ -125,12 +126,15 @@ public class GainExperiment extends Experiment {
     XYSeriesCollection xysc = new XYSeriesCollection();
     xysc.setAutoWidth(true);
 
+    // both PSDs come from one pass over the windows of the data
+    FFTResult[][] crossPowers = dataStore.getCrossPowers(indices);
+
     for (int i = 0; i < indices.length; ++i) {
       fireStateChange("Getting PSD " + i + "...");
       int idx = indices[i];
       String name = "PSD " + dataStore.getBlock(idx).getName() + " [" + idx + "]";
       XYSeries xys = new XYSeries(name);
-      fftResults[i] = dataStore.getPSD(idx);
+      fftResults[i] = crossPowers[i][i];
       Complex[] fft = fftResults[i].getFFT();
       double[] freqs = fftResults[i].getFreqs();
       // false, because we don't want to plot in frequency space
@@ -178,17 +182,17 @@ public class GainExperiment extends Experiment {
 
     FFTResult fft = fftResults[fftIndex];
 
-    Complex[] timeSeries = fft.getFFT();
+    double[][] timeSeries = fft.getFFTArrays();
     double[] freqs = fft.getFreqs();
 
     double max = Double.NEGATIVE_INFINITY;
     int peakIndex = 0;
-    for (int i = 0; i < timeSeries.length; ++i) {
+    for (int i = 0; i < freqs.length; ++i) {
       if (freqs[i] < 0.001) {
         continue;
       }
 
-      double result = 10 * Math.log10(timeSeries[i].abs());
+      double result = 10 * Math.log10(ComplexArrays.abs(timeSeries, i));
       if (result < Double.POSITIVE_INFINITY && result > max) {
         max = result;
         peakIndex = i;
@@ -85,7 +85,8 @@ public class GainSixExperiment extends Experiment {
     for (int i = 0; i < DIMENSIONS; ++i) {
       stores[i] = new DataStore();
       for (int j = 0; j < 2; ++j) {
-        stores[i].setBlock(j, dataStore.getBlock(i + (j * DIMENSIONS)));
+        // copied, as the rotated data replaces (and so releases) some of these blocks
+        stores[i].setBlock(j, new DataBlock(dataStore.getBlock(i + (j * DIMENSIONS))));
         stores[i].setResponse(j, dataStore.getResponse(i + (j * DIMENSIONS)));
       }
     }
@@ -2,7 +2,7 @@ package asl.sensor.experiment;
 
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
-import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.ComplexArrays;
 import asl.sensor.utils.FFTResult;
 import java.util.Arrays;
 import org.apache.commons.math3.complex.Complex;
@@ -85,15 +85,18 @@ public class NoiseExperiment extends Experiment {
     }
 
     DataBlock[] dataIn = new DataBlock[respIndices.length];
-    InstrumentResponse[] responses = new InstrumentResponse[respIndices.length];
 
     for (int i = 0; i < respIndices.length; ++i) {
       dataIn[i] = dataStore.getBlock(respIndices[i]);
-      responses[i] = dataStore.getResponse(respIndices[i]);
     }
 
-    Complex[][] spectra = new Complex[DATA_NEEDED][];
-    double[] freqs = new double[]{}; // initialize to prevent later errors
+    // each window of each series is transformed once for all of the PSDs and crosspowers
+    // (or not at all, if they were already calculated for this data)
+    fireStateChange("Getting cross-spectral matrix of data...");
+    FFTResult[][] crossPowers = dataStore.getCrossPowers(respIndices);
+
+    double[][][] spectra = new double[DATA_NEEDED][][];
+    double[] freqs = crossPowers[0][0].getFreqs();
 
     // gets the PSDs of each given index for given freqSpace
     for (int i = 0; i < respIndices.length; ++i) {
@@ -101,30 +104,22 @@ public class NoiseExperiment extends Experiment {
       fireStateChange("Getting PSDs of data " + (idx + 1) + "...");
       String name = "PSD " + dataStore.getBlock(idx).getName() + " [" + idx + "]";
       XYSeries powerSeries = new XYSeries(name);
-      FFTResult psdCalc = dataStore.getPSD(idx);
-      Complex[] fft = psdCalc.getFFT();
-      spectra[i] = fft;
-      freqs = psdCalc.getFreqs();
-      addToPlot(powerSeries, fft, freqs, freqSpace, xysc);
+      FFTResult psdCalc = crossPowers[i][i];
+      spectra[i] = psdCalc.getFFTArrays();
+      addToPlot(powerSeries, psdCalc.getFFT(), freqs, freqSpace, xysc);
     }
 
     String getting = "Getting crosspower of series ";
 
     // spectra[i] is crosspower pii, now to get pij terms for i!=j
     fireStateChange(getting + "1 & 3");
-    FFTResult fft =
-        FFTResult.crossPower(dataIn[0], dataIn[2], responses[0], responses[2]);
-    Complex[] c13 = fft.getFFT();
+    double[][] c13 = crossPowers[0][2].getFFTArrays();
 
     fireStateChange(getting + "2 & 1");
-    fft =
-        FFTResult.crossPower(dataIn[1], dataIn[0], responses[1], responses[0]);
-    Complex[] c21 = fft.getFFT();
+    double[][] c21 = crossPowers[1][0].getFFTArrays();
 
     fireStateChange(getting + "2 & 3");
-    fft =
-        FFTResult.crossPower(dataIn[1], dataIn[2], responses[1], responses[2]);
-    Complex[] c23 = fft.getFFT();
+    double[][] c23 = crossPowers[1][2].getFFTArrays();
 
     // WIP: use PSD results to get noise at each point see spectra
     XYSeries[] noiseSeriesArr = new XYSeries[DATA_NEEDED];
@@ -136,45 +131,48 @@ public class NoiseExperiment extends Experiment {
 
     fireStateChange("Doing noise estimation calculations...");
 
-    Complex[][] noise = new Complex[DATA_NEEDED][];
+    int length = ComplexArrays.length(spectra[0]);
+    double[][][] noise = new double[DATA_NEEDED][][];
     for (int i = 0; i < noise.length; ++i) {
-      noise[i] = new Complex[spectra[0].length];
-      noise[i][0] = Complex.ZERO;
+      noise[i] = ComplexArrays.create(length);
     }
 
-    for (int i = 1; i < freqs.length; ++i) {
-      if (1 / freqs[i] > MAX_PLOT_PERIOD) {
-        continue;
-      }
-
-      Complex p11 = spectra[0][i];
-      Complex p22 = spectra[1][i];
-      Complex p33 = spectra[2][i];
-
-      Complex p13 = c13[i];
-      Complex p21 = c21[i];
-      Complex p23 = c23[i];
-
-      // n_ii = p_ii - p_ji * h_ij
-      // where h_ij = p_ik / p_jk
-      // and p_ik is the complex conjugate of p_ki
-      noise[0][i] =
-          p11.subtract(p21.multiply(p13).divide(p23)); // n_11
-
-      noise[1][i] =
-          p22.subtract(
-              (p23.conjugate()).multiply(p21).divide(p13.conjugate())); // n_22
-
-      noise[2][i] =
-          p33.subtract(
-              p23.multiply(p13.conjugate()).divide(p21)); //n_33
-
+    double[][] p11 = spectra[0];
+    double[][] p22 = spectra[1];
+    double[][] p33 = spectra[2];
+
+    // n_ii = p_ii - p_ji * h_ij
+    // where h_ij = p_ik / p_jk
+    // and p_ik is the complex conjugate of p_ki
+    // (each term is worked out over all frequencies at once, in the noise arrays)
+    double[][] term = noise[0];
+    ComplexArrays.multiply(c21, c13, term);
+    ComplexArrays.divide(term, c23, term);
+    ComplexArrays.subtract(p11, term, noise[0]); // n_11
+
+    term = noise[1];
+    double[][] conjugate = noise[2];
+    ComplexArrays.conjugate(c23, term);
+    ComplexArrays.multiply(term, c21, term);
+    ComplexArrays.conjugate(c13, conjugate);
+    ComplexArrays.divide(term, conjugate, term);
+    ComplexArrays.subtract(p22, term, noise[1]); // n_22
+
+    term = noise[2];
+    ComplexArrays.multiplyConjugate(c23, c13, term);
+    ComplexArrays.divide(term, c21, term);
+    ComplexArrays.subtract(p33, term, noise[2]); // n_33
+
+    // there is no noise estimate at 0 Hz
+    for (double[][] noiseData : noise) {
+      noiseData[0][0] = 0.;
+      noiseData[1][0] = 0.;
     }
 
     // now that we've calculated the noise, add it to the plot w/ smoothing applied
     double[] noiseRange = Arrays.copyOfRange(freqs, 1, freqs.length);
     for (int i = 0; i < noiseSeriesArr.length; ++i) {
-      Complex[] noiseData = noise[i];
+      Complex[] noiseData = ComplexArrays.toComplex(noise[i]);
       XYSeries noiseSeries = noiseSeriesArr[i];
       addToPlot(noiseSeries, noiseData, noiseRange, freqSpace, xysc);
     }
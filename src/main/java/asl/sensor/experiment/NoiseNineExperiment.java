@@ -144,7 +144,8 @@ public class NoiseNineExperiment extends NoiseExperiment {
     for (int i = 0; i < DIMENSIONS; ++i) {
       stores[i] = new DataStore();
       for (int j = 0; j < 3; ++j) {
-        stores[i].setBlock(j, dataStore.getBlock(i + (j * DIMENSIONS)));
+        // copied, as the rotated data replaces (and so releases) some of these blocks
+        stores[i].setBlock(j, new DataBlock(dataStore.getBlock(i + (j * DIMENSIONS))));
         stores[i].setResponse(j, dataStore.getResponse(i + (j * DIMENSIONS)));
       }
     }
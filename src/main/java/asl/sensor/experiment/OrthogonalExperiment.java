@@ -83,28 +83,15 @@ public class OrthogonalExperiment extends Experiment {
     dataNames.add(testLH2Block.getName());
 
     // this code is used to get the plotted difference between ref + test, ref + rotated test
-    double[] refLH1 = refLH1Block.getData();
-    double[] refLH2 = refLH2Block.getData();
-    double[] testLH1 = testLH1Block.getData();
-    double[] testLH2 = testLH2Block.getData();
-
-    refLH1 = TimeSeriesUtils.demean(refLH1);
-    refLH2 = TimeSeriesUtils.demean(refLH2);
-    testLH1 = TimeSeriesUtils.demean(testLH1);
-    testLH2 = TimeSeriesUtils.demean(testLH2);
-
-    refLH1 = TimeSeriesUtils.detrend(refLH1);
-    refLH2 = TimeSeriesUtils.detrend(refLH2);
-    testLH1 = TimeSeriesUtils.detrend(testLH1);
-    testLH2 = TimeSeriesUtils.detrend(testLH2);
-
     // note that parent class preprocessing should have already downsampled all data to same rate
     // so this just takes it down to 1Hz if it's still above that
-
-    refLH1 = TimeSeriesUtils.decimate(refLH1, interval, TimeSeriesUtils.ONE_HZ_INTERVAL);
-    refLH2 = TimeSeriesUtils.decimate(refLH2, interval, TimeSeriesUtils.ONE_HZ_INTERVAL);
-    testLH1 = TimeSeriesUtils.decimate(testLH1, interval, TimeSeriesUtils.ONE_HZ_INTERVAL);
-    testLH2 = TimeSeriesUtils.decimate(testLH2, interval, TimeSeriesUtils.ONE_HZ_INTERVAL);
+    // (data is demeaned, detrended and decimated as it's read in, so that it doesn't need to be
+    // copied out at its full rate)
+    long target = TimeSeriesUtils.ONE_HZ_INTERVAL;
+    double[] refLH1 = TimeSeriesUtils.decimateDetrended(refLH1Block.segmentedView(), target);
+    double[] refLH2 = TimeSeriesUtils.decimateDetrended(refLH2Block.segmentedView(), target);
+    double[] testLH1 = TimeSeriesUtils.decimateDetrended(testLH1Block.segmentedView(), target);
+    double[] testLH2 = TimeSeriesUtils.decimateDetrended(testLH2Block.segmentedView(), target);
 
     interval = Math.max(interval, TimeSeriesUtils.ONE_HZ_INTERVAL);
 
@@ -23,6 +23,8 @@ import org.jfree.data.xy.XYSeriesCollection;
 import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
 import asl.sensor.input.InstrumentResponse;
+import asl.sensor.utils.ComplexArrays;
+import asl.sensor.utils.CrossSpectralMatrix;
 import asl.sensor.utils.FFTResult;
 import asl.sensor.utils.NumericUtils;
 import asl.sensor.utils.TimeSeriesUtils;
@@ -327,9 +329,11 @@ public class RandomizedExperiment extends Experiment implements ParameterValidat
     // also, use those frequencies to get the applied response to input
     fireStateChange("Getting PSDs of data...");
     FFTResult numeratorPSD, denominatorPSD, crossPSD;
-    numeratorPSD = FFTResult.spectralCalc(sensorOut, sensorOut);
-    denominatorPSD = FFTResult.spectralCalc(calib, calib);
-    crossPSD = FFTResult.spectralCalc(sensorOut, calib);
+    // one pass over the windows gets all three spectra
+    CrossSpectralMatrix matrix = FFTResult.spectralMatrix(sensorOut, calib);
+    numeratorPSD = matrix.get(0, 0);
+    denominatorPSD = matrix.get(1, 1);
+    crossPSD = matrix.get(0, 1);
 
     double[] freqsUntrimmed = numeratorPSD.getFreqs(); // should be same for both results
 
@@ -370,26 +374,28 @@ public class RandomizedExperiment extends Experiment implements ParameterValidat
     int normalIdx = FFTResult.getIndexOfFrequency(freqs, zeroTarget);
 
     // trim the PSDs to the data in the trimmed frequency range
-    Complex[] numeratorPSDVals = numeratorPSD.getFFT();
-    Complex[] denominatorPSDVals = denominatorPSD.getFFT();
-    Complex[] crossPSDVals = crossPSD.getFFT();
+    double[][] numeratorPSDVals = numeratorPSD.getFFTArrays();
+    double[][] crossPSDVals = crossPSD.getFFTArrays();
+    double[] denominators = ComplexArrays.abs(denominatorPSD.getFFTArrays()); // phase is 0
     double[] untrimmedAmplitude = new double[freqsUntrimmed.length];
     double[] untrimmedPhase = new double[freqsUntrimmed.length];
 
     // calculated response from deconvolving calibration from signal
     // (this will be in displacement and need to be integrated)
+    // the actual complex values, which we'll immediately convert to doubles for use in plots/fits
+    double[][] scaleFactors = getSignalScalingFactors(freqsUntrimmed);
+    double[][] ampValues = ComplexArrays.create(freqsUntrimmed.length);
+    ComplexArrays.divide(numeratorPSDVals, denominators, ampValues);
+    // convert from displacement to velocity
+    double[][] squaredScaleFactors = ComplexArrays.create(freqsUntrimmed.length);
+    ComplexArrays.pow(scaleFactors, 2, squaredScaleFactors);
+    ComplexArrays.multiply(ampValues, squaredScaleFactors, ampValues);
+    double[][] phaseValues = ComplexArrays.create(freqsUntrimmed.length);
+    ComplexArrays.divide(crossPSDVals, denominators, phaseValues);
+    ComplexArrays.multiply(phaseValues, scaleFactors, phaseValues);
     for (int i = 0; i < freqsUntrimmed.length; ++i) {
-      Complex ampNumer = numeratorPSDVals[i];
-      Complex phaseNumer = crossPSDVals[i];
-      double denom = denominatorPSDVals[i].abs(); // phase is 0
-      // the actual complex value which we'll immediately convert to doubles for use in plots/fits
-      Complex ampValue = ampNumer.divide(denom);
-      Complex scaleFactor = getSignalScalingFactor(freqsUntrimmed[i]);
-      // convert from displacement to velocity
-      ampValue = ampValue.multiply(scaleFactor.pow(2));
-      untrimmedAmplitude[i] = 10 * Math.log10(ampValue.abs());
-      Complex phaseValue = phaseNumer.divide(denom);
-      untrimmedPhase[i] = NumericUtils.atanc(phaseValue.multiply(scaleFactor));
+      untrimmedAmplitude[i] = 10 * Math.log10(ComplexArrays.abs(ampValues, i));
+      untrimmedPhase[i] = NumericUtils.atanc(phaseValues[0][i], phaseValues[1][i]);
     }
 
     int offset = 0;
@@ -690,16 +696,22 @@ public class RandomizedExperiment extends Experiment implements ParameterValidat
   }
 
   /**
-   * Calculates the scaling/rotation factor to be done on the calibration
+   * Calculates the scaling/rotation factors to be done on the calibration
    * signal. If the calibration is capacitive this value is always 1.
-   * @param freq Given frequency to apply the calculation to
-   * @return Either 1 or 2*pi*i*freq depending on calibration type
+   * @param freqs Given frequencies to apply the calculation to
+   * @return Either 1 or 2*pi*i*freq for each frequency depending on calibration type,
+   * as an array of complex values (see ComplexArrays)
    */
-  private Complex getSignalScalingFactor(double freq) {
-    if (isCapacitive) {
-      return new Complex(1.);
+  private double[][] getSignalScalingFactors(double[] freqs) {
+    double[][] scaleFactors = ComplexArrays.create(freqs.length);
+    for (int i = 0; i < freqs.length; ++i) {
+      if (isCapacitive) {
+        scaleFactors[0][i] = 1.;
+      } else {
+        scaleFactors[1][i] = NumericUtils.TAU * freqs[i];
+      }
     }
-    return new Complex(0., NumericUtils.TAU * freq);
+    return scaleFactors;
   }
 
   /**
@@ -4,7 +4,6 @@ import asl.sensor.input.DataBlock;
 import asl.sensor.input.DataStore;
 import asl.sensor.input.InstrumentResponse;
 import asl.sensor.utils.ReportingUtils;
-import asl.sensor.utils.TimeSeriesUtils;
 import edu.iris.dmc.seedcodec.CodecException;
 import edu.sc.seis.seisFile.mseed.SeedFormatException;
 import java.awt.BasicStroke;
@@ -509,6 +508,9 @@ public class InputPanel
    * Resets the data and blanks out all charts
    */
   private void clearAllData() {
+    for (int i = 0; i < FILE_COUNT; ++i) {
+      dataStore.removeData(i);
+    }
     dataStore = new DataStore();
 
     zoomIn.setEnabled(false);
@@ -1409,7 +1411,8 @@ public class InputPanel
     @Override
     public Set<String> getFilenameSet(DataStore dataStore, int index, String filePath)
         throws SeedFormatException, IOException {
-      return TimeSeriesUtils.getMplexNameSet(filePath);
+      // file contents are kept by the datastore, so loading the chosen channel won't reread it
+      return dataStore.getChannelNames(filePath);
     }
 
     @Override
@@ -1434,7 +1437,7 @@ public class InputPanel
     public Set<String> getFilenameSet(DataStore dataStore, int index, String filePath)
         throws SeedFormatException, IOException {
       String thisName = dataStore.getBlock(index).getName();
-      if (!TimeSeriesUtils.getMplexNameSet(filePath).contains(thisName)) {
+      if (!dataStore.getChannelNames(filePath).contains(thisName)) {
         return new HashSet<>();
       }
       Set<String> returnSet = new HashSet<>();
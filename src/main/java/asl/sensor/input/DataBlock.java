@@ -8,6 +8,7 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.math3.util.Pair;
 import org.jfree.data.xy.XYSeries;
 import asl.sensor.utils.TimeSeriesUtils;
@@ -19,8 +20,8 @@ import edu.sc.seis.seisFile.mseed.SeedFormatException;
  * Includes methods for resampling data (backed by the TimeSeriesUtils decimate
  * function) and for trimming to specific time regions.
  *
- * Data is stored as a series of contiguous data blocks, stored in a map
- * according to their start time (given in milliseconds from epoch). The data
+ * Data is stored as a series of contiguous data blocks, indexed in time order
+ * by their start time (given in milliseconds from epoch). The data
  * can be set to be windowed to a given region of the valid data, from which
  * the timeseries data can be extracted. The timeseries data is then returned
  * as a list of samples (as double values) over that time range.
@@ -42,20 +43,34 @@ import edu.sc.seis.seisFile.mseed.SeedFormatException;
  * best performed over time ranges that are fully inside a given contiguous
  * block.
  *
+ * The contiguous blocks can be kept in a more compact form than doubles if memory is a concern,
+ * such as for many long records of high-rate data (see SampleFormat), and long blocks can be kept
+ * outside of the Java heap entirely (see setOffHeapThreshold). Data is always returned as
+ * doubles, so this only affects the data held onto by the block. A block whose data may be off
+ * the heap should be released once it is no longer needed (see release).
+ *
  * @author akearns
  */
 public class DataBlock {
 
   private static final int MAX_POINTS = 100000;
 
+  private static final AtomicLong nextDataId = new AtomicLong();
+
+  private static SampleFormat defaultFormat = SampleFormat.DOUBLE;
+  private static int offHeapThreshold = Integer.MAX_VALUE;
+
   private final long interval;
   private final String name;
   private long targetInterval;
   private long startTime, endTime;
-  private Map<Long, double[]> dataMap;
+  private SegmentIndex segments;
+  private SampleFormat format;
   private long trimmedStart, trimmedEnd;
   private double[] cachedTimeSeries;
   private boolean rebuildList;
+  // identifies the data held in segments (see getDataId)
+  private long dataId;
 
   /**
    * Creates a copy of a given DataBlock, which has the same parameters
@@ -66,7 +81,13 @@ public class DataBlock {
 
     interval = in.getInitialInterval();
     targetInterval = in.getInterval();
-    dataMap = in.getDataMap();
+    // segments are never modified, so they can be shared with the original block
+    segments = new SegmentIndex(in.segments);
+    for (int i = 0; i < segments.size(); ++i) {
+      segments.get(i).retain();
+    }
+    dataId = in.dataId;
+    format = in.format;
     name = in.getName();
     startTime = in.getInitialStartTime();
     trimmedStart = in.getStartTime();
@@ -93,8 +114,10 @@ public class DataBlock {
     interval = intervalIn;
     targetInterval = intervalIn;
     startTime = start;
-    dataMap = new LinkedHashMap<>();
-    dataMap.put(startTime, dataIn);
+    format = getDefaultSampleFormat();
+    segments = new SegmentIndex(interval);
+    segments.add(startTime, createSegment(dataIn));
+    dataId = nextDataId.incrementAndGet();
 
     trimmedStart = startTime;
     endTime = startTime + (interval * dataIn.length);
@@ -102,7 +125,8 @@ public class DataBlock {
 
     name = nameIn;
     cachedTimeSeries = dataIn;
-    rebuildList = false;
+    // if stored in a lossy format, the data should be returned as it was stored
+    rebuildList = segments.get(0).getFormat() == SampleFormat.FLOAT;
   }
 
   /**
@@ -117,13 +141,45 @@ public class DataBlock {
     targetInterval = intervalIn;
 
     name = nameIn;
-    dataMap = dataIn;
+    format = getDefaultSampleFormat();
 
-    mergeContiguousTimes();
+    setSegments(mergeContiguousTimes(dataIn));
     recalculateTimes();
     rebuildList = true;
   }
 
+  /**
+   * Get the length (in samples) at or above which contiguous blocks of data are stored off the heap
+   *
+   * @return Minimum number of samples in a block for it to be stored off the heap
+   */
+  public static synchronized int getOffHeapThreshold() {
+    return offHeapThreshold;
+  }
+
+  /**
+   * Set the length (in samples) at or above which contiguous blocks of data in DataBlocks created
+   * after this is called are stored outside of the Java heap, in memory-mapped temporary files.
+   * This allows records of weeks or months of data to be held without a correspondingly large
+   * heap. By default this is Integer.MAX_VALUE, which keeps all data on the heap.
+   *
+   * @param samples Minimum number of samples in a block for it to be stored off the heap
+   */
+  public static synchronized void setOffHeapThreshold(int samples) {
+    offHeapThreshold = samples;
+  }
+
+  /**
+   * Store a contiguous block of data in this block's format, either on or off the heap according
+   * to its length
+   */
+  private SampleSegment createSegment(double[] data) {
+    if (data.length >= getOffHeapThreshold()) {
+      return SampleSegment.offHeap(data, format);
+    }
+    return SampleSegment.of(data, format);
+  }
+
   /**
    * If necessary, construct an array representing the data in the given window
    * from specified start and end times and return it. The given array is
@@ -142,29 +198,74 @@ public class DataBlock {
       return cachedTimeSeries;
     }
 
-    List<Long> times = new ArrayList<>(dataMap.keySet());
-    Collections.sort(times);
+    cachedTimeSeries = getData(trimmedStart, trimmedEnd);
+    rebuildList = false;
+    return cachedTimeSeries;
+  }
+
+  /**
+   * Construct an array representing the data in the given window, filling any gaps with zeros and
+   * decimating the data to the target interval if necessary. Unlike getData, this does not use or
+   * change the cached data.
+   *
+   * @param windowStart Start of the window in ms from epoch, within the range of the data
+   * @param windowEnd End of the window in ms from epoch, within the range of the data
+   * @return Array representing the data found within the given time range
+   */
+  private double[] getData(long windowStart, long windowEnd) {
 
-    long timeCursor = trimmedStart;
+    SegmentedView layout = layOutWindow(windowStart, windowEnd);
+    if (interval == targetInterval) {
+      return layout.toArray();
+    }
+
+    // data is read into the decimation a piece at a time, so it isn't copied at its full rate
+    double[] series = TimeSeriesUtils.decimate(layout, targetInterval);
+    // prevent issues cause by rounding of time series length after downsampling
+    int finalNumPoints =
+        (int) Math.ceil((windowEnd - windowStart) / ((double) targetInterval));
+    if (finalNumPoints < series.length) {
+      series = Arrays.copyOfRange(series, 0, finalNumPoints);
+    }
+
+    return series;
+  }
+
+  /**
+   * Work out where the data in a window (at the data's own sample rate) comes from: which part of
+   * which contiguous block goes where in the window, and which parts of the window are gaps to be
+   * filled with zeros. Small differences between the end of one block and the start of the next
+   * (up to two intervals) are not treated as gaps; the next block's data just follows on.
+   *
+   * @param windowStart Start of the window in ms from epoch, within the range of the data
+   * @param windowEnd End of the window in ms from epoch, within the range of the data
+   * @return View of the window's data and gaps
+   */
+  private SegmentedView layOutWindow(long windowStart, long windowEnd) {
+
+    long timeCursor = windowStart;
 
     int numPoints =
-        (int) Math.ceil((trimmedEnd - trimmedStart) / ((double) interval));
+        (int) Math.ceil((windowEnd - windowStart) / ((double) interval));
 
-    cachedTimeSeries = new double[numPoints];
+    List<DataView> pieces = new ArrayList<>();
+    List<Integer> offsets = new ArrayList<>();
+    List<int[]> gaps = new ArrayList<>();
     int lastFilledIndex = 0;
 
-    for (int i = 0; i < times.size(); ++i) {
+    // blocks before the one holding the start of the window have no data to copy
+    for (int i = Math.max(0, segments.floorIndex(windowStart)); i < segments.size(); ++i) {
 
       if (lastFilledIndex == numPoints) {
         break;
       }
 
       int startIndex;
-      long now = times.get(i);
-      double[] data = dataMap.get(now);
+      long now = segments.getStart(i);
+      SampleSegment data = segments.get(i);
       long next = -1;
-      if (i + 1 < times.size()) {
-        next = times.get(i + 1);
+      if (i + 1 < segments.size()) {
+        next = segments.getStart(i + 1);
       }
 
       // either we are in the last entry in the map or we need to find the
@@ -173,79 +274,96 @@ public class DataBlock {
         startIndex = 0;
       } else if (now < timeCursor && (next > timeCursor || next < 0)) {
         // get value of time closest to start
-        // this is done to deal with the case of differing quantizations
-        // between data sets, where all data in a file may be off by less
-        // than the interval length, i.e., a millisecond or two
-        int closeIdx = (int) ((timeCursor - now) / interval);
-        // this is the index rounded down
-        long candidateTime = now + (closeIdx * interval);
-        long nextSample = candidateTime + interval;
-        if (Math.abs(timeCursor - candidateTime)
-            <= Math.abs(timeCursor - nextSample)) {
-          startIndex = closeIdx;
-        } else {
-          startIndex = closeIdx + 1;
-        }
+        startIndex = getNearestIndex(now, timeCursor);
       } else {
         continue;
       }
 
-      if (startIndex < data.length) {
+      if (startIndex < data.length()) {
         // make sure we are not in a gap to start with
         int end = startIndex + (numPoints - lastFilledIndex);
-        // copy either up to our current end point, or the limit of the block
-        end = Math.min(data.length, end);
-        double[] sublist = Arrays.copyOfRange(data, startIndex, end);
-        for (int j = 0; j < sublist.length; ++j, ++lastFilledIndex) {
-          cachedTimeSeries[lastFilledIndex] = sublist[j];
-        }
-
+        // take either up to our current end point, or the limit of the block
+        end = Math.min(data.length(), end);
+        pieces.add(new DataView(data, startIndex, end - startIndex,
+            windowStart + (interval * lastFilledIndex), interval));
+        offsets.add(lastFilledIndex);
+        lastFilledIndex += end - startIndex;
       }
 
-      timeCursor = trimmedStart + (interval * lastFilledIndex);
+      timeCursor = windowStart + (interval * lastFilledIndex);
       if (next - timeCursor > (interval * 2)) {
         // deal with any gaps between two parts of the list
+        int gapStart = lastFilledIndex;
         while (timeCursor < next && lastFilledIndex < numPoints) {
-          cachedTimeSeries[lastFilledIndex] = 0.;
           ++lastFilledIndex;
           timeCursor += interval;
         }
+        if (lastFilledIndex > gapStart) {
+          gaps.add(new int[]{gapStart, lastFilledIndex});
+        }
       }
     }
 
-    while (lastFilledIndex < numPoints) {
-      cachedTimeSeries[lastFilledIndex] = 0.;
-      ++lastFilledIndex;
-    }
+    // anything left over at the end is down to rounding and is zero-filled, but isn't a gap
+    return new SegmentedView(windowStart, interval, numPoints, pieces, offsets, gaps);
+  }
 
-    if (interval != targetInterval) {
-      cachedTimeSeries =
-          TimeSeriesUtils.decimate(cachedTimeSeries, interval, targetInterval);
-      // prevent issues cause by rounding of time series length after downsampling
-      int finalNumPoints =
-          (int) Math.ceil((trimmedEnd - trimmedStart) / ((double) targetInterval));
-      if (finalNumPoints < cachedTimeSeries.length) {
-        cachedTimeSeries = Arrays.copyOfRange(cachedTimeSeries, 0, finalNumPoints);
-      }
+  /**
+   * Get the index of the sample in a contiguous block closest to the given time.
+   * This is done to deal with the case of differing quantizations
+   * between data sets, where all data in a file may be off by less
+   * than the interval length, i.e., a millisecond or two
+   *
+   * @param blockStart Start time of the block in ms from epoch
+   * @param time Time to find the nearest sample to, not before the start of the block
+   * @return Index of the nearest sample (which may be past the end of the block)
+   */
+  private int getNearestIndex(long blockStart, long time) {
+    int closeIdx = (int) ((time - blockStart) / interval);
+    // this is the index rounded down
+    long candidateTime = blockStart + (closeIdx * interval);
+    long nextSample = candidateTime + interval;
+    if (Math.abs(time - candidateTime) <= Math.abs(time - nextSample)) {
+      return closeIdx;
     }
-
-    rebuildList = false;
-    return cachedTimeSeries;
+    return closeIdx + 1;
   }
 
   /**
    * Return a copy of the underlying data structure of this object. It is not
    * returned directly because modification of the underlying object would
    * invalidate any cached timeseries array.
-   * To modify the datamap inside this object, call this function and then
-   * make a call to the corresponding setter to replace it. @see #setDataMap
    * The data structure is a map of contiguous block start times to the
-   * timeseries data of that block (as an array)
+   * timeseries data of that block (as an array). If the data is stored in a
+   * format other than doubles, each block is converted into a new array.
    *
    * @return copy of this datablock's underlying contiguous block map
    */
   public Map<Long, double[]> getDataMap() {
-    return new LinkedHashMap<>(dataMap);
+    Map<Long, double[]> map = new LinkedHashMap<>();
+    for (int i = 0; i < segments.size(); ++i) {
+      map.put(segments.getStart(i), segments.get(i).toArray());
+    }
+    return map;
+  }
+
+  /**
+   * Get the format used to store new data in DataBlocks when they are created
+   *
+   * @return Default storage format of the samples in a DataBlock
+   */
+  public static synchronized SampleFormat getDefaultSampleFormat() {
+    return defaultFormat;
+  }
+
+  /**
+   * Set the format used to store the data of DataBlocks created after this is called. Blocks that
+   * already exist keep their current format (see setSampleFormat). This is DOUBLE unless changed.
+   *
+   * @param format Format to store the samples of new DataBlocks in
+   */
+  public static synchronized void setDefaultSampleFormat(SampleFormat format) {
+    defaultFormat = format;
   }
 
   /**
@@ -270,20 +388,19 @@ public class DataBlock {
 
     List<Pair<Long, Long>> gapList = new ArrayList<>();
 
-    List<Long> times = new ArrayList<>(dataMap.keySet());
-    Collections.sort(times);
     // contiguous blocks must have been merged for this to work correctly!
-    for (int i = 0; i < times.size(); ++i) {
-      long timeNow = times.get(i);
-      long blockEnd = dataMap.get(timeNow).length * interval + timeNow;
-      boolean hasNext = (i + 1) < times.size();
+    // blocks before the one holding the start of the window can't border a gap inside it
+    for (int i = Math.max(0, segments.floorIndex(trimmedStart)); i < segments.size(); ++i) {
+      long timeNow = segments.getStart(i);
+      long blockEnd = segments.getEnd(i);
+      boolean hasNext = (i + 1) < segments.size();
 
       if (blockEnd < trimmedStart) {
         // does data (re-)start before our trimmed region does?
         // if not, data begins with a gap
-        if (hasNext && times.get(i + 1) > trimmedStart) {
+        if (hasNext && segments.getStart(i + 1) > trimmedStart) {
           // does the next data point start before our region of interest ends?
-          long gapEnd = Math.min(times.get(i + 1), trimmedEnd);
+          long gapEnd = Math.min(segments.getStart(i + 1), trimmedEnd);
           gapList.add(new Pair<>(trimmedStart, gapEnd));
         } else if (!hasNext) {
           gapList.add(new Pair<>(trimmedStart, trimmedEnd));
@@ -294,8 +411,8 @@ public class DataBlock {
         break;
       }
       // check if a gap exists completely inside our selection window
-      if ((i + 1) < times.size()) {
-        long timeNext = times.get(i + 1);
+      if (hasNext) {
+        long timeNext = segments.getStart(i + 1);
         // is there a discrepancy, and is it big enough to be a gap?
         if (timeNext - blockEnd > (3 * interval) / 2) {
           long gapEnd = Math.min(timeNext, trimmedEnd);
@@ -314,10 +431,22 @@ public class DataBlock {
    *
    * @return Time after the last sample of the latest contiguous block in ms
    */
-  private long getInitialEndTime() {
+  public long getInitialEndTime() {
     return endTime;
   }
 
+  /**
+   * Get a number identifying the data held by this block. It changes whenever the block's data is
+   * changed (e.g., data is appended) and is shared by copies of the block, which share its data.
+   * Along with the trim window and interval, it identifies the samples the block gives out, so it
+   * can be used to key results calculated from them (see DataStore's PSD cache).
+   *
+   * @return Identifier of the block's data
+   */
+  long getDataId() {
+    return dataId;
+  }
+
   /**
    * Get the sampling interval of the internal representation of the data.
    * Mainly useful in terms of determining when data needs to be downsampled.
@@ -339,6 +468,16 @@ public class DataBlock {
     return startTime;
   }
 
+  /**
+   * Get the format the samples of this block are stored in. Any contiguous blocks of data that
+   * cannot be stored exactly as integers are stored as doubles even if this is INTEGER.
+   *
+   * @return Storage format of the samples
+   */
+  public SampleFormat getSampleFormat() {
+    return format;
+  }
+
   /**
    * Get the interval of the output data. The timestamp for a given data point
    * in the block can be calculated by startTime + (index * interval).
@@ -392,8 +531,11 @@ public class DataBlock {
   /**
    * Find contiguous blocks of data and merge into a single series. If there are
    * duplicated data points, ignore them.
+   *
+   * @param dataMap Map of block start times to data, which may require merging
+   * @return Map of the start times of contiguous blocks to their data
    */
-  private void mergeContiguousTimes() {
+  private Map<Long, double[]> mergeContiguousTimes(Map<Long, double[]> dataMap) {
 
     // for blocks that start and end at the same point
     List<Long> startTimes = new ArrayList<>(dataMap.keySet());
@@ -416,8 +558,7 @@ public class DataBlock {
 
       if (cursor >= startTimes.size()) {
         mergedMap.put(currentTime, currentSeries);
-        dataMap = mergedMap;
-        return;
+        return mergedMap;
       }
 
       long nextTime = startTimes.get(cursor);
@@ -427,19 +568,7 @@ public class DataBlock {
 
         if (difference < 0) {
           // duplicated data check
-          long diff = timeAtSublistEnd - nextTime; // take the difference
-          long mod = diff % interval; // round up if greater than 75% interval
-
-          // division truncates; if the result would be, say, 1.9 as a decimal,
-          // then we should round up to 2 instead of start at 1 since this is
-          // common enough with timing differences between gaps
-          // whereas if this conditional was triggered beacuse the next block
-          // occurs at, say, 90% of the interval, then the difference is only
-          // 0.1 from the expected start and we copy everything anyway
-          int fstUndupIdx = (int) (diff / interval);
-          if (mod > 3 * interval / 4) {
-            ++fstUndupIdx;
-          }
+          int fstUndupIdx = getFirstUnduplicatedIndex(timeAtSublistEnd, nextTime);
 
           double[] next = dataMap.get(nextTime);
           if (fstUndupIdx < next.length) {
@@ -467,8 +596,7 @@ public class DataBlock {
         if (cursor >= startTimes.size()) {
           double[] contiguousSeries = TimeSeriesUtils.concatAll(toMerge);
           mergedMap.put(currentTime, contiguousSeries);
-          dataMap = mergedMap;
-          return;
+          return mergedMap;
         }
 
         nextTime = startTimes.get(cursor);
@@ -482,7 +610,32 @@ public class DataBlock {
       startingPoint = cursor;
 
     }
-    dataMap = mergedMap;
+    return mergedMap;
+  }
+
+  /**
+   * Get the index of the first sample in a block of data that is not already covered by the data
+   * before it, where the block starts before the end of the previous data
+   *
+   * @param previousEnd End time of the previous data in ms from epoch
+   * @param nextTime Start time of the block in ms from epoch
+   * @return Index of the first sample of the block to keep
+   */
+  private int getFirstUnduplicatedIndex(long previousEnd, long nextTime) {
+    long diff = previousEnd - nextTime; // take the difference
+    long mod = diff % interval; // round up if greater than 75% interval
+
+    // division truncates; if the result would be, say, 1.9 as a decimal,
+    // then we should round up to 2 instead of start at 1 since this is
+    // common enough with timing differences between gaps
+    // whereas if this conditional was triggered beacuse the next block
+    // occurs at, say, 90% of the interval, then the difference is only
+    // 0.1 from the expected start and we copy everything anyway
+    int fstUndupIdx = (int) (diff / interval);
+    if (mod > 3 * interval / 4) {
+      ++fstUndupIdx;
+    }
+    return fstUndupIdx;
   }
 
   /**
@@ -495,6 +648,66 @@ public class DataBlock {
     return TimeSeriesUtils.needsSignFlip(getData());
   }
 
+  /**
+   * Replace the contiguous blocks of data held by this object, storing them in its sample format
+   *
+   * @param merged Map of the start times of contiguous blocks to their data
+   */
+  private void setSegments(Map<Long, double[]> merged) {
+    SegmentIndex previous = segments;
+    segments = new SegmentIndex(interval);
+    for (Long time : merged.keySet()) {
+      segments.add(time, createSegment(merged.get(time)));
+    }
+    dataId = nextDataId.incrementAndGet();
+    if (previous != null) {
+      for (int i = 0; i < previous.size(); ++i) {
+        previous.get(i).release();
+      }
+    }
+  }
+
+  /**
+   * Change the format the samples of this block are stored in, converting any data already held.
+   * This does not affect the data returned by getData, except that storing data in FLOAT format
+   * may round values which can't be represented exactly (see SampleFormat).
+   *
+   * @param newFormat Format to store the samples in
+   */
+  public void setSampleFormat(SampleFormat newFormat) {
+    if (newFormat == format) {
+      return;
+    }
+    format = newFormat;
+    for (int i = 0; i < segments.size(); ++i) {
+      SampleSegment segment = segments.get(i);
+      SampleSegment converted = segment.convert(format);
+      if (converted != segment) {
+        segments.set(i, converted);
+        segment.release();
+        dataId = nextDataId.incrementAndGet();
+      }
+    }
+    // the cached data may hold values that the new format can't represent
+    rebuildList = rebuildList || (format == SampleFormat.FLOAT);
+  }
+
+  /**
+   * Free any storage held by this block's data outside of the heap. Data shared with copies of
+   * this block (see the copy constructor) stays available to those copies until they are released
+   * as well. The block's data can't be used once it has been released, though any array already
+   * returned by getData remains valid.
+   */
+  public void release() {
+    for (int i = 0; i < segments.size(); ++i) {
+      segments.get(i).release();
+    }
+    segments = new SegmentIndex(interval);
+    cachedTimeSeries = new double[]{};
+    rebuildList = false;
+    dataId = nextDataId.incrementAndGet();
+  }
+
   /**
    * Adjust the target interval of the produced data. This will be used when
    * generating a new series of data from the time series map this object holds.
@@ -577,14 +790,115 @@ public class DataBlock {
 
   }
 
+  /**
+   * Get a read-only view of the data in the current trim window, which has the same samples as
+   * getData. If the window lies inside a single contiguous block and the data is not being
+   * decimated, the view reads directly from that block rather than copying it.
+   *
+   * @return View over the data in the current window
+   */
+  public DataView view() {
+    return view(trimmedStart, trimmedEnd);
+  }
+
+  /**
+   * Get a read-only view of the data in a given window, which has the same samples that getData
+   * would return after trimming to that window. This does not change the block's trim window.
+   * If the window lies inside a single contiguous block and the data is not being decimated,
+   * the view reads directly from that block; otherwise (where gaps need to be filled in with
+   * zeros, or the data decimated) the samples are copied into a new array.
+   *
+   * @param start Start time of the window in milliseconds from epoch
+   * @param end End time of the window in milliseconds from epoch
+   * @return View over the data in the window
+   */
+  public DataView view(long start, long end) {
+
+    long temp = Math.min(start, end);
+    end = Math.max(start, end);
+    start = temp;
+
+    start = Math.max(startTime, start);
+    end = Math.max(start, Math.min(endTime, end));
+
+    if (interval == targetInterval) {
+      int i = segments.floorIndex(start);
+      if (i >= 0) {
+        SampleSegment data = segments.get(i);
+        int startIndex = getNearestIndex(segments.getStart(i), start);
+        int numPoints = (int) Math.ceil((end - start) / ((double) interval));
+        if (startIndex + numPoints <= data.length()) {
+          return new DataView(data, startIndex, numPoints, start, interval);
+        }
+      }
+    }
+
+    if (start == trimmedStart && end == trimmedEnd) {
+      // can use (and keep) the cached copy of the data
+      return DataView.of(getData(), start, targetInterval);
+    }
+    return DataView.of(getData(start, end), start, targetInterval);
+  }
+
+  /**
+   * Get a read-only view of the data in the current trim window that keeps its gaps apart from its
+   * data (see SegmentedView). This has the same samples as getData, but does not allocate anything
+   * for the gaps in the window.
+   *
+   * @return Segmented view over the data in the current window
+   */
+  public SegmentedView segmentedView() {
+    return segmentedView(trimmedStart, trimmedEnd);
+  }
+
+  /**
+   * Get a read-only view of the data in a given window that keeps its gaps apart from its data
+   * (see SegmentedView), with the same samples that getData would return after trimming to that
+   * window. This does not change the block's trim window. The data is not copied unless it needs to
+   * be decimated, in which case (as decimation filters across the whole window) the view has the
+   * decimated data as a single segment, with the gaps marked over the decimated samples that come
+   * from them.
+   *
+   * @param start Start time of the window in milliseconds from epoch
+   * @param end End time of the window in milliseconds from epoch
+   * @return Segmented view over the data in the window
+   */
+  public SegmentedView segmentedView(long start, long end) {
+
+    long temp = Math.min(start, end);
+    end = Math.max(start, end);
+    start = temp;
+
+    start = Math.max(startTime, start);
+    end = Math.max(start, Math.min(endTime, end));
+
+    SegmentedView layout = layOutWindow(start, end);
+    if (interval == targetInterval) {
+      return layout;
+    }
+
+    double[] data;
+    if (start == trimmedStart && end == trimmedEnd) {
+      data = getData();
+    } else {
+      data = getData(start, end);
+    }
+    List<DataView> pieces = new ArrayList<>();
+    pieces.add(DataView.of(data, start, targetInterval));
+    List<int[]> gaps = new ArrayList<>();
+    for (Pair<Long, Long> gap : layout.getGaps()) {
+      // widened to take in every decimated sample that covers any part of the gap
+      int gapStart = (int) ((gap.getFirst() - start) / targetInterval);
+      long gapEnd = (gap.getSecond() - start + targetInterval - 1) / targetInterval;
+      gaps.add(new int[]{gapStart, (int) Math.min(data.length, gapEnd)});
+    }
+    return new SegmentedView(start, targetInterval, data.length, pieces, Arrays.asList(0), gaps);
+  }
+
   private void recalculateTimes() {
-    List<Long> times = new ArrayList<>(dataMap.keySet());
-    Collections.sort(times);
-    startTime = times.get(0);
+    startTime = segments.getStart(0);
     trimmedStart = startTime;
-    long lastListStart = times.get(times.size() - 1);
-    int pointsToEnd = dataMap.get(lastListStart).length;
-    endTime = lastListStart + (pointsToEnd * interval);
+    endTime = segments.getEnd(segments.size() - 1);
     trimmedEnd = endTime;
     rebuildList = true;
   }
@@ -593,8 +907,86 @@ public class DataBlock {
       throws IOException, SeedFormatException, CodecException {
     Map<Long, double[]> toAppend =
         TimeSeriesUtils.getTimeSeriesMap(filepath, name).getSecond();
-    dataMap.putAll(toAppend);
-    mergeContiguousTimes();
+    appendTimeSeries(toAppend);
+  }
+
+  /**
+   * Add already-read data for this block's SNCL into the block, merging it with any data that it is
+   * contiguous with.
+   *
+   * Data that starts after the start of the last contiguous block already held (as when adding
+   * the following day's file) is added without touching the rest of the block: data contiguous
+   * with the last block is added to the end of it, and the rest is merged on its own. Data that
+   * starts any earlier causes all of the block's data to be merged again.
+   *
+   * @param toAppend Map of record start times to record data, as from getTimeSeriesMap
+   */
+  public void appendTimeSeries(Map<Long, double[]> toAppend) {
+    if (toAppend.isEmpty()) {
+      return;
+    }
+
+    List<Long> times = new ArrayList<>(toAppend.keySet());
+    Collections.sort(times);
+    int last = segments.size() - 1;
+
+    if (last < 0 || times.get(0) <= segments.getStart(last)) {
+      Map<Long, double[]> combined = getDataMap();
+      combined.putAll(toAppend);
+      setSegments(mergeContiguousTimes(combined));
+      recalculateTimes();
+      return;
+    }
+
+    // collect the data that continues on from the last block, following mergeContiguousTimes
+    List<double[]> continued = new ArrayList<>();
+    long timeAtSublistEnd = segments.getEnd(last);
+    int cursor = 0;
+    while (cursor < times.size()) {
+      long nextTime = times.get(cursor);
+      long difference = nextTime - timeAtSublistEnd;
+      if (difference >= (interval / 4)) {
+        break;
+      }
+      double[] next = toAppend.get(nextTime);
+      if (difference < 0) {
+        int fstUndupIdx = getFirstUnduplicatedIndex(timeAtSublistEnd, nextTime);
+        if (fstUndupIdx < next.length) {
+          double[] truncated = Arrays.copyOfRange(next, fstUndupIdx, next.length);
+          continued.add(truncated);
+          timeAtSublistEnd = timeAtSublistEnd + (truncated.length * interval);
+        }
+      } else {
+        continued.add(next);
+        timeAtSublistEnd = nextTime + (next.length * interval);
+      }
+      ++cursor;
+    }
+
+    if (!continued.isEmpty()) {
+      SampleSegment tail = segments.get(last);
+      double[] added = TimeSeriesUtils.concatAll(continued);
+      SampleSegment extended;
+      if (!tail.isOffHeap() && tail.length() + added.length >= getOffHeapThreshold()) {
+        extended = createSegment(TimeSeriesUtils.concatAll(Arrays.asList(tail.toArray(), added)));
+      } else {
+        extended = tail.append(added);
+      }
+      segments.set(last, extended);
+      tail.release();
+    }
+
+    // anything after a gap only needs to be merged with the rest of the new data
+    Map<Long, double[]> remaining = new LinkedHashMap<>();
+    for (Long time : times.subList(cursor, times.size())) {
+      remaining.put(time, toAppend.get(time));
+    }
+    Map<Long, double[]> merged = mergeContiguousTimes(remaining);
+    for (Long time : merged.keySet()) {
+      segments.add(time, createSegment(merged.get(time)));
+    }
+    dataId = nextDataId.incrementAndGet();
+
     recalculateTimes();
   }
 
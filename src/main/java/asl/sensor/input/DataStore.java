@@ -1,11 +1,30 @@
 package asl.sensor.input;
 
+import asl.sensor.input.SpectralCache.BlockKey;
+import asl.sensor.utils.CrossSpectralMatrix;
 import asl.sensor.utils.FFTResult;
 import asl.sensor.utils.TimeSeriesUtils;
 import edu.iris.dmc.seedcodec.CodecException;
 import edu.sc.seis.seisFile.mseed.SeedFormatException;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.Pair;
 
 /**
@@ -42,6 +61,17 @@ public class DataStore {
    * Defines the maximum number of plots to be shown
    */
   public final static int FILE_COUNT = 9;
+
+  /**
+   * Number of recently-read miniSEED files whose record headers are kept in memory, so that
+   * loading multiple channels out of the same multiplexed file only scans it once (the data itself
+   * is read from the file again when a channel is loaded; see SeedFileContents)
+   */
+  private final static int MAX_CACHED_FILES = 3;
+
+  private static int loadParallelism = Runtime.getRuntime().availableProcessors();
+  private static long spectralCacheSize = 64L << 20;
+
   private final DataBlock[] dataBlockArray;
   private final InstrumentResponse[] responses;
 
@@ -49,11 +79,18 @@ public class DataStore {
   private final boolean[] thisBlockIsSet;
   private final boolean[] thisResponseIsSet;
 
+  // record headers of recently read files, in order of access
+  private final Map<String, SeedFileContents> fileCache;
+  // PSDs and crosspowers of the data, shared with copies of this object
+  private final SpectralCache spectralCache;
+
   /**
    * Instantiate the collections, including empty datasets to be sent to
    * charts for plotting (see DataPanel)
    */
   public DataStore() {
+    fileCache = createFileCache();
+    spectralCache = new SpectralCache();
     dataBlockArray = new DataBlock[FILE_COUNT];
     responses = new InstrumentResponse[FILE_COUNT];
     thisBlockIsSet = new boolean[FILE_COUNT];
@@ -66,11 +103,14 @@ public class DataStore {
 
 
   /**
-   * Create a copy of the current datastore
+   * Create a copy of the current datastore. The copy shares the original's cache of PSDs and
+   * crosspowers, so spectra calculated over the same data by either one are only calculated once.
    *
    * @param ds datastore to copy
    */
   public DataStore(DataStore ds) {
+    fileCache = createFileCache();
+    spectralCache = ds.spectralCache;
     dataBlockArray = new DataBlock[FILE_COUNT];
     responses = new InstrumentResponse[FILE_COUNT];
     thisBlockIsSet = new boolean[FILE_COUNT];
@@ -91,6 +131,62 @@ public class DataStore {
   }
 
 
+  /**
+   * Get the number of threads used to read in files when loading several plots at once
+   *
+   * @return Maximum number of files read at the same time by setBlocks
+   */
+  public static synchronized int getLoadParallelism() {
+    return loadParallelism;
+  }
+
+  /**
+   * Set the number of threads used to read in files when loading several plots at once
+   *
+   * @param parallelism Maximum number of files read at the same time by setBlocks (at least 1)
+   */
+  public static synchronized void setLoadParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+    }
+    loadParallelism = parallelism;
+  }
+
+  /**
+   * Get the maximum memory used by the cache of PSDs and crosspowers of each DataStore (along with
+   * its copies)
+   *
+   * @return Size limit in bytes
+   */
+  public static synchronized long getSpectralCacheSize() {
+    return spectralCacheSize;
+  }
+
+  /**
+   * Set the maximum memory used by the cache of PSDs and crosspowers of each DataStore (along with
+   * its copies). The least recently used results are removed when a new one would go over this
+   * limit; a limit of 0 means that nothing is cached.
+   *
+   * @param bytes Size limit in bytes
+   */
+  public static synchronized void setSpectralCacheSize(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Cache size must not be negative: " + bytes);
+    }
+    spectralCacheSize = bytes;
+  }
+
+  private static Map<String, SeedFileContents> createFileCache() {
+    return new LinkedHashMap<String, SeedFileContents>(MAX_CACHED_FILES + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SeedFileContents> eldest) {
+        return size() > MAX_CACHED_FILES;
+      }
+    };
+  }
+
   /**
    * Determine if any data blocks in the data store has been initialized
    *
@@ -139,6 +235,119 @@ public class DataStore {
     return thisBlockIsSet;
   }
 
+  /**
+   * Get the set of SNCL names of the data in a (possibly multiplexed) miniSEED file. The locations
+   * of the file's records are kept after this call, so that loading in any of its data afterwards
+   * with setBlock or appendBlock does not require the file to be scanned again.
+   *
+   * @param filepath Full address of file to be read in
+   * @return Set of all (unique) SNCL strings in the file
+   */
+  public Set<String> getChannelNames(String filepath) throws IOException {
+    return getFileContents(filepath).getNames();
+  }
+
+  /**
+   * Get the record headers of a miniSEED file as part of a bulk load (see setBlocks), so that if
+   * several requests are for the same file, only the first of them reads it in and the rest wait
+   * for it
+   *
+   * @param filepath Full address of file to be read in
+   * @param reads Reads of each file started so far during the load
+   * @return Contents of the file, split by SNCL
+   */
+  private SeedFileContents getFileContents(String filepath,
+      Map<String, FutureTask<SeedFileContents>> reads) throws IOException {
+    FutureTask<SeedFileContents> read;
+    boolean first;
+    synchronized (reads) {
+      read = reads.get(filepath);
+      first = (read == null);
+      if (first) {
+        final String path = filepath;
+        read = new FutureTask<>(new Callable<SeedFileContents>() {
+          @Override
+          public SeedFileContents call() throws IOException {
+            return getFileContents(path);
+          }
+        });
+        reads.put(filepath, read);
+      }
+    }
+    if (first) {
+      read.run();
+    }
+    try {
+      return read.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading " + filepath, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Get the record headers of a miniSEED file, reading them in only if they are not already cached
+   * (or the file has changed since they were cached)
+   *
+   * @param filepath Full address of file to be read in
+   * @return Contents of the file, split by SNCL
+   */
+  private SeedFileContents getFileContents(String filepath) throws IOException {
+    SeedFileContents contents;
+    synchronized (fileCache) {
+      contents = fileCache.get(filepath);
+    }
+    if (contents == null || !contents.isSameFile(filepath)) {
+      // read without holding the lock, so that other files can be read in at the same time
+      contents = SeedFileContents.read(filepath);
+      synchronized (fileCache) {
+        fileCache.put(filepath, contents);
+      }
+    }
+    return contents;
+  }
+
+  /**
+   * Make sure the data just placed at an index overlaps the other data in use. If it doesn't
+   * overlap data in one of the active plots, it is removed again; any other data it doesn't overlap
+   * is unloaded instead, as it isn't currently being used.
+   *
+   * @param idx Index of the data that was just set
+   * @param activePlots Max index of active panel to check as active
+   * @throws RuntimeException If the data does not intersect with that of an active plot
+   */
+  private void checkTimeRange(int idx, int activePlots) {
+    if (numberOfBlocksSet() > 1) {
+      // don't trim data here, that way we don't lose data
+      long start = dataBlockArray[idx].getStartTime();
+      long end = dataBlockArray[idx].getEndTime();
+
+      // there's clearly already another block loaded, let's make sure they
+      // actually have an intersecting time range
+      for (int i = 0; i < FILE_COUNT; ++i) {
+        if (i != idx && thisBlockIsSet[i]) {
+          // whole block either comes before or after the data set
+          if (end < dataBlockArray[i].getStartTime() ||
+              start > dataBlockArray[i].getEndTime()) {
+
+            if (i < activePlots) {
+              removeBlock(idx);
+              throw new RuntimeException("Time range does not intersect");
+            } else {
+              // unload data that we aren't currently using
+              thisBlockIsSet[i] = false;
+            }
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Return a single data block according to the passed index
    *
@@ -185,10 +394,138 @@ public class DataStore {
    * double array of the frequencies
    */
   public FFTResult getPSD(int idx) {
-    double[] data = dataBlockArray[idx].getData();
-    long interval = dataBlockArray[idx].getInterval();
-    InstrumentResponse ir = responses[idx];
-    return FFTResult.crossPower(data, data, ir, ir, interval);
+    return getCrossPowers(idx)[0][0];
+  }
+
+  /**
+   * Get the crosspower of the data at two indices in this object, with their responses applied
+   * (see FFTResult.crossPower). As with getPSD, a result already calculated is reused.
+   *
+   * @param idx1 Index of the first data
+   * @param idx2 Index of the second data
+   * @return Crosspower of the data
+   */
+  public FFTResult getCrossPower(int idx1, int idx2) {
+    return getCrossPowers(idx1, idx2)[0][1];
+  }
+
+  /**
+   * Get the PSDs and crosspowers of the data at a set of indices, with their responses applied.
+   * Entry [i][j] of the result is the crosspower of the data at indices[i] and indices[j] (see
+   * FFTResult.crossPower), and entry [i][i] is the PSD of the data at indices[i].
+   *
+   * Results already calculated for the same data, trim window, sample rate and responses (by this
+   * object or one it was copied from or to) are reused; any others are calculated together in a
+   * single pass over the data (see FFTResult.spectralMatrix) and then kept for later use. The
+   * results are shared and should not be modified.
+   *
+   * @param indices Indices of the data, which must have both data and responses loaded
+   * @return Matrix of crosspowers of the data
+   */
+  public FFTResult[][] getCrossPowers(int... indices) {
+    int count = indices.length;
+    DataBlock[] blocks = new DataBlock[count];
+    InstrumentResponse[] irs = new InstrumentResponse[count];
+    BlockKey[] keys = new BlockKey[count];
+    boolean windowsShared = false;
+    int length = -1;
+    for (int i = 0; i < count; ++i) {
+      blocks[i] = dataBlockArray[indices[i]];
+      irs[i] = responses[indices[i]];
+      keys[i] = SpectralCache.getBlockKey(blocks[i]);
+      // gaps, lengths and intervals of each block decide the windows used for all of them
+      SegmentedView view = blocks[i].segmentedView();
+      if (i == 0) {
+        length = view.length();
+      }
+      windowsShared = windowsShared || view.hasGaps() || view.length() != length ||
+          blocks[i].getInterval() != blocks[0].getInterval();
+    }
+    List<BlockKey> windowedWith =
+        windowsShared ? Arrays.asList(keys) : Collections.<BlockKey>emptyList();
+
+    FFTResult[][] results = new FFTResult[count][count];
+    SpectralCache.Key[][] resultKeys = new SpectralCache.Key[count][count];
+    boolean missing = false;
+    for (int i = 0; i < count; ++i) {
+      for (int j = 0; j < count; ++j) {
+        resultKeys[i][j] = new SpectralCache.Key(keys[i], keys[j], irs[i], irs[j], windowedWith);
+        results[i][j] = spectralCache.get(resultKeys[i][j]);
+        missing = missing || results[i][j] == null;
+      }
+    }
+    if (!missing) {
+      return results;
+    }
+
+    CrossSpectralMatrix matrix = FFTResult.spectralMatrix(blocks);
+    Complex[][] freqResps = new Complex[count][];
+    for (int i = 0; i < count; ++i) {
+      freqResps[i] = irs[i].applyResponseToInput(matrix.getFreqs());
+    }
+    long maxSize = getSpectralCacheSize();
+    for (int i = 0; i < count; ++i) {
+      for (int j = 0; j < count; ++j) {
+        if (results[i][j] == null) {
+          results[i][j] = matrix.crossPower(i, j, freqResps[i], freqResps[j]);
+          spectralCache.put(resultKeys[i][j], results[i][j], maxSize);
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Get the number of PSDs and crosspowers currently cached for this object and its copies
+   *
+   * @return Number of cached results
+   */
+  int getCachedSpectraCount() {
+    return spectralCache.entryCount();
+  }
+
+  /**
+   * Get the keys of the data currently at each index (null where no data is set), so that the
+   * data changed by an operation on the blocks can be found afterwards
+   */
+  private BlockKey[] getBlockKeys() {
+    BlockKey[] keys = new BlockKey[FILE_COUNT];
+    for (int i = 0; i < FILE_COUNT; ++i) {
+      if (thisBlockIsSet[i]) {
+        keys[i] = SpectralCache.getBlockKey(dataBlockArray[i]);
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Remove the cached spectra of any data that has changed since the given keys were taken
+   */
+  private void invalidateChangedSpectra(BlockKey[] before) {
+    for (int i = 0; i < FILE_COUNT; ++i) {
+      if (before[i] != null &&
+          !(thisBlockIsSet[i] && before[i].equals(SpectralCache.getBlockKey(dataBlockArray[i])))) {
+        spectralCache.invalidate(before[i]);
+      }
+    }
+  }
+
+  /**
+   * Remove the cached spectra of the data at an index, before it is replaced or changed
+   */
+  private void invalidateSpectra(int idx) {
+    if (thisBlockIsSet[idx] && dataBlockArray[idx] != null) {
+      spectralCache.invalidate(SpectralCache.getBlockKey(dataBlockArray[idx]));
+    }
+  }
+
+  /**
+   * Remove the cached spectra that the response at an index was applied to, before it is replaced
+   */
+  private void invalidateResponseSpectra(int idx) {
+    if (thisResponseIsSet[idx] && responses[idx] != null) {
+      spectralCache.invalidate(responses[idx]);
+    }
   }
 
   /**
@@ -284,6 +621,7 @@ public class DataStore {
    * @param limit Index of last block to match intervals to
    */
   public void matchIntervals(int limit) {
+    BlockKey[] before = getBlockKeys();
     long interval = 0;
     // first loop to get lowest-frequency data
     for (int i = 0; i < limit; ++i) {
@@ -299,6 +637,7 @@ public class DataStore {
     }
 
     trimToCommonTime();
+    invalidateChangedSpectra(before);
   }
 
   /**
@@ -323,6 +662,7 @@ public class DataStore {
    */
   public void removeData(int idx) {
     removeBlock(idx);
+    invalidateResponseSpectra(idx);
     responses[idx] = null;
     thisResponseIsSet[idx] = false;
   }
@@ -334,6 +674,11 @@ public class DataStore {
    * @param idx Index of data to be removed
    */
   public void removeBlock(int idx) {
+    invalidateSpectra(idx);
+    if (dataBlockArray[idx] != null) {
+      // frees any of the block's data held off the heap
+      dataBlockArray[idx].release();
+    }
     dataBlockArray[idx] = null;
     thisBlockIsSet[idx] = false;
   }
@@ -344,6 +689,7 @@ public class DataStore {
    * @param newSampleRate new sample rate (Hz)
    */
   public void resample(double newSampleRate) {
+    BlockKey[] before = getBlockKeys();
     long newInterval = (long) (TimeSeriesUtils.ONE_HZ_INTERVAL / newSampleRate);
     // make sure all data over range gets set to the same interval (and don't upsample)
     for (int i = 0; i < FILE_COUNT; ++i) {
@@ -356,6 +702,7 @@ public class DataStore {
         getBlock(i).resample(newInterval);
       }
     }
+    invalidateChangedSpectra(before);
   }
 
   /**
@@ -382,12 +729,25 @@ public class DataStore {
 
   /**
    * Adds a pre-constructed datablock to this data store object at the
-   * specified index
+   * specified index. Any other block already at the index is released (see DataBlock.release), so
+   * a block that is still in use elsewhere should be copied before being replaced in a store.
    *
    * @param idx Index to place the data into
    * @param db Datablock to place into idx
    */
   public void setBlock(int idx, DataBlock db) {
+    invalidateSpectra(idx);
+    placeBlock(idx, db);
+  }
+
+  /**
+   * Put a block at an index, releasing the block it replaces (unless that is the same block)
+   */
+  private void placeBlock(int idx, DataBlock db) {
+    if (dataBlockArray[idx] != null && dataBlockArray[idx] != db) {
+      // frees any of the old block's data held off the heap
+      dataBlockArray[idx].release();
+    }
     thisBlockIsSet[idx] = true;
     dataBlockArray[idx] = db;
   }
@@ -402,7 +762,7 @@ public class DataStore {
   public void setBlock(int idx, String filepath)
       throws SeedFormatException, CodecException,
       IOException {
-    String nameFilter = TimeSeriesUtils.getMplexNameList(filepath).get(0);
+    String nameFilter = getChannelNames(filepath).iterator().next();
     setBlock(idx, filepath, nameFilter, FILE_COUNT);
   }
 
@@ -422,7 +782,8 @@ public class DataStore {
 
   /**
    * Takes a loaded miniSEED data series and loads it in as a datablock into
-   * this datastore object. Attempts to fit data in if it overlaps data that is currently unused
+   * this datastore object. Attempts to fit data in if it overlaps data that is currently unused.
+   * If the file was recently read in (i.e., to get its channel names) it is not read again.
    *
    * @param idx The plot (range 0 to FILE_COUNT) to be given new data
    * @param filepath Full address of file to be loaded in
@@ -433,36 +794,12 @@ public class DataStore {
       throws SeedFormatException, CodecException,
       IOException {
 
-    DataBlock xy = TimeSeriesUtils.getTimeSeries(filepath, nameFilter);
-    thisBlockIsSet[idx] = true;
-    dataBlockArray[idx] = xy;
+    DataBlock xy = getFileContents(filepath).getBlock(nameFilter);
+    invalidateSpectra(idx);
+    placeBlock(idx, xy);
 
     synchronized (this) {
-      if (numberOfBlocksSet() > 1) {
-        // don't trim data here, that way we don't lose data
-        long start = dataBlockArray[idx].getStartTime();
-        long end = dataBlockArray[idx].getEndTime();
-
-        // there's clearly already another block loaded, let's make sure they
-        // actually have an intersecting time range
-        for (int i = 0; i < FILE_COUNT; ++i) {
-          if (i != idx && thisBlockIsSet[i]) {
-            // whole block either comes before or after the data set
-            if (end < dataBlockArray[i].getStartTime() ||
-                start > dataBlockArray[i].getEndTime()) {
-
-              if (i < activePlots) {
-                thisBlockIsSet[idx] = false;
-                dataBlockArray[idx] = null;
-                throw new RuntimeException("Time range does not intersect");
-              } else {
-                // unload data that we aren't currently using
-                thisBlockIsSet[i] = false;
-              }
-            }
-          }
-        }
-      }
+      checkTimeRange(idx, activePlots);
     }
 
   }
@@ -474,6 +811,7 @@ public class DataStore {
    * @param ir InstrumentResponse to have placed into this object
    */
   public void setResponse(int idx, InstrumentResponse ir) {
+    invalidateResponseSpectra(idx);
     responses[idx] = ir;
     thisResponseIsSet[idx] = true;
   }
@@ -485,10 +823,117 @@ public class DataStore {
    * @param filepath Full address of file to be loaded in
    */
   public void setResponse(int idx, String filepath) throws IOException {
-    responses[idx] = new InstrumentResponse(filepath);
+    InstrumentResponse ir = new InstrumentResponse(filepath);
+    invalidateResponseSpectra(idx);
+    responses[idx] = ir;
     thisResponseIsSet[idx] = true;
   }
 
+  /**
+   * Load in the data and responses for a number of plots at once. Each request's files are read in
+   * concurrently with the others (see setLoadParallelism), and a file that several requests take
+   * data from is only read once. Nothing in this object is changed until every file has been read:
+   * the loaded data and responses are then placed in request order, with the same time range checks
+   * as setBlock(int, String, String, int), all while holding this object's lock, so that other
+   * threads never see only some of the requests applied.
+   *
+   * The listener (if not null) is told as each request's files finish loading, or fail to; this is
+   * done from the loading threads, so GUI code should hand the notification off to the event
+   * dispatch thread. A request whose data does not overlap the data of an active plot is reported
+   * as failed once the data is placed, and its data is not kept (its response still is).
+   *
+   * @param requests Data and response files to load in, one request per plot index
+   * @param activePlots Max index of active panel to check as active
+   * @param listener Listener to tell of the progress of each request
+   * @return Map from the index of each request that failed to the exception that caused it, which
+   * is empty if every request was loaded
+   * @throws InterruptedException If interrupted while waiting for the files to be read
+   */
+  public Map<Integer, Exception> setBlocks(List<LoadRequest> requests, int activePlots,
+      final LoadListener listener) throws InterruptedException {
+    final Map<String, FutureTask<SeedFileContents>> reads = new HashMap<>();
+    final Map<Integer, Exception> failures = new ConcurrentHashMap<>();
+    final DataBlock[] loadedBlocks = new DataBlock[FILE_COUNT];
+    final InstrumentResponse[] loadedResponses = new InstrumentResponse[FILE_COUNT];
+
+    int threads = Math.max(1, Math.min(getLoadParallelism(), requests.size()));
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> loads = new ArrayList<>();
+      for (final LoadRequest request : requests) {
+        loads.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            int idx = request.getIndex();
+            try {
+              if (request.getFilepath() != null) {
+                SeedFileContents contents = getFileContents(request.getFilepath(), reads);
+                String filter = request.getNameFilter();
+                if (filter == null) {
+                  filter = contents.getNames().iterator().next();
+                }
+                loadedBlocks[idx] = contents.getBlock(filter);
+              }
+              if (request.getResponsePath() != null) {
+                loadedResponses[idx] = new InstrumentResponse(request.getResponsePath());
+              }
+            } catch (IOException | SeedFormatException | CodecException | RuntimeException e) {
+              failures.put(idx, e);
+              if (listener != null) {
+                listener.slotFailed(idx, e);
+              }
+              return;
+            }
+            if (listener != null) {
+              listener.slotLoaded(idx);
+            }
+          }
+        }));
+      }
+      for (Future<?> load : loads) {
+        try {
+          load.get();
+        } catch (ExecutionException e) {
+          // failures are caught within each load, so this won't happen
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // the array writes above happen before each load's get() returns, so they are visible here
+    Map<Integer, Exception> rangeFailures = new LinkedHashMap<>();
+    synchronized (this) {
+      for (LoadRequest request : requests) {
+        int idx = request.getIndex();
+        if (failures.containsKey(idx)) {
+          continue;
+        }
+        if (loadedBlocks[idx] != null) {
+          invalidateSpectra(idx);
+          placeBlock(idx, loadedBlocks[idx]);
+          try {
+            checkTimeRange(idx, activePlots);
+          } catch (RuntimeException e) {
+            rangeFailures.put(idx, e);
+          }
+        }
+        if (loadedResponses[idx] != null) {
+          setResponse(idx, loadedResponses[idx]);
+        }
+      }
+    }
+
+    for (Map.Entry<Integer, Exception> failure : rangeFailures.entrySet()) {
+      failures.put(failure.getKey(), failure.getValue());
+      if (listener != null) {
+        listener.slotFailed(failure.getKey(), failure.getValue());
+      }
+    }
+    return new TreeMap<>(failures);
+  }
+
   /**
    * Trim all data according to DateTime objects. Converts into epoch milliseconds, which are then
    * used to get the trim range for the underlying datablocks. This trims all data.
@@ -541,11 +986,13 @@ public class DataStore {
       }
     }
 
+    BlockKey[] before = getBlockKeys();
     for (int i = 0; i < FILE_COUNT; ++i) {
       if (thisBlockIsSet[i]) {
         getBlock(i).trim(start, end);
       }
     }
+    invalidateChangedSpectra(before);
   }
 
   /**
@@ -589,6 +1036,7 @@ public class DataStore {
     }
 
     // second pass to trim the data to the limits given
+    BlockKey[] before = getBlockKeys();
     for (int i = 0; i < limit; ++i) {
       if (!thisBlockIsSet[i]) {
         continue;
@@ -596,6 +1044,7 @@ public class DataStore {
       DataBlock data = dataBlockArray[i];
       data.trim(lastStartTime, firstEndTime);
     }
+    invalidateChangedSpectra(before);
 
   }
 
@@ -605,6 +1054,7 @@ public class DataStore {
    * @param limit Number of blocks to return to original time bounds
    */
   public void untrim(int limit) {
+    BlockKey[] before = getBlockKeys();
     for (int i = 0; i < limit; ++i) {
       if (!thisBlockIsSet[i]) {
         continue;
@@ -613,6 +1063,7 @@ public class DataStore {
       data.untrim();
     }
     trimToCommonTime(limit);
+    invalidateChangedSpectra(before);
   }
 
 
@@ -625,35 +1076,78 @@ public class DataStore {
       return;
     }
 
-    dataBlockArray[idx].appendTimeSeries(filepath);
+    Map<Long, double[]> toAppend =
+        getFileContents(filepath).getTimeSeriesMap(dataBlockArray[idx].getName()).getSecond();
+    invalidateSpectra(idx);
+    dataBlockArray[idx].appendTimeSeries(toAppend);
 
     synchronized (this) {
-      if (numberOfBlocksSet() > 1) {
-        // don't trim data here, that way we don't lose data
-        long start = dataBlockArray[idx].getStartTime();
-        long end = dataBlockArray[idx].getEndTime();
-
-        // there's clearly already another block loaded, let's make sure they
-        // actually have an intersecting time range
-        for (int i = 0; i < FILE_COUNT; ++i) {
-          if (i != idx && thisBlockIsSet[i]) {
-            // whole block either comes before or after the data set
-            if (end < dataBlockArray[i].getStartTime() ||
-                start > dataBlockArray[i].getEndTime()) {
-
-              if (i < activePlots) {
-                thisBlockIsSet[idx] = false;
-                dataBlockArray[idx] = null;
-                throw new RuntimeException("Time range does not intersect");
-              } else {
-                // unload data that we aren't currently using
-                thisBlockIsSet[i] = false;
-              }
-            }
-          }
-        }
-      }
+      checkTimeRange(idx, activePlots);
+    }
+  }
+
+  /**
+   * Files to load into one plot index of a DataStore as part of a bulk load (see setBlocks)
+   */
+  public static class LoadRequest {
+
+    private final int idx;
+    private final String filepath;
+    private final String nameFilter;
+    private final String responsePath;
+
+    /**
+     * Create a request to load data and/or a response into a plot
+     *
+     * @param idx The plot (range 0 to FILE_COUNT) to be given new data
+     * @param filepath Full address of miniSEED file to load data from, or null for no data
+     * @param nameFilter SNCL of the data to load from the file, or null to load the file's first
+     * channel (for files that are not multiplexed)
+     * @param responsePath Full address of response file to load, or null for no response
+     */
+    public LoadRequest(int idx, String filepath, String nameFilter, String responsePath) {
+      this.idx = idx;
+      this.filepath = filepath;
+      this.nameFilter = nameFilter;
+      this.responsePath = responsePath;
+    }
+
+    public int getIndex() {
+      return idx;
+    }
+
+    public String getFilepath() {
+      return filepath;
     }
+
+    public String getNameFilter() {
+      return nameFilter;
+    }
+
+    public String getResponsePath() {
+      return responsePath;
+    }
+  }
+
+  /**
+   * Receives the progress of each plot's files in a bulk load (see setBlocks)
+   */
+  public interface LoadListener {
+
+    /**
+     * Called once the files for a plot have been read in
+     *
+     * @param idx Plot index of the request
+     */
+    void slotLoaded(int idx);
+
+    /**
+     * Called if the files for a plot could not be read in, or the data does not fit with the rest
+     *
+     * @param idx Plot index of the request
+     * @param e Reason the request failed
+     */
+    void slotFailed(int idx, Exception e);
   }
 
 }
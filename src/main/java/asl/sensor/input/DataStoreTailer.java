@@ -0,0 +1,523 @@
+package asl.sensor.input;
+
+import asl.sensor.utils.MappedSeedReader;
+import asl.sensor.utils.SeedRecordHeader;
+import edu.iris.dmc.seedcodec.CodecException;
+import edu.sc.seis.seisFile.mseed.SeedFormatException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.EventListenerList;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Keeps the data in a DataStore up to date with miniSEED files that are still being written to,
+ * such as those in an archive directory that an acquisition system writes records into as they
+ * arrive. Each watched file is paired with the SNCL of a channel in it and the DataStore slot
+ * that channel's data is kept in; several channels of a multiplexed file can be watched at once.
+ *
+ * The directories holding the watched files are registered with a WatchService. Whenever a
+ * watched file is created or changes, only the records written since it was last read are
+ * decoded (the position after the last complete record read is kept for each file), and the data
+ * is added to the slot's DataBlock with DataBlock.appendTimeSeries, so the cost of keeping up
+ * with a station is proportional to the amount of new data rather than the length of the record.
+ * A record that has only been partly written is left until the rest of it arrives. A file that
+ * is found to be shorter than when it was last read has been truncated or replaced (e.g., by log
+ * rotation), so it is read again from the start and its data replaces the slot's old block rather
+ * than being added to it.
+ *
+ * If a block's trim window reaches the end of its data, the window is moved forward to the new
+ * end of the data, keeping its length; otherwise the window is left where it was. A slot is only
+ * updated as long as it holds the block this object put there; if the slot's data is replaced or
+ * removed, that channel is no longer updated.
+ *
+ * Files are read and decoded on the thread watching them (or the one calling update), but the
+ * changes to the DataStore and its blocks are made by the executor given to the constructor, and
+ * listeners are notified on it once new data has been added. Neither DataStore nor DataBlock is
+ * safe to read while it is being changed, so the executor should run the changes on the thread
+ * that reads the data, one at a time and in order. For instance, a GUI that reads the data on the
+ * event dispatch thread would use:
+ *
+ * <pre>
+ * DataStoreTailer tailer = new DataStoreTailer(dataStore, EventQueue::invokeLater);
+ * </pre>
+ *
+ * A tailer created without an executor changes the data on the thread that read it, while holding
+ * the DataStore's lock. In that case every reader of the DataStore, its blocks, or data taken from
+ * them (including experiments run on it) must hold the same lock while reading, e.g.:
+ *
+ * <pre>
+ * synchronized (dataStore) {
+ *   DataBlock block = dataStore.getBlock(0);
+ *   double[] data = block.getData();
+ *   // ...
+ * }
+ * </pre>
+ */
+public class DataStoreTailer implements Closeable {
+
+  private final DataStore dataStore;
+  private final Executor updateExecutor;
+  private final WatchService watchService;
+  private final EventListenerList eventHelper;
+
+  // channels being followed in each file, and the position after the last record read from it
+  private final Map<Path, List<TailedChannel>> channelsByFile;
+  private final Map<Path, Long> offsets;
+  private final Set<Path> directories;
+
+  private Thread watchThread;
+
+  /**
+   * Create a tailer for the given DataStore, which does not watch any files until told to. New
+   * data is added to the DataStore on the thread that read it, so readers of the DataStore must
+   * hold its lock (see the class description).
+   *
+   * @param dataStore DataStore whose blocks are to be kept up to date
+   * @throws IOException If a WatchService can't be created
+   */
+  public DataStoreTailer(DataStore dataStore) throws IOException {
+    this(dataStore, new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        command.run();
+      }
+    });
+  }
+
+  /**
+   * Create a tailer for the given DataStore, which does not watch any files until told to
+   *
+   * @param dataStore DataStore whose blocks are to be kept up to date
+   * @param updateExecutor Executor to make changes to the DataStore with, which should run them
+   * one at a time, in order, on the thread that reads the DataStore's data
+   * @throws IOException If a WatchService can't be created
+   */
+  public DataStoreTailer(DataStore dataStore, Executor updateExecutor) throws IOException {
+    this.dataStore = dataStore;
+    this.updateExecutor = updateExecutor;
+    watchService = FileSystems.getDefault().newWatchService();
+    eventHelper = new EventListenerList();
+    channelsByFile = new HashMap<>();
+    offsets = new HashMap<>();
+    directories = new HashSet<>();
+  }
+
+  private static Path toPath(String filepath) {
+    return Paths.get(filepath).toAbsolutePath().normalize();
+  }
+
+  /**
+   * Read the complete records of a file from the given offset up to the given limit (or the end of
+   * the file), keeping the data of those records whose SNCL is one of the keys in the given map.
+   * The record data is copied out so it is not affected by later changes to the file.
+   *
+   * @return Offset after the last complete record read
+   */
+  private static long readRecords(Path file, long offset, long limit,
+      Map<String, List<Pair<SeedRecordHeader, ByteBuffer>>> recordsByName) throws IOException {
+    if (!file.toFile().isFile()) {
+      return offset;
+    }
+    try (MappedSeedReader reader = new MappedSeedReader(file.toString())) {
+      long end = Math.min(limit, reader.getFileSize());
+      while (reader.hasRecordAt(offset)) {
+        SeedRecordHeader header = reader.readHeader(offset);
+        long next = offset + reader.getRecordLength(header);
+        if (next > end) {
+          break; // record hasn't been fully written yet
+        }
+        if (header != null && recordsByName.containsKey(header.getName())) {
+          ByteBuffer data = ByteBuffer.wrap(reader.getRecordData(header));
+          recordsByName.get(header.getName()).add(new Pair<>(header, data));
+        }
+        offset = next;
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * Add a listener to be notified when new data has been added to the DataStore
+   *
+   * @param listener Listener to add
+   */
+  public void addChangeListener(ChangeListener listener) {
+    eventHelper.add(ChangeListener.class, listener);
+  }
+
+  /**
+   * Remove a listener so it is no longer notified of new data
+   *
+   * @param listener Listener to remove
+   */
+  public void removeChangeListener(ChangeListener listener) {
+    eventHelper.remove(ChangeListener.class, listener);
+  }
+
+  private void fireStateChanged() {
+    ChangeListener[] listeners = eventHelper.getListeners(ChangeListener.class);
+    if (listeners != null && listeners.length > 0) {
+      ChangeEvent event = new ChangeEvent(this);
+      for (ChangeListener listener : listeners) {
+        listener.stateChanged(event);
+      }
+    }
+  }
+
+  /**
+   * Start following a channel of a miniSEED file, placing its data into a slot of the DataStore.
+   * All of the channel's data currently in the file is loaded into a new DataBlock in that slot,
+   * replacing anything already there; if the file does not exist yet or has no data for the
+   * channel, the slot is filled once data for it arrives.
+   *
+   * @param idx Slot of the DataStore to hold the channel's data
+   * @param filepath Full path of the miniSEED file
+   * @param filter SNCL of the channel to follow
+   * @throws IOException If the file or its directory can't be read
+   * @throws SeedFormatException If a record of the data has no blockette 1000
+   * @throws CodecException If the compressed data could not be decoded
+   */
+  public synchronized void watch(int idx, String filepath, String filter)
+      throws IOException, SeedFormatException, CodecException {
+    Path file = toPath(filepath);
+    Path directory = file.getParent();
+    if (!directories.contains(directory)) {
+      directory.register(watchService,
+          StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      directories.add(directory);
+    }
+
+    TailedChannel channel = new TailedChannel(idx, filter);
+    Long offset = offsets.get(file);
+    Map<String, List<Pair<SeedRecordHeader, ByteBuffer>>> history = new HashMap<>();
+    history.put(filter, new ArrayList<Pair<SeedRecordHeader, ByteBuffer>>());
+    if (offset == null) {
+      offsets.put(file, readRecords(file, 0L, Long.MAX_VALUE, history));
+      channelsByFile.put(file, new ArrayList<TailedChannel>());
+    } else {
+      // the file is already being followed, so get this channel's data up to where it is read to
+      readRecords(file, 0L, offset, history);
+    }
+
+    // stop following whatever was previously being followed into this slot
+    for (List<TailedChannel> channels : channelsByFile.values()) {
+      for (int i = channels.size() - 1; i >= 0; --i) {
+        if (channels.get(i).index == idx) {
+          channels.remove(i);
+        }
+      }
+    }
+    channelsByFile.get(file).add(channel);
+
+    final TailedChannel watched = channel;
+    final int slot = idx;
+    final Pair<Long, Map<Long, double[]>> data =
+        MappedSeedReader.decodeRecords(history.get(filter));
+    updateExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        synchronized (dataStore) {
+          dataStore.removeBlock(slot);
+        }
+        watched.add(data);
+        watched.started = true;
+      }
+    });
+  }
+
+  /**
+   * Read any new records from the watched files and add them to the DataStore. This is done
+   * automatically once start is called, but can also be called directly to pick up any changes
+   * immediately. The data is added by the update executor (see the class description), so it may
+   * not have been added yet when this returns.
+   *
+   * @return True if any new data was read, or a watched file was found to have been replaced
+   * @throws IOException If a watched file can't be read
+   * @throws SeedFormatException If a record of the data has no blockette 1000
+   * @throws CodecException If the compressed data could not be decoded
+   */
+  public boolean update() throws IOException, SeedFormatException, CodecException {
+    List<NewData> newData = new ArrayList<>();
+    synchronized (this) {
+      for (Path file : channelsByFile.keySet()) {
+        newData.addAll(read(file));
+      }
+    }
+    addData(newData);
+    return !newData.isEmpty();
+  }
+
+  /**
+   * Read the new records in a single watched file, decoding the new data of each of the channels
+   * following that file. If the file has shrunk since it was last read, it has been truncated or
+   * replaced, so it is read again from the start and its data replaces what was read before.
+   *
+   * @return New data of each channel that has any (or of every channel, if the file was replaced)
+   */
+  private synchronized List<NewData> read(Path file)
+      throws IOException, SeedFormatException, CodecException {
+    List<NewData> newData = new ArrayList<>();
+    List<TailedChannel> channels = channelsByFile.get(file);
+    if (channels == null) {
+      return newData;
+    }
+    Iterator<TailedChannel> iterator = channels.iterator();
+    while (iterator.hasNext()) {
+      TailedChannel channel = iterator.next();
+      if (channel.started && !channel.isCurrent()) {
+        iterator.remove();
+      }
+    }
+    if (channels.isEmpty()) {
+      return newData;
+    }
+    long offset = offsets.get(file);
+    boolean replaced = file.toFile().length() < offset;
+    if (replaced) {
+      offset = 0L;
+    }
+
+    Map<String, List<Pair<SeedRecordHeader, ByteBuffer>>> recordsByName = new HashMap<>();
+    for (TailedChannel channel : channels) {
+      recordsByName.put(channel.filter, new ArrayList<Pair<SeedRecordHeader, ByteBuffer>>());
+    }
+    offsets.put(file, readRecords(file, offset, Long.MAX_VALUE, recordsByName));
+
+    for (TailedChannel channel : channels) {
+      List<Pair<SeedRecordHeader, ByteBuffer>> records = recordsByName.get(channel.filter);
+      Pair<Long, Map<Long, double[]>> data = MappedSeedReader.decodeRecords(records);
+      // a replaced file's channels are cleared out even if it has no data for them yet
+      if (replaced || !data.getSecond().isEmpty()) {
+        newData.add(new NewData(channel, data, replaced));
+      }
+    }
+    return newData;
+  }
+
+  /**
+   * Add newly read data to the channels' blocks on the update executor, notifying listeners once
+   * it has been added. Channels whose slot no longer holds their block are no longer followed.
+   */
+  private void addData(final List<NewData> newData) {
+    if (newData.isEmpty()) {
+      return;
+    }
+    updateExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        boolean changed = false;
+        for (NewData channelData : newData) {
+          TailedChannel channel = channelData.channel;
+          if (!channel.isCurrent()) {
+            stopFollowing(channel);
+            continue;
+          }
+          if (channelData.replacesData) {
+            changed |= channel.clear();
+          }
+          changed |= channel.add(channelData.data);
+        }
+        if (changed) {
+          fireStateChanged();
+        }
+      }
+    });
+  }
+
+  private synchronized void stopFollowing(TailedChannel channel) {
+    for (List<TailedChannel> channels : channelsByFile.values()) {
+      channels.remove(channel);
+    }
+  }
+
+  /**
+   * Start following the watched files on a new (daemon) thread, which runs until this is closed
+   */
+  public synchronized void start() {
+    if (watchThread != null) {
+      return;
+    }
+    watchThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watchFiles();
+      }
+    }, "DataStoreTailer");
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  /**
+   * Wait for changes to the watched directories and read the new data of any watched file that
+   * changed, until the watch service is closed
+   */
+  private void watchFiles() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+
+      Path directory = (Path) key.watchable();
+      Set<Path> changedFiles = new HashSet<>();
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          // events were lost, so check every watched file
+          synchronized (this) {
+            changedFiles.addAll(channelsByFile.keySet());
+          }
+          continue;
+        }
+        changedFiles.add(directory.resolve((Path) event.context()));
+      }
+      key.reset();
+
+      List<NewData> newData = new ArrayList<>();
+      for (Path file : changedFiles) {
+        try {
+          newData.addAll(read(file));
+        } catch (IOException | SeedFormatException | CodecException e) {
+          // most likely a record caught partway through being written; it'll be read next time
+          e.printStackTrace();
+        }
+      }
+      addData(newData);
+    }
+  }
+
+  /**
+   * Stop following the watched files. Data already in the DataStore is left there.
+   *
+   * @throws IOException If the watch service can't be closed
+   */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    Thread thread;
+    synchronized (this) {
+      thread = watchThread;
+      watchThread = null;
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * A channel of a file being followed into a slot of the DataStore, along with the block holding
+   * its data (which is null until there is data)
+   */
+  private class TailedChannel {
+
+    private final int index;
+    private final String filter;
+    private volatile DataBlock block;
+    // set once the slot has been cleared for this channel, after which it can be checked
+    private volatile boolean started;
+
+    TailedChannel(int index, String filter) {
+      this.index = index;
+      this.filter = filter;
+    }
+
+    /**
+     * Check that the slot still holds the block being updated (or, if there is no data yet, that
+     * nothing else has been put in the slot)
+     */
+    boolean isCurrent() {
+      synchronized (dataStore) {
+        if (block == null) {
+          return !dataStore.blockIsSet(index);
+        }
+        return dataStore.blockIsSet(index) && dataStore.getBlock(index) == block;
+      }
+    }
+
+    /**
+     * Remove the channel's block from its slot, so that the next data added to the channel starts
+     * a new block
+     *
+     * @return True if there was a block to remove
+     */
+    boolean clear() {
+      synchronized (dataStore) {
+        if (block == null) {
+          return false;
+        }
+        dataStore.removeBlock(index);
+        block = null;
+        return true;
+      }
+    }
+
+    /**
+     * Add newly read data to the channel's block (creating it if there isn't one yet), moving the
+     * block's trim window forward if it was at the end of the data
+     *
+     * @return True if there was any data to add
+     */
+    boolean add(Pair<Long, Map<Long, double[]>> intervalSeriesMapPair) {
+      Map<Long, double[]> data = intervalSeriesMapPair.getSecond();
+      if (data.isEmpty()) {
+        return false;
+      }
+      synchronized (dataStore) {
+        if (block == null) {
+          block = new DataBlock(data, intervalSeriesMapPair.getFirst(), filter);
+          dataStore.setBlock(index, block);
+          return true;
+        }
+        long start = block.getStartTime();
+        long end = block.getEndTime();
+        boolean atEnd = end == block.getInitialEndTime();
+        block.appendTimeSeries(data);
+        if (atEnd) {
+          long newEnd = block.getInitialEndTime();
+          block.trim(newEnd - (end - start), newEnd);
+        } else {
+          block.trim(start, end);
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Data newly read for a channel, which is either added to the data already read or, if the file
+   * was replaced, replaces it
+   */
+  private static class NewData {
+
+    private final TailedChannel channel;
+    private final Pair<Long, Map<Long, double[]>> data;
+    private final boolean replacesData;
+
+    NewData(TailedChannel channel, Pair<Long, Map<Long, double[]>> data, boolean replacesData) {
+      this.channel = channel;
+      this.data = data;
+      this.replacesData = replacesData;
+    }
+  }
+
+}
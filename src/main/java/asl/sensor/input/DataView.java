@@ -0,0 +1,122 @@
+package asl.sensor.input;
+
+/**
+ * Read-only window over a range of samples, as returned by DataBlock.view. Where the window lies
+ * entirely inside one contiguous block of data at the block's own sample rate, the view reads
+ * straight from the data the block holds onto, so getting a view does not copy anything; the
+ * samples are only copied out when needed (see copyOfRange and toArray).
+ *
+ * A view over data stored off the heap can't be read once the block it came from (and every copy
+ * of that block) has been released.
+ */
+public final class DataView {
+
+  private final SampleSegment segment;
+  private final int offset;
+  private final int length;
+  private final long startTime;
+  private final long interval;
+
+  DataView(SampleSegment segment, int offset, int length, long startTime, long interval) {
+    this.segment = segment;
+    this.offset = offset;
+    this.length = length;
+    this.startTime = startTime;
+    this.interval = interval;
+  }
+
+  /**
+   * Create a view over all of the data in an array, which should not be modified while the view
+   * is in use
+   *
+   * @param data Samples to view
+   * @param startTime Time of the first sample in ms from epoch
+   * @param interval Interval between samples in ms
+   * @return View over the array
+   */
+  public static DataView of(double[] data, long startTime, long interval) {
+    return new DataView(SampleSegment.of(data, SampleFormat.DOUBLE), 0, data.length,
+        startTime, interval);
+  }
+
+  private void checkRange(int from, int to) {
+    if (from < 0 || to > length || from > to) {
+      throw new IndexOutOfBoundsException(
+          "Range [" + from + ", " + to + ") out of bounds for length " + length);
+    }
+  }
+
+  /**
+   * Copy a range of the samples into an array
+   *
+   * @param from Index of the first sample to copy
+   * @param dest Array to copy samples into
+   * @param destPos Index in the array to copy the first sample into
+   * @param count Number of samples to copy
+   */
+  public void copyTo(int from, double[] dest, int destPos, int count) {
+    checkRange(from, from + count);
+    segment.copyTo(offset + from, dest, destPos, count);
+  }
+
+  /**
+   * Copy a range of the samples into a new array, as with Arrays.copyOfRange
+   *
+   * @param from Index of the first sample to copy
+   * @param to Index after the last sample to copy
+   * @return New array holding the samples
+   */
+  public double[] copyOfRange(int from, int to) {
+    double[] out = new double[to - from];
+    copyTo(from, out, 0, out.length);
+    return out;
+  }
+
+  /**
+   * Get a single sample in the view
+   *
+   * @param index Index of the sample, where 0 is the first sample in the view
+   * @return Value of the sample
+   */
+  public double get(int index) {
+    checkRange(index, index + 1);
+    return segment.get(offset + index);
+  }
+
+  /**
+   * Get the interval between samples in the view
+   *
+   * @return Interval in ms
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+  /**
+   * Get the time of the first sample in the view
+   *
+   * @return Start time in ms from epoch
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Get the number of samples in the view
+   *
+   * @return Number of samples
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Copy all of the samples in the view into a new array
+   *
+   * @return New array holding the samples
+   */
+  public double[] toArray() {
+    return copyOfRange(0, length);
+  }
+
+}
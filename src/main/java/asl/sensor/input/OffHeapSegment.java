@@ -0,0 +1,319 @@
+package asl.sensor.input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Holds the samples of a contiguous block of data outside of the Java heap, in a memory-mapped
+ * temporary file. The operating system pages the data in and out as it is used, so very long
+ * records (weeks or months of data) do not need a correspondingly large heap.
+ *
+ * The temporary file is deleted as soon as it is mapped where the platform allows it, so that it
+ * only lasts as long as the mapping does; otherwise it is deleted on exit. Once the segment is
+ * released (see SampleSegment.release) it can no longer be read, and once no segment uses its
+ * mapping any more, the mapping is unmapped straight away, freeing the file's pages and address
+ * space rather than leaving that to whenever the buffers are garbage collected. This relies on
+ * JVM internals (the buffer's cleaner on Java 8, Unsafe.invokeCleaner on later versions); on a JVM
+ * that has neither, the mapping is only dropped once it is garbage collected.
+ *
+ * As with segments on the heap, the mapping may have room past the end of the data, which data
+ * appended to the segment is written into (see append), so that adding data to a long block a
+ * piece at a time neither copies the whole block each time nor brings it onto the heap. When the
+ * mapping is full, the data is copied into a larger one a piece at a time.
+ */
+class OffHeapSegment extends SampleSegment {
+
+  // samples held in each mapped region; a single mapping can't be larger than 2 GB
+  private static final int CHUNK_SHIFT = 26;
+  private static final int CHUNK_SAMPLES = 1 << CHUNK_SHIFT;
+  private static final int CHUNK_MASK = CHUNK_SAMPLES - 1;
+
+  // number of samples copied at a time when moving data into a larger mapping
+  private static final int COPY_SAMPLES = 1 << 16;
+
+  // used to unmap buffers on Java 9 and later (null on Java 8, where buffers' cleaners are used)
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      unsafe = null;
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private final SampleFormat format;
+  private final int length;
+  private final int capacity;
+  private final int bytesPerSample;
+  // both shared by every segment using the same mapping (see SampleSegment.Extent)
+  private final Extent extent;
+  private final Mapping mapping;
+  private volatile ByteBuffer[] chunks;
+
+  private OffHeapSegment(SampleFormat format, Mapping mapping, int length, int capacity,
+      Extent extent) {
+    this.format = format;
+    this.mapping = mapping;
+    this.length = length;
+    this.capacity = capacity;
+    this.extent = extent;
+    bytesPerSample = getBytesPerSample(format);
+    mapping.acquire();
+    chunks = mapping.chunks;
+  }
+
+  /**
+   * Copy data into a new off-heap segment. As with on-heap storage, data that cannot be stored
+   * exactly as integers is stored as doubles even if INTEGER format is requested.
+   *
+   * @param data Samples to store
+   * @param requested Format to store the samples in
+   * @return Segment holding the data
+   * @throws IOException If the temporary file backing the segment can't be created
+   */
+  static OffHeapSegment create(double[] data, SampleFormat requested) throws IOException {
+    SampleFormat format = requested;
+    if (format == SampleFormat.INTEGER && !canHoldAsIntegers(data)) {
+      format = SampleFormat.DOUBLE;
+    }
+    ByteBuffer[] mapped = mapTempFile(data.length, getBytesPerSample(format));
+    for (int i = 0; i < data.length; ++i) {
+      put(mapped, format, i, data[i]);
+    }
+    return new OffHeapSegment(format, new Mapping(mapped), data.length, data.length,
+        new Extent(data.length));
+  }
+
+  private static int getBytesPerSample(SampleFormat format) {
+    return (format == SampleFormat.DOUBLE) ? 8 : 4;
+  }
+
+  /**
+   * Map a new temporary file large enough to hold the given number of samples, in chunks of
+   * CHUNK_SAMPLES samples
+   */
+  private static ByteBuffer[] mapTempFile(int length, int bytesPerSample) throws IOException {
+    int numChunks = (int) ((length + (long) CHUNK_MASK) >>> CHUNK_SHIFT);
+    ByteBuffer[] mapped = new ByteBuffer[numChunks];
+    File temp = File.createTempFile("segment", ".dat");
+    try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+      file.setLength((long) length * bytesPerSample);
+      FileChannel channel = file.getChannel();
+      for (int i = 0; i < numChunks; ++i) {
+        long first = (long) i << CHUNK_SHIFT;
+        long samples = Math.min(CHUNK_SAMPLES, length - first);
+        mapped[i] = channel.map(MapMode.READ_WRITE, first * bytesPerSample,
+            samples * bytesPerSample).order(ByteOrder.nativeOrder());
+      }
+    } finally {
+      // mappings remain valid once the file is closed (and, on most platforms, deleted)
+      if (!temp.delete()) {
+        temp.deleteOnExit();
+      }
+    }
+    return mapped;
+  }
+
+  private ByteBuffer[] getChunks() {
+    ByteBuffer[] current = chunks;
+    if (current == null) {
+      throw new IllegalStateException("Data has already been released");
+    }
+    return current;
+  }
+
+  private static void put(ByteBuffer[] target, SampleFormat format, int index, double value) {
+    ByteBuffer chunk = target[index >>> CHUNK_SHIFT];
+    int position = (index & CHUNK_MASK) * getBytesPerSample(format);
+    switch (format) {
+      case FLOAT:
+        chunk.putFloat(position, (float) value);
+        break;
+      case INTEGER:
+        chunk.putInt(position, (int) value);
+        break;
+      default:
+        chunk.putDouble(position, value);
+    }
+  }
+
+  @Override
+  SampleSegment append(double[] data) {
+    ByteBuffer[] current = getChunks();
+    int newLength = length + data.length;
+    // data that can't be held as integers means the whole segment has to be held as doubles
+    boolean fits = format != SampleFormat.INTEGER || canHoldAsIntegers(data);
+    if (fits && extent.claim(length, newLength, capacity)) {
+      for (int i = 0; i < data.length; ++i) {
+        put(current, format, length + i, data[i]);
+      }
+      return new OffHeapSegment(format, mapping, newLength, capacity, extent);
+    }
+
+    SampleFormat newFormat = fits ? format : SampleFormat.DOUBLE;
+    int newCapacity = getGrownCapacity(length, newLength);
+    ByteBuffer[] grown;
+    try {
+      grown = mapTempFile(newCapacity, getBytesPerSample(newFormat));
+    } catch (IOException e) {
+      // as when creating a segment, the data is kept on the heap if it can't be mapped
+      return super.append(data);
+    }
+    double[] buffer = new double[Math.min(COPY_SAMPLES, length)];
+    for (int from = 0; from < length; from += buffer.length) {
+      int count = Math.min(buffer.length, length - from);
+      copyTo(from, buffer, 0, count);
+      for (int i = 0; i < count; ++i) {
+        put(grown, newFormat, from + i, buffer[i]);
+      }
+    }
+    for (int i = 0; i < data.length; ++i) {
+      put(grown, newFormat, length + i, data[i]);
+    }
+    return new OffHeapSegment(newFormat, new Mapping(grown), newLength, newCapacity,
+        new Extent(newLength));
+  }
+
+  @Override
+  void copyTo(int from, double[] dest, int destPos, int count) {
+    ByteBuffer[] current = getChunks();
+    while (count > 0) {
+      ByteBuffer chunk = current[from >>> CHUNK_SHIFT];
+      int offset = from & CHUNK_MASK;
+      int toCopy = Math.min(count, CHUNK_SAMPLES - offset);
+      if (format == SampleFormat.DOUBLE) {
+        DoubleBuffer view = chunk.asDoubleBuffer();
+        view.position(offset);
+        view.get(dest, destPos, toCopy);
+      } else if (format == SampleFormat.FLOAT) {
+        for (int i = 0; i < toCopy; ++i) {
+          dest[destPos + i] = chunk.getFloat((offset + i) * 4);
+        }
+      } else {
+        for (int i = 0; i < toCopy; ++i) {
+          dest[destPos + i] = chunk.getInt((offset + i) * 4);
+        }
+      }
+      from += toCopy;
+      destPos += toCopy;
+      count -= toCopy;
+    }
+  }
+
+  @Override
+  double get(int index) {
+    ByteBuffer chunk = getChunks()[index >>> CHUNK_SHIFT];
+    int position = (index & CHUNK_MASK) * bytesPerSample;
+    switch (format) {
+      case FLOAT:
+        return chunk.getFloat(position);
+      case INTEGER:
+        return chunk.getInt(position);
+      default:
+        return chunk.getDouble(position);
+    }
+  }
+
+  @Override
+  SampleFormat getFormat() {
+    return format;
+  }
+
+  @Override
+  boolean isOffHeap() {
+    return true;
+  }
+
+  @Override
+  int length() {
+    return length;
+  }
+
+  @Override
+  SampleSegment convert(SampleFormat newFormat) {
+    if (newFormat == format) {
+      return this;
+    }
+    double[] data = toArray();
+    // an INTEGER segment that can't be held as integers is kept as doubles
+    if (newFormat == SampleFormat.INTEGER && format == SampleFormat.DOUBLE &&
+        !canHoldAsIntegers(data)) {
+      return this;
+    }
+    return offHeap(data, newFormat);
+  }
+
+  @Override
+  protected void free() {
+    chunks = null;
+    mapping.release();
+  }
+
+  /**
+   * Unmap a mapped buffer now rather than when it is garbage collected, if the JVM allows it. The
+   * buffer must not be used afterwards.
+   */
+  private static void unmap(ByteBuffer buffer) {
+    try {
+      if (UNSAFE != null) {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        return;
+      }
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // the buffer is still unmapped once it is garbage collected
+    }
+  }
+
+  /**
+   * The buffers of a mapped temporary file, along with a count of the segments using them. A
+   * segment appended to in place shares its mapping with the segment it was appended to, so the
+   * buffers are only unmapped once every segment using them has been freed.
+   */
+  private static class Mapping {
+
+    private final ByteBuffer[] chunks;
+    private int users;
+
+    Mapping(ByteBuffer[] chunks) {
+      this.chunks = chunks;
+    }
+
+    synchronized void acquire() {
+      ++users;
+    }
+
+    synchronized void release() {
+      if (--users == 0) {
+        for (ByteBuffer chunk : chunks) {
+          unmap(chunk);
+        }
+      }
+    }
+  }
+
+}
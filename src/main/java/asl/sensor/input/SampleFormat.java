@@ -0,0 +1,27 @@
+package asl.sensor.input;
+
+/**
+ * Enum for specifying how the samples of a DataBlock are stored in memory. Data is always given
+ * out as doubles (see DataBlock.getData); this only affects the contiguous blocks of data the
+ * DataBlock holds onto, which for long records of high-rate data can take up most of the heap.
+ */
+public enum SampleFormat {
+
+  /**
+   * Samples are stored as doubles (8 bytes per sample). Used by default.
+   */
+  DOUBLE,
+  /**
+   * Samples are stored as 32-bit floats (4 bytes per sample). Values are rounded to the nearest
+   * float; integer counts of magnitude up to 2^24 (i.e., any 24-bit digitizer's output) are
+   * stored exactly, and other values have a relative error of at most 2^-24 (about 6e-8).
+   */
+  FLOAT,
+  /**
+   * Samples are stored as 32-bit integers (4 bytes per sample). This is lossless for raw digitizer
+   * counts; any contiguous block of data that has values which are not integers in the range of
+   * an int (i.e., data that has been processed in some way) is kept as doubles instead.
+   */
+  INTEGER
+
+}
@@ -0,0 +1,128 @@
+package asl.sensor.input;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Fixed-size ring buffer holding the most recent samples of a single channel of streamed data.
+ * Once the buffer is full, each new sample replaces the oldest one, so the memory used for a
+ * channel does not grow no matter how long the stream runs.
+ *
+ * Records are expected to arrive more or less in time order. The same rules as DataBlock uses to
+ * merge contiguous data apply: data starting within a quarter-interval of the end of the previous
+ * data continues it, samples overlapping data already held are dropped, and anything later than
+ * that starts a new contiguous block after a gap. The start of each contiguous block is kept so
+ * that a DataBlock made from the buffer has the same gaps as the stream did.
+ */
+class SampleRing {
+
+  private final long interval;
+  private final double[] samples;
+  // total number of samples ever added, which gives each sample a position in the stream
+  private long written;
+  private long timeAtEnd;
+  // stream position and start time of each contiguous block with data still in the buffer
+  private final Deque<long[]> blockStarts;
+
+  /**
+   * Create an empty buffer
+   *
+   * @param interval Interval between samples in ms
+   * @param capacity Maximum number of samples to hold
+   */
+  SampleRing(long interval, int capacity) {
+    this.interval = interval;
+    samples = new double[capacity];
+    written = 0;
+    blockStarts = new ArrayDeque<>();
+  }
+
+  /**
+   * Add the samples of a record to the end of the buffer, removing the oldest samples if it is full
+   *
+   * @param startTime Time of the first sample of the record in ms from epoch
+   * @param data Samples of the record
+   */
+  synchronized void add(long startTime, double[] data) {
+    if (data.length == 0) {
+      return;
+    }
+    int skip = 0;
+    long difference = startTime - timeAtEnd;
+    if (blockStarts.isEmpty() || difference >= (interval / 4)) {
+      blockStarts.addLast(new long[]{written, startTime});
+      timeAtEnd = startTime;
+    } else if (difference < 0) {
+      // duplicated data check; round up if the overlap is over 75% of an interval
+      long diff = timeAtEnd - startTime;
+      skip = (int) (diff / interval);
+      if (diff % interval > 3 * interval / 4) {
+        ++skip;
+      }
+      if (skip >= data.length) {
+        return;
+      }
+    } else {
+      timeAtEnd = startTime;
+    }
+
+    for (int i = skip; i < data.length; ++i) {
+      samples[(int) (written % samples.length)] = data[i];
+      ++written;
+    }
+    timeAtEnd += (data.length - skip) * interval;
+
+    // forget about blocks that no longer have any data in the buffer
+    long oldest = getOldestPosition();
+    while (blockStarts.size() > 1) {
+      Iterator<long[]> iterator = blockStarts.iterator();
+      iterator.next();
+      if (iterator.next()[0] > oldest) {
+        break;
+      }
+      blockStarts.removeFirst();
+    }
+  }
+
+  private long getOldestPosition() {
+    return Math.max(0L, written - samples.length);
+  }
+
+  /**
+   * Get the interval of the data held
+   *
+   * @return Interval between samples in ms
+   */
+  long getInterval() {
+    return interval;
+  }
+
+  /**
+   * Copy the data currently held into a map of the start times of contiguous blocks of data to the
+   * data in each block, in time order, as used to construct a DataBlock
+   *
+   * @return Map of block start times to block data (empty if nothing has been added)
+   */
+  synchronized Map<Long, double[]> toTimeSeriesMap() {
+    Map<Long, double[]> map = new LinkedHashMap<>();
+    long oldest = getOldestPosition();
+    Iterator<long[]> iterator = blockStarts.iterator();
+    long[] block = iterator.hasNext() ? iterator.next() : null;
+    while (block != null) {
+      long[] next = iterator.hasNext() ? iterator.next() : null;
+      long from = Math.max(block[0], oldest);
+      long to = (next == null) ? written : next[0];
+      double[] data = new double[(int) (to - from)];
+      for (int i = 0; i < data.length; ++i) {
+        data[i] = samples[(int) ((from + i) % samples.length)];
+      }
+      map.put(block[1] + (from - block[0]) * interval, data);
+      block = next;
+    }
+    return map;
+  }
+
+}
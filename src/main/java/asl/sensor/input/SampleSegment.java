@@ -0,0 +1,411 @@
+package asl.sensor.input;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Holds the samples of one contiguous block of data in a DataBlock, in one of the formats given by
+ * SampleFormat. Regardless of how they are stored, samples are read out as doubles, so the rest of
+ * the program does not need to know about the storage format. Segments are not modified once
+ * created, and so can be shared between copies of a DataBlock.
+ *
+ * Data can be added to the end of a segment (see append), which gives a new segment rather than
+ * changing the existing one. Segments hold their samples in an array (or, off the heap, a
+ * mapping) that may have room past the end of the data, which appended data is written into where
+ * no other segment has already claimed it, so that adding data to a block a piece at a time does
+ * not copy the whole block each time.
+ *
+ * Since segments may hold onto resources outside of the heap (see OffHeapSegment), each one keeps
+ * a count of the DataBlocks using it; a block retains a segment it shares with another block and
+ * releases it when done with it, and the segment's resources are freed once it is fully released.
+ */
+abstract class SampleSegment {
+
+  private int references = 1;
+
+  /**
+   * Store a contiguous block of data in the given format. Data stored as doubles is kept as the
+   * given array rather than copied.
+   *
+   * @param data Samples to store
+   * @param format Format to store the samples in
+   * @return Segment holding the data
+   */
+  static SampleSegment of(double[] data, SampleFormat format) {
+    switch (format) {
+      case FLOAT:
+        return new FloatSegment(data);
+      case INTEGER:
+        if (canHoldAsIntegers(data)) {
+          return new IntegerSegment(data);
+        }
+        return new DoubleSegment(data);
+      default:
+        return new DoubleSegment(data);
+    }
+  }
+
+  /**
+   * Store a contiguous block of data in the given format outside of the heap (see OffHeapSegment).
+   * If the storage for this can't be created, the data is kept on the heap instead.
+   *
+   * @param data Samples to store
+   * @param format Format to store the samples in
+   * @return Segment holding the data
+   */
+  static SampleSegment offHeap(double[] data, SampleFormat format) {
+    try {
+      return OffHeapSegment.create(data, format);
+    } catch (IOException e) {
+      return of(data, format);
+    }
+  }
+
+  /**
+   * Check that every value in the data is an integer that fits in an int
+   *
+   * @param data Samples to check
+   * @return True if the data can be stored as ints without loss
+   */
+  static boolean canHoldAsIntegers(double[] data) {
+    for (double value : data) {
+      if (value != (int) value) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the size of array to hold data that has grown past the size of its current array, leaving
+   * room for more data to be added without needing to copy it all again
+   *
+   * @param length Number of samples currently held
+   * @param needed Number of samples that must fit in the new array
+   * @return Length of the new array
+   */
+  static int getGrownCapacity(int length, int needed) {
+    long grown = length + (long) (length >> 1);
+    return (int) Math.max(needed, Math.min(grown, Integer.MAX_VALUE - 8));
+  }
+
+  /**
+   * Produce a segment holding this segment's data followed by the given data, in the same format.
+   * This segment is not changed.
+   *
+   * @param data Samples to add to the end of the data
+   * @return Segment holding the combined data
+   */
+  SampleSegment append(double[] data) {
+    double[] combined = new double[length() + data.length];
+    copyTo(0, combined, 0, length());
+    System.arraycopy(data, 0, combined, length(), data.length);
+    return of(combined, getFormat());
+  }
+
+  /**
+   * Copy a range of the samples into an array of doubles
+   *
+   * @param from Index of the first sample to copy
+   * @param dest Array to copy samples into
+   * @param destPos Index in the array to copy the first sample into
+   * @param count Number of samples to copy
+   */
+  abstract void copyTo(int from, double[] dest, int destPos, int count);
+
+  /**
+   * Get a single sample of the data
+   *
+   * @param index Index of the sample
+   * @return Value of the sample
+   */
+  abstract double get(int index);
+
+  /**
+   * Get the format that the samples are actually stored in (which for data that could not be
+   * stored as integers may be different from the one that was requested)
+   *
+   * @return Storage format of the samples
+   */
+  abstract SampleFormat getFormat();
+
+  /**
+   * Check if the samples are held outside of the Java heap
+   *
+   * @return True if the segment's data is not on the heap
+   */
+  boolean isOffHeap() {
+    return false;
+  }
+
+  /**
+   * Get the number of samples in the segment
+   *
+   * @return Number of samples
+   */
+  abstract int length();
+
+  /**
+   * Note that another DataBlock is now using this segment
+   */
+  synchronized void retain() {
+    ++references;
+  }
+
+  /**
+   * Note that a DataBlock is no longer using this segment, freeing its resources if no other block
+   * is using it either
+   */
+  synchronized void release() {
+    if (references > 0 && --references == 0) {
+      free();
+    }
+  }
+
+  /**
+   * Free any resources held by the segment; called once it is no longer used by any DataBlock
+   */
+  protected void free() {
+    // data on the heap is simply garbage collected
+  }
+
+  /**
+   * Get the samples as an array of doubles. For data stored as doubles this may be the array
+   * holding the data, which must not be modified.
+   *
+   * @return Array of all samples in the segment
+   */
+  double[] toArray() {
+    double[] out = new double[length()];
+    copyTo(0, out, 0, out.length);
+    return out;
+  }
+
+  /**
+   * Produce a segment with the same data in the given format, which is this segment if it is
+   * already stored in that format.
+   *
+   * @param format Format to store the samples in
+   * @return Segment holding the data in the new format
+   */
+  SampleSegment convert(SampleFormat format) {
+    if (format == getFormat()) {
+      return this;
+    }
+    return of(toArray(), format);
+  }
+
+  /**
+   * Tracks how much of an array shared by several segments holds data, so that only the segment
+   * with the most data can write more data into the rest of the array
+   */
+  static class Extent {
+
+    private int used;
+
+    Extent(int used) {
+      this.used = used;
+    }
+
+    /**
+     * Claim space in the shared array for data added to the end of a segment
+     *
+     * @param length Length of the segment adding the data
+     * @param newLength Length of the segment once the data is added
+     * @param capacity Length of the shared array
+     * @return True if the data can be written into the array
+     */
+    synchronized boolean claim(int length, int newLength, int capacity) {
+      if (used != length || newLength > capacity) {
+        return false;
+      }
+      used = newLength;
+      return true;
+    }
+  }
+
+  private static class DoubleSegment extends SampleSegment {
+
+    private final double[] data;
+    private final int length;
+    private final Extent extent;
+
+    DoubleSegment(double[] data) {
+      this(data, data.length, new Extent(data.length));
+    }
+
+    private DoubleSegment(double[] data, int length, Extent extent) {
+      this.data = data;
+      this.length = length;
+      this.extent = extent;
+    }
+
+    @Override
+    SampleSegment append(double[] more) {
+      int newLength = length + more.length;
+      if (extent.claim(length, newLength, data.length)) {
+        System.arraycopy(more, 0, data, length, more.length);
+        return new DoubleSegment(data, newLength, extent);
+      }
+      double[] grown = Arrays.copyOf(data, getGrownCapacity(length, newLength));
+      System.arraycopy(more, 0, grown, length, more.length);
+      return new DoubleSegment(grown, newLength, new Extent(newLength));
+    }
+
+    @Override
+    void copyTo(int from, double[] dest, int destPos, int count) {
+      System.arraycopy(data, from, dest, destPos, count);
+    }
+
+    @Override
+    double get(int index) {
+      return data[index];
+    }
+
+    @Override
+    SampleFormat getFormat() {
+      return SampleFormat.DOUBLE;
+    }
+
+    @Override
+    int length() {
+      return length;
+    }
+
+    @Override
+    double[] toArray() {
+      if (length == data.length) {
+        return data;
+      }
+      return Arrays.copyOf(data, length);
+    }
+
+    @Override
+    SampleSegment convert(SampleFormat format) {
+      // an INTEGER segment that can't be held as integers is kept as doubles
+      if (format == SampleFormat.INTEGER && !canHoldAsIntegers(toArray())) {
+        return this;
+      }
+      return super.convert(format);
+    }
+  }
+
+  private static class FloatSegment extends SampleSegment {
+
+    private final float[] data;
+    private final int length;
+    private final Extent extent;
+
+    FloatSegment(double[] in) {
+      this(new float[in.length], in.length, new Extent(in.length));
+      for (int i = 0; i < in.length; ++i) {
+        data[i] = (float) in[i];
+      }
+    }
+
+    private FloatSegment(float[] data, int length, Extent extent) {
+      this.data = data;
+      this.length = length;
+      this.extent = extent;
+    }
+
+    @Override
+    SampleSegment append(double[] more) {
+      int newLength = length + more.length;
+      float[] target = data;
+      Extent targetExtent = extent;
+      if (!extent.claim(length, newLength, data.length)) {
+        target = Arrays.copyOf(data, getGrownCapacity(length, newLength));
+        targetExtent = new Extent(newLength);
+      }
+      for (int i = 0; i < more.length; ++i) {
+        target[length + i] = (float) more[i];
+      }
+      return new FloatSegment(target, newLength, targetExtent);
+    }
+
+    @Override
+    void copyTo(int from, double[] dest, int destPos, int count) {
+      for (int i = 0; i < count; ++i) {
+        dest[destPos + i] = data[from + i];
+      }
+    }
+
+    @Override
+    double get(int index) {
+      return data[index];
+    }
+
+    @Override
+    SampleFormat getFormat() {
+      return SampleFormat.FLOAT;
+    }
+
+    @Override
+    int length() {
+      return length;
+    }
+  }
+
+  private static class IntegerSegment extends SampleSegment {
+
+    private final int[] data;
+    private final int length;
+    private final Extent extent;
+
+    IntegerSegment(double[] in) {
+      this(new int[in.length], in.length, new Extent(in.length));
+      for (int i = 0; i < in.length; ++i) {
+        data[i] = (int) in[i];
+      }
+    }
+
+    private IntegerSegment(int[] data, int length, Extent extent) {
+      this.data = data;
+      this.length = length;
+      this.extent = extent;
+    }
+
+    @Override
+    SampleSegment append(double[] more) {
+      if (!canHoldAsIntegers(more)) {
+        // the combined data has to be kept as doubles instead
+        return super.append(more);
+      }
+      int newLength = length + more.length;
+      int[] target = data;
+      Extent targetExtent = extent;
+      if (!extent.claim(length, newLength, data.length)) {
+        target = Arrays.copyOf(data, getGrownCapacity(length, newLength));
+        targetExtent = new Extent(newLength);
+      }
+      for (int i = 0; i < more.length; ++i) {
+        target[length + i] = (int) more[i];
+      }
+      return new IntegerSegment(target, newLength, targetExtent);
+    }
+
+    @Override
+    void copyTo(int from, double[] dest, int destPos, int count) {
+      for (int i = 0; i < count; ++i) {
+        dest[destPos + i] = data[from + i];
+      }
+    }
+
+    @Override
+    double get(int index) {
+      return data[index];
+    }
+
+    @Override
+    SampleFormat getFormat() {
+      return SampleFormat.INTEGER;
+    }
+
+    @Override
+    int length() {
+      return length;
+    }
+  }
+
+}
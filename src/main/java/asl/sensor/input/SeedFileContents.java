@@ -0,0 +1,158 @@
+package asl.sensor.input;
+
+import asl.sensor.utils.DecodedSampleCache;
+import asl.sensor.utils.MappedSeedReader;
+import asl.sensor.utils.SeedRecordHeader;
+import asl.sensor.utils.SeedRecordIndex;
+import edu.iris.dmc.seedcodec.CodecException;
+import edu.sc.seis.seisFile.mseed.SeedFormatException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Holds the locations of the records of a (possibly multiplexed) miniSEED file, split up by SNCL,
+ * after a single pass over the file's headers. Only the record headers are kept in memory; when
+ * the data for one of the channels is actually requested, the file is mapped again and just that
+ * channel's records are decoded from it, and a new DataBlock is built for it. This allows the list
+ * of channels in a file to be shown to the user and then any number of those channels to be
+ * loaded in without scanning the file again, without holding the (possibly very large) file's
+ * data on the heap in between.
+ *
+ * The size and modification time of the file are recorded when it is read so that the records of
+ * a file that has since changed on disk are not used in place of the file itself.
+ */
+public class SeedFileContents {
+
+  private final String path;
+  private final long fileSize;
+  private final long lastModified;
+  private final Set<String> names;
+  private final Map<String, List<SeedRecordHeader>> recordsByName;
+
+  private SeedFileContents(String path, long fileSize, long lastModified) {
+    this.path = path;
+    this.fileSize = fileSize;
+    this.lastModified = lastModified;
+    names = new HashSet<>();
+    recordsByName = new HashMap<>();
+  }
+
+  /**
+   * Scan a miniSEED file once, collecting the headers of the records of every channel in it
+   *
+   * @param filename Full path to the file to be read in
+   * @return Structure holding the records of each SNCL in the file
+   * @throws IOException If the file cannot be read
+   */
+  public static SeedFileContents read(String filename) throws IOException {
+    File file = new File(filename);
+    SeedFileContents contents = new SeedFileContents(file.getAbsolutePath(), file.length(),
+        file.lastModified());
+
+    SeedRecordIndex index = SeedRecordIndex.forFile(filename);
+    for (String name : index.getNames()) {
+      contents.names.add(name);
+      contents.recordsByName.put(name, index.getHeaders(name));
+    }
+
+    return contents;
+  }
+
+  /**
+   * Decode the data for a given channel and produce a new DataBlock holding it. Each call produces
+   * a new DataBlock so that trimming or resampling one of them does not affect any others.
+   *
+   * @param filter SNCL of the data to get
+   * @return DataBlock holding the channel's data
+   * @throws IOException If the file can't be read, or has changed since it was scanned
+   * @throws SeedFormatException If the file has no data for the given SNCL, or it can't be decoded
+   * @throws CodecException If the compressed data could not be decoded
+   */
+  public DataBlock getBlock(String filter)
+      throws IOException, SeedFormatException, CodecException {
+    Pair<Long, Map<Long, double[]>> intervalSeriesMapPair = getTimeSeriesMap(filter);
+    if (intervalSeriesMapPair.getSecond().size() == 0) {
+      throw new SeedFormatException("No data for " + filter + " found in " + path);
+    }
+    return new DataBlock(intervalSeriesMapPair.getSecond(), intervalSeriesMapPair.getFirst(),
+        filter);
+  }
+
+  /**
+   * Get the set of SNCL names of the data in this file (see TimeSeriesUtils.getMplexNameSet)
+   *
+   * @return Set of all (unique) SNCL strings
+   */
+  public Set<String> getNames() {
+    return new HashSet<>(names);
+  }
+
+  /**
+   * Get the full path of the file that was read in
+   *
+   * @return Absolute path of the file
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Decode the data for a given channel into a map of the start times of contiguous spans of data
+   * to the data in each span, in the same form as produced by TimeSeriesUtils.getTimeSeriesMap.
+   * If the file has no data for the channel, the returned map is empty. The decoded data cache
+   * (see DecodedSampleCache) is checked for the data before the records are decoded; otherwise the
+   * channel's records are decoded straight from the mapped file.
+   *
+   * @param filter SNCL of the data to get
+   * @return Pair of the interval of the data and the map of times to data
+   * @throws IOException If the file can't be read, or has changed since it was scanned
+   * @throws SeedFormatException If a record of the data has no blockette 1000
+   * @throws CodecException If the compressed data could not be decoded
+   */
+  public Pair<Long, Map<Long, double[]>> getTimeSeriesMap(String filter)
+      throws IOException, SeedFormatException, CodecException {
+    if (!recordsByName.containsKey(filter)) {
+      return new Pair<Long, Map<Long, double[]>>(0L, new LinkedHashMap<Long, double[]>());
+    }
+    Pair<Long, Map<Long, double[]>> data =
+        DecodedSampleCache.get(path, fileSize, lastModified, filter);
+    if (data != null) {
+      return data;
+    }
+    if (!isSameFile(path)) {
+      // the records would no longer be where they were found
+      throw new IOException("File has changed since it was read: " + path);
+    }
+    List<Pair<SeedRecordHeader, ByteBuffer>> records = new ArrayList<>();
+    try (MappedSeedReader reader = new MappedSeedReader(path)) {
+      for (SeedRecordHeader header : recordsByName.get(filter)) {
+        records.add(new Pair<>(header, reader.getRecordBuffer(header)));
+      }
+    }
+    data = MappedSeedReader.decodeRecords(records);
+    DecodedSampleCache.put(path, fileSize, lastModified, filter, data);
+    return data;
+  }
+
+  /**
+   * Check if this object was read from the given file and the file has not changed since
+   *
+   * @param filename Full path of a file
+   * @return True if the file is the one read in here and it has the same size and mod. time
+   */
+  public boolean isSameFile(String filename) {
+    File file = new File(filename);
+    return path.equals(file.getAbsolutePath()) && fileSize == file.length() &&
+        lastModified == file.lastModified();
+  }
+
+}
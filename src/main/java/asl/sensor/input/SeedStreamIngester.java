@@ -0,0 +1,391 @@
+package asl.sensor.input;
+
+import asl.sensor.utils.MappedSeedReader;
+import asl.sensor.utils.RecordDecoder;
+import asl.sensor.utils.SeedRecordHeader;
+import edu.iris.dmc.seedcodec.CodecException;
+import edu.sc.seis.seisFile.mseed.SeedFormatException;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Takes in a stream of miniSEED records, such as a digitizer's feed over a plain TCP socket, and
+ * keeps the most recent data of each SNCL in the stream in memory, without writing any files.
+ * Records may be 512 or 4096 bytes long (as given by each record's blockette 1000). A record with
+ * no blockette 1000 is taken to be as long as the record before it, or 512 bytes if it is first.
+ *
+ * A record that can't be read or decoded is skipped, and the rest of the stream is still read.
+ * Such problems, and the end of a connection's stream due to an error, happen on the ingester's
+ * own threads; they are passed to the ErrorListener given to setErrorListener, if there is one.
+ *
+ * Records are split up by SNCL as they are read and handed to a small pool of decoding threads;
+ * all records of a given SNCL go to the same thread, so each channel's records are decoded and
+ * added in the order they arrived. Each thread has a queue of bounded length, and reading from the
+ * stream stops while the queue a record is going to is full, so if decoding falls behind the
+ * stream the sender is held back (by TCP flow control for a socket) rather than records piling up.
+ *
+ * Each channel's data is held in a ring buffer of a fixed length of time (see SampleRing), so
+ * memory use stays bounded however long the stream runs. A DataBlock of the data currently held for
+ * a channel can be taken at any time with getBlock, or put into a DataStore with setBlock, which
+ * allows experiments such as SpectrumExperiment and NoiseExperiment to be run on near-real-time
+ * data.
+ */
+public class SeedStreamIngester implements Closeable {
+
+  /**
+   * Number of records that may be waiting to be decoded by each decoding thread
+   */
+  public static final int QUEUE_LENGTH = 256;
+
+  private static final int MIN_RECORD_LENGTH = 512;
+  private static final int MAX_RECORD_LENGTH = 4096;
+
+  private final long bufferLength;
+  private final DecodeWorker[] workers;
+  private final Map<String, SampleRing> rings;
+  private volatile ErrorListener errorListener;
+  private Socket socket;
+  private Thread readThread;
+
+  /**
+   * Create an ingester that keeps the given length of each channel's data, decoding records with
+   * the given number of threads
+   *
+   * @param bufferLength Length of time of the most recent data to keep for each channel, in ms
+   * @param decodeThreads Number of threads to decode records with
+   */
+  public SeedStreamIngester(long bufferLength, int decodeThreads) {
+    this.bufferLength = bufferLength;
+    rings = new HashMap<>();
+    workers = new DecodeWorker[Math.max(1, decodeThreads)];
+    for (int i = 0; i < workers.length; ++i) {
+      workers[i] = new DecodeWorker();
+      workers[i].setName("SeedStreamDecoder-" + i);
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  /**
+   * Read a record from the stream, returning null if the stream ends before the record starts.
+   * A record without a blockette 1000 (or that isn't a data record) is taken to be as long as the
+   * last record read, or the minimum length if none has been read yet. A record whose blockette
+   * 1000 gives a length outside of the lengths supported is reported as a SeedFormatException once
+   * its first MIN_RECORD_LENGTH bytes have been read, so the stream can still be read past it.
+   */
+  private static byte[] readRecord(DataInputStream in, int lastRecordLength)
+      throws IOException, SeedFormatException {
+    byte[] record = new byte[MIN_RECORD_LENGTH];
+    int first = in.read();
+    if (first < 0) {
+      return null;
+    }
+    record[0] = (byte) first;
+    in.readFully(record, 1, record.length - 1);
+
+    int defaultLength = (lastRecordLength > 0) ? lastRecordLength : MIN_RECORD_LENGTH;
+    SeedRecordHeader header =
+        MappedSeedReader.parseHeader(ByteBuffer.wrap(record), defaultLength);
+    int length = (header == null) ? defaultLength : header.getRecordLength();
+    if (length < MIN_RECORD_LENGTH || length > MAX_RECORD_LENGTH) {
+      throw new SeedFormatException("Unsupported record length in stream: " + length);
+    }
+    if (length > record.length) {
+      record = Arrays.copyOf(record, length);
+      in.readFully(record, MIN_RECORD_LENGTH, length - MIN_RECORD_LENGTH);
+    }
+    return record;
+  }
+
+  /**
+   * Connect to a server sending miniSEED records and start reading them in on a new thread,
+   * which runs until the server closes the connection or this is closed
+   *
+   * @param host Name or address of the server
+   * @param port Port of the server
+   * @throws IOException If the connection can't be made
+   */
+  public synchronized void connect(String host, int port) throws IOException {
+    final Socket connection = new Socket(host, port);
+    socket = connection;
+    readThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ingest(connection.getInputStream());
+        } catch (IOException | InterruptedException e) {
+          // stream ended unexpectedly or was closed, so nothing more can be read from it
+          ErrorListener listener = errorListener;
+          if (!connection.isClosed() && listener != null) {
+            listener.streamFailed(e);
+          }
+        }
+      }
+    }, "SeedStreamReader");
+    readThread.setDaemon(true);
+    readThread.start();
+  }
+
+  /**
+   * Read miniSEED records from a stream until it ends, passing each data record on to be decoded.
+   * This blocks while the decoding threads are too far behind. The records read may not all have
+   * been decoded when this returns (see flush). Records that can't be read are skipped, and
+   * reported to the error listener (if any).
+   *
+   * @param stream Stream of miniSEED records
+   * @throws IOException If the stream can't be read or ends partway through a record
+   * @throws InterruptedException If interrupted while waiting for the decoding threads
+   */
+  public void ingest(InputStream stream) throws IOException, InterruptedException {
+    DataInputStream in = new DataInputStream(stream);
+    int lastRecordLength = -1;
+    while (true) {
+      byte[] record;
+      try {
+        record = readRecord(in, lastRecordLength);
+      } catch (EOFException e) {
+        throw new EOFException("Stream ended partway through a record");
+      } catch (SeedFormatException e) {
+        recordSkipped(e);
+        continue;
+      }
+      if (record == null) {
+        return;
+      }
+      lastRecordLength = record.length;
+
+      SeedRecordHeader header =
+          MappedSeedReader.parseHeader(ByteBuffer.wrap(record), record.length);
+      if (header == null || header.getNumSamples() == 0) {
+        continue; // not a data record, or one with no data in it
+      }
+      // records of a channel always go to the same thread so they stay in order
+      int worker = (header.getName().hashCode() & Integer.MAX_VALUE) % workers.length;
+      workers[worker].queue.put(new QueuedRecord(header, record));
+    }
+  }
+
+  /**
+   * Set the listener to pass problems with the stream found on the ingester's own threads to,
+   * replacing any listener set before. With no listener, these problems are not reported.
+   *
+   * @param listener Listener to tell of problems, or null to stop reporting them
+   */
+  public void setErrorListener(ErrorListener listener) {
+    errorListener = listener;
+  }
+
+  private void recordSkipped(Exception e) {
+    ErrorListener listener = errorListener;
+    if (listener != null) {
+      listener.recordSkipped(e);
+    }
+  }
+
+  /**
+   * Wait until every record read in so far has been decoded and added to its channel's data
+   *
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public void flush() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(workers.length);
+    for (DecodeWorker worker : workers) {
+      worker.queue.put(new QueuedRecord(latch));
+    }
+    latch.await();
+  }
+
+  /**
+   * Get a new DataBlock holding the data currently buffered for a channel
+   *
+   * @param name SNCL of the channel
+   * @return DataBlock of the channel's most recent data, or null if there is no data for it
+   */
+  public DataBlock getBlock(String name) {
+    SampleRing ring;
+    synchronized (rings) {
+      ring = rings.get(name);
+    }
+    if (ring == null) {
+      return null;
+    }
+    Map<Long, double[]> data = ring.toTimeSeriesMap();
+    if (data.isEmpty()) {
+      return null;
+    }
+    return new DataBlock(data, ring.getInterval(), name);
+  }
+
+  /**
+   * Get the SNCLs of the channels that data has been received for
+   *
+   * @return Set of SNCL names
+   */
+  public Set<String> getNames() {
+    synchronized (rings) {
+      return new HashSet<>(rings.keySet());
+    }
+  }
+
+  /**
+   * Place a DataBlock of the data currently buffered for a channel into a DataStore
+   *
+   * @param dataStore DataStore to add the data to
+   * @param idx Index to place the data into
+   * @param name SNCL of the channel
+   * @return True if there was data for the channel to add
+   */
+  public boolean setBlock(DataStore dataStore, int idx, String name) {
+    DataBlock block = getBlock(name);
+    if (block == null) {
+      return false;
+    }
+    synchronized (dataStore) {
+      dataStore.removeBlock(idx);
+      dataStore.setBlock(idx, block);
+    }
+    return true;
+  }
+
+  /**
+   * Get the buffer for a channel, creating it if this is the first record of the channel. If the
+   * channel's sample rate has changed, the data buffered at the old rate is dropped.
+   */
+  private SampleRing getRing(SeedRecordHeader header) {
+    synchronized (rings) {
+      SampleRing ring = rings.get(header.getName());
+      if (ring == null || ring.getInterval() != header.getInterval()) {
+        long capacity = Math.max(1L, bufferLength / header.getInterval());
+        ring = new SampleRing(header.getInterval(), (int) Math.min(capacity, Integer.MAX_VALUE));
+        rings.put(header.getName(), ring);
+      }
+      return ring;
+    }
+  }
+
+  /**
+   * Stop reading from the connection to the server (if any) and stop the decoding threads.
+   * Records that were already read in but not yet decoded are dropped.
+   *
+   * @throws IOException If the connection can't be closed
+   */
+  @Override
+  public void close() throws IOException {
+    Socket connection;
+    Thread thread;
+    synchronized (this) {
+      connection = socket;
+      thread = readThread;
+      socket = null;
+      readThread = null;
+    }
+    if (connection != null) {
+      connection.close();
+    }
+    for (DecodeWorker worker : workers) {
+      worker.interrupt();
+      worker.queue.clear();
+    }
+    if (thread != null) {
+      // in case it is waiting on a queue that no longer has a thread taking from it
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * Receives problems with a stream that are found on the ingester's own threads (see
+   * setErrorListener). Calls may come from the thread reading the stream or from any of the
+   * decoding threads.
+   */
+  public interface ErrorListener {
+
+    /**
+     * Called when a record is skipped because it could not be read or decoded; the rest of the
+     * stream is still read
+     *
+     * @param e Reason the record was skipped
+     */
+    void recordSkipped(Exception e);
+
+    /**
+     * Called when a connection's stream can't be read any further (but not when it is ended by
+     * closing the ingester), so no more data will arrive from it
+     *
+     * @param e Reason the stream ended
+     */
+    void streamFailed(Exception e);
+  }
+
+  /**
+   * A record waiting to be decoded, or a request to be told when everything queued before it has
+   * been decoded
+   */
+  private static class QueuedRecord {
+
+    private final SeedRecordHeader header;
+    private final byte[] record;
+    private final CountDownLatch flushed;
+
+    QueuedRecord(SeedRecordHeader header, byte[] record) {
+      this.header = header;
+      this.record = record;
+      flushed = null;
+    }
+
+    QueuedRecord(CountDownLatch flushed) {
+      header = null;
+      record = null;
+      this.flushed = flushed;
+    }
+  }
+
+  /**
+   * Thread decoding the records of the channels assigned to it and adding them to their buffers
+   */
+  private class DecodeWorker extends Thread {
+
+    private final BlockingQueue<QueuedRecord> queue = new ArrayBlockingQueue<>(QUEUE_LENGTH);
+
+    @Override
+    public void run() {
+      while (true) {
+        QueuedRecord next;
+        try {
+          next = queue.take();
+        } catch (InterruptedException e) {
+          return; // ingester has been closed
+        }
+        if (next.flushed != null) {
+          next.flushed.countDown();
+          continue;
+        }
+
+        SeedRecordHeader header = next.header;
+        try {
+          ByteBuffer data = ByteBuffer.wrap(next.record, header.getDataOffset(),
+              header.getDataLength()).slice();
+          double[] samples = new double[header.getNumSamples()];
+          RecordDecoder.decode(header, data, samples, 0, 0);
+          getRing(header).add(header.getStartTime(), samples);
+        } catch (SeedFormatException | CodecException | RuntimeException e) {
+          // a bad record shouldn't stop the rest of the stream from being read
+          recordSkipped(e);
+        }
+      }
+    }
+  }
+
+}
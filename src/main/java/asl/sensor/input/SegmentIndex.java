@@ -0,0 +1,138 @@
+package asl.sensor.input;
+
+import java.util.Arrays;
+
+/**
+ * Holds the contiguous blocks of data in a DataBlock in time order, along with the start and end
+ * time of each. The times are kept in primitive arrays so that the block containing (or nearest
+ * to) a given time can be found with a binary search, rather than by sorting the start times and
+ * walking through them, which matters for records with thousands of gaps.
+ *
+ * Blocks must be added in time order and must not overlap (i.e., they should already have been
+ * merged where contiguous), which DataBlock takes care of.
+ */
+class SegmentIndex {
+
+  private static final int INITIAL_CAPACITY = 4;
+
+  private final long interval;
+  private long[] starts;
+  private long[] ends;
+  private SampleSegment[] segments;
+  private int size;
+
+  /**
+   * Create an empty index
+   *
+   * @param interval Sampling interval of the data in ms, used to get the end time of each block
+   */
+  SegmentIndex(long interval) {
+    this.interval = interval;
+    starts = new long[INITIAL_CAPACITY];
+    ends = new long[INITIAL_CAPACITY];
+    segments = new SampleSegment[INITIAL_CAPACITY];
+    size = 0;
+  }
+
+  /**
+   * Create a copy of an index, which shares the blocks' data with the original
+   *
+   * @param in Index to copy
+   */
+  SegmentIndex(SegmentIndex in) {
+    interval = in.interval;
+    starts = Arrays.copyOf(in.starts, in.starts.length);
+    ends = Arrays.copyOf(in.ends, in.ends.length);
+    segments = Arrays.copyOf(in.segments, in.segments.length);
+    size = in.size;
+  }
+
+  /**
+   * Add a block of data after the last one in the index
+   *
+   * @param start Start time of the block in ms from epoch
+   * @param segment Data of the block
+   */
+  void add(long start, SampleSegment segment) {
+    if (size > 0 && start <= starts[size - 1]) {
+      throw new IllegalArgumentException("Blocks must be added in time order");
+    }
+    if (size == starts.length) {
+      int capacity = size * 2;
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      segments = Arrays.copyOf(segments, capacity);
+    }
+    starts[size] = start;
+    ends[size] = start + (segment.length() * interval);
+    segments[size] = segment;
+    ++size;
+  }
+
+  /**
+   * Find the last block that starts at or before the given time
+   *
+   * @param time Time in ms from epoch
+   * @return Index of the block, or -1 if every block starts after the given time
+   */
+  int floorIndex(long time) {
+    int found = Arrays.binarySearch(starts, 0, size, time);
+    if (found >= 0) {
+      return found;
+    }
+    // binarySearch gives -(insertion point) - 1, and the block before the insertion point is wanted
+    return -found - 2;
+  }
+
+  /**
+   * Get the data of a block
+   *
+   * @param index Index of the block (in time order)
+   * @return Data of the block
+   */
+  SampleSegment get(int index) {
+    return segments[index];
+  }
+
+  /**
+   * Get the end time of a block, that is, the time after its last sample
+   *
+   * @param index Index of the block (in time order)
+   * @return End time of the block in ms from epoch
+   */
+  long getEnd(int index) {
+    return ends[index];
+  }
+
+  /**
+   * Get the start time of a block
+   *
+   * @param index Index of the block (in time order)
+   * @return Start time of the block in ms from epoch
+   */
+  long getStart(int index) {
+    return starts[index];
+  }
+
+  /**
+   * Replace the data of a block, either with the same data stored differently (i.e., in another
+   * format) or with data extending the block. The block's end time is updated to match.
+   *
+   * @param index Index of the block (in time order)
+   * @param segment New data of the block, which must not overlap the start of the next block
+   */
+  void set(int index, SampleSegment segment) {
+    segments[index] = segment;
+    ends[index] = starts[index] + (segment.length() * interval);
+  }
+
+  /**
+   * Get the number of blocks in the index
+   *
+   * @return Number of blocks
+   */
+  int size() {
+    return size;
+  }
+
+}
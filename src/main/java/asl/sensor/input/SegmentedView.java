@@ -0,0 +1,210 @@
+package asl.sensor.input;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Read-only view of the data in a window of a DataBlock that keeps the gaps in the data apart from
+ * the data itself, as returned by DataBlock.segmentedView. The window is indexed the same way as
+ * the array from getData over that window, but rather than filling the gaps with zeros, the view
+ * holds a DataView of each contiguous piece of data (along with the index in the window where
+ * that piece starts) and a list of the ranges of the window that fall in gaps. Nothing is
+ * allocated for the gaps, so a window with a long outage in it costs no more than its data.
+ *
+ * Any samples of the window not covered by data or a gap (i.e., a sample at the very end of the
+ * window left over from rounding) read as zero, as in getData.
+ */
+public final class SegmentedView {
+
+  private final long startTime;
+  private final long interval;
+  private final int length;
+  private final DataView[] segments;
+  private final int[] offsets;
+  private final int[] gapStarts;
+  private final int[] gapEnds;
+
+  SegmentedView(long startTime, long interval, int length, List<DataView> segments,
+      List<Integer> offsets, List<int[]> gaps) {
+    this.startTime = startTime;
+    this.interval = interval;
+    this.length = length;
+    this.segments = segments.toArray(new DataView[segments.size()]);
+    this.offsets = new int[offsets.size()];
+    for (int i = 0; i < this.offsets.length; ++i) {
+      this.offsets[i] = offsets.get(i);
+    }
+    gapStarts = new int[gaps.size()];
+    gapEnds = new int[gaps.size()];
+    for (int i = 0; i < gapStarts.length; ++i) {
+      gapStarts[i] = gaps.get(i)[0];
+      gapEnds[i] = gaps.get(i)[1];
+    }
+  }
+
+  /**
+   * Create a segmented view over a single view of data with no gaps in it
+   *
+   * @param view View of contiguous data
+   * @return Segmented view with the view as its only segment
+   */
+  public static SegmentedView of(DataView view) {
+    List<DataView> segments = new ArrayList<>();
+    segments.add(view);
+    return new SegmentedView(view.getStartTime(), view.getInterval(), view.length(), segments,
+        Arrays.asList(0), new ArrayList<int[]>());
+  }
+
+  /**
+   * Copy a range of the window into a new array, with zeros in place of any gaps
+   *
+   * @param from Index of the first sample to copy
+   * @param to Index after the last sample to copy
+   * @return New array holding the samples
+   */
+  public double[] copyOfRange(int from, int to) {
+    if (from < 0 || to > length || from > to) {
+      throw new IndexOutOfBoundsException(
+          "Range [" + from + ", " + to + ") out of bounds for length " + length);
+    }
+    double[] out = new double[to - from];
+    copyTo(from, out, 0, to - from);
+    return out;
+  }
+
+  /**
+   * Copy a range of the window into an existing array, with zeros in place of any gaps, so that a
+   * long window can be read a piece at a time without holding all of it in memory at once
+   *
+   * @param from Index of the first sample to copy
+   * @param dest Array to copy the samples into
+   * @param destPos Index in the array to copy the first sample to
+   * @param count Number of samples to copy
+   */
+  public void copyTo(int from, double[] dest, int destPos, int count) {
+    int to = from + count;
+    if (from < 0 || to > length || count < 0) {
+      throw new IndexOutOfBoundsException(
+          "Range [" + from + ", " + to + ") out of bounds for length " + length);
+    }
+    Arrays.fill(dest, destPos, destPos + count, 0.);
+    // find the last segment starting at or before the range, which may run into it
+    int i = Arrays.binarySearch(offsets, from);
+    if (i < 0) {
+      i = Math.max(0, -i - 2);
+    }
+    for (; i < segments.length && offsets[i] < to; ++i) {
+      int segmentFrom = Math.max(from, offsets[i]);
+      int segmentTo = Math.min(to, offsets[i] + segments[i].length());
+      if (segmentFrom < segmentTo) {
+        segments[i].copyTo(segmentFrom - offsets[i], dest, destPos + segmentFrom - from,
+            segmentTo - segmentFrom);
+      }
+    }
+  }
+
+  /**
+   * Get the time ranges of the gaps in the window, as with DataBlock.getGapBoundaries
+   *
+   * @return List of pairs of the start and end of each gap in ms from epoch
+   */
+  public List<Pair<Long, Long>> getGaps() {
+    List<Pair<Long, Long>> gaps = new ArrayList<>();
+    for (int i = 0; i < gapStarts.length; ++i) {
+      gaps.add(new Pair<>(startTime + gapStarts[i] * interval, startTime + gapEnds[i] * interval));
+    }
+    return gaps;
+  }
+
+  /**
+   * Get the interval between samples of the window
+   *
+   * @return Interval in ms
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+  /**
+   * Get the number of contiguous pieces of data in the window
+   *
+   * @return Number of segments
+   */
+  public int getSegmentCount() {
+    return segments.length;
+  }
+
+  /**
+   * Get one of the contiguous pieces of data in the window
+   *
+   * @param idx Index of the segment, in time order
+   * @return View over the segment's data
+   */
+  public DataView getSegment(int idx) {
+    return segments[idx];
+  }
+
+  /**
+   * Get the index in the window of the first sample of a segment
+   *
+   * @param idx Index of the segment, in time order
+   * @return Index of the segment's first sample, as in the array from toArray
+   */
+  public int getSegmentOffset(int idx) {
+    return offsets[idx];
+  }
+
+  /**
+   * Get the time of the first sample of the window
+   *
+   * @return Start time in ms from epoch
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Check whether there are any gaps in the window
+   *
+   * @return True if the window has at least one gap
+   */
+  public boolean hasGaps() {
+    return gapStarts.length > 0;
+  }
+
+  /**
+   * Get the number of samples in the window, including gaps
+   *
+   * @return Length of the window in samples
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Check whether any part of a range of the window is in a gap
+   *
+   * @param from Index of the first sample of the range
+   * @param to Index after the last sample of the range
+   * @return True if the range overlaps a gap
+   */
+  public boolean overlapsGap(int from, int to) {
+    // gaps are in order and do not overlap, so only the first one ending after the range starts
+    // can overlap it
+    int i = Arrays.binarySearch(gapEnds, from);
+    i = (i < 0) ? -i - 1 : i + 1;
+    return i < gapStarts.length && gapStarts[i] < to;
+  }
+
+  /**
+   * Copy the whole window into a new array, with zeros in place of any gaps (as from getData)
+   *
+   * @return New array holding the samples of the window
+   */
+  public double[] toArray() {
+    return copyOfRange(0, length);
+  }
+
+}
@@ -0,0 +1,223 @@
+package asl.sensor.input;
+
+import asl.sensor.utils.FFTResult;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory cache of the PSDs and crosspowers calculated from a DataStore's data, so that running
+ * another experiment over the same data (or running the same one again) does not repeat the Welch
+ * average of data it has already been done for. A DataStore shares its cache with its copies, as
+ * experiments are given a copy of the data that was loaded in.
+ *
+ * Entries are keyed on what the result was calculated from rather than on the objects holding the
+ * data: each block's data (see DataBlock.getDataId), trim window and interval, the responses
+ * applied, and, when the windows of the Welch average depended on other blocks calculated along
+ * with it (see FFTResult.spectralMatrix), those blocks too. A result is therefore never given out
+ * for data that has since changed; entries for data that has changed are also removed by the
+ * DataStore (see invalidate) rather than waiting to age out.
+ *
+ * The total size of the entries is kept under a limit by removing the least recently used ones.
+ */
+class SpectralCache {
+
+  private final Map<Key, FFTResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+
+  /**
+   * Get the key identifying a block's data as it is currently trimmed and sampled
+   *
+   * @param block Data to get the key of
+   * @return Key of the block's current data
+   */
+  static BlockKey getBlockKey(DataBlock block) {
+    return new BlockKey(block.getName(), block.getDataId(), block.getStartTime(),
+        block.getEndTime(), block.getInterval());
+  }
+
+  /**
+   * Get the size of the memory held by a result
+   */
+  private static long getSize(FFTResult result) {
+    // real, imaginary and frequency arrays
+    return 3L * 8L * result.size();
+  }
+
+  /**
+   * Get a cached result, marking it as recently used
+   *
+   * @param key Key of the result
+   * @return The cached result, or null if there is none for the key
+   */
+  synchronized FFTResult get(Key key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Add a result to the cache, removing the least recently used entries if the cache's size limit
+   * is exceeded. Results larger than the limit are not cached.
+   *
+   * @param key Key of the result
+   * @param result Result to cache
+   * @param maxSize Limit on the total size of the cache's entries in bytes
+   */
+  synchronized void put(Key key, FFTResult result, long maxSize) {
+    long resultSize = getSize(result);
+    if (resultSize > maxSize) {
+      return;
+    }
+    FFTResult previous = entries.put(key, result);
+    if (previous != null) {
+      size -= getSize(previous);
+    }
+    size += resultSize;
+
+    Iterator<FFTResult> eldest = entries.values().iterator();
+    while (size > maxSize) {
+      FFTResult evicted = eldest.next();
+      eldest.remove();
+      size -= getSize(evicted);
+    }
+  }
+
+  /**
+   * Remove every entry calculated from the given data
+   *
+   * @param block Key of the data
+   */
+  synchronized void invalidate(BlockKey block) {
+    Iterator<Map.Entry<Key, FFTResult>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Key, FFTResult> entry = iterator.next();
+      if (entry.getKey().uses(block)) {
+        size -= getSize(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Remove every entry with the given response applied to it
+   *
+   * @param response Response that was applied
+   */
+  synchronized void invalidate(InstrumentResponse response) {
+    Iterator<Map.Entry<Key, FFTResult>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Key, FFTResult> entry = iterator.next();
+      if (entry.getKey().uses(response)) {
+        size -= getSize(entry.getValue());
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Get the number of results held
+   *
+   * @return Number of entries in the cache
+   */
+  synchronized int entryCount() {
+    return entries.size();
+  }
+
+  /**
+   * Get the total size of the results held
+   *
+   * @return Size of the cache's entries in bytes
+   */
+  synchronized long getSize() {
+    return size;
+  }
+
+  /**
+   * Identifies the samples a block gives out: its data, trim window and interval
+   */
+  static final class BlockKey {
+
+    private final String name;
+    private final long dataId;
+    private final long start;
+    private final long end;
+    private final long interval;
+
+    BlockKey(String name, long dataId, long start, long end, long interval) {
+      this.name = name;
+      this.dataId = dataId;
+      this.start = start;
+      this.end = end;
+      this.interval = interval;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof BlockKey)) {
+        return false;
+      }
+      BlockKey other = (BlockKey) obj;
+      return dataId == other.dataId && start == other.start && end == other.end &&
+          interval == other.interval && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new long[]{dataId, start, end, interval}) * 31 + name.hashCode();
+    }
+  }
+
+  /**
+   * Identifies a crosspower: the data of the two blocks it is of, the responses applied to them,
+   * and the data of any other blocks whose gaps or lengths decided the windows it was averaged
+   * over (an empty list if the windows only depended on the two blocks themselves). Responses are
+   * compared by identity.
+   */
+  static final class Key {
+
+    private final BlockKey first;
+    private final BlockKey second;
+    private final InstrumentResponse firstResponse;
+    private final InstrumentResponse secondResponse;
+    private final List<BlockKey> windowedWith;
+
+    Key(BlockKey first, BlockKey second, InstrumentResponse firstResponse,
+        InstrumentResponse secondResponse, List<BlockKey> windowedWith) {
+      this.first = first;
+      this.second = second;
+      this.firstResponse = firstResponse;
+      this.secondResponse = secondResponse;
+      this.windowedWith = windowedWith;
+    }
+
+    private boolean uses(BlockKey block) {
+      return first.equals(block) || second.equals(block) || windowedWith.contains(block);
+    }
+
+    private boolean uses(InstrumentResponse response) {
+      return firstResponse == response || secondResponse == response;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return first.equals(other.first) && second.equals(other.second) &&
+          firstResponse == other.firstResponse && secondResponse == other.secondResponse &&
+          windowedWith.equals(other.windowedWith);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = first.hashCode();
+      hash = hash * 31 + second.hashCode();
+      hash = hash * 31 + System.identityHashCode(firstResponse);
+      hash = hash * 31 + System.identityHashCode(secondResponse);
+      return hash * 31 + windowedWith.hashCode();
+    }
+  }
+
+}
@@ -0,0 +1,475 @@
+package asl.sensor.utils;
+
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Arithmetic on arrays of complex numbers held as primitive doubles rather than as arrays of
+ * Complex objects. An array of complex values is a double[2][length], with the real parts in the
+ * first row and the imaginary parts in the second, the same layout used by
+ * FastFourierTransformer.transformInPlace, so the result of a transform can be used directly.
+ *
+ * None of the operations here allocate anything beyond the arrays they are asked to create, which
+ * matters for spectra with millions of points, where the equivalent Complex operations would
+ * create several objects per point. Each operation gives exactly the same values as the Complex
+ * method it replaces (including its handling of NaN and infinite values), so results do not
+ * change when code moves from one to the other. The output array of an operation may be the same
+ * as one of its inputs, in which case the operation is done in place.
+ */
+public class ComplexArrays {
+
+  /**
+   * Create an array of complex values, all zero
+   *
+   * @param length Number of complex values in the array
+   * @return New array of zeros
+   */
+  public static double[][] create(int length) {
+    return new double[2][length];
+  }
+
+  /**
+   * Get the number of complex values in an array
+   *
+   * @param values Array of complex values
+   * @return Number of values in the array
+   */
+  public static int length(double[][] values) {
+    return values[0].length;
+  }
+
+  /**
+   * Copy an array of Complex objects into an array of primitive complex values
+   *
+   * @param values Array of Complex values
+   * @return New array holding the same values
+   */
+  public static double[][] fromComplex(Complex[] values) {
+    double[][] out = create(values.length);
+    for (int i = 0; i < values.length; ++i) {
+      out[0][i] = values[i].getReal();
+      out[1][i] = values[i].getImaginary();
+    }
+    return out;
+  }
+
+  /**
+   * Copy an array of primitive complex values into an array of Complex objects
+   *
+   * @param values Array of complex values
+   * @return New array of Complex objects holding the same values
+   */
+  public static Complex[] toComplex(double[][] values) {
+    Complex[] out = new Complex[length(values)];
+    for (int i = 0; i < out.length; ++i) {
+      out[i] = new Complex(values[0][i], values[1][i]);
+    }
+    return out;
+  }
+
+  /**
+   * Get one value of an array of complex values as a Complex object
+   *
+   * @param values Array of complex values
+   * @param idx Index of the value to get
+   * @return Complex object holding the value
+   */
+  public static Complex get(double[][] values, int idx) {
+    return new Complex(values[0][idx], values[1][idx]);
+  }
+
+  /**
+   * Get the magnitude of a complex value, as with Complex.abs
+   *
+   * @param real Real part of the value
+   * @param imaginary Imaginary part of the value
+   * @return Magnitude of the value
+   */
+  public static double abs(double real, double imaginary) {
+    if (Double.isNaN(real) || Double.isNaN(imaginary)) {
+      return Double.NaN;
+    }
+    if (Double.isInfinite(real) || Double.isInfinite(imaginary)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    // scaled to avoid overflow and underflow, as in Complex
+    if (FastMath.abs(real) < FastMath.abs(imaginary)) {
+      if (imaginary == 0.0) {
+        return FastMath.abs(real);
+      }
+      double q = real / imaginary;
+      return FastMath.abs(imaginary) * FastMath.sqrt(1 + q * q);
+    } else {
+      if (real == 0.0) {
+        return FastMath.abs(imaginary);
+      }
+      double q = imaginary / real;
+      return FastMath.abs(real) * FastMath.sqrt(1 + q * q);
+    }
+  }
+
+  /**
+   * Get the magnitude of one value of an array of complex values
+   *
+   * @param values Array of complex values
+   * @param idx Index of the value
+   * @return Magnitude of the value
+   */
+  public static double abs(double[][] values, int idx) {
+    return abs(values[0][idx], values[1][idx]);
+  }
+
+  /**
+   * Get the magnitude of each value of an array of complex values
+   *
+   * @param values Array of complex values
+   * @return New array of the magnitudes of the values
+   */
+  public static double[] abs(double[][] values) {
+    double[] out = new double[length(values)];
+    for (int i = 0; i < out.length; ++i) {
+      out[i] = abs(values[0][i], values[1][i]);
+    }
+    return out;
+  }
+
+  /**
+   * Add two arrays of complex values, point by point
+   *
+   * @param a First array of values
+   * @param b Second array of values
+   * @param out Array to put a + b into
+   */
+  public static void add(double[][] a, double[][] b, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      double re1 = a[0][i], im1 = a[1][i];
+      double re2 = b[0][i], im2 = b[1][i];
+      if (isNaN(re1, im1) || isNaN(re2, im2)) {
+        setNaN(out, i);
+      } else {
+        out[0][i] = re1 + re2;
+        out[1][i] = im1 + im2;
+      }
+    }
+  }
+
+  /**
+   * Subtract one array of complex values from another, point by point
+   *
+   * @param a Array of values to subtract from
+   * @param b Array of values to subtract
+   * @param out Array to put a - b into
+   */
+  public static void subtract(double[][] a, double[][] b, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      double re1 = a[0][i], im1 = a[1][i];
+      double re2 = b[0][i], im2 = b[1][i];
+      if (isNaN(re1, im1) || isNaN(re2, im2)) {
+        setNaN(out, i);
+      } else {
+        out[0][i] = re1 - re2;
+        out[1][i] = im1 - im2;
+      }
+    }
+  }
+
+  /**
+   * Get the complex conjugates of an array of complex values
+   *
+   * @param a Array of values
+   * @param out Array to put the conjugates of the values into
+   */
+  public static void conjugate(double[][] a, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      double re = a[0][i], im = a[1][i];
+      if (isNaN(re, im)) {
+        setNaN(out, i);
+      } else {
+        out[0][i] = re;
+        out[1][i] = -im;
+      }
+    }
+  }
+
+  /**
+   * Multiply two arrays of complex values, point by point
+   *
+   * @param a First array of values
+   * @param b Second array of values
+   * @param out Array to put a * b into
+   */
+  public static void multiply(double[][] a, double[][] b, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      multiply(a[0][i], a[1][i], b[0][i], b[1][i], out, i);
+    }
+  }
+
+  /**
+   * Multiply one array of complex values by the complex conjugates of another, point by point
+   *
+   * @param a First array of values
+   * @param b Second array of values, whose conjugates are used
+   * @param out Array to put a * conj(b) into
+   */
+  public static void multiplyConjugate(double[][] a, double[][] b, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      double re2 = b[0][i], im2 = b[1][i];
+      if (isNaN(re2, im2)) {
+        setNaN(out, i);
+      } else {
+        multiply(a[0][i], a[1][i], re2, -im2, out, i);
+      }
+    }
+  }
+
+  /**
+   * Multiply each value of an array of complex values by a single complex value
+   *
+   * @param a Array of values
+   * @param real Real part of the value to multiply by
+   * @param imaginary Imaginary part of the value to multiply by
+   * @param out Array to put the products into
+   */
+  public static void multiply(double[][] a, double real, double imaginary, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      multiply(a[0][i], a[1][i], real, imaginary, out, i);
+    }
+  }
+
+  /**
+   * Multiply each value of an array of complex values by a real number
+   *
+   * @param a Array of values
+   * @param factor Number to multiply each value by
+   * @param out Array to put the products into
+   */
+  public static void multiply(double[][] a, double factor, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      double re = a[0][i], im = a[1][i];
+      if (isNaN(re, im) || Double.isNaN(factor)) {
+        setNaN(out, i);
+      } else if (Double.isInfinite(re) || Double.isInfinite(im) || Double.isInfinite(factor)) {
+        setInfinite(out, i);
+      } else {
+        out[0][i] = re * factor;
+        out[1][i] = im * factor;
+      }
+    }
+  }
+
+  /**
+   * Divide one array of complex values by another, point by point
+   *
+   * @param a Array of values to divide
+   * @param b Array of values to divide by
+   * @param out Array to put a / b into
+   */
+  public static void divide(double[][] a, double[][] b, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      divide(a[0][i], a[1][i], b[0][i], b[1][i], out, i);
+    }
+  }
+
+  /**
+   * Divide each value of an array of complex values by the matching entry of an array of real
+   * numbers
+   *
+   * @param a Array of values to divide
+   * @param divisors Array of numbers to divide by
+   * @param out Array to put the quotients into
+   */
+  public static void divide(double[][] a, double[] divisors, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      divide(a[0][i], a[1][i], divisors[i], out, i);
+    }
+  }
+
+  /**
+   * Divide each value of an array of complex values by a real number
+   *
+   * @param a Array of values to divide
+   * @param divisor Number to divide by
+   * @param out Array to put the quotients into
+   */
+  public static void divide(double[][] a, double divisor, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      divide(a[0][i], a[1][i], divisor, out, i);
+    }
+  }
+
+  /**
+   * Raise each value of an array of complex values to a real power, as with Complex.pow
+   * (i.e., as exp(x * log(z)), so small rounding errors in the phase are kept as Complex has them)
+   *
+   * @param a Array of values
+   * @param exponent Power to raise each value to
+   * @param out Array to put the results into
+   */
+  public static void pow(double[][] a, double exponent, double[][] out) {
+    for (int i = 0; i < length(out); ++i) {
+      double re = a[0][i], im = a[1][i];
+      if (isNaN(re, im)) {
+        setNaN(out, i);
+        continue;
+      }
+      // log
+      double logRe = FastMath.log(abs(re, im));
+      double logIm = FastMath.atan2(im, re);
+      // multiply by exponent
+      if (isNaN(logRe, logIm) || Double.isNaN(exponent)) {
+        setNaN(out, i);
+        continue;
+      }
+      if (Double.isInfinite(logRe) || Double.isInfinite(logIm) || Double.isInfinite(exponent)) {
+        logRe = Double.POSITIVE_INFINITY;
+        logIm = Double.POSITIVE_INFINITY;
+      } else {
+        logRe *= exponent;
+        logIm *= exponent;
+      }
+      // exp
+      double expRe = FastMath.exp(logRe);
+      out[0][i] = expRe * FastMath.cos(logIm);
+      out[1][i] = expRe * FastMath.sin(logIm);
+    }
+  }
+
+  /**
+   * Add the product of one array of complex values and the conjugate of another, scaled by a real
+   * factor and divisor, to a running sum; i.e., sum += (a * conj(b)) * factor / divisor, as done
+   * for each window of a Welch average of cross-power
+   *
+   * @param a First array of values
+   * @param b Second array of values, whose conjugates are used
+   * @param factor Number to multiply each product by
+   * @param divisor Number to divide each scaled product by
+   * @param sum Array of running sums to add to
+   */
+  public static void addScaledConjugateProduct(double[][] a, double[][] b, double factor,
+      double divisor, double[][] sum) {
+    double[] sumRe = sum[0];
+    double[] sumIm = sum[1];
+    for (int i = 0; i < sumRe.length; ++i) {
+      double re1 = a[0][i], im1 = a[1][i];
+      double re2 = b[0][i], im2 = -b[1][i];
+      // each step handles NaN and infinite values as the matching Complex method does
+      double re, im;
+      if (isNaN(re1, im1) || isNaN(re2, im2)) {
+        re = Double.NaN;
+        im = Double.NaN;
+      } else if (Double.isInfinite(re1) || Double.isInfinite(im1) ||
+          Double.isInfinite(re2) || Double.isInfinite(im2)) {
+        re = Double.POSITIVE_INFINITY;
+        im = Double.POSITIVE_INFINITY;
+      } else {
+        re = re1 * re2 - im1 * im2;
+        im = re1 * im2 + im1 * re2;
+      }
+
+      if (isNaN(re, im) || Double.isNaN(factor)) {
+        re = Double.NaN;
+        im = Double.NaN;
+      } else if (Double.isInfinite(re) || Double.isInfinite(im) || Double.isInfinite(factor)) {
+        re = Double.POSITIVE_INFINITY;
+        im = Double.POSITIVE_INFINITY;
+      } else {
+        re *= factor;
+        im *= factor;
+      }
+
+      if (isNaN(re, im) || Double.isNaN(divisor)) {
+        re = Double.NaN;
+        im = Double.NaN;
+      } else if (divisor == 0.) {
+        re = Double.NaN;
+        im = Double.NaN;
+      } else if (Double.isInfinite(divisor)) {
+        boolean infinite = isInfinite(re, im);
+        re = infinite ? Double.NaN : 0.;
+        im = re;
+      } else {
+        re /= divisor;
+        im /= divisor;
+      }
+
+      if (isNaN(re, im) || isNaN(sumRe[i], sumIm[i])) {
+        sumRe[i] = Double.NaN;
+        sumIm[i] = Double.NaN;
+      } else {
+        sumRe[i] += re;
+        sumIm[i] += im;
+      }
+    }
+  }
+
+  private static boolean isNaN(double real, double imaginary) {
+    return Double.isNaN(real) || Double.isNaN(imaginary);
+  }
+
+  private static boolean isInfinite(double real, double imaginary) {
+    return !isNaN(real, imaginary) && (Double.isInfinite(real) || Double.isInfinite(imaginary));
+  }
+
+  private static void setNaN(double[][] out, int idx) {
+    out[0][idx] = Double.NaN;
+    out[1][idx] = Double.NaN;
+  }
+
+  private static void setInfinite(double[][] out, int idx) {
+    out[0][idx] = Double.POSITIVE_INFINITY;
+    out[1][idx] = Double.POSITIVE_INFINITY;
+  }
+
+  private static void multiply(double re1, double im1, double re2, double im2, double[][] out,
+      int idx) {
+    if (isNaN(re1, im1) || isNaN(re2, im2)) {
+      setNaN(out, idx);
+    } else if (Double.isInfinite(re1) || Double.isInfinite(im1) ||
+        Double.isInfinite(re2) || Double.isInfinite(im2)) {
+      setInfinite(out, idx);
+    } else {
+      out[0][idx] = re1 * re2 - im1 * im2;
+      out[1][idx] = re1 * im2 + im1 * re2;
+    }
+  }
+
+  private static void divide(double re, double im, double divisor, double[][] out, int idx) {
+    if (isNaN(re, im) || Double.isNaN(divisor) || divisor == 0.) {
+      setNaN(out, idx);
+    } else if (Double.isInfinite(divisor)) {
+      if (isInfinite(re, im)) {
+        setNaN(out, idx);
+      } else {
+        out[0][idx] = 0.;
+        out[1][idx] = 0.;
+      }
+    } else {
+      out[0][idx] = re / divisor;
+      out[1][idx] = im / divisor;
+    }
+  }
+
+  private static void divide(double re1, double im1, double re2, double im2, double[][] out,
+      int idx) {
+    if (isNaN(re1, im1) || isNaN(re2, im2)) {
+      setNaN(out, idx);
+    } else if (re2 == 0. && im2 == 0.) {
+      setNaN(out, idx);
+    } else if (isInfinite(re2, im2) && !isInfinite(re1, im1)) {
+      out[0][idx] = 0.;
+      out[1][idx] = 0.;
+    } else if (FastMath.abs(re2) < FastMath.abs(im2)) {
+      // Smith's method, scaled to avoid overflow, as in Complex
+      double q = re2 / im2;
+      double denominator = re2 * q + im2;
+      out[0][idx] = (re1 * q + im1) / denominator;
+      out[1][idx] = (im1 * q - re1) / denominator;
+    } else {
+      double q = im2 / re2;
+      double denominator = im2 * q + re2;
+      out[0][idx] = (im1 * q + re1) / denominator;
+      out[1][idx] = (im1 - re1 * q) / denominator;
+    }
+  }
+
+}
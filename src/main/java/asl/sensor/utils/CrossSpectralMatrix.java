@@ -0,0 +1,91 @@
+package asl.sensor.utils;
+
+import asl.sensor.input.InstrumentResponse;
+import org.apache.commons.math3.complex.Complex;
+
+/**
+ * Holds the PSDs and crosspowers of a set of data, as returned by FFTResult.spectralMatrix.
+ * Entry (i, j) of the matrix is the crosspower of the i-th and j-th data given, i.e., the
+ * smoothed FFT of the i-th data multiplied by the complex conjugate of the FFT of the j-th, which
+ * is the same as FFTResult.spectralCalc gives for those two blocks. The diagonal holds the PSD of
+ * each block. The matrix is Hermitian, so each entry below the diagonal is the complex conjugate
+ * of the one across from it.
+ *
+ * Spectra are held without any instrument response applied; crossPower gives an entry with the
+ * responses of the two instruments applied, as in FFTResult.crossPower.
+ */
+public class CrossSpectralMatrix {
+
+  // index of the distinct data each block given to the matrix uses
+  private final int[] viewOf;
+  // spectra of each pair of distinct data
+  private final FFTResult[][] spectra;
+
+  CrossSpectralMatrix(int[] viewOf, FFTResult[][] spectra) {
+    this.viewOf = viewOf;
+    this.spectra = spectra;
+  }
+
+  /**
+   * Get the crosspower of two of the blocks of data, without responses applied. The result is
+   * shared with the matrix and should not be modified.
+   *
+   * @param i Index of the first block
+   * @param j Index of the second block (the one whose FFT is conjugated)
+   * @return Crosspower of the blocks (the PSD of the block if the indices are the same)
+   */
+  public FFTResult get(int i, int j) {
+    return spectra[viewOf[i]][viewOf[j]];
+  }
+
+  /**
+   * Get the crosspower of two of the blocks of data with the responses of the instruments that
+   * recorded them applied, as in FFTResult.crossPower
+   *
+   * @param i Index of the first block
+   * @param j Index of the second block
+   * @param ir1 Response of instrument producing the first block
+   * @param ir2 Response of instrument producing the second block
+   * @return Crosspower of the blocks with the responses applied
+   */
+  public FFTResult crossPower(int i, int j, InstrumentResponse ir1, InstrumentResponse ir2) {
+    double[] freqs = getFreqs();
+    return crossPower(i, j, ir1.applyResponseToInput(freqs), ir2.applyResponseToInput(freqs));
+  }
+
+  /**
+   * Get the crosspower of two of the blocks of data with already-evaluated responses applied, so
+   * that a response used for several entries only needs to be evaluated once
+   *
+   * @param i Index of the first block
+   * @param j Index of the second block
+   * @param freqRespd1 Response of the first instrument at each frequency of the matrix (see
+   * InstrumentResponse.applyResponseToInput)
+   * @param freqRespd2 Response of the second instrument at each frequency of the matrix
+   * @return Crosspower of the blocks with the responses applied
+   */
+  public FFTResult crossPower(int i, int j, Complex[] freqRespd1, Complex[] freqRespd2) {
+    FFTResult result = get(i, j);
+    return FFTResult.crossPower(result.getFFTArrays(), result.getFreqs(), freqRespd1,
+        freqRespd2);
+  }
+
+  /**
+   * Get the frequencies of the spectra, which are the same for every entry
+   *
+   * @return Array of frequencies matching each point of the spectra
+   */
+  public double[] getFreqs() {
+    return spectra[0][0].getFreqs();
+  }
+
+  /**
+   * Get the number of blocks of data the matrix is over, i.e., its number of rows and columns
+   *
+   * @return Size of the matrix
+   */
+  public int size() {
+    return viewOf.length;
+  }
+
+}
@@ -0,0 +1,472 @@
+package asl.sensor.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * On-disk cache of decoded miniSEED data, so that reopening a file that was loaded before does not
+ * require its records to be decompressed again. Each entry holds the decoded data of one SNCL in
+ * one file, and is keyed by the file's absolute path, size and modification time along with the
+ * SNCL; once a file changes, its old entries are no longer matched and age out of the cache.
+ *
+ * Entries are stored in a columnar binary layout: a short header, then a column of the start times
+ * of each contiguous span of data, a column of the span lengths, and then every span's samples
+ * back to back in a single column. Samples are stored as 32-bit integers when every sample is a
+ * whole number (as is the case for Steim-compressed data) and as doubles otherwise. Entries are
+ * memory-mapped to be read back in, so loading an entry costs little more than copying its samples.
+ *
+ * The cache is off unless it is turned on, either with setEnabled or by running with the system
+ * property asl.sensor.sampleCache set to true, so that loading data never writes to disk unless
+ * that was asked for. Entries are kept in ~/.asl-sensor-suite/samples unless another directory is
+ * given with setDirectory or the asl.sensor.sampleCache.dir system property, e.g.:
+ *
+ * <pre>
+ * java -Dasl.sensor.sampleCache=true -Dasl.sensor.sampleCache.dir=/scratch/cache -jar ...
+ * </pre>
+ *
+ * The total size of the entries is kept under a limit (see setMaxSize) by removing the least
+ * recently used entries whenever a new one is added; an entry's modification time is updated each
+ * time it is read to keep track of its last use. Problems reading or writing the cache are not
+ * treated as errors: an unreadable entry is treated as missing, and the data is simply decoded
+ * from the miniSEED file as usual.
+ */
+public class DecodedSampleCache {
+
+  /**
+   * Extension of the files holding each cache entry
+   */
+  public static final String ENTRY_EXTENSION = ".samples";
+
+  // identifies a file as a cache entry, and the version of the entry's layout
+  private static final int ENTRY_MAGIC = 0x41534443; // 'ASDC'
+  private static final int ENTRY_VERSION = 1;
+
+  private static final int INTEGER_SAMPLES = 0;
+  private static final int DOUBLE_SAMPLES = 1;
+
+  // size of the chunks entries are written out in
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * System property that turns the cache on when set to true
+   */
+  public static final String ENABLED_PROPERTY = "asl.sensor.sampleCache";
+
+  /**
+   * System property giving the directory to keep cache entries in
+   */
+  public static final String DIRECTORY_PROPERTY = "asl.sensor.sampleCache.dir";
+
+  private static boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+  private static File directory = new File(System.getProperty(DIRECTORY_PROPERTY,
+      System.getProperty("user.home") + File.separator + ".asl-sensor-suite" + File.separator +
+          "samples"));
+  private static long maxSize = 1L << 30;
+
+  /**
+   * Check whether decoded data is read from and written to the cache
+   *
+   * @return True if the cache is used
+   */
+  public static synchronized boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Specify whether decoded data should be read from and written to the cache. The cache is
+   * disabled by default (see ENABLED_PROPERTY). Entries already in the cache are kept when it is
+   * disabled.
+   *
+   * @param useCache True if the cache should be used
+   */
+  public static synchronized void setEnabled(boolean useCache) {
+    enabled = useCache;
+  }
+
+  /**
+   * Get the directory cache entries are kept in
+   *
+   * @return Cache directory
+   */
+  public static synchronized File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Set the directory cache entries are kept in, which is created when the first entry is written.
+   * Entries in the previous directory are left as they are.
+   *
+   * @param cacheDirectory Cache directory
+   */
+  public static synchronized void setDirectory(File cacheDirectory) {
+    directory = cacheDirectory;
+  }
+
+  /**
+   * Get the maximum total size of the entries in the cache
+   *
+   * @return Size limit in bytes
+   */
+  public static synchronized long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Set the maximum total size of the entries in the cache. This takes effect the next time an
+   * entry is added; data larger than this limit is never cached.
+   *
+   * @param bytes Size limit in bytes
+   */
+  public static synchronized void setMaxSize(long bytes) {
+    maxSize = bytes;
+  }
+
+  /**
+   * Get the decoded data of a channel of a miniSEED file from the cache
+   *
+   * @param path Absolute path of the miniSEED file
+   * @param fileSize Size of the file, in bytes, when its data was decoded
+   * @param lastModified Modification time of the file when its data was decoded
+   * @param filter SNCL of the data
+   * @return Pair of the interval of the data and a map from the start times of contiguous spans of
+   * data to the data in each span (as from MappedSeedReader.decodeRecords), or null if the cache is
+   * disabled or has no entry for the data
+   */
+  public static Pair<Long, Map<Long, double[]>> get(String path, long fileSize, long lastModified,
+      String filter) {
+    File entry;
+    synchronized (DecodedSampleCache.class) {
+      if (!enabled) {
+        return null;
+      }
+      entry = getEntryFile(getKey(path, fileSize, lastModified, filter));
+    }
+    if (!entry.isFile()) {
+      return null;
+    }
+    try {
+      Pair<Long, Map<Long, double[]>> data =
+          read(entry, getKey(path, fileSize, lastModified, filter));
+      // marks the entry as recently used
+      entry.setLastModified(System.currentTimeMillis());
+      return data;
+    } catch (IOException | RuntimeException e) {
+      // entry is damaged or from an incompatible version, so it may as well be removed
+      entry.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Add the decoded data of a channel of a miniSEED file to the cache, removing the least recently
+   * used entries if the cache's size limit is exceeded. Nothing is done if the cache is disabled.
+   *
+   * @param path Absolute path of the miniSEED file
+   * @param fileSize Size of the file, in bytes, when its data was decoded
+   * @param lastModified Modification time of the file when its data was decoded
+   * @param filter SNCL of the data
+   * @param data Pair of the interval of the data and the map of span start times to span data
+   */
+  public static void put(String path, long fileSize, long lastModified, String filter,
+      Pair<Long, Map<Long, double[]>> data) {
+    File entry;
+    long limit;
+    synchronized (DecodedSampleCache.class) {
+      if (!enabled) {
+        return;
+      }
+      entry = getEntryFile(getKey(path, fileSize, lastModified, filter));
+      limit = maxSize;
+    }
+    if (data.getSecond().size() == 0) {
+      return;
+    }
+    try {
+      if (!write(entry, getKey(path, fileSize, lastModified, filter), data, limit)) {
+        return;
+      }
+      evict(entry.getParentFile(), limit);
+    } catch (IOException e) {
+      // most likely the cache directory can't be written; data can still be used from memory
+    }
+  }
+
+  /**
+   * Remove every entry from the cache directory
+   */
+  public static void clear() {
+    File[] entries = listEntries(getDirectory());
+    for (File entry : entries) {
+      entry.delete();
+    }
+  }
+
+  /**
+   * Remove the least recently used entries in a cache directory until their total size is under
+   * the limit
+   */
+  private static void evict(File cacheDirectory, long limit) {
+    File[] entries = listEntries(cacheDirectory);
+    long total = 0;
+    final long[] lastUsed = new long[entries.length];
+    Integer[] order = new Integer[entries.length];
+    for (int i = 0; i < entries.length; ++i) {
+      total += entries[i].length();
+      lastUsed[i] = entries[i].lastModified();
+      order[i] = i;
+    }
+    if (total <= limit) {
+      return;
+    }
+
+    // modification times are read once up front, as they may change while sorting
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer first, Integer second) {
+        return Long.compare(lastUsed[first], lastUsed[second]);
+      }
+    });
+    for (int i = 0; i < order.length && total > limit; ++i) {
+      File entry = entries[order[i]];
+      long length = entry.length();
+      if (entry.delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  private static File[] listEntries(File cacheDirectory) {
+    File[] entries = cacheDirectory.listFiles();
+    if (entries == null) {
+      return new File[]{};
+    }
+    int count = 0;
+    for (File entry : entries) {
+      if (entry.isFile() && entry.getName().endsWith(ENTRY_EXTENSION)) {
+        entries[count++] = entry;
+      }
+    }
+    return Arrays.copyOf(entries, count);
+  }
+
+  private static String getKey(String path, long fileSize, long lastModified, String filter) {
+    return path + '\0' + fileSize + '\0' + lastModified + '\0' + filter;
+  }
+
+  /**
+   * Get the file holding the entry for a key. The name is a hash of the key, so it is always a
+   * valid filename no matter the path of the data; the key itself is checked when the entry is read.
+   */
+  private static File getEntryFile(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+        name.append(String.format("%02x", b));
+      }
+      return new File(directory, name.append(ENTRY_EXTENSION).toString());
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-1
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Get the length of an entry's header, which is padded so that the columns that follow it are
+   * aligned to 8 bytes
+   */
+  private static int getHeaderLength(int keyLength) {
+    // magic, version, key length, key, interval, span count, sample format
+    int length = 4 + 4 + 4 + keyLength + 8 + 4 + 4;
+    return (length + 7) / 8 * 8;
+  }
+
+  /**
+   * Read in an entry, checking that it was written for the given key
+   */
+  private static Pair<Long, Map<Long, double[]>> read(File entry, String key) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(entry, "r");
+        FileChannel channel = file.getChannel()) {
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer.getInt() != ENTRY_MAGIC || buffer.getInt() != ENTRY_VERSION) {
+        throw new IOException("Not a decoded data entry (or an out-of-date one): " + entry);
+      }
+      byte[] expectedKey = key.getBytes(StandardCharsets.UTF_8);
+      byte[] entryKey = new byte[buffer.getInt()];
+      buffer.get(entryKey);
+      if (!Arrays.equals(expectedKey, entryKey)) {
+        throw new IOException("Entry is for different data: " + entry);
+      }
+      long interval = buffer.getLong();
+      int spanCount = buffer.getInt();
+      int format = buffer.getInt();
+
+      buffer.position(getHeaderLength(entryKey.length));
+      long[] starts = new long[spanCount];
+      buffer.asLongBuffer().get(starts);
+      buffer.position(buffer.position() + spanCount * 8);
+      int[] lengths = new int[spanCount];
+      buffer.asIntBuffer().get(lengths);
+      buffer.position((buffer.position() + spanCount * 4 + 7) / 8 * 8);
+
+      Map<Long, double[]> timeListMap = new LinkedHashMap<>();
+      if (format == INTEGER_SAMPLES) {
+        IntBuffer samples = buffer.asIntBuffer();
+        for (int i = 0; i < spanCount; ++i) {
+          double[] data = new double[lengths[i]];
+          for (int j = 0; j < data.length; ++j) {
+            data[j] = samples.get();
+          }
+          timeListMap.put(starts[i], data);
+        }
+      } else if (format == DOUBLE_SAMPLES) {
+        DoubleBuffer samples = buffer.asDoubleBuffer();
+        for (int i = 0; i < spanCount; ++i) {
+          double[] data = new double[lengths[i]];
+          samples.get(data);
+          timeListMap.put(starts[i], data);
+        }
+      } else {
+        throw new IOException("Unknown sample format in entry: " + entry);
+      }
+      return new Pair<>(interval, timeListMap);
+    }
+  }
+
+  /**
+   * Write out an entry. As with SeedRecordIndex sidecars, the entry is written to a temporary file
+   * first and then moved into place, so that a partial entry is never read.
+   *
+   * @return False if the data is too large to be cached under the given limit
+   */
+  private static boolean write(File entry, String key, Pair<Long, Map<Long, double[]>> data,
+      long limit) throws IOException {
+    Map<Long, double[]> timeListMap = data.getSecond();
+    boolean integral = true;
+    long sampleCount = 0;
+    for (double[] span : timeListMap.values()) {
+      sampleCount += span.length;
+      for (int i = 0; i < span.length && integral; ++i) {
+        integral = ((int) span[i]) == span[i];
+      }
+    }
+
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int spanCount = timeListMap.size();
+    long columnsLength = (spanCount * 12L + 7) / 8 * 8;
+    long size = getHeaderLength(keyBytes.length) + columnsLength +
+        sampleCount * (integral ? 4 : 8);
+    if (size > limit) {
+      return false;
+    }
+
+    File parent = entry.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Could not create cache directory " + parent);
+    }
+    File temp = File.createTempFile(entry.getName(), ".tmp", parent);
+    try {
+      try (FileOutputStream out = new FileOutputStream(temp);
+          FileChannel channel = out.getChannel()) {
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(ENTRY_MAGIC);
+        buffer.putInt(ENTRY_VERSION);
+        buffer.putInt(keyBytes.length);
+        for (byte b : keyBytes) {
+          makeSpace(channel, buffer, 1);
+          buffer.put(b);
+        }
+        makeSpace(channel, buffer, 16);
+        buffer.putLong(data.getFirst());
+        buffer.putInt(spanCount);
+        buffer.putInt(integral ? INTEGER_SAMPLES : DOUBLE_SAMPLES);
+        putZeros(channel, buffer, getHeaderLength(keyBytes.length) - (28 + keyBytes.length));
+
+        for (long start : timeListMap.keySet()) {
+          makeSpace(channel, buffer, 8);
+          buffer.putLong(start);
+        }
+        for (double[] span : timeListMap.values()) {
+          makeSpace(channel, buffer, 4);
+          buffer.putInt(span.length);
+        }
+        putZeros(channel, buffer, (int) (columnsLength - spanCount * 12L));
+
+        for (double[] span : timeListMap.values()) {
+          for (double sample : span) {
+            if (integral) {
+              makeSpace(channel, buffer, 4);
+              buffer.putInt((int) sample);
+            } else {
+              makeSpace(channel, buffer, 8);
+              buffer.putDouble(sample);
+            }
+          }
+        }
+        flush(channel, buffer);
+      }
+
+      try {
+        Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+    return true;
+  }
+
+  /**
+   * Make sure there is room in the write buffer for the given number of bytes, writing out what
+   * is in it if there is not
+   */
+  private static void makeSpace(FileChannel channel, ByteBuffer buffer, int bytes)
+      throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush(channel, buffer);
+    }
+  }
+
+  /**
+   * Write padding bytes, used to keep the columns of an entry aligned to 8 bytes
+   */
+  private static void putZeros(FileChannel channel, ByteBuffer buffer, int count)
+      throws IOException {
+    for (int i = 0; i < count; ++i) {
+      makeSpace(channel, buffer, 1);
+      buffer.put((byte) 0);
+    }
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+}
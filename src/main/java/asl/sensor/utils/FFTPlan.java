@@ -0,0 +1,187 @@
+package asl.sensor.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.math3.transform.TransformType;
+
+/**
+ * Precomputed setup for complex FFTs of a single length, which can be reused for every transform
+ * of that length. A plan holds the twiddle factors (the complex exponentials the butterflies
+ * multiply by) and the bit-reversal permutation of its length, so repeated transforms of the same
+ * length, such as the windows of a Welch average or the inverse FFTs done in each step of a
+ * least-squares fit, don't recompute them.
+ *
+ * Plans are created once per length and cached (see forLength). A plan is never modified after it
+ * is created, so it can be used by any number of threads at once; each thread also gets its own
+ * scratch array from getScratch for holding data while it is transformed.
+ *
+ * Transforms are done in place on arrays of complex values in the form used by ComplexArrays,
+ * with the same conventions as FastFourierTransformer with DftNormalization.STANDARD: the forward
+ * transform is unscaled and the inverse is scaled by 1/length. Lengths must be powers of 2.
+ */
+public class FFTPlan {
+
+  private static final ConcurrentMap<Integer, FFTPlan> plans = new ConcurrentHashMap<>();
+
+  private final int length;
+  // index each entry of the data is swapped with before the butterflies
+  private final int[] bitReversed;
+  // cos and sin of 2 pi k / length for k from 0 to length / 2
+  private final double[] cos;
+  private final double[] sin;
+  private final ThreadLocal<double[][]> scratch;
+
+  private FFTPlan(final int length) {
+    this.length = length;
+
+    bitReversed = new int[length];
+    int bits = Integer.numberOfTrailingZeros(length);
+    for (int i = 0; i < length; ++i) {
+      bitReversed[i] = (bits == 0) ? 0 : Integer.reverse(i) >>> (Integer.SIZE - bits);
+    }
+
+    int half = length / 2;
+    cos = new double[half + 1];
+    sin = new double[half + 1];
+    for (int k = 0; k <= half; ++k) {
+      double theta = 2 * Math.PI * k / length;
+      cos[k] = Math.cos(theta);
+      sin[k] = Math.sin(theta);
+    }
+    if (half > 0) {
+      // exact values where sin and cos of a rounded multiple of pi would be slightly off
+      cos[half] = -1.;
+      sin[half] = 0.;
+      if (half % 2 == 0) {
+        cos[half / 2] = 0.;
+        sin[half / 2] = 1.;
+      }
+    }
+
+    scratch = new ThreadLocal<double[][]>() {
+      @Override
+      protected double[][] initialValue() {
+        return ComplexArrays.create(length);
+      }
+    };
+  }
+
+  /**
+   * Get the plan for transforms of the given length, creating it if it hasn't been used before
+   *
+   * @param length Length of the transform, a power of 2
+   * @return Plan for that length
+   * @throws IllegalArgumentException if the length is not a power of 2
+   */
+  public static FFTPlan forLength(int length) {
+    if (length < 1 || Integer.bitCount(length) != 1) {
+      throw new IllegalArgumentException("FFT length must be a power of 2, was " + length);
+    }
+    FFTPlan plan = plans.get(length);
+    if (plan == null) {
+      plan = new FFTPlan(length);
+      FFTPlan existing = plans.putIfAbsent(length, plan);
+      if (existing != null) {
+        plan = existing;
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Get the length of the transforms this plan is for
+   *
+   * @return Transform length
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Get the cosine of 2 pi k / length, i.e., the real part of the k-th twiddle factor
+   *
+   * @param k Index from 0 to length / 2
+   * @return cos(2 pi k / length)
+   */
+  double cos(int k) {
+    return cos[k];
+  }
+
+  /**
+   * Get the sine of 2 pi k / length, i.e., the negative of the imaginary part of the k-th
+   * (forward) twiddle factor
+   *
+   * @param k Index from 0 to length / 2
+   * @return sin(2 pi k / length)
+   */
+  double sin(int k) {
+    return sin[k];
+  }
+
+  /**
+   * Get an array of complex values of this plan's length belonging to the calling thread, which
+   * can be used to hold data while it is transformed. The same array is returned each time a
+   * thread calls this, so it should only be used for the duration of a single operation.
+   *
+   * @return Array of complex values of the plan's length, with unspecified contents
+   */
+  double[][] getScratch() {
+    return scratch.get();
+  }
+
+  /**
+   * Transform an array of complex values in place
+   *
+   * @param data Array of complex values (see ComplexArrays) of the plan's length
+   * @param type Direction of the transform
+   */
+  public void transform(double[][] data, TransformType type) {
+    double[] re = data[0];
+    double[] im = data[1];
+    if (re.length != length || im.length != length) {
+      throw new IllegalArgumentException(
+          "Data of length " + re.length + " given to FFT of length " + length);
+    }
+
+    for (int i = 0; i < length; ++i) {
+      int j = bitReversed[i];
+      if (i < j) {
+        double temp = re[i];
+        re[i] = re[j];
+        re[j] = temp;
+        temp = im[i];
+        im[i] = im[j];
+        im[j] = temp;
+      }
+    }
+
+    // forward transforms use exp(-2 pi i k / n), inverse transforms exp(2 pi i k / n)
+    double sign = (type == TransformType.FORWARD) ? -1. : 1.;
+    for (int size = 2; size <= length; size *= 2) {
+      int half = size / 2;
+      int step = length / size;
+      for (int k = 0; k < half; ++k) {
+        double wRe = cos[k * step];
+        double wIm = sign * sin[k * step];
+        for (int start = k; start < length; start += size) {
+          int other = start + half;
+          double tRe = wRe * re[other] - wIm * im[other];
+          double tIm = wRe * im[other] + wIm * re[other];
+          re[other] = re[start] - tRe;
+          im[other] = im[start] - tIm;
+          re[start] += tRe;
+          im[start] += tIm;
+        }
+      }
+    }
+
+    if (type == TransformType.INVERSE) {
+      double scale = 1. / length;
+      for (int i = 0; i < length; ++i) {
+        re[i] *= scale;
+        im[i] *= scale;
+      }
+    }
+  }
+
+}
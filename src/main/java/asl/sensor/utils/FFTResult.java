@@ -1,16 +1,17 @@
 package asl.sensor.utils;
 
 import asl.sensor.input.DataBlock;
+import asl.sensor.input.DataView;
+import asl.sensor.input.SegmentedView;
 import asl.sensor.input.InstrumentResponse;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 import org.apache.commons.math3.util.Pair;
 import org.jfree.data.xy.XYSeries;
 import uk.me.berndporr.iirj.Butterworth;
@@ -26,7 +27,11 @@ import uk.me.berndporr.iirj.Butterworth;
  */
 public class FFTResult {
 
-  final private Complex[] transform; // the FFT data
+  private static int spectralParallelism = Runtime.getRuntime().availableProcessors();
+  private static ForkJoinPool spectralPool;
+
+  // the FFT data, as real and imaginary parts (see ComplexArrays)
+  final private double[][] transform;
   final private double[] freqs; // array of frequencies matching the fft data
 
   /**
@@ -35,10 +40,11 @@ public class FFTResult {
    * Holds results of an FFT calculation already performed, usable in return
    * statements
    *
-   * @param inPSD Precalculated FFT result for some timeseries
+   * @param inPSD Precalculated FFT result for some timeseries, as an array of complex values
+   * in the form used by ComplexArrays
    * @param inFreq Frequencies matched up to each FFT value
    */
-  private FFTResult(Complex[] inPSD, double[] inFreq) {
+  private FFTResult(double[][] inPSD, double[] inFreq) {
     transform = inPSD;
     freqs = inFreq;
   }
@@ -111,28 +117,41 @@ public class FFTResult {
     return wss;
   }
 
-  private static FFTResult crossPower(Complex[] results, double[] freqs,
+  /**
+   * Apply the responses of two instruments to their (previously calculated) crosspower, as in
+   * crossPower(DataBlock, DataBlock, InstrumentResponse, InstrumentResponse)
+   *
+   * @param results Crosspower without responses applied, as an array of complex values
+   * @param freqs Frequencies of the crosspower
+   * @param freqRespd1 Response of the first instrument at each frequency
+   * @param freqRespd2 Response of the second instrument at each frequency
+   * @return Crosspower with the responses applied
+   */
+  static FFTResult crossPower(double[][] results, double[] freqs,
       Complex[] freqRespd1, Complex[] freqRespd2) {
 
-    Complex[] out = new Complex[freqs.length];
-
+    // response curves in velocity, put them into acceleration
+    double[][] scaleFactors = ComplexArrays.create(freqs.length);
     for (int j = 0; j < freqs.length; ++j) {
-      // response curves in velocity, put them into acceleration
-      Complex scaleFactor =
-          new Complex(0.0, -1.0 / (NumericUtils.TAU * freqs[j]));
-      Complex resp1 = freqRespd1[j].multiply(scaleFactor);
-      Complex resp2 = freqRespd2[j].multiply(scaleFactor);
-
-      Complex respMagnitude =
-          resp1.multiply(resp2.conjugate());
+      scaleFactors[1][j] = -1.0 / (NumericUtils.TAU * freqs[j]);
+    }
+    double[][] resp1 = ComplexArrays.fromComplex(freqRespd1);
+    double[][] resp2 = ComplexArrays.fromComplex(freqRespd2);
+    ComplexArrays.multiply(resp1, scaleFactors, resp1);
+    ComplexArrays.multiply(resp2, scaleFactors, resp2);
 
-      if (respMagnitude.abs() == 0) {
-        respMagnitude = new Complex(Double.MIN_VALUE, 0);
+    double[][] respMagnitude = resp1;
+    ComplexArrays.multiplyConjugate(resp1, resp2, respMagnitude);
+    for (int j = 0; j < freqs.length; ++j) {
+      if (ComplexArrays.abs(respMagnitude, j) == 0) {
+        respMagnitude[0][j] = Double.MIN_VALUE;
+        respMagnitude[1][j] = 0;
       }
-
-      out[j] = results[j].divide(respMagnitude);
     }
 
+    double[][] out = ComplexArrays.create(freqs.length);
+    ComplexArrays.divide(results, respMagnitude, out);
+
     return new FFTResult(out, freqs);
 
   }
@@ -155,7 +174,7 @@ public class FFTResult {
       InstrumentResponse ir1, InstrumentResponse ir2) {
 
     FFTResult selfPSD = spectralCalc(data1, data2);
-    Complex[] results = selfPSD.getFFT();
+    double[][] results = selfPSD.getFFTArrays();
     double[] freqs = selfPSD.getFreqs();
     Complex[] freqRespd1 = ir1.applyResponseToInput(freqs);
     Complex[] freqRespd2 = ir2.applyResponseToInput(freqs);
@@ -166,7 +185,7 @@ public class FFTResult {
   public static FFTResult crossPower(double[] data1, double[] data2,
       InstrumentResponse ir1, InstrumentResponse ir2, long interval) {
     FFTResult selfPSD = spectralCalc(data1, data2, interval);
-    Complex[] results = selfPSD.getFFT();
+    double[][] results = selfPSD.getFFTArrays();
     double[] freqs = selfPSD.getFreqs();
     Complex[] freqRespd1 = ir1.applyResponseToInput(freqs);
     Complex[] freqRespd2 = ir2.applyResponseToInput(freqs);
@@ -300,19 +319,32 @@ public class FFTResult {
   }
 
   public static Pair<Complex[], Double> getSpectralWindow(double[] toFFT, int padding) {
+    double[][] frqDomn1 = ComplexArrays.create(padding / 2 + 1);
+    double wss = getSpectralWindow(toFFT, frqDomn1);
+    return new Pair<>(ComplexArrays.toComplex(frqDomn1), wss);
+  }
+
+  /**
+   * Demean, taper, and transform a window of data into an array of complex values, as in
+   * getSpectralWindow, but into an existing array, so the same array can be used for each window
+   * of a Welch average
+   *
+   * @param toFFT Window of data, which is demeaned and tapered in place
+   * @param frqDomn Array of complex values (see ComplexArrays) to hold the single-sided FFT of the
+   * window, whose length is half the padded length of the FFT, plus one
+   * @return Value corresponding to power loss from application of taper
+   */
+  private static double getSpectralWindow(double[] toFFT, double[][] frqDomn) {
     // demean and detrend work in-place on the list
     TimeSeriesUtils.demeanInPlace(toFFT);
-    Double wss = cosineTaper(toFFT, 0.05);
-    // presumably we only need the last value of wss
-
-    toFFT = Arrays.copyOfRange(toFFT, 0, padding);
-    FastFourierTransformer fft =
-        new FastFourierTransformer(DftNormalization.STANDARD);
+    double wss = cosineTaper(toFFT, 0.05);
 
-    Complex[] frqDomn1 = fft.transform(toFFT, TransformType.FORWARD);
-    int singleSide = padding / 2 + 1;
-    // use arraycopy now (as it's fast) to get the first half of the fft
-    return new Pair<>(Arrays.copyOfRange(frqDomn1, 0, singleSide), wss);
+    int padding = 2 * (ComplexArrays.length(frqDomn) - 1);
+    if (toFFT.length > padding) {
+      toFFT = Arrays.copyOf(toFFT, padding);
+    }
+    RealFFT.forward(toFFT, frqDomn);
+    return wss;
   }
 
   /**
@@ -338,26 +370,15 @@ public class FFTResult {
 
   /**
    * Function for padding and returning the result of a forward FFT.
-   * This does not trim the negative frequencies of the result; it returns
-   * the full FFT result as an array of Complex numbers
+   * Only the positive frequencies of the result are returned (the negative frequencies of the
+   * FFT of real data are just their complex conjugates), as an array of complex values
+   * (see ComplexArrays)
    *
    * @param dataIn Array of doubles representing timeseries data
-   * @return Complex array representing forward FFT values, including
-   * symmetric component (second half of the function)
+   * @return Complex array representing forward FFT values, from 0 Hz to the Nyquist frequency
    */
-  private static Complex[] simpleFFT(double[] dataIn) {
-
-    int padding = 2;
-    while (padding < dataIn.length) {
-      padding *= 2;
-    }
-
-    double[] toFFT = Arrays.copyOf(dataIn, padding);
-
-    FastFourierTransformer fft =
-        new FastFourierTransformer(DftNormalization.STANDARD);
-
-    return fft.transform(toFFT, TransformType.FORWARD);
+  private static double[][] simpleFFT(double[] dataIn) {
+    return RealFFT.forward(dataIn, findFFTPaddingLength(dataIn.length));
   }
 
   /**
@@ -380,19 +401,16 @@ public class FFTResult {
     FFTResult.cosineTaper(data, 0.05);
     // data = TimeSeriesUtils.normalize(data);
 
-    Complex[] frqDomn = simpleFFT(data);
+    double[][] fftOut = simpleFFT(data);
 
-    int padding = frqDomn.length;
-    int singleSide = padding / 2 + 1;
+    int singleSide = ComplexArrays.length(fftOut);
 
     double nyquist = sps / 2;
     double deltaFrq = nyquist / (singleSide - 1);
 
-    Complex[] fftOut = new Complex[singleSide];
     double[] frequencies = new double[singleSide];
 
     for (int i = 0; i < singleSide; ++i) {
-      fftOut[i] = frqDomn[i];
       frequencies[i] = i * deltaFrq;
     }
 
@@ -427,19 +445,16 @@ public class FFTResult {
     data = TimeSeriesUtils.demean(data);
     cosineTaper(data, 0.05);
 
-    Complex[] frqDomn = simpleFFT(data);
+    double[][] fftOut = simpleFFT(data);
 
-    int padding = frqDomn.length;
-    int singleSide = padding / 2 + 1;
+    int singleSide = ComplexArrays.length(fftOut);
 
     double nyquist = db.getSampleRate() / 2;
     double deltaFrq = nyquist / (singleSide - 1);
 
-    Complex[] fftOut = new Complex[singleSide];
     double[] frequencies = new double[singleSide];
 
     for (int i = 0; i < singleSide; ++i) {
-      fftOut[i] = frqDomn[i];
       frequencies[i] = i * deltaFrq;
     }
 
@@ -457,26 +472,7 @@ public class FFTResult {
    * @return A list of doubles representing the original timeseries of the FFT
    */
   public static double[] singleSidedInverseFFT(Complex[] freqDomn, int trim) {
-    FastFourierTransformer fft =
-        new FastFourierTransformer(DftNormalization.STANDARD);
-
-    int padding = (freqDomn.length - 1) * 2;
-
-    Complex[] padded = new Complex[padding];
-    System.arraycopy(freqDomn, 0, padded, 0, freqDomn.length);
-    for (int i = 1; i < padding / 2; ++i) {
-      padded[padded.length - i] = padded[i].conjugate();
-    }
-
-    Complex[] timeSeriesCpx =
-        fft.transform(padded, TransformType.INVERSE);
-
-    double[] timeSeries = new double[trim];
-    for (int i = 0; i < trim; ++i) {
-      timeSeries[i] = timeSeriesCpx[i].getReal();
-    }
-
-    return timeSeries;
+    return RealFFT.inverse(ComplexArrays.fromComplex(freqDomn), trim);
   }
 
   /**
@@ -501,10 +497,11 @@ public class FFTResult {
     // and calculating the same data twice
     boolean sameData = data1.getName().equals(data2.getName());
 
-    double[] list1 = data1.getData();
-    double[] list2 = list1;
+    // views avoid copying data, and keep track of gaps so they can be left out
+    SegmentedView list1 = data1.segmentedView();
+    SegmentedView list2 = list1;
     if (!sameData) {
-      list2 = data2.getData();
+      list2 = data2.segmentedView();
     }
 
     long interval = data1.getInterval();
@@ -513,6 +510,48 @@ public class FFTResult {
 
   }
 
+  /**
+   * Get the number of threads the windows of a PSD or crosspower calculation are split over
+   *
+   * @return Parallelism level of spectral calculations
+   */
+  public static synchronized int getSpectralParallelism() {
+    return spectralParallelism;
+  }
+
+  /**
+   * Set the number of threads the windows of a PSD or crosspower calculation are split over. A
+   * value of 1 means that windows are transformed serially on the calling thread. The windows are
+   * divided between the threads the same way every time, so for a given parallelism the results
+   * of a calculation do not vary from one run to the next. By default this is the number of
+   * available processors.
+   *
+   * @param parallelism Number of threads to use (must be at least 1)
+   */
+  public static synchronized void setSpectralParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    if (parallelism != spectralParallelism && spectralPool != null) {
+      spectralPool.shutdown();
+      spectralPool = null;
+    }
+    spectralParallelism = parallelism;
+  }
+
+  /**
+   * Get the pool used to transform windows in parallel, or null if they are done serially
+   */
+  private static synchronized ForkJoinPool getSpectralPool() {
+    if (spectralParallelism == 1) {
+      return null;
+    }
+    if (spectralPool == null) {
+      spectralPool = new ForkJoinPool(spectralParallelism);
+    }
+    return spectralPool;
+  }
+
   static int findFFTPaddingLength(int size) {
     int padding = 2;
     while (padding < size) {
@@ -541,13 +580,147 @@ public class FFTResult {
   public static FFTResult
   spectralCalc(double[] list1, double[] list2, long interval) {
 
+    DataView view1 = DataView.of(list1, 0L, interval);
     //Only the same data if the arrays are actually the same objects.
     //noinspection ArrayEquals
-    boolean sameData = list1.equals(list2);
+    DataView view2 = list1.equals(list2) ? view1 : DataView.of(list2, 0L, interval);
+    return spectralCalc(view1, view2, interval);
+  }
+
+  /**
+   * Helper function to calculate power spectral density / crosspower over views of data, as
+   * with spectralCalc(double[], double[], long). Each window of the data is copied out of the
+   * views as it is transformed, so the data does not need to be copied beforehand.
+   *
+   * @param list1 First view of data to be given as input
+   * @param list2 Second view of data to be given as input, which can be
+   * the same as the first (and if so, is ignored)
+   * @param interval Interval of the data (same for both lists)
+   * @return FFTResult (FFT values and frequencies as a pair of arrays)
+   * representing the power-spectral density / crosspower of the input data.
+   */
+  public static FFTResult spectralCalc(DataView list1, DataView list2, long interval) {
+    //Only the same data if the views are actually the same objects.
+    SegmentedView segmented1 = SegmentedView.of(list1);
+    SegmentedView segmented2 = (list1 == list2) ? segmented1 : SegmentedView.of(list2);
+    return spectralCalc(segmented1, segmented2, interval);
+  }
+
+  /**
+   * Helper function to calculate power spectral density / crosspower over data that may have gaps
+   * in it, as with spectralCalc(double[], double[], long). Windows of the data that overlap a gap
+   * in either input are left out of the average rather than being transformed with the gap's
+   * zeros in them, which would otherwise pull down the estimate (and waste the work of the FFT).
+   * If every window overlaps a gap, there is nothing else to go on, and so all of the windows are
+   * used, with gaps treated as zeros. The windows are transformed in parallel, split between a
+   * number of threads given by setSpectralParallelism.
+   *
+   * @param list1 First view of data to be given as input
+   * @param list2 Second view of data to be given as input, which can be
+   * the same as the first (and if so, is ignored)
+   * @param interval Interval of the data (same for both lists)
+   * @return FFTResult (FFT values and frequencies as a pair of arrays)
+   * representing the power-spectral density / crosspower of the input data.
+   */
+  public static FFTResult spectralCalc(SegmentedView list1, SegmentedView list2, long interval) {
+    //Only the same data if the views are actually the same objects.
+    SegmentedView[] views =
+        (list1 == list2) ? new SegmentedView[]{list1} : new SegmentedView[]{list1, list2};
+    int[][] pairs = new int[][]{{0, views.length - 1}};
+    return welchAverage(views, pairs, interval)[0];
+  }
+
+  /**
+   * Get the cross-spectral matrix of a set of aligned data: the PSD of each block and the
+   * crosspower of every pair of blocks, as given by spectralCalc, but with each window of each
+   * block transformed only once rather than once for each spectrum it is part of. Blocks with the
+   * same name are taken to be the same data (as in spectralCalc) and are only transformed once.
+   *
+   * The windows are laid out over the shortest of the blocks, and the interval of the first block
+   * is used for all of them. Windows that overlap a gap in any of the blocks are left out of every
+   * spectrum, so each spectrum is averaged over the same windows; if every window overlaps a gap,
+   * all of them are used, with gaps treated as zeros.
+   *
+   * @param blocks Data to get the spectra of, all covering the same time range at the same rate
+   * @return Matrix of PSDs and crosspowers (without responses applied) of the data
+   */
+  public static CrossSpectralMatrix spectralMatrix(DataBlock... blocks) {
+    // views of the distinct data, and which view each block uses
+    int[] viewOf = new int[blocks.length];
+    SegmentedView[] views = new SegmentedView[blocks.length];
+    int viewCount = 0;
+    for (int i = 0; i < blocks.length; ++i) {
+      viewOf[i] = -1;
+      for (int j = 0; j < i; ++j) {
+        if (blocks[i].getName().equals(blocks[j].getName())) {
+          viewOf[i] = viewOf[j];
+          break;
+        }
+      }
+      if (viewOf[i] < 0) {
+        viewOf[i] = viewCount;
+        views[viewCount] = blocks[i].segmentedView();
+        ++viewCount;
+      }
+    }
+    views = Arrays.copyOf(views, viewCount);
+
+    // only the upper triangle is calculated, as the lower is its complex conjugate
+    int[][] pairs = new int[viewCount * (viewCount + 1) / 2][];
+    int pairCount = 0;
+    for (int i = 0; i < viewCount; ++i) {
+      for (int j = i; j < viewCount; ++j) {
+        pairs[pairCount] = new int[]{i, j};
+        ++pairCount;
+      }
+    }
+
+    FFTResult[] results = welchAverage(views, pairs, blocks[0].getInterval());
+    FFTResult[][] byView = new FFTResult[viewCount][viewCount];
+    for (int k = 0; k < pairs.length; ++k) {
+      int i = pairs[k][0];
+      int j = pairs[k][1];
+      byView[i][j] = results[k];
+      if (i != j) {
+        byView[j][i] = results[k].conjugate();
+      }
+    }
+    return new CrossSpectralMatrix(viewOf, byView);
+  }
+
+  /**
+   * Welch average of the crosspowers of the given pairs of views, leaving out windows that
+   * overlap a gap in any of the views unless every window does.
+   */
+  private static FFTResult[] welchAverage(SegmentedView[] views, int[][] pairs, long interval) {
+    for (SegmentedView view : views) {
+      if (view.hasGaps()) {
+        FFTResult[] results = welchAverage(views, pairs, interval, true);
+        if (results != null) {
+          return results;
+        }
+        break;
+      }
+    }
+    return welchAverage(views, pairs, interval, false);
+  }
+
+  /**
+   * Welch average of the crosspowers of the given pairs of views, leaving out windows that overlap
+   * gaps if specified. Each pair holds the indices of the two views whose crosspower is taken.
+   * Returns null if no window could be used.
+   */
+  private static FFTResult[] welchAverage(SegmentedView[] views, int[][] pairs, long interval,
+      boolean skipGaps) {
+
+    int length = views[0].length();
+    for (SegmentedView view : views) {
+      length = Math.min(length, view.length());
+    }
 
     // divide into windows of 1/4, moving up 1/16 of the data at a time
 
-    int range = list1.length / 4;
+    int range = length / 4;
     int slider = range / 4;
 
     // period is 1/sample rate in seconds
@@ -563,64 +736,56 @@ public class FFTResult {
     int singleSide = padding / 2 + 1;
     double deltaFreq = 1. / (padding * period);
 
-    Complex[] powSpectDens = new Complex[singleSide];
-    double wss;
-
+    // find the start of each window to be used
+    int[] windowStarts = new int[length / Math.max(1, slider) + 1];
     int segsProcessed = 0;
-    int rangeStart = 0;
-    int rangeEnd = range;
-
-    for (int i = 0; i < powSpectDens.length; ++i) {
-      powSpectDens[i] = Complex.ZERO;
-    }
-
-    while (rangeEnd <= list1.length) {
-
-      // give us a new list we can modify to get the data of
-      double[] toFFT1 =
-          Arrays.copyOfRange(list1, rangeStart, rangeEnd);
-      double[] toFFT2 = null;
-
-      if (!sameData) {
-        toFFT2 = Arrays.copyOfRange(list2, rangeStart, rangeEnd);
+    for (int rangeStart = 0; rangeStart + range <= length; rangeStart += slider) {
+      int rangeEnd = rangeStart + range;
+      boolean usable = true;
+      for (int i = 0; skipGaps && usable && i < views.length; ++i) {
+        usable = !views[i].overlapsGap(rangeStart, rangeEnd);
       }
-
-      Pair<Complex[], Double> windFFTData = getSpectralWindow(toFFT1, padding);
-      Complex[] fftResult1 = windFFTData.getFirst(); // actual fft data
-      wss = windFFTData.getSecond(); // represents some measure of power loss
-      Complex[] fftResult2 = fftResult1;
-      if (toFFT2 != null) {
-        fftResult2 = getSpectralWindow(toFFT2, padding).getFirst();
+      if (usable) {
+        windowStarts[segsProcessed] = rangeStart;
+        ++segsProcessed;
       }
-
-      for (int i = 0; i < singleSide; ++i) {
-
-        Complex val1 = fftResult1[i];
-        Complex val2 = val1;
-        if (fftResult2 != null) {
-          val2 = fftResult2[i];
-        }
-
-        // 2 * fft1 * fft2' / wss
-        Complex temp = val1.multiply(val2.conjugate()).multiply(2).divide(wss);
-        powSpectDens[i] = powSpectDens[i].add(temp);
+      // guards against an endless loop on data too short to slide over
+      if (slider == 0) {
+        break;
       }
+    }
 
-      ++segsProcessed;
-      rangeStart += slider;
-      rangeEnd += slider;
+    if (segsProcessed == 0 && skipGaps) {
+      return null;
+    }
 
+    double[][][] powSpectDens;
+    ForkJoinPool pool = getSpectralPool();
+    if (pool == null || segsProcessed < 2) {
+      powSpectDens = new WelchTask(views, pairs, windowStarts, range, singleSide,
+          0, segsProcessed, segsProcessed).compute();
+    } else {
+      // one batch of windows for each thread, so that each thread sums its windows by itself
+      int threads = Math.min(pool.getParallelism(), segsProcessed);
+      int batchSize = (segsProcessed + threads - 1) / threads;
+      powSpectDens = pool.invoke(new WelchTask(views, pairs, windowStarts, range, singleSide,
+          0, segsProcessed, batchSize));
     }
 
     // get frequency per-point, also normalize PSD on number of segments processed (i.e., get mean)
     // and divide out the sample rate (multiply by period)
     double[] frequencies = new double[singleSide];
     for (int i = 0; i < singleSide; ++i) {
-      powSpectDens[i] = powSpectDens[i].divide(segsProcessed).multiply(period);
       frequencies[i] = i * deltaFreq;
     }
+    FFTResult[] results = new FFTResult[pairs.length];
+    for (int k = 0; k < pairs.length; ++k) {
+      ComplexArrays.divide(powSpectDens[k], segsProcessed, powSpectDens[k]);
+      ComplexArrays.multiply(powSpectDens[k], period, powSpectDens[k]);
+      results[k] = new FFTResult(powSpectDens[k], frequencies);
+    }
 
-    return new FFTResult(powSpectDens, frequencies);
+    return results;
 
   }
 
@@ -645,12 +810,25 @@ public class FFTResult {
   }
 
   /**
-   * Get the FFT for some sort of previously calculated data
+   * Get the complex conjugate of this result, such as the crosspower of two series in the reverse
+   * order from this one
+   *
+   * @return New FFTResult with conjugated FFT values and the same frequencies
+   */
+  FFTResult conjugate() {
+    double[][] conjugated = ComplexArrays.create(freqs.length);
+    ComplexArrays.conjugate(transform, conjugated);
+    return new FFTResult(conjugated, freqs);
+  }
+
+  /**
+   * Get the FFT for some sort of previously calculated data. This creates a new Complex object for
+   * each point of the FFT; getFFTArrays gives the same data without creating any objects.
    *
    * @return Array of FFT results, as complex numbers
    */
   public Complex[] getFFT() {
-    return transform;
+    return ComplexArrays.toComplex(transform);
   }
 
   /**
@@ -660,7 +838,17 @@ public class FFTResult {
    * @return FFT value at index
    */
   public Complex getFFT(int idx) {
-    return transform[idx];
+    return ComplexArrays.get(transform, idx);
+  }
+
+  /**
+   * Get the FFT for some sort of previously calculated data as arrays of real and imaginary parts
+   * (see ComplexArrays). The arrays are the ones held by this object and should not be modified.
+   *
+   * @return Array of FFT results, with real parts in the first row and imaginary in the second
+   */
+  public double[][] getFFTArrays() {
+    return transform;
   }
 
   /**
@@ -689,7 +877,90 @@ public class FFTResult {
    * @return int representing size of thi's object's arrays
    */
   public int size() {
-    return transform.length;
+    return freqs.length;
+  }
+
+  /**
+   * Sums the cross-spectra (2 * fft1 * fft2' / wss) of a range of windows of data for a Welch
+   * average, for each of a list of pairs of views of data. Each window of each view is transformed
+   * once, however many pairs it is part of. Ranges longer than the batch size are split into two
+   * halves at a multiple of the batch size, which are summed separately and then added together,
+   * so each batch gets its own sums and the sums are always combined in the same order.
+   */
+  private static class WelchTask extends RecursiveTask<double[][][]> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SegmentedView[] views;
+    private final int[][] pairs;
+    private final int[] windowStarts;
+    private final int range;
+    private final int singleSide;
+    private final int from;
+    private final int to;
+    private final int batchSize;
+
+    WelchTask(SegmentedView[] views, int[][] pairs, int[] windowStarts, int range,
+        int singleSide, int from, int to, int batchSize) {
+      this.views = views;
+      this.pairs = pairs;
+      this.windowStarts = windowStarts;
+      this.range = range;
+      this.singleSide = singleSide;
+      this.from = from;
+      this.to = to;
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    protected double[][][] compute() {
+      int batches = (to - from + batchSize - 1) / batchSize;
+      if (batches > 1) {
+        int mid = from + (batches / 2) * batchSize;
+        WelchTask second =
+            new WelchTask(views, pairs, windowStarts, range, singleSide, mid, to, batchSize);
+        second.fork();
+        double[][][] sums =
+            new WelchTask(views, pairs, windowStarts, range, singleSide, from, mid, batchSize)
+                .compute();
+        double[][][] secondSums = second.join();
+        for (int k = 0; k < sums.length; ++k) {
+          ComplexArrays.add(sums[k], secondSums[k], sums[k]);
+        }
+        return sums;
+      }
+
+      double[][][] sums = new double[pairs.length][][];
+      for (int k = 0; k < pairs.length; ++k) {
+        sums[k] = ComplexArrays.create(singleSide);
+      }
+      // FFTs of the current window of each view, reused from one window to the next
+      double[][][] fftResults = new double[views.length][][];
+      for (int v = 0; v < views.length; ++v) {
+        fftResults[v] = ComplexArrays.create(singleSide);
+      }
+
+      for (int i = from; i < to; ++i) {
+        int rangeStart = windowStarts[i];
+        int rangeEnd = rangeStart + range;
+
+        // represents some measure of power loss (the same for every view, as it only depends
+        // on the length of the window)
+        double wss = 0.;
+        for (int v = 0; v < views.length; ++v) {
+          // give us a new list we can modify to get the data of
+          double[] toFFT = views[v].copyOfRange(rangeStart, rangeEnd);
+          wss = getSpectralWindow(toFFT, fftResults[v]);
+        }
+
+        // 2 * fft1 * fft2' / wss
+        for (int k = 0; k < pairs.length; ++k) {
+          ComplexArrays.addScaledConjugateProduct(fftResults[pairs[k][0]],
+              fftResults[pairs[k][1]], 2, wss, sums[k]);
+        }
+      }
+      return sums;
+    }
   }
 
 }
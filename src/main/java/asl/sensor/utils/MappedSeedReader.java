@@ -0,0 +1,844 @@
+package asl.sensor.utils;
+
+import edu.iris.dmc.seedcodec.CodecException;
+import edu.sc.seis.seisFile.mseed.SeedFormatException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * Reads miniSEED data records through a memory-mapped view of the file rather than through a
+ * stream. Records are walked in place: only the fixed header and blockette 1000 of each record
+ * are parsed in order to get the SNCL, timing and encoding of the record, and the data section
+ * of a record is only decompressed if it is actually requested.
+ *
+ * Files larger than the maximum size of a single mapping are handled by remapping a window of the
+ * file whenever a record lies outside of the currently mapped region.
+ */
+public class MappedSeedReader implements Closeable {
+
+  // length of the fixed section of the data header, in bytes
+  static final int FIXED_HEADER_SIZE = 48;
+
+  // used if no blockette 1000 can be found to get the record length from (as in SeedRecord.read)
+  private static final int DEFAULT_RECORD_LENGTH = 4096;
+
+  // blockette offsets are 16-bit values, so no blockette starts past this point in a record
+  private static final int MAX_BLOCKETTE_OFFSET = 0xFFFF;
+
+  // largest region of a file that will be mapped at once
+  private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+  private static final long MS_PER_DAY = 86400000L;
+
+  // number of records decoded in a single fork-join task
+  private static final int DECODE_BATCH_SIZE = 64;
+
+  private static int decodeParallelism = Runtime.getRuntime().availableProcessors();
+  private static ForkJoinPool decodePool;
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long fileSize;
+  private MappedByteBuffer window;
+  private long windowStart;
+  private long windowEnd;
+  private int defaultRecordLength;
+
+  /**
+   * Open and map a miniSEED file for reading
+   *
+   * @param filename Full path to the file to be read in
+   * @throws IOException If the file cannot be opened or mapped
+   */
+  public MappedSeedReader(String filename) throws IOException {
+    file = new RandomAccessFile(filename, "r");
+    channel = file.getChannel();
+    fileSize = channel.size();
+    windowStart = 0;
+    windowEnd = 0;
+    defaultRecordLength = DEFAULT_RECORD_LENGTH;
+  }
+
+  /**
+   * Read in multiple miniseed files and get the data for a given SNCL as a map of the start times
+   * of contiguous spans of data to the data in each span. Records from other channels are skipped
+   * without being decompressed. Each file is read in separately (see getTimeSeriesMap(String[],
+   * String, long, long)) and the data of the files is then merged.
+   *
+   * @param filenames List of miniseed data
+   * @param filter SNCL data of relevant channel to get data from
+   * @return Paired value, first entry of which is the interval between points
+   * given as a long and second of which is a map from the start times of contiguous spans of
+   * data to the data points in each span
+   */
+  public static Pair<Long, Map<Long, double[]>>
+  getTimeSeriesMap(String[] filenames, String filter)
+      throws IOException, SeedFormatException, CodecException {
+    return getTimeSeriesMap(filenames, filter, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Read in multiple miniseed files and get the data for a given SNCL over a time range, as a map
+   * of the start times of contiguous spans of data to the data in each span. Records that end
+   * before the range starts or begin after it ends are skipped without being decompressed;
+   * records that only partly overlap the range are kept in full. If the decoded data cache is
+   * enabled (see DecodedSampleCache), each file's data is taken from it where it is already
+   * there, cut down to the same whole records that would have been decoded; only a read of all of
+   * a file's data adds that data to the cache.
+   *
+   * Each file is read in (or taken from the cache) as a separate task on the decoding pool (see
+   * setDecodeParallelism), giving a set of spans for each file, so loads covering many days do not
+   * go through the files one at a time. The spans of all the files are then merged in time order
+   * (see mergeSpans).
+   *
+   * @param filenames List of miniseed data
+   * @param filter SNCL data of relevant channel to get data from
+   * @param start Start of the time range in ms from epoch
+   * @param end End of the time range in ms from epoch
+   * @return Paired value, first entry of which is the interval between points
+   * given as a long and second of which is a map from the start times of contiguous spans of
+   * data to the data points in each span
+   */
+  public static Pair<Long, Map<Long, double[]>>
+  getTimeSeriesMap(String[] filenames, final String filter, final long start, final long end)
+      throws IOException, SeedFormatException, CodecException {
+    if (filenames.length == 1) {
+      return getFileTimeSeriesMap(filenames[0], filter, start, end);
+    }
+
+    List<Pair<Long, Map<Long, double[]>>> fileData = new ArrayList<>();
+    ForkJoinPool pool = getDecodePool();
+    if (pool == null) {
+      for (String filename : filenames) {
+        fileData.add(getFileTimeSeriesMap(filename, filter, start, end));
+      }
+      return mergeSpans(fileData);
+    }
+
+    List<Callable<Pair<Long, Map<Long, double[]>>>> reads = new ArrayList<>();
+    for (final String filename : filenames) {
+      reads.add(new Callable<Pair<Long, Map<Long, double[]>>>() {
+        @Override
+        public Pair<Long, Map<Long, double[]>> call() throws Exception {
+          return getFileTimeSeriesMap(filename, filter, start, end);
+        }
+      });
+    }
+    for (Future<Pair<Long, Map<Long, double[]>>> read : pool.invokeAll(reads)) {
+      try {
+        fileData.add(read.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while reading data", e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof SeedFormatException) {
+          throw (SeedFormatException) cause;
+        } else if (cause instanceof CodecException) {
+          throw (CodecException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new RuntimeException(cause);
+      }
+    }
+    return mergeSpans(fileData);
+  }
+
+  /**
+   * Get the data for a given SNCL over a time range from a single file. If the decoded data cache
+   * is enabled and has the file's data for the SNCL, the data is taken from the cache and cut down
+   * to the records overlapping the range, which gives the same spans as decoding those records.
+   * Otherwise the records are decoded; the data is only added to the cache when all of it was
+   * decoded, so that reading a short window of a long file doesn't decode the rest of the file.
+   */
+  private static Pair<Long, Map<Long, double[]>>
+  getFileTimeSeriesMap(String filename, String filter, long start, long end)
+      throws IOException, SeedFormatException, CodecException {
+    if (!DecodedSampleCache.isEnabled()) {
+      return decodeFile(filename, filter, start, end);
+    }
+
+    File file = new File(filename);
+    // get these first, so that a change to the file while decoding leaves the entry stale
+    String path = file.getAbsolutePath();
+    long size = file.length();
+    long modified = file.lastModified();
+
+    Pair<Long, Map<Long, double[]>> data = DecodedSampleCache.get(path, size, modified, filter);
+    boolean wholeFile = (start == Long.MIN_VALUE && end == Long.MAX_VALUE);
+    if (data == null) {
+      data = decodeFile(filename, filter, start, end);
+      if (wholeFile) {
+        DecodedSampleCache.put(path, size, modified, filter, data);
+      }
+      return data;
+    }
+    if (wholeFile) {
+      return data;
+    }
+
+    // the time range covered by the records overlapping the range, which are what decodeFile
+    // would have decoded
+    long cutStart = Long.MAX_VALUE;
+    long cutEnd = Long.MIN_VALUE;
+    for (SeedRecordHeader header : SeedRecordIndex.forFile(filename).getHeaders(filter)) {
+      if (overlaps(header, start, end)) {
+        cutStart = Math.min(cutStart, header.getStartTime());
+        cutEnd = Math.max(cutEnd, header.getEndTime());
+      }
+    }
+    long interval = data.getFirst();
+    Map<Long, double[]> timeListMap = new LinkedHashMap<>();
+    if (cutStart > cutEnd) {
+      // no records in the range
+      return new Pair<>(interval, timeListMap);
+    }
+
+    for (Map.Entry<Long, double[]> span : data.getSecond().entrySet()) {
+      long spanStart = span.getKey();
+      double[] spanData = span.getValue();
+      // index of the first sample of the first record and of the sample after the last record;
+      // rounded to the nearest sample, as record times within a span may be off by a little
+      long from = 0;
+      if (cutStart > spanStart) {
+        from = Math.min(spanData.length, (cutStart - spanStart + interval / 2) / interval);
+      }
+      long to = spanData.length;
+      if (cutEnd < spanStart + spanData.length * interval) {
+        to = (cutEnd < spanStart) ? 0 : (cutEnd - spanStart + interval / 2) / interval;
+      }
+      if (from >= to) {
+        continue;
+      }
+      if (from > 0 || to < spanData.length) {
+        spanData = Arrays.copyOfRange(spanData, (int) from, (int) to);
+      }
+      timeListMap.put(spanStart + from * interval, spanData);
+    }
+    return new Pair<>(interval, timeListMap);
+  }
+
+  /**
+   * Check whether any part of a record falls within a time range
+   */
+  private static boolean overlaps(SeedRecordHeader header, long start, long end) {
+    return header.getEndTime() >= start && header.getStartTime() <= end;
+  }
+
+  /**
+   * Merge the spans of data read from several files into a single map of contiguous spans. This
+   * follows the same rules as DataBlock uses to merge contiguous data: spans are put in time order,
+   * a span starting within a quarter-interval of the end of the previous one continues it, and
+   * samples of a span that overlap data already merged are dropped. Where spans from two files
+   * have the same start time, the one from the later file is kept.
+   *
+   * @param fileData Interval and spans of data of each file, in the order the files were given
+   * @return Paired value, first entry of which is the interval between points and second of which
+   * is a map from the start times of contiguous spans of data to the data in each, in time order
+   */
+  static Pair<Long, Map<Long, double[]>>
+  mergeSpans(List<Pair<Long, Map<Long, double[]>>> fileData) {
+    // as with records, interval is taken from the last of the data
+    long interval = 0L;
+    Map<Long, double[]> latest = new HashMap<>();
+    for (Pair<Long, Map<Long, double[]>> data : fileData) {
+      if (data.getSecond().size() > 0) {
+        interval = data.getFirst();
+        latest.putAll(data.getSecond());
+      }
+    }
+    Map<Long, double[]> timeListMap = new LinkedHashMap<>();
+    if (latest.size() == 0) {
+      return new Pair<>(interval, timeListMap);
+    }
+
+    long[] startTimes = new long[latest.size()];
+    int count = 0;
+    for (long time : latest.keySet()) {
+      startTimes[count++] = time;
+    }
+    Arrays.sort(startTimes);
+
+    List<double[]> toMerge = new ArrayList<>();
+    long spanStart = startTimes[0];
+    long timeAtSpanEnd = 0L;
+    for (long time : startTimes) {
+      double[] data = latest.get(time);
+      long difference = time - timeAtSpanEnd;
+      if (toMerge.size() == 0 || difference >= (interval / 4)) {
+        if (toMerge.size() > 0) {
+          timeListMap.put(spanStart, TimeSeriesUtils.concatAll(toMerge));
+          toMerge = new ArrayList<>();
+        }
+        spanStart = time;
+        toMerge.add(data);
+        timeAtSpanEnd = time + (data.length * interval);
+      } else if (difference < 0) {
+        // duplicated data check; round up if the overlap is over 75% of an interval
+        long diff = timeAtSpanEnd - time;
+        int skip = (int) (diff / interval);
+        if (diff % interval > 3 * interval / 4) {
+          ++skip;
+        }
+        if (skip >= data.length) {
+          continue;
+        }
+        toMerge.add(Arrays.copyOfRange(data, skip, data.length));
+        timeAtSpanEnd += (data.length - skip) * interval;
+      } else {
+        toMerge.add(data);
+        timeAtSpanEnd = time + (data.length * interval);
+      }
+    }
+    timeListMap.put(spanStart, TimeSeriesUtils.concatAll(toMerge));
+    return new Pair<>(interval, timeListMap);
+  }
+
+  /**
+   * Find the records of a given SNCL over a time range in a file and decode them
+   */
+  private static Pair<Long, Map<Long, double[]>>
+  decodeFile(String filename, String filter, long start, long end)
+      throws IOException, SeedFormatException, CodecException {
+    List<Pair<SeedRecordHeader, ByteBuffer>> records = new ArrayList<>();
+
+    // the index gives the location of each matching record, so others need not be looked at
+    SeedRecordIndex index = SeedRecordIndex.forFile(filename);
+    try (MappedSeedReader reader = new MappedSeedReader(filename)) {
+      for (SeedRecordHeader header : index.getHeaders(filter)) {
+        if (!overlaps(header, start, end)) {
+          continue;
+        }
+        records.add(new Pair<>(header, reader.getRecordBuffer(header)));
+      }
+    }
+
+    return decodeRecords(records);
+  }
+
+  /**
+   * Decode a list of records (pairs of headers and the compressed data sections of the records)
+   * into a map of the start times of contiguous spans of data to the data in each span.
+   *
+   * The spans are laid out from the record headers before anything is decoded, following the
+   * same rules as DataBlock uses to merge contiguous data: records are sorted by start time,
+   * a record starting within a quarter-interval of the end of the previous one continues its span,
+   * and samples of a record that overlap data already in the span are dropped. Where two records
+   * have the same start time, the later one in the list is kept. Each span gets a single array
+   * sized to fit it, and every record's samples are then decoded directly into their place in that
+   * array, so no per-record arrays are produced and the records never need to be concatenated.
+   * Decoding is split across a fork-join pool (see setDecodeParallelism); since every record has
+   * its own region of the output, the results do not depend on the number of threads used.
+   *
+   * @param records List of records to decode, in the order they were read
+   * @return Paired value, first entry of which is the interval between points
+   * given as a long and second of which is a map from the start times of contiguous spans of
+   * data to the data points in each span, in time order
+   * @throws SeedFormatException If any record has no blockette 1000 specifying its encoding
+   * @throws CodecException If any record's data cannot be decoded
+   */
+  public static Pair<Long, Map<Long, double[]>>
+  decodeRecords(List<Pair<SeedRecordHeader, ByteBuffer>> records)
+      throws SeedFormatException, CodecException {
+    Map<Long, double[]> timeListMap = new LinkedHashMap<>();
+    if (records.size() == 0) {
+      return new Pair<>(0L, timeListMap);
+    }
+    // we can assume interval is consistent through a file
+    long interval = records.get(records.size() - 1).getFirst().getInterval();
+
+    // keep only the last record read for each start time, then put them in time order
+    Map<Long, Integer> latest = new HashMap<>();
+    for (int i = 0; i < records.size(); ++i) {
+      latest.put(records.get(i).getFirst().getStartTime(), i);
+    }
+    long[] startTimes = new long[latest.size()];
+    int count = 0;
+    for (long time : latest.keySet()) {
+      startTimes[count++] = time;
+    }
+    Arrays.sort(startTimes);
+
+    // lay out where each record's samples go: which span, where in the span, how many to drop
+    int[] recordIndices = new int[startTimes.length];
+    int[] spans = new int[startTimes.length];
+    int[] positions = new int[startTimes.length];
+    int[] skips = new int[startTimes.length];
+    List<Long> spanStarts = new ArrayList<>();
+    List<Integer> spanLengths = new ArrayList<>();
+    int spanLength = 0;
+    long timeAtSpanEnd = 0L;
+    int planned = 0;
+    for (long time : startTimes) {
+      int index = latest.get(time);
+      int length = records.get(index).getFirst().getNumSamples();
+      long difference = time - timeAtSpanEnd;
+      int skip = 0;
+
+      if (spanStarts.size() == 0 || difference >= (interval / 4)) {
+        // gap between this record and the last (or this is the first) so start a new span
+        if (spanStarts.size() > 0) {
+          spanLengths.add(spanLength);
+        }
+        spanStarts.add(time);
+        spanLength = 0;
+        timeAtSpanEnd = time + (length * interval);
+      } else if (difference < 0) {
+        // duplicated data check; round up if the overlap is over 75% of an interval
+        long diff = timeAtSpanEnd - time;
+        long mod = diff % interval;
+        skip = (int) (diff / interval);
+        if (mod > 3 * interval / 4) {
+          ++skip;
+        }
+        if (skip >= length) {
+          // all of the record's data is already in the span
+          continue;
+        }
+        timeAtSpanEnd += (length - skip) * interval;
+      } else {
+        timeAtSpanEnd = time + (length * interval);
+      }
+
+      recordIndices[planned] = index;
+      spans[planned] = spanStarts.size() - 1;
+      positions[planned] = spanLength;
+      skips[planned] = skip;
+      spanLength += length - skip;
+      ++planned;
+    }
+    spanLengths.add(spanLength);
+
+    double[][] spanData = new double[spanStarts.size()][];
+    for (int i = 0; i < spanData.length; ++i) {
+      spanData[i] = new double[spanLengths.get(i)];
+      timeListMap.put(spanStarts.get(i), spanData[i]);
+    }
+
+    DecodeTask task =
+        new DecodeTask(records, recordIndices, spans, positions, skips, spanData, 0, planned);
+    ForkJoinPool pool = getDecodePool();
+    if (pool == null || planned <= DECODE_BATCH_SIZE) {
+      task.compute();
+    } else {
+      pool.invoke(task);
+    }
+    task.rethrowFailure();
+
+    return new Pair<>(interval, timeListMap);
+  }
+
+  /**
+   * Get the number of threads used to decode records when loading data
+   *
+   * @return Parallelism level of record decoding
+   */
+  public static synchronized int getDecodeParallelism() {
+    return decodeParallelism;
+  }
+
+  /**
+   * Set the number of threads used to decode records when loading data. A value of 1 means that
+   * records are decoded serially on the thread doing the loading. By default this is the number
+   * of available processors.
+   *
+   * @param parallelism Number of threads to decode records with (must be at least 1)
+   */
+  public static synchronized void setDecodeParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1");
+    }
+    if (parallelism != decodeParallelism && decodePool != null) {
+      decodePool.shutdown();
+      decodePool = null;
+    }
+    decodeParallelism = parallelism;
+  }
+
+  /**
+   * Get the pool used to decode records in parallel, or null if decoding is done serially
+   */
+  private static synchronized ForkJoinPool getDecodePool() {
+    if (decodeParallelism == 1) {
+      return null;
+    }
+    if (decodePool == null) {
+      decodePool = new ForkJoinPool(decodeParallelism);
+    }
+    return decodePool;
+  }
+
+  /**
+   * Convert the BTIME fields of a record header into milliseconds from epoch. Like the Calendar
+   * conversion done by seisFile, the tenth-millisecond field is truncated to milliseconds.
+   */
+  private static long btimeToEpochMilli(int year, int dayOfYear, int hour, int minute, int second,
+      int tenthMilli) {
+    long days = LocalDate.of(year, 1, 1).toEpochDay() + (dayOfYear - 1);
+    return (days * MS_PER_DAY) + (hour * 3600000L) + (minute * 60000L) + (second * 1000L)
+        + (tenthMilli / 10);
+  }
+
+  /**
+   * Get the text of an identifier field of the fixed header
+   */
+  private static String getIdentifier(ByteBuffer buffer, int start, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      bytes[i] = buffer.get(start + i);
+    }
+    return new String(bytes);
+  }
+
+  /**
+   * Produce the SNCL name of a record in the same format as used by TimeSeriesUtils when reading
+   * data through seisFile; that is, NET_STAT_LOC_CHAN with whitespace removed from the station.
+   */
+  private static String extractName(ByteBuffer buffer, int base) {
+    String station = getIdentifier(buffer, base + 8, 5).replaceAll("\\s+", "");
+    String location = getIdentifier(buffer, base + 13, 2);
+    String channel = getIdentifier(buffer, base + 15, 3);
+    String network = getIdentifier(buffer, base + 18, 2);
+    return network + "_" + station + "_" + location + "_" + channel;
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+    file.close();
+  }
+
+  /**
+   * Decompress the data of a record whose header was read by this reader
+   *
+   * @param header Header of the record to decompress
+   * @return Data from the record as an array of doubles
+   * @throws SeedFormatException If the record has no blockette 1000 specifying its encoding
+   * @throws CodecException If the data cannot be decoded
+   */
+  public double[] decompress(SeedRecordHeader header)
+      throws IOException, SeedFormatException, CodecException {
+    if (header.getNumSamples() == 0) {
+      return new double[]{};
+    }
+    return decompress(header, getRecordData(header));
+  }
+
+  /**
+   * Decompress the data section of a record that has already been copied out of its file
+   *
+   * @param header Header of the record the data came from
+   * @param data Data section of the record (see getRecordData)
+   * @return Data from the record as an array of doubles
+   * @throws SeedFormatException If the record has no blockette 1000 specifying its encoding
+   * @throws CodecException If the data cannot be decoded
+   */
+  public static double[] decompress(SeedRecordHeader header, byte[] data)
+      throws SeedFormatException, CodecException {
+    if (header.getNumSamples() == 0) {
+      return new double[]{};
+    }
+    double[] decoded = new double[header.getNumSamples()];
+    RecordDecoder.decode(header, ByteBuffer.wrap(data), decoded, 0, 0);
+    return decoded;
+  }
+
+  /**
+   * Get a copy of the (still compressed) data section of a record
+   *
+   * @param header Header of the record to get the data of
+   * @return Bytes of the record from the data offset to the end of the record
+   */
+  public byte[] getRecordData(SeedRecordHeader header) throws IOException {
+    int base = mapRegion(header.getOffset(), header.getRecordLength());
+    ByteBuffer view = window.duplicate();
+    view.position(base + header.getDataOffset());
+    byte[] data = new byte[header.getDataLength()];
+    view.get(data);
+    return data;
+  }
+
+  /**
+   * Get the (still compressed) data section of a record as a read-only view of the mapped file,
+   * without copying it. The view remains valid after this reader is closed.
+   *
+   * @param header Header of the record to get the data of
+   * @return Buffer holding the bytes of the record from the data offset to the end of the record
+   */
+  public ByteBuffer getRecordBuffer(SeedRecordHeader header) throws IOException {
+    int base = mapRegion(header.getOffset(), header.getRecordLength());
+    ByteBuffer view = window.asReadOnlyBuffer();
+    view.position(base + header.getDataOffset());
+    view.limit(base + header.getDataOffset() + header.getDataLength());
+    return view.slice();
+  }
+
+  /**
+   * Get the size of the file being read
+   *
+   * @return Size of the file in bytes
+   */
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  /**
+   * Get the number of bytes to advance past a record. If the header is null (the record was not a
+   * data record) this is the record length of the most recent record with a blockette 1000.
+   *
+   * @param header Header of the record that was just read (may be null)
+   * @return Length of the record in bytes
+   */
+  public int getRecordLength(SeedRecordHeader header) {
+    if (header == null) {
+      return defaultRecordLength;
+    }
+    return header.getRecordLength();
+  }
+
+  /**
+   * Check if there is a full fixed header to be read at the given position in the file
+   *
+   * @param offset Byte offset into the file
+   * @return True if a record header can be read from the offset
+   */
+  public boolean hasRecordAt(long offset) {
+    return offset + FIXED_HEADER_SIZE <= fileSize;
+  }
+
+  /**
+   * Make sure the given region of the file is in the mapped window and return the position of the
+   * region's start within that window.
+   */
+  private int mapRegion(long offset, int length) throws IOException {
+    long end = Math.min(offset + length, fileSize);
+    if (window == null || offset < windowStart || end > windowEnd) {
+      long size = Math.min(MAX_WINDOW_SIZE, fileSize - offset);
+      window = channel.map(MapMode.READ_ONLY, offset, size);
+      windowStart = offset;
+      windowEnd = offset + size;
+    }
+    return (int) (offset - windowStart);
+  }
+
+  /**
+   * Parse the fixed header and blockette 1000 of a record. Records that are not data records
+   * (i.e., have a quality indicator other than D, R, Q or M) produce a null result.
+   *
+   * @param offset Byte offset of the record within the file
+   * @return Description of the record's header, or null if not a data record
+   */
+  public SeedRecordHeader readHeader(long offset) throws IOException {
+    // map enough of the file to follow the blockette chain as far as it can go
+    int base = mapRegion(offset, MAX_BLOCKETTE_OFFSET + 8);
+    SeedRecordHeader header = parseHeader(window, base, offset, fileSize - offset);
+    if (header == null) {
+      return null;
+    }
+
+    if (header.getRecordLength() < 0) {
+      // can't be decompressed, but can still be skipped over if not of interest
+      return withRecordLength(header, defaultRecordLength);
+    }
+    defaultRecordLength = header.getRecordLength();
+    return header;
+  }
+
+  /**
+   * Parse the fixed header and blockette 1000 of a record held in a buffer (such as one read from
+   * a stream rather than a file), starting at the buffer's current position. Records that are not
+   * data records (i.e., have a quality indicator other than D, R, Q or M) produce a null result.
+   * The offset of the resulting header is 0.
+   *
+   * @param record Buffer holding at least the fixed header and blockettes of the record
+   * @param defaultRecordLength Record length to give the header if it has no blockette 1000
+   * @return Description of the record's header, or null if not a data record
+   */
+  public static SeedRecordHeader parseHeader(ByteBuffer record, int defaultRecordLength) {
+    SeedRecordHeader header =
+        parseHeader(record.duplicate(), record.position(), 0L, record.remaining());
+    if (header != null && header.getRecordLength() < 0) {
+      return withRecordLength(header, defaultRecordLength);
+    }
+    return header;
+  }
+
+  /**
+   * Parse the header of a record starting at the given position of a buffer, where the given
+   * number of bytes of the record are available from that position. If the record has no
+   * blockette 1000 (or it can't be found), the record length of the result is negative.
+   */
+  private static SeedRecordHeader parseHeader(ByteBuffer buffer, int base, long offset,
+      long available) {
+
+    char quality = (char) buffer.get(base + 6);
+    if (quality != 'D' && quality != 'R' && quality != 'Q' && quality != 'M') {
+      return null;
+    }
+
+    // header byte order is found by checking for a sensible year value (as done in seisFile)
+    buffer.order(ByteOrder.BIG_ENDIAN);
+    int year = buffer.getShort(base + 20) & 0xFFFF;
+    if (year < 1960 || year > 2055) {
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      year = buffer.getShort(base + 20) & 0xFFFF;
+    }
+
+    int dayOfYear = buffer.getShort(base + 22) & 0xFFFF;
+    int hour = buffer.get(base + 24) & 0xFF;
+    int minute = buffer.get(base + 25) & 0xFF;
+    int second = buffer.get(base + 26) & 0xFF;
+    int tenthMilli = buffer.getShort(base + 28) & 0xFFFF;
+    int numSamples = buffer.getShort(base + 30) & 0xFFFF;
+    int fact = buffer.getShort(base + 32);
+    int mult = buffer.getShort(base + 34);
+    byte activityFlags = buffer.get(base + 36);
+    int numBlockettes = buffer.get(base + 39) & 0xFF;
+    int timeCorrection = buffer.getInt(base + 40);
+    int dataOffset = buffer.getShort(base + 44) & 0xFFFF;
+    int blocketteOffset = buffer.getShort(base + 46) & 0xFFFF;
+
+    String name = extractName(buffer, base);
+
+    long start = btimeToEpochMilli(year, dayOfYear, hour, minute, second, tenthMilli);
+    byte correctionFlag = 0b00000010; // is there a time correction?
+    int correction = 0;
+    if ((activityFlags & correctionFlag) != 0) {
+      correction = timeCorrection;
+    }
+    start += correction / 10; // correction in tenths of millis
+
+    // walk the blockette chain to find the blockette 1000
+    int encoding = -1; // stays negative if there is no blockette 1000
+    boolean littleEndian = false;
+    int recordLength = -1;
+    int visited = 0;
+    while (blocketteOffset >= FIXED_HEADER_SIZE && visited < Math.max(numBlockettes, 1)) {
+      if (blocketteOffset + 8 > available) {
+        break;
+      }
+      int type = buffer.getShort(base + blocketteOffset) & 0xFFFF;
+      int next = buffer.getShort(base + blocketteOffset + 2) & 0xFFFF;
+      if (type == 1000) {
+        encoding = buffer.get(base + blocketteOffset + 4);
+        littleEndian = buffer.get(base + blocketteOffset + 5) == 0;
+        recordLength = 1 << (buffer.get(base + blocketteOffset + 6) & 0xFF);
+        break;
+      }
+      ++visited;
+      if (next <= blocketteOffset) {
+        break; // blockette chain does not move forward, so it ends here
+      }
+      blocketteOffset = next;
+    }
+
+    return new SeedRecordHeader(offset, recordLength, name, start, numSamples,
+        SeedRecordHeader.getInterval(fact, mult), encoding, littleEndian, dataOffset);
+  }
+
+  /**
+   * Copy a header, giving it a different record length
+   */
+  private static SeedRecordHeader withRecordLength(SeedRecordHeader header, int recordLength) {
+    return new SeedRecordHeader(header.getOffset(), recordLength, header.getName(),
+        header.getStartTime(), header.getNumSamples(), header.getInterval(), header.getEncoding(),
+        header.isLittleEndian(), header.getDataOffset());
+  }
+
+  /**
+   * Decodes a range of records into their places in the span arrays, splitting the range in half
+   * until it is small enough to decode directly. Because checked exceptions can't be thrown out of
+   * a fork-join task, the first failure is kept and rethrown once the task has completed.
+   */
+  private static class DecodeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Pair<SeedRecordHeader, ByteBuffer>> records;
+    private final int[] recordIndices;
+    private final int[] spans;
+    private final int[] positions;
+    private final int[] skips;
+    private final double[][] spanData;
+    private final int from;
+    private final int to;
+    private final AtomicReference<Exception> failure;
+
+    DecodeTask(List<Pair<SeedRecordHeader, ByteBuffer>> records, int[] recordIndices,
+        int[] spans, int[] positions, int[] skips, double[][] spanData, int from, int to) {
+      this(records, recordIndices, spans, positions, skips, spanData, from, to,
+          new AtomicReference<Exception>());
+    }
+
+    private DecodeTask(List<Pair<SeedRecordHeader, ByteBuffer>> records, int[] recordIndices,
+        int[] spans, int[] positions, int[] skips, double[][] spanData, int from, int to,
+        AtomicReference<Exception> failure) {
+      this.records = records;
+      this.recordIndices = recordIndices;
+      this.spans = spans;
+      this.positions = positions;
+      this.skips = skips;
+      this.spanData = spanData;
+      this.from = from;
+      this.to = to;
+      this.failure = failure;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > DECODE_BATCH_SIZE && getPool() != null) {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+            new DecodeTask(records, recordIndices, spans, positions, skips, spanData, from, mid,
+                failure),
+            new DecodeTask(records, recordIndices, spans, positions, skips, spanData, mid, to,
+                failure));
+        return;
+      }
+      for (int i = from; i < to && failure.get() == null; ++i) {
+        Pair<SeedRecordHeader, ByteBuffer> record = records.get(recordIndices[i]);
+        try {
+          RecordDecoder.decode(record.getFirst(), record.getSecond(), spanData[spans[i]],
+              positions[i], skips[i]);
+        } catch (SeedFormatException | CodecException e) {
+          failure.compareAndSet(null, e);
+        }
+      }
+    }
+
+    void rethrowFailure() throws SeedFormatException, CodecException {
+      Exception e = failure.get();
+      if (e instanceof SeedFormatException) {
+        throw (SeedFormatException) e;
+      } else if (e instanceof CodecException) {
+        throw (CodecException) e;
+      }
+    }
+  }
+
+}
@@ -32,6 +32,18 @@ public class NumericUtils {
    * @return atan, between -pi and pi
    */
   public static double atanc(Complex c) {
+    return atanc(c.getReal(), c.getImaginary());
+  }
+
+  /**
+   * Get the two-variate arctangent of a complex number given by its real and imaginary parts, as
+   * with atanc(Complex)
+   *
+   * @param real Real part of the number
+   * @param imaginary Imaginary part of the number
+   * @return atan, between -pi and pi
+   */
+  public static double atanc(double real, double imaginary) {
       
     // Setting this to a very small number to avoid jumps in phase response (e.g. RandomizedExperiment)
     // when the complex number is small. 
@@ -39,11 +51,11 @@ public class NumericUtils {
   
     final double CUTOFF = 1e-16;  
 
-    if (c.abs() < CUTOFF) {
+    if (ComplexArrays.abs(real, imaginary) < CUTOFF) {
       return 0.;
     }
 
-    return Math.atan2(c.getImaginary(), c.getReal());
+    return Math.atan2(imaginary, real);
   }
 
   /**
@@ -76,13 +88,14 @@ public class NumericUtils {
     double result = 0;
     int range = higher - lower;
 
-    Complex[] data = psd.getFFT();
+    double[][] data = psd.getFFTArrays();
 
     for (int i = lower; i <= higher; ++i) {
-      if (data[i].abs() >= Double.POSITIVE_INFINITY) {
+      double value = ComplexArrays.abs(data, i);
+      if (value >= Double.POSITIVE_INFINITY) {
         continue;
       }
-      result += data[i].abs();
+      result += value;
     }
 
     return result / range; // since result is a double, no cast needed?
@@ -103,12 +116,12 @@ public class NumericUtils {
    */
   public static double getFFTSDev(FFTResult fft1, FFTResult fft2, double meanRatio,
       int lower, int higher) {
-    Complex[] density1 = fft1.getFFT();
-    Complex[] density2 = fft2.getFFT();
+    double[][] density1 = fft1.getFFTArrays();
+    double[][] density2 = fft2.getFFTArrays();
     double sigma = 0.;
     for (int i = lower; i <= higher; ++i) {
-      double value1 = density1[i].abs();
-      double value2 = density2[i].abs();
+      double value1 = ComplexArrays.abs(density1, i);
+      double value2 = ComplexArrays.abs(density2, i);
 
       if (value1 >= Double.POSITIVE_INFINITY ||
           value2 >= Double.POSITIVE_INFINITY) {
@@ -0,0 +1,247 @@
+package asl.sensor.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import uk.me.berndporr.iirj.Butterworth;
+
+/**
+ * Resamples data by a rational factor (up / down) without building the upsampled data. Resampling
+ * is conceptually done by putting up - 1 zeros after each sample, low-pass filtering the result to
+ * remove the images this creates along with anything above the new Nyquist rate, and then keeping
+ * every down-th sample. Done literally, that produces (and filters) an array up times the length
+ * of the data, nearly all of which is thrown away.
+ *
+ * Instead, the anti-alias filter is held as its impulse response (an FIR filter), split into up
+ * phases: because only every up-th sample of the upsampled data is non-zero, each output sample
+ * depends only on the taps of one phase, applied directly to the original samples. So only the
+ * output samples are calculated, and the zeros are never multiplied by anything.
+ *
+ * The filter is the same 2nd-order Butterworth low-pass with its corner at the new Nyquist rate
+ * that was run over the upsampled data before (see FFTResult.lowPassFilter), with its impulse
+ * response kept until it has decayed below a negligible fraction of its peak, so resampled data
+ * matches what that filter gives. The filter and its phases only depend on the up and down factors,
+ * so they are created once per ratio and cached (see forRatio); resamplers can be shared between
+ * threads.
+ *
+ * When the data is only downsampled (up is 1) there are no zeros to skip, and every sample has to
+ * be run through the filter either way, so the recursive filter is run over the data as before and
+ * every down-th sample of it kept; this is cheaper than the FIR filter's taps for each output, and
+ * gives exactly the same results as before.
+ */
+public class PolyphaseResampler {
+
+  // impulse response is cut off once it stays below this fraction of its peak
+  private static final double TAP_TOLERANCE = 1E-12;
+  // guards against an impulse response that never decays (which a stable filter shouldn't have)
+  private static final int MAX_TAPS = 1 << 24;
+  // number of samples of the data read in at a time
+  private static final int CHUNK_LENGTH = 1 << 16;
+
+  private static final ConcurrentMap<Long, PolyphaseResampler> resamplers =
+      new ConcurrentHashMap<>();
+
+  private final int up;
+  private final int down;
+  // taps of the filter for each phase: phases[p][k] is tap p + k * up of the full filter
+  // (null if only downsampling, which runs the recursive filter instead)
+  private final double[][] phases;
+
+  private PolyphaseResampler(int up, int down) {
+    this.up = up;
+    this.down = down;
+    phases = (up == 1) ? null : getPhases(up, down);
+  }
+
+  /**
+   * Get the impulse response of the anti-alias filter, split into its phases
+   *
+   * @param up Factor to upsample by
+   * @param down Factor to downsample by
+   * @return Taps of each phase of the filter
+   */
+  private static double[][] getPhases(int up, int down) {
+    // impulse response of the filter at the upsampled rate
+    Butterworth casc = getFilter(down);
+    // a run this long that is all below the tolerance is longer than one oscillation of the
+    // response, so the response has died out rather than just crossing zero
+    int settledLength = 4 * down;
+    double[] taps = new double[Math.max(16, settledLength)];
+    double peak = 0.;
+    int length = 0;
+    int settled = 0;
+    while (settled < settledLength && length < MAX_TAPS) {
+      double tap = casc.filter(length == 0 ? 1. : 0.);
+      if (length == taps.length) {
+        taps = Arrays.copyOf(taps, taps.length * 2);
+      }
+      taps[length] = tap;
+      ++length;
+      peak = Math.max(peak, Math.abs(tap));
+      settled = (Math.abs(tap) < TAP_TOLERANCE * peak) ? settled + 1 : 0;
+    }
+    // the settled run itself doesn't need to be kept
+    int tapCount = Math.max(1, length - settled);
+
+    double[][] phases = new double[up][];
+    for (int p = 0; p < up; ++p) {
+      int phaseLength = (tapCount - p + up - 1) / up;
+      phases[p] = new double[Math.max(0, phaseLength)];
+      for (int k = 0; k < phases[p].length; ++k) {
+        phases[p][k] = taps[p + k * up];
+      }
+    }
+    return phases;
+  }
+
+  /**
+   * Get the anti-alias filter, at the upsampled rate, with its corner at the new Nyquist rate
+   * (which is 1 / (2 * down) of the upsampled rate)
+   *
+   * @param down Factor to downsample by
+   * @return Newly-created filter, with no samples run through it yet
+   */
+  private static Butterworth getFilter(int down) {
+    Butterworth casc = new Butterworth();
+    casc.lowPass(2, 2. * down, 1.);
+    return casc;
+  }
+
+  /**
+   * Get the resampler for the given ratio, creating it if it hasn't been used before
+   *
+   * @param up Factor to upsample by
+   * @param down Factor to downsample by
+   * @return Resampler for that ratio
+   */
+  public static PolyphaseResampler forRatio(int up, int down) {
+    if (up < 1 || down < 1) {
+      throw new IllegalArgumentException(
+          "Resampling factors must be positive, were " + up + " and " + down);
+    }
+    long key = (((long) up) << 32) | down;
+    PolyphaseResampler resampler = resamplers.get(key);
+    if (resampler == null) {
+      resampler = new PolyphaseResampler(up, down);
+      PolyphaseResampler existing = resamplers.putIfAbsent(key, resampler);
+      if (existing != null) {
+        resampler = existing;
+      }
+    }
+    return resampler;
+  }
+
+  /**
+   * Resample data by this resampler's ratio. The result has data.length * up / down samples
+   * (rounded down), the same as upsampling, filtering and downsampling the data would give.
+   *
+   * @param data Timeseries to resample
+   * @return Resampled timeseries
+   */
+  public double[] resample(final double[] data) {
+    return resample(new SampleSource() {
+      @Override
+      public int length() {
+        return data.length;
+      }
+
+      @Override
+      public void copyTo(int from, double[] dest, int destPos, int count) {
+        System.arraycopy(data, from, dest, destPos, count);
+      }
+    });
+  }
+
+  /**
+   * Resample data read a piece at a time, so that only the resampled data (and a piece of the
+   * input at a time) is held in memory. Gives the same result as resampling the whole of the data
+   * as an array.
+   *
+   * @param data Timeseries to resample
+   * @return Resampled timeseries
+   */
+  public double[] resample(SampleSource data) {
+    int length = data.length();
+    int outLength = (int) (((long) length * up) / down);
+    double[] out = new double[outLength];
+
+    if (phases == null) {
+      Butterworth casc = getFilter(down);
+      int inLength = outLength * down;
+      double[] buffer = new double[Math.min(CHUNK_LENGTH, inLength)];
+      for (int from = 0; from < inLength; from += buffer.length) {
+        int count = Math.min(buffer.length, inLength - from);
+        data.copyTo(from, buffer, 0, count);
+        for (int j = 0; j < count; ++j) {
+          double filtered = casc.filter(buffer[j]);
+          int i = from + j;
+          if (i % down == 0) {
+            out[i / down] = filtered;
+          }
+        }
+      }
+      return out;
+    }
+
+    // each output sample needs up to (longest phase - 1) samples before the last one it uses, so
+    // that many samples are carried over from one piece of the data to the next
+    int history = 0;
+    for (double[] taps : phases) {
+      history = Math.max(history, taps.length - 1);
+    }
+    double[] buffer = new double[history + Math.min(CHUNK_LENGTH, length)];
+    // index in the data of the first sample in the buffer, and number of samples in the buffer
+    int bufferStart = 0;
+    int filled = 0;
+    for (int m = 0; m < outLength; ++m) {
+      // position of this output in the upsampled data, and the last original sample before it
+      long upsampled = (long) m * down;
+      int phase = (int) (upsampled % up);
+      int last = (int) (upsampled / up);
+      while (last >= bufferStart + filled) {
+        int kept = Math.min(filled, history);
+        System.arraycopy(buffer, filled - kept, buffer, 0, kept);
+        bufferStart += filled - kept;
+        filled = kept;
+        int count = Math.min(buffer.length - filled, length - (bufferStart + filled));
+        data.copyTo(bufferStart + filled, buffer, filled, count);
+        filled += count;
+      }
+      double[] taps = phases[phase];
+      int count = Math.min(taps.length, last + 1);
+      int newest = last - bufferStart;
+      double sum = 0.;
+      for (int k = 0; k < count; ++k) {
+        sum += taps[k] * buffer[newest - k];
+      }
+      out[m] = sum;
+    }
+    return out;
+  }
+
+  /**
+   * Data that can be read into the resampler a piece at a time, so that data that isn't already
+   * held in a single array (e.g., the contiguous blocks of a DataBlock) doesn't have to be copied
+   * into one first
+   */
+  public interface SampleSource {
+
+    /**
+     * Get the number of samples of data
+     *
+     * @return Length of the data
+     */
+    int length();
+
+    /**
+     * Copy a range of the data into an array
+     *
+     * @param from Index of the first sample to copy
+     * @param dest Array to copy the samples into
+     * @param destPos Index in the array to copy the first sample to
+     * @param count Number of samples to copy
+     */
+    void copyTo(int from, double[] dest, int destPos, int count);
+  }
+
+}
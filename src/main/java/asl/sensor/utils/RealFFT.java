@@ -0,0 +1,124 @@
+package asl.sensor.utils;
+
+import org.apache.commons.math3.transform.TransformType;
+
+/**
+ * Fast Fourier transforms of real-valued data. The FFT of real data is conjugate-symmetric, so
+ * only the first half of it (the single-sided spectrum, from 0 Hz to the Nyquist frequency) holds
+ * any information; transforming the data as complex numbers with zero imaginary parts does twice
+ * the work needed and then throws half of it away.
+ *
+ * Instead, the N real samples are packed into N/2 complex values (even samples as the real parts,
+ * odd samples as the imaginary parts), which are transformed with a complex FFT of half the
+ * length, and the single-sided spectrum of the real data is then separated out of the result.
+ * The inverse does the same steps in reverse. Spectra are arrays of complex values in the form
+ * used by ComplexArrays.
+ *
+ * Transform lengths must be powers of two (at least 2), as with FastFourierTransformer. The
+ * complex transforms and twiddle factors come from cached FFTPlans, so transforming data of a
+ * length that has been used before does not allocate anything but the result.
+ */
+public class RealFFT {
+
+  /**
+   * Get the single-sided FFT of real data, zero-padded to the given length
+   *
+   * @param data Real-valued data to transform (no longer than the transform length)
+   * @param padding Length of the transform, a power of 2
+   * @return Array of the padding / 2 + 1 complex values of the FFT from 0 Hz to Nyquist
+   */
+  public static double[][] forward(double[] data, int padding) {
+    double[][] out = ComplexArrays.create(padding / 2 + 1);
+    forward(data, out);
+    return out;
+  }
+
+  /**
+   * Get the single-sided FFT of real data into an existing array. The length of the transform is
+   * given by the length of the output, which must be one more than a power of 2; data shorter
+   * than the transform is treated as zero-padded.
+   *
+   * @param data Real-valued data to transform (no longer than the transform length)
+   * @param out Array of complex values to hold the FFT from 0 Hz to Nyquist
+   */
+  public static void forward(double[] data, double[][] out) {
+    int half = ComplexArrays.length(out) - 1;
+    int length = 2 * half;
+
+    FFTPlan halfPlan = FFTPlan.forLength(half);
+    FFTPlan plan = FFTPlan.forLength(length);
+
+    // pack even samples into the real parts and odd samples into the imaginary parts
+    double[][] packed = halfPlan.getScratch();
+    for (int i = 0; i < half; ++i) {
+      int even = 2 * i;
+      packed[0][i] = (even < data.length) ? data[even] : 0.;
+      packed[1][i] = (even + 1 < data.length) ? data[even + 1] : 0.;
+    }
+    halfPlan.transform(packed, TransformType.FORWARD);
+
+    // the transform is E + iO, where E and O are the transforms of the even and odd samples;
+    // E[k] = (Z[k] + conj(Z[half-k])) / 2, O[k] = (Z[k] - conj(Z[half-k])) / 2i,
+    // and the full transform is X[k] = E[k] + exp(-2 pi i k / length) * O[k]
+    double[] outRe = out[0];
+    double[] outIm = out[1];
+    for (int k = 0; k <= half; ++k) {
+      int idx = (k == half) ? 0 : k;
+      int mirror = (k == 0) ? 0 : half - k;
+      double a = packed[0][idx], b = packed[1][idx];
+      double c = packed[0][mirror], d = packed[1][mirror];
+      double evenRe = (a + c) / 2;
+      double evenIm = (b - d) / 2;
+      double oddRe = (b + d) / 2;
+      double oddIm = (c - a) / 2;
+      double cos = plan.cos(k);
+      double sin = plan.sin(k);
+      outRe[k] = evenRe + cos * oddRe + sin * oddIm;
+      outIm[k] = evenIm + cos * oddIm - sin * oddRe;
+    }
+  }
+
+  /**
+   * Get the real-valued data that has a given single-sided FFT, i.e., the inverse of forward. The
+   * values below the Nyquist frequency are taken to have conjugate-symmetric counterparts above
+   * it; the imaginary parts of the 0 Hz and Nyquist values, which can't come from real data, are
+   * ignored.
+   *
+   * @param spectrum Array of complex values of the FFT from 0 Hz to Nyquist, whose length is one
+   * more than a power of 2
+   * @param trim Number of samples of the result to return (at most the transform length)
+   * @return The first trim samples of the inverse transform
+   */
+  public static double[] inverse(double[][] spectrum, int trim) {
+    int half = ComplexArrays.length(spectrum) - 1;
+    int length = 2 * half;
+
+    FFTPlan halfPlan = FFTPlan.forLength(half);
+    FFTPlan plan = FFTPlan.forLength(length);
+
+    // recover E and O (as in forward) and pack them back into E + iO
+    double[][] packed = halfPlan.getScratch();
+    for (int k = 0; k < half; ++k) {
+      double a = spectrum[0][k], b = (k == 0) ? 0. : spectrum[1][k];
+      double c = spectrum[0][half - k], d = (k == 0) ? 0. : spectrum[1][half - k];
+      double evenRe = (a + c) / 2;
+      double evenIm = (b - d) / 2;
+      double diffRe = (a - c) / 2;
+      double diffIm = (b + d) / 2;
+      double cos = plan.cos(k);
+      double sin = plan.sin(k);
+      double oddRe = diffRe * cos - diffIm * sin;
+      double oddIm = diffRe * sin + diffIm * cos;
+      packed[0][k] = evenRe - oddIm;
+      packed[1][k] = evenIm + oddRe;
+    }
+    halfPlan.transform(packed, TransformType.INVERSE);
+
+    double[] out = new double[trim];
+    for (int i = 0; i < trim; ++i) {
+      out[i] = packed[i % 2][i / 2];
+    }
+    return out;
+  }
+
+}
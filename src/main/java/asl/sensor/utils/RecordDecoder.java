@@ -0,0 +1,251 @@
+package asl.sensor.utils;
+
+import edu.iris.dmc.seedcodec.B1000Types;
+import edu.iris.dmc.seedcodec.Codec;
+import edu.iris.dmc.seedcodec.CodecException;
+import edu.sc.seis.seisFile.mseed.SeedFormatException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes the data section of a miniSEED record directly into a region of a larger array of
+ * samples, rather than producing a new array for each record. This allows the records making up a
+ * contiguous span of data to be decoded in place into a single array holding the whole span.
+ *
+ * Steim1, Steim2 and uncompressed integer and floating-point data are decoded here; any other
+ * encoding is passed on to seedCodec and the result copied into the destination array.
+ * Decoding follows seedCodec's conventions (e.g., the data section's byte order is given by the
+ * record's blockette 1000, and a Steim record that does not produce exactly the number of samples
+ * given in its header is an error) so that the results of either are identical.
+ */
+public class RecordDecoder {
+
+  // size of a Steim frame in bytes, and the number of 32-bit words in a frame
+  private static final int FRAME_SIZE = 64;
+  private static final int FRAME_WORDS = 16;
+
+  /**
+   * Decode a record's data into the given array. The first (skip) samples of the record are
+   * decoded but not written out, which is used to drop samples that duplicate data preceding the
+   * record; the remaining samples are written into the array starting at the given position.
+   *
+   * @param header Header of the record being decoded
+   * @param data Data section of the record, starting at the buffer's position
+   * @param dest Array to write the decoded samples into
+   * @param destPos Index in the array to write the first non-skipped sample into
+   * @param skip Number of samples at the start of the record to leave out
+   * @return Number of samples written into the array
+   * @throws SeedFormatException If the record has no blockette 1000 specifying its encoding
+   * @throws CodecException If the data cannot be decoded
+   */
+  public static int decode(SeedRecordHeader header, ByteBuffer data, double[] dest, int destPos,
+      int skip) throws SeedFormatException, CodecException {
+    int numSamples = header.getNumSamples();
+    if (numSamples <= skip) {
+      return 0;
+    }
+    if (header.getEncoding() < 0) {
+      throw new SeedFormatException("Data record at byte " + header.getOffset() + " ("
+          + header.getName() + ") has no blockette 1000");
+    }
+
+    // duplicate the buffer so that setting its byte order doesn't affect the caller's buffer
+    ByteOrder order = header.isLittleEndian() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+    ByteBuffer buffer = data.duplicate().order(order);
+    int base = buffer.position();
+    int length = buffer.remaining();
+
+    switch (header.getEncoding()) {
+      case B1000Types.STEIM1:
+        decodeSteim(buffer, base, length, numSamples, false, dest, destPos, skip);
+        break;
+      case B1000Types.STEIM2:
+        decodeSteim(buffer, base, length, numSamples, true, dest, destPos, skip);
+        break;
+      case B1000Types.SHORT:
+        checkLength(header, length, numSamples * 2);
+        for (int i = skip; i < numSamples; ++i) {
+          dest[destPos + i - skip] = buffer.getShort(base + (i * 2));
+        }
+        break;
+      case B1000Types.INTEGER:
+        checkLength(header, length, numSamples * 4);
+        for (int i = skip; i < numSamples; ++i) {
+          dest[destPos + i - skip] = buffer.getInt(base + (i * 4));
+        }
+        break;
+      case B1000Types.FLOAT:
+        checkLength(header, length, numSamples * 4);
+        for (int i = skip; i < numSamples; ++i) {
+          dest[destPos + i - skip] = buffer.getFloat(base + (i * 4));
+        }
+        break;
+      case B1000Types.DOUBLE:
+        checkLength(header, length, numSamples * 8);
+        for (int i = skip; i < numSamples; ++i) {
+          dest[destPos + i - skip] = buffer.getDouble(base + (i * 8));
+        }
+        break;
+      default:
+        // uncommon encodings are left to seedCodec
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        double[] decoded = new Codec().decompress(header.getEncoding(), bytes, numSamples,
+            header.isLittleEndian()).getAsDouble();
+        System.arraycopy(decoded, skip, dest, destPos, numSamples - skip);
+    }
+    return numSamples - skip;
+  }
+
+  /**
+   * Make sure an uncompressed record has enough bytes for the number of samples it claims to have
+   */
+  private static void checkLength(SeedRecordHeader header, int length, int needed)
+      throws CodecException {
+    if (length < needed) {
+      throw new CodecException("Not enough bytes in record at byte " + header.getOffset()
+          + " for " + header.getNumSamples() + " samples (" + length + " < " + needed + ")");
+    }
+  }
+
+  /**
+   * Decode Steim1 or Steim2 compressed data. Each 64-byte frame begins with a word of 2-bit
+   * nibbles giving how each of the frame's other words are packed with differences between
+   * samples; the first frame also holds the value of the record's first sample (the forward
+   * integration constant) and last sample (the reverse integration constant) in words 1 and 2.
+   * The first difference, which relates to the last sample of the previous record, is not used.
+   */
+  private static void decodeSteim(ByteBuffer buffer, int base, int length, int numSamples,
+      boolean steim2, double[] dest, int destPos, int skip) throws CodecException {
+    int numFrames = length / FRAME_SIZE;
+    int[] diffs = new int[7]; // most differences that can be packed into a single word
+    int count = 0;
+    int last = 0;
+
+    for (int frame = 0; frame < numFrames && count < numSamples; ++frame) {
+      int frameStart = base + (frame * FRAME_SIZE);
+      int nibbles = buffer.getInt(frameStart);
+      int firstWord = 1;
+      if (frame == 0) {
+        // first sample is given directly, so the difference packed with it is ignored
+        last = buffer.getInt(frameStart + 4);
+        firstWord = 3;
+      }
+
+      for (int word = firstWord; word < FRAME_WORDS && count < numSamples; ++word) {
+        int nibble = (nibbles >>> (30 - (2 * word))) & 0x03;
+        int wordStart = frameStart + (word * 4);
+        int numDiffs = steim2 ?
+            unpackSteim2(buffer, wordStart, nibble, diffs) :
+            unpackSteim1(buffer, wordStart, nibble, diffs);
+
+        for (int i = 0; i < numDiffs && count < numSamples; ++i) {
+          // the first sample is the forward integration constant, already held in 'last'
+          if (count > 0) {
+            last += diffs[i];
+          }
+          if (count >= skip) {
+            dest[destPos + count - skip] = last;
+          }
+          ++count;
+        }
+      }
+    }
+
+    if (count != numSamples) {
+      throw new CodecException("Number of samples decompressed doesn't match number in header: "
+          + count + " != " + numSamples);
+    }
+  }
+
+  /**
+   * Get the differences packed into a word of Steim1 data
+   *
+   * @return Number of differences in the word
+   */
+  private static int unpackSteim1(ByteBuffer buffer, int wordStart, int nibble, int[] diffs) {
+    switch (nibble) {
+      case 1: // four 8-bit differences
+        for (int i = 0; i < 4; ++i) {
+          diffs[i] = buffer.get(wordStart + i);
+        }
+        return 4;
+      case 2: // two 16-bit differences
+        diffs[0] = buffer.getShort(wordStart);
+        diffs[1] = buffer.getShort(wordStart + 2);
+        return 2;
+      case 3: // one 32-bit difference
+        diffs[0] = buffer.getInt(wordStart);
+        return 1;
+      default: // not data (header info or integration constants)
+        return 0;
+    }
+  }
+
+  /**
+   * Get the differences packed into a word of Steim2 data. For nibbles 2 and 3 the top two bits of
+   * the word (the 'dnib') give how many differences of what size are packed into the other 30.
+   *
+   * @return Number of differences in the word
+   */
+  private static int unpackSteim2(ByteBuffer buffer, int wordStart, int nibble, int[] diffs) {
+    if (nibble == 0) {
+      return 0;
+    }
+    if (nibble == 1) {
+      for (int i = 0; i < 4; ++i) {
+        diffs[i] = buffer.get(wordStart + i);
+      }
+      return 4;
+    }
+
+    int word = buffer.getInt(wordStart);
+    int dnib = (word >>> 30) & 0x03;
+    int numDiffs;
+    int bits;
+    if (nibble == 2) {
+      switch (dnib) {
+        case 1:
+          numDiffs = 1;
+          bits = 30;
+          break;
+        case 2:
+          numDiffs = 2;
+          bits = 15;
+          break;
+        case 3:
+          numDiffs = 3;
+          bits = 10;
+          break;
+        default:
+          return 0;
+      }
+    } else {
+      switch (dnib) {
+        case 0:
+          numDiffs = 5;
+          bits = 6;
+          break;
+        case 1:
+          numDiffs = 6;
+          bits = 5;
+          break;
+        case 2:
+          numDiffs = 7;
+          bits = 4;
+          break;
+        default:
+          return 0;
+      }
+    }
+
+    // differences are packed from the most significant end of the low 30 bits;
+    // shift each up to the top of the int and then back down to sign-extend it
+    for (int i = 0; i < numDiffs; ++i) {
+      int shift = (numDiffs - 1 - i) * bits;
+      diffs[i] = (word << (32 - shift - bits)) >> (32 - bits);
+    }
+    return numDiffs;
+  }
+
+}
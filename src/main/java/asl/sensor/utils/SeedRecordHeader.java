@@ -0,0 +1,169 @@
+package asl.sensor.utils;
+
+/**
+ * Holds the subset of a miniSEED data record's fixed header (plus blockette 1000) that is needed
+ * to filter records by SNCL and decode their data. This is produced by reading only the first
+ * bytes of a record, so that records from channels that are not of interest can be skipped
+ * without being decompressed.
+ *
+ * Start times are given in milliseconds from epoch and include any time correction specified in
+ * the record header.
+ */
+public class SeedRecordHeader {
+
+  private final long offset;
+  private final int recordLength;
+  private final String name;
+  private final long startTime;
+  private final int numSamples;
+  private final long interval;
+  private final int encoding;
+  private final boolean littleEndian;
+  private final int dataOffset;
+
+  /**
+   * Create a new record header description
+   *
+   * @param offset Byte offset of the start of the record within its file
+   * @param recordLength Length of the record in bytes (i.e., 512, 4096)
+   * @param name SNCL of the record's data, formatted as in TimeSeriesUtils
+   * @param startTime Time of the record's first sample in ms from epoch
+   * @param numSamples Number of samples in the record
+   * @param interval Interval between samples in ms
+   * @param encoding Blockette 1000 encoding format of the record data (i.e., 10 for Steim1)
+   * @param littleEndian True if the blockette 1000 word order specifies little-endian data
+   * @param dataOffset Offset of the start of the data from the start of the record in bytes
+   */
+  public SeedRecordHeader(long offset, int recordLength, String name, long startTime,
+      int numSamples, long interval, int encoding, boolean littleEndian, int dataOffset) {
+    this.offset = offset;
+    this.recordLength = recordLength;
+    this.name = name;
+    this.startTime = startTime;
+    this.numSamples = numSamples;
+    this.interval = interval;
+    this.encoding = encoding;
+    this.littleEndian = littleEndian;
+    this.dataOffset = dataOffset;
+  }
+
+  /**
+   * Convert the sample rate factor and multiplier of a miniSEED header into the interval
+   * between samples in milliseconds.
+   *
+   * @param fact Sample rate factor as given in the record header
+   * @param mult Sample rate multiplier as given in the record header
+   * @return Interval between two samples in ms
+   */
+  public static long getInterval(int fact, int mult) {
+    if (fact > 0 && mult > 0) {
+      return TimeSeriesUtils.ONE_HZ_INTERVAL / (fact * mult);
+    } else if (fact > 0 && mult < 0) {
+      return Math.abs((TimeSeriesUtils.ONE_HZ_INTERVAL * mult) / fact);
+    } else if (fact < 0 && mult > 0) {
+      return Math.abs((TimeSeriesUtils.ONE_HZ_INTERVAL * fact) / mult);
+    } else {
+      return TimeSeriesUtils.ONE_HZ_INTERVAL * fact * mult;
+    }
+  }
+
+  /**
+   * Get the length of the data section of the record, that is, everything after the data offset
+   *
+   * @return Length of the record's (compressed) data in bytes
+   */
+  public int getDataLength() {
+    return recordLength - dataOffset;
+  }
+
+  /**
+   * Get the position of the start of the record data relative to the start of the record
+   *
+   * @return Data offset in bytes
+   */
+  public int getDataOffset() {
+    return dataOffset;
+  }
+
+  /**
+   * Get the blockette 1000 encoding format of the record (i.e., 10 for Steim1, 11 for Steim2)
+   *
+   * @return Encoding format as an int
+   */
+  public int getEncoding() {
+    return encoding;
+  }
+
+  /**
+   * Get the time directly after the last sample of the record
+   *
+   * @return End time of the record in ms from epoch
+   */
+  public long getEndTime() {
+    return startTime + (numSamples * interval);
+  }
+
+  /**
+   * Get the interval between samples in the record
+   *
+   * @return Interval in ms
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+  /**
+   * Get the SNCL name of the record's data, formatted as NET_STAT_LOC_CHAN
+   *
+   * @return SNCL name string
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the number of samples in the record
+   *
+   * @return Sample count
+   */
+  public int getNumSamples() {
+    return numSamples;
+  }
+
+  /**
+   * Get the byte position of this record within the file it was read from
+   *
+   * @return Offset of the record in bytes
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * Get the full length of the record, including headers and blockettes
+   *
+   * @return Record length in bytes
+   */
+  public int getRecordLength() {
+    return recordLength;
+  }
+
+  /**
+   * Get the time of the first sample of the record
+   *
+   * @return Start time in ms from epoch
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Check the word order of the record's data
+   *
+   * @return True if the record data is little-endian
+   */
+  public boolean isLittleEndian() {
+    return littleEndian;
+  }
+
+}
@@ -0,0 +1,309 @@
+package asl.sensor.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the data records in a miniSEED file, giving the byte offset, SNCL, start time, sample
+ * count and sample interval (plus what is needed to decode the data) of every record. This allows
+ * the channels in a file to be listed, and the records of one channel to be read directly,
+ * without having to walk every record of the file each time.
+ *
+ * The index is built by scanning the record headers of the file, and can be stored in a sidecar
+ * file next to it (i.e., data.seed.idx for data.seed) so that it doesn't need to be built again.
+ * The size and modification time of the miniSEED file are kept in the index; if either changes,
+ * the index is considered stale and is rebuilt. Existing sidecar files are always read, but new
+ * ones are only written if that is turned on, either with setWritingSidecars or by running with
+ * the system property asl.sensor.recordIndex.sidecars set to true, so that loading data never
+ * writes into the user's data directories unless that was asked for, e.g.:
+ *
+ * <pre>
+ * java -Dasl.sensor.recordIndex.sidecars=true -jar ...
+ * </pre>
+ *
+ * If the sidecar file can't be written (such as for read-only data directories) the index is still
+ * built and used, but will be rebuilt on the next load.
+ */
+public class SeedRecordIndex {
+
+  /**
+   * Extension added to the name of a miniSEED file to get the name of its index file
+   */
+  public static final String INDEX_EXTENSION = ".idx";
+
+  /**
+   * System property that turns on writing sidecar index files when set to true
+   */
+  public static final String SIDECARS_PROPERTY = "asl.sensor.recordIndex.sidecars";
+
+  // identifies a file as a record index, and the version of the index's layout
+  private static final int INDEX_MAGIC = 0x4153494E; // 'ASIN'
+  private static final int INDEX_VERSION = 1;
+
+  private static boolean writeSidecars = Boolean.getBoolean(SIDECARS_PROPERTY);
+
+  private final long fileSize;
+  private final long lastModified;
+  private final List<SeedRecordHeader> headers;
+  private final Map<String, List<SeedRecordHeader>> headersByName;
+
+  private SeedRecordIndex(long fileSize, long lastModified, List<SeedRecordHeader> headers) {
+    this.fileSize = fileSize;
+    this.lastModified = lastModified;
+    this.headers = Collections.unmodifiableList(headers);
+    headersByName = new HashMap<>();
+    for (SeedRecordHeader header : headers) {
+      String name = header.getName();
+      if (!headersByName.containsKey(name)) {
+        headersByName.put(name, new ArrayList<SeedRecordHeader>());
+      }
+      headersByName.get(name).add(header);
+    }
+  }
+
+  /**
+   * Scan the headers of every record in a miniSEED file to produce an index of it. This does not
+   * read or write any sidecar file.
+   *
+   * @param filename Full path to the miniSEED file
+   * @return Index of the file's data records
+   * @throws IOException If the file cannot be read
+   */
+  public static SeedRecordIndex build(String filename) throws IOException {
+    File file = new File(filename);
+    // get these first, so that a change to the file during the scan makes the index stale
+    long size = file.length();
+    long modified = file.lastModified();
+
+    List<SeedRecordHeader> headers = new ArrayList<>();
+    try (MappedSeedReader reader = new MappedSeedReader(filename)) {
+      long offset = 0;
+      while (reader.hasRecordAt(offset)) {
+        SeedRecordHeader header = reader.readHeader(offset);
+        offset += reader.getRecordLength(header);
+        if (offset > reader.getFileSize()) {
+          break; // record is truncated by the end of the file
+        }
+        if (header != null) {
+          headers.add(header);
+        }
+      }
+    }
+    return new SeedRecordIndex(size, modified, headers);
+  }
+
+  /**
+   * Get the index of a miniSEED file, loading it from the file's sidecar index if that exists and
+   * is up to date, and otherwise scanning the file and (if enabled) writing a new sidecar index.
+   *
+   * @param filename Full path to the miniSEED file
+   * @return Index of the file's data records
+   * @throws IOException If the miniSEED file cannot be read
+   */
+  public static SeedRecordIndex forFile(String filename) throws IOException {
+    File file = new File(filename);
+    File indexFile = new File(filename + INDEX_EXTENSION);
+    if (indexFile.isFile()) {
+      try {
+        SeedRecordIndex index = read(indexFile);
+        if (index.isCurrent(file)) {
+          return index;
+        }
+      } catch (IOException e) {
+        // index is unreadable or from an incompatible version, so just build it again
+      }
+    }
+
+    SeedRecordIndex index = build(filename);
+    if (isWritingSidecars()) {
+      try {
+        index.write(indexFile);
+      } catch (IOException e) {
+        // most likely the data's directory is read-only; index can still be used from memory
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Check whether newly built indices are written to sidecar files
+   *
+   * @return True if sidecar index files are written
+   */
+  public static synchronized boolean isWritingSidecars() {
+    return writeSidecars;
+  }
+
+  /**
+   * Specify whether newly built indices should be written out next to the miniSEED files they
+   * describe. Existing sidecar files are still read in either way.
+   *
+   * @param write True if sidecar index files should be written
+   */
+  public static synchronized void setWritingSidecars(boolean write) {
+    writeSidecars = write;
+  }
+
+  /**
+   * Read in an index from a sidecar file
+   */
+  private static SeedRecordIndex read(File indexFile) throws IOException {
+    try (DataInputStream dis = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(indexFile)))) {
+      if (dis.readInt() != INDEX_MAGIC || dis.readInt() != INDEX_VERSION) {
+        throw new IOException("Not a record index (or an out-of-date one): " + indexFile);
+      }
+      long size = dis.readLong();
+      long modified = dis.readLong();
+
+      String[] names = new String[dis.readInt()];
+      for (int i = 0; i < names.length; ++i) {
+        names[i] = dis.readUTF();
+      }
+
+      int count = dis.readInt();
+      List<SeedRecordHeader> headers = new ArrayList<>(count);
+      for (int i = 0; i < count; ++i) {
+        long offset = dis.readLong();
+        int recordLength = dis.readInt();
+        String name = names[dis.readInt()];
+        long start = dis.readLong();
+        int numSamples = dis.readInt();
+        long interval = dis.readLong();
+        int encoding = dis.readInt();
+        boolean littleEndian = dis.readBoolean();
+        int dataOffset = dis.readInt();
+        headers.add(new SeedRecordHeader(offset, recordLength, name, start, numSamples, interval,
+            encoding, littleEndian, dataOffset));
+      }
+      return new SeedRecordIndex(size, modified, headers);
+    }
+  }
+
+  /**
+   * Get the headers of every data record in the file, in the order they are in the file
+   *
+   * @return List of record headers
+   */
+  public List<SeedRecordHeader> getHeaders() {
+    return headers;
+  }
+
+  /**
+   * Get the headers of the records of a single channel, in the order they are in the file
+   *
+   * @param filter SNCL of the channel to get records of
+   * @return List of record headers, which is empty if there is no data for the channel
+   */
+  public List<SeedRecordHeader> getHeaders(String filter) {
+    if (!headersByName.containsKey(filter)) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(headersByName.get(filter));
+  }
+
+  /**
+   * Get the set of SNCL names of the data in the file (see TimeSeriesUtils.getMplexNameSet)
+   *
+   * @return Set of all (unique) SNCL strings
+   */
+  public Set<String> getNames() {
+    Set<String> names = new HashSet<>();
+    for (SeedRecordHeader header : headers) {
+      names.add(header.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Get the record length of the first data record in the file, which is generally the record
+   * length of every record in the file.
+   *
+   * @return Number of bytes in a record (i.e., 512, 4096), or -1 if the file has no data records
+   */
+  public int getRecordLength() {
+    if (headers.size() == 0) {
+      return -1;
+    }
+    return headers.get(0).getRecordLength();
+  }
+
+  /**
+   * Check if the index matches the current state of its miniSEED file
+   *
+   * @param file The miniSEED file that was indexed
+   * @return True if the file's size and modification time match those at indexing
+   */
+  public boolean isCurrent(File file) {
+    return file.length() == fileSize && file.lastModified() == lastModified;
+  }
+
+  /**
+   * Write this index out to a file. The index is written to a temporary file first and then moved
+   * into place, so that another process loading the same data never sees a partial index.
+   *
+   * @param indexFile File to write the index into
+   * @throws IOException If the index cannot be written
+   */
+  public void write(File indexFile) throws IOException {
+    File parent = indexFile.getAbsoluteFile().getParentFile();
+    File temp = File.createTempFile(indexFile.getName(), ".tmp", parent);
+    try {
+      List<String> names = new ArrayList<>(headersByName.keySet());
+      Map<String, Integer> nameIndices = new HashMap<>();
+      for (int i = 0; i < names.size(); ++i) {
+        nameIndices.put(names.get(i), i);
+      }
+
+      try (DataOutputStream dos = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temp)))) {
+        dos.writeInt(INDEX_MAGIC);
+        dos.writeInt(INDEX_VERSION);
+        dos.writeLong(fileSize);
+        dos.writeLong(lastModified);
+        dos.writeInt(names.size());
+        for (String name : names) {
+          dos.writeUTF(name);
+        }
+        dos.writeInt(headers.size());
+        for (SeedRecordHeader header : headers) {
+          dos.writeLong(header.getOffset());
+          dos.writeInt(header.getRecordLength());
+          dos.writeInt(nameIndices.get(header.getName()));
+          dos.writeLong(header.getStartTime());
+          dos.writeInt(header.getNumSamples());
+          dos.writeLong(header.getInterval());
+          dos.writeInt(header.getEncoding());
+          dos.writeBoolean(header.isLittleEndian());
+          dos.writeInt(header.getDataOffset());
+        }
+      }
+
+      try {
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+}
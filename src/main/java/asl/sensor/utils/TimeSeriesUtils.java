@@ -1,26 +1,16 @@
 package asl.sensor.utils;
 
-import java.io.DataInputStream;
-import java.io.EOFException;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.apache.commons.math3.util.Pair;
 import asl.sensor.input.DataBlock;
+import asl.sensor.input.SegmentedView;
 import edu.iris.dmc.seedcodec.CodecException;
-import edu.sc.seis.seisFile.mseed.Blockette;
-import edu.sc.seis.seisFile.mseed.Blockette1000;
-import edu.sc.seis.seisFile.mseed.Btime;
-import edu.sc.seis.seisFile.mseed.DataHeader;
-import edu.sc.seis.seisFile.mseed.DataRecord;
 import edu.sc.seis.seisFile.mseed.SeedFormatException;
-import edu.sc.seis.seisFile.mseed.SeedRecord;
 
 /**
  * Contains static methods for grabbing data from miniSEED files
@@ -44,6 +34,14 @@ public class TimeSeriesUtils {
   // divide by this to go from nanoseconds to milliseconds
   public static final int TO_MILLI_FACTOR = 1000000;
 
+  /**
+   * Extra time (ms) of data loaded on either side of a requested window when reading in only
+   * the records within a time range. Experiments only use data inside of the trimmed window, so
+   * this just needs to make sure the records spanning each end of the window (including any that
+   * are offset slightly by timing jitter) are kept.
+   */
+  public static final long LOAD_WINDOW_MARGIN = 60 * ONE_HZ_INTERVAL;
+
   /**
    * Merge arrays from multiple timeseries into a single object
    *
@@ -113,6 +111,122 @@ public class TimeSeriesUtils {
       return data;
     }
 
+    return getResampler(source, target).resample(data);
+
+  }
+
+  /**
+   * Decimate the data in a window of a DataBlock (see DataBlock.segmentedView) without first
+   * copying the whole window into an array at the data's own sample rate; the data is read in a
+   * piece at a time, so only the decimated data is held in full. Gives the same result as
+   * decimating the array from the view's toArray.
+   *
+   * @param data The window of data to be decimated
+   * @param target The target frequency as interval between samples
+   * @return A timeseries decimated to the correct frequency
+   */
+  public static double[] decimate(final SegmentedView data, long target) {
+    long source = data.getInterval();
+    if (source >= target) {
+      return data.toArray();
+    }
+
+    return getResampler(source, target).resample(new PolyphaseResampler.SampleSource() {
+      @Override
+      public int length() {
+        return data.length();
+      }
+
+      @Override
+      public void copyTo(int from, double[] dest, int destPos, int count) {
+        data.copyTo(from, dest, destPos, count);
+      }
+    });
+  }
+
+  /**
+   * Remove the mean and linear trend from the data in a window of a DataBlock and decimate it,
+   * reading the data a piece at a time as in decimate(SegmentedView, long), so that the demeaned
+   * and detrended data at the original sample rate is never held in full. Gives the same result as
+   * decimating the result of demean and then detrend on the array from the view's toArray.
+   *
+   * @param data The window of data to be detrended and decimated
+   * @param target The target frequency as interval between samples
+   * @return A detrended timeseries decimated to the correct frequency
+   */
+  public static double[] decimateDetrended(final SegmentedView data, long target) {
+    long source = data.getInterval();
+    if (source >= target) {
+      return detrend(demean(data.toArray()));
+    }
+
+    final int length = data.length();
+    double[] buffer = new double[Math.min(1 << 16, length)];
+
+    // same running mean as getMean
+    double mean = 0.0;
+    double inc = 1;
+    for (int from = 0; from < length; from += buffer.length) {
+      int count = Math.min(buffer.length, length - from);
+      data.copyTo(from, buffer, 0, count);
+      for (int i = 0; i < count; ++i) {
+        mean = mean + ((buffer[i] - mean) / inc);
+        ++inc;
+      }
+    }
+
+    // same fit of the demeaned data as detrend
+    double sumX = 0.0;
+    double sumY = 0.0;
+    double sumXSqd = 0.0;
+    double sumXY = 0.0;
+    for (int from = 0; from < length; from += buffer.length) {
+      int count = Math.min(buffer.length, length - from);
+      data.copyTo(from, buffer, 0, count);
+      for (int j = 0; j < count; ++j) {
+        int i = from + j;
+        sumX += i;
+        sumXSqd += (double) i * (double) i;
+        double value = buffer[j] - mean;
+        sumXY += value * i;
+        sumY += value;
+      }
+    }
+    double del = sumXSqd - (sumX * sumX / length);
+    double slope = sumXY - (sumX * sumY / length);
+    slope /= del;
+    double yOffset = (sumXSqd * sumY) - (sumX * sumXY);
+    yOffset /= del * length;
+
+    final double dataMean = mean;
+    final double dataSlope = slope;
+    final double dataOffset = yOffset;
+    return getResampler(source, target).resample(new PolyphaseResampler.SampleSource() {
+      @Override
+      public int length() {
+        return length;
+      }
+
+      @Override
+      public void copyTo(int from, double[] dest, int destPos, int count) {
+        data.copyTo(from, dest, destPos, count);
+        for (int j = 0; j < count; ++j) {
+          int i = from + j;
+          dest[destPos + j] = (dest[destPos + j] - dataMean) - ((dataSlope * i) + dataOffset);
+        }
+      }
+    });
+  }
+
+  /**
+   * Get the resampler converting data from a higher sample rate to a lower one
+   *
+   * @param source The source frequency as interval between samples
+   * @param target The target frequency as interval between samples, longer than the source's
+   * @return Resampler for the ratio between the two rates
+   */
+  private static PolyphaseResampler getResampler(long source, long target) {
+
     // find what the change in size is going to be
     long gcd = euclidGCD(source, target);
     // conversion up- and down-factors
@@ -123,19 +237,12 @@ public class TimeSeriesUtils {
     int upf = (int) (source / gcd);
     int dnf = (int) (target / gcd);
 
-    double higherFreq = (1. / source) * upf * ONE_HZ_INTERVAL;
-    double lowerFreq = (1. / target) * ONE_HZ_INTERVAL / 2;
-    // nyquist rate of downsampled data
-
     // one valid sample rate for data is 2.5Hz
     // with 1Hz that comes out as a ratio of 5/2, which won't
     // downsample neatly in some cases so we would first upsample,
     // filter out any noise terms, then downsample
-
-    double[] upped = upsample(data, upf);
-    double[] lpfed = FFTResult.lowPassFilter(upped, higherFreq, lowerFreq);
-
-    return downsample(lpfed, dnf);
+    // (the resampler does all three at once, only calculating the samples that are kept)
+    return PolyphaseResampler.forRatio(upf, dnf);
 
   }
 
@@ -272,49 +379,6 @@ public class TimeSeriesUtils {
     return euclidGCD(target, rem);
   }
 
-  /**
-   * Extract SNCL data from a SEED data header
-   *
-   * @param dataHeader found in a seed file
-   * @return String containing the SNCL identifier of the data
-   */
-  private static String extractName(DataHeader dataHeader) {
-    StringBuilder fileID = new StringBuilder();
-    String station = dataHeader.getStationIdentifier();
-    // remove all whitespace from station name
-    station = station.replaceAll("\\s+", "");
-    fileID.append(dataHeader.getNetworkCode()).append("_");
-    fileID.append(station).append("_");
-    fileID.append(dataHeader.getLocationIdentifier()).append("_");
-    fileID.append(dataHeader.getChannelIdentifier());
-    return fileID.toString();
-  }
-
-  /**
-   * Returns an int representing the number of bytes in a record for
-   * a miniSEED file
-   *
-   * @param filename Full path to the file to be read in
-   * @return number of bytes of a record (i.e., 512, 40096)
-   * @throws FileNotFoundException If file does not exist
-   */
-  private static int getByteSize(String filename) throws IOException, SeedFormatException {
-    try (DataInputStream dis = new DataInputStream(new FileInputStream(filename))) {
-      while (true) {
-        SeedRecord sr = SeedRecord.read(dis, 4096);
-
-        Blockette[] blockettes = sr.getBlockettes();
-
-        for (Blockette blockette : blockettes) {
-          if (blockette.getType() == 1000) {
-            Blockette1000 b1000 = (Blockette1000) blockette;
-            return b1000.getDataRecordLength();
-          }
-        }
-      }
-    }
-  }
-
   /**
    * Used to quickly get the first data in a file. This is useful if loading in
    * data from a file that is known to not be multiplexed (i.e., containing
@@ -344,6 +408,37 @@ public class TimeSeriesUtils {
     return getTimeSeries(filenames, filter);
   }
 
+  /**
+   * Used to quickly get the first data in a file, only reading in data within (or near) the given
+   * time range. See getTimeSeries(String, String, long, long).
+   *
+   * @param filename Filename of miniSEED data to load in
+   * @param start Start of the time window of interest in ms from epoch
+   * @param end End of the time window of interest in ms from epoch
+   * @return Datablock representing the data inside the miniSEED over (at least) the given range
+   */
+  public static DataBlock getFirstTimeSeries(String filename, long start, long end)
+      throws SeedFormatException, CodecException, IOException {
+    String filter = getMplexNameList(filename).get(0);
+    return getTimeSeries(filename, filter, start, end);
+  }
+
+  /**
+   * Used to quickly get the data in a list of files, where the first file's first data is the
+   * SNCL to filter on, only reading in data within (or near) the given time range. Used mainly to
+   * load calibration spanning multiple days.
+   *
+   * @param filenames Filenames of miniSEED data to load in
+   * @param start Start of the time window of interest in ms from epoch
+   * @param end End of the time window of interest in ms from epoch
+   * @return Datablock representing the data inside the miniSEEDs over (at least) the given range
+   */
+  public static DataBlock getFirstTimeSeries(String[] filenames, long start, long end)
+      throws SeedFormatException, CodecException, IOException {
+    String filter = getMplexNameList(filenames[0]).get(0);
+    return getTimeSeries(filenames, filter, start, end);
+  }
+
   /**
    * Return the calculation of the arithmetic mean (using a recursive definition for stability)
    *
@@ -379,43 +474,15 @@ public class TimeSeriesUtils {
 
   /**
    * Returns list of SNCL (station, network, channel, location) data for
-   * a multiplexed miniseed file as a set of strings
+   * a multiplexed miniseed file as a set of strings. See SeedRecordIndex.
    *
    * @param filename miniseed file to be read in
    * @return set of all (unique) SNCL strings
    */
   public static Set<String> getMplexNameSet(String filename)
       throws SeedFormatException, IOException {
-    Set<String> dataNames = new HashSet<>();
-
-    int byteSize;
-    byteSize = getByteSize(filename);
-
-    DataInputStream dis;
-
-    dis = new DataInputStream(new FileInputStream(filename));
-
-    while (true) {
-      // read in the current record, then get the SNCL data
-      try {
-        SeedRecord sr = SeedRecord.read(dis, byteSize);
-
-        if (sr instanceof DataRecord) {
-          DataRecord dr = (DataRecord) sr;
-          DataHeader dh = dr.getHeader();
-
-          String fileID = extractName(dh);
-          dataNames.add(fileID);
-        }
-
-      } catch (EOFException e) {
-        // just break out of loop, this means we reached the file end
-        break;
-      }
-
-    } // end loop until EOF exception
-
-    return dataNames;
+    // answered from the file's record index, which only needs to scan the file if not yet built
+    return SeedRecordIndex.forFile(filename).getNames();
   }
 
   /**
@@ -441,6 +508,23 @@ public class TimeSeriesUtils {
     return mapToTimeSeries(intervalSeriesMapPair, filter);
   }
 
+  /**
+   * Reads in the time series data from a miniSEED file according to a given filter, but only
+   * decodes the records that fall within the given time range (padded on each side by
+   * LOAD_WINDOW_MARGIN). Records entirely outside of the padded range are skipped without being
+   * decompressed. The resulting data is not trimmed, and so may extend somewhat past the range.
+   *
+   * @param filename The full path to the file to be loaded in
+   * @param filter Specifies which data to load in, for multiplexed files
+   * @param start Start of the time window of interest in ms from epoch
+   * @param end End of the time window of interest in ms from epoch
+   * @return A structure containing the time series and metadata for the file
+   */
+  public static DataBlock getTimeSeries(String filename, String filter, long start, long end)
+      throws IOException, SeedFormatException, CodecException {
+    return getTimeSeries(new String[]{filename}, filter, start, end);
+  }
+
   /**
    * Reads in the time series data from miniSEED files and concatenates it as a
    * list of doubles according to a given filter (to handle multiplexed data).
@@ -467,6 +551,28 @@ public class TimeSeriesUtils {
 
   }
 
+  /**
+   * Reads in the time series data from miniSEED files according to a given filter, only decoding
+   * records that fall within (or near) the given time range.
+   * See getTimeSeries(String, String, long, long).
+   *
+   * @param filenames Each entry is full path of each file to be loaded in
+   * @param filter Specifies which data to load in, for multiplexed files
+   * @param start Start of the time window of interest in ms from epoch
+   * @param end End of the time window of interest in ms from epoch
+   * @return A structure containing the time series and metadata for the file
+   */
+  private static DataBlock getTimeSeries(String[] filenames, String filter, long start, long end)
+      throws IOException, SeedFormatException, CodecException {
+    long temp = Math.min(start, end);
+    end = Math.max(start, end);
+    start = temp;
+    Pair<Long, Map<Long, double[]>> intervalSeriesMapPair =
+        MappedSeedReader.getTimeSeriesMap(filenames, filter,
+            start - LOAD_WINDOW_MARGIN, end + LOAD_WINDOW_MARGIN);
+    return mapToTimeSeries(intervalSeriesMapPair, filter);
+  }
+
 
   /**
    * Extract data from records in a miniseed file and return them as a map
@@ -475,8 +581,8 @@ public class TimeSeriesUtils {
    * @param filename Name of miniseed file to read in
    * @param filter SNCL data of relevant channel to get data from
    * @return Paired value, first entry of which is the interval between points
-   * given as a long and second of which is a map from sample times to data
-   * points from each given time value in the miniseed records
+   * given as a long and second of which is a map from the start times of contiguous spans of
+   * data to the data points in each span
    * @throws FileNotFoundException if given file from filename cannot be read
    */
   public static Pair<Long, Map<Long, double[]>>
@@ -485,85 +591,44 @@ public class TimeSeriesUtils {
     return getTimeSeriesMap(new String[]{filename}, filter);
   }
 
+  /**
+   * Extract data from the records in a miniseed file that overlap a given time range and return
+   * them as a map of sampled data points at various times. Records outside of the range are not
+   * decompressed.
+   *
+   * @param filename Name of miniseed file to read in
+   * @param filter SNCL data of relevant channel to get data from
+   * @param start Start of the time range in ms from epoch
+   * @param end End of the time range in ms from epoch
+   * @return Paired value, first entry of which is the interval between points
+   * given as a long and second of which is a map from the start times of contiguous spans of
+   * data to the data points in each span
+   */
+  public static Pair<Long, Map<Long, double[]>>
+  getTimeSeriesMap(String filename, String filter, long start, long end)
+      throws IOException, SeedFormatException, CodecException {
+    return MappedSeedReader.getTimeSeriesMap(new String[]{filename}, filter, start, end);
+  }
+
   /**
    * Read in multiple miniseed files and concatenate data as long as the data
    * refers to the SNCL data according to the provided filter. If a file does
    * not have any data matching the filter, then its contents will not be added.
    * This is useful for concatenating data automatically from day-crossing
-   * calibration data.
+   * calibration data. See MappedSeedReader for details of how the files are read.
    *
    * @param filenames List of miniseed data
    * @param filter SNCL data of relevant channel to get data from
    * @return Paired value, first entry of which is the interval between points
-   * given as a long and second of which is a map from sample times to data
-   * points from each given time value in the miniseed records
+   * given as a long and second of which is a map from the start times of contiguous spans of
+   * data to the data points in each span
    */
   private static Pair<Long, Map<Long, double[]>>
   getTimeSeriesMap(String[] filenames, String filter)
       throws IOException, SeedFormatException,
       CodecException {
-    long interval = 0L;
-
-    Map<Long, double[]> timeListMap = new LinkedHashMap<>();
-
-    for (String filename : filenames) {
-      int byteSize = getByteSize(filename);
-
-      try (DataInputStream dis = new DataInputStream(new FileInputStream(filename))) {
-        while (true) {
-          try {
-            SeedRecord sr = SeedRecord.read(dis, byteSize);
-            if (sr instanceof DataRecord) {
-              DataRecord dr = (DataRecord) sr;
-              DataHeader dh = dr.getHeader();
-              String seriesID = extractName(dh);
-
-              if (!seriesID.equals(filter)) {
-                continue; // skip to next seedRecord
-              }
-
-              byte af = dh.getActivityFlags();
-              byte correctionFlag = 0b00000010; // is there a time correction?
-              int correction = 0;
-              if ((af & correctionFlag) != 0) {
-                correction = dh.getTimeCorrection();
-              }
-              if (correction > 0) {
-                System.out.println("Time correction? " + correction);
-              }
-              Btime bt = dh.getStartBtime();
-
-              // convert Btime to milliseconds
-              long start = bt.convertToCalendar().getTimeInMillis();
-              start += correction / 10; // correction in tenths of millis
-              //start = (start * 10) + bt.getTenthMilli();
-
-              int fact = dh.getSampleRateFactor();
-              int mult = dh.getSampleRateMultiplier();
-
-              // we can assume interval is consistent through a file
-              if (fact > 0 && mult > 0) {
-                interval = ONE_HZ_INTERVAL / (fact * mult);
-              } else if (fact > 0 && mult < 0) {
-                interval = Math.abs((ONE_HZ_INTERVAL * mult) / fact);
-              } else if (fact < 0 && mult > 0) {
-                interval = Math.abs((ONE_HZ_INTERVAL * fact) / mult);
-              } else {
-                interval = ONE_HZ_INTERVAL * fact * mult;
-              }
-
-              timeListMap.put(start, dr.decompress().getAsDouble());
-            }
-          } catch (EOFException e) {
-            break;
-          }
-        } // end infinite while loop (read until EOF)
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-    }
-
-    return new Pair<>(interval, timeListMap);
+    // records are walked in place through a file mapping, and only decoded if they match
+    return MappedSeedReader.getTimeSeriesMap(filenames, filter);
   }
 
   /**
@@ -581,7 +646,7 @@ public class TimeSeriesUtils {
 
     long interval = data.getFirst();
     Map<Long, double[]> timeMap = data.getSecond();
-    // TODO: trim timeMap according to range
+    // data is limited to a time range (if needed) when the records are read in
     DataBlock db;
 
     db = new DataBlock(timeMap, interval, filter);
@@ -744,27 +809,5 @@ public class TimeSeriesUtils {
     return rotatedData;
   }
 
-  /**
-   * Upsamples data by a multiple of passed factor, placing zeros
-   * between each data point. Result is data.length*factor cells in size.
-   * Requires use of a low-pass filter to remove discontinuities.
-   *
-   * @param data The timeseries to be upsampled
-   * @param factor The factor to increase the size by
-   * @return The upsampled series
-   */
-  private static double[] upsample(double[] data, int factor) {
-
-    int newLength = data.length * factor;
-
-    double[] upsamp = new double[newLength];
-
-    for (int i = 0; i < data.length; ++i) {
-      upsamp[i * factor] = data[i]; // index, element
-    }
-
-    return upsamp;
-  }
-
 }
 
@@ -2,6 +2,7 @@ package asl.sensor.input;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
@@ -10,6 +11,12 @@ import static org.junit.Assert.assertTrue;
 import asl.sensor.gui.InputPanel;
 import asl.sensor.test.TestUtils;
 import asl.sensor.utils.TimeSeriesUtils;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.math3.util.Pair;
 import org.junit.Test;
 
 public class DataBlockTest {
@@ -259,4 +266,374 @@ public class DataBlockTest {
     assertNotEquals(block.getInterval(), clonedBlock.getInterval());
   }
 
-}
\ No newline at end of file
+  private static Map<Long, double[]> makeCountsMap(long interval) {
+    // two contiguous records, then a gap, then one more record
+    Map<Long, double[]> map = new LinkedHashMap<>();
+    Random random = new Random(1234);
+    long start = 1500000000000L;
+    for (int record = 0; record < 3; ++record) {
+      double[] counts = new double[100];
+      for (int i = 0; i < counts.length; ++i) {
+        counts[i] = random.nextInt(1 << 24) - (1 << 23);
+      }
+      map.put(start, counts);
+      start += counts.length * interval;
+      if (record == 1) {
+        start += 50 * interval;
+      }
+    }
+    return map;
+  }
+
+  @Test
+  public void setSampleFormat_compactFormatsMatchDoubleForCounts() {
+    long interval = 25;
+    DataBlock doubles = new DataBlock(makeCountsMap(interval), interval, "XX_TST_00_BHZ");
+    for (SampleFormat format : new SampleFormat[]{SampleFormat.FLOAT, SampleFormat.INTEGER}) {
+      DataBlock compact = new DataBlock(makeCountsMap(interval), interval, "XX_TST_00_BHZ");
+      compact.setSampleFormat(format);
+      assertEquals(format, compact.getSampleFormat());
+      assertArrayEquals(doubles.getData(), compact.getData(), 0.);
+      assertEquals(doubles.getGapBoundaries(), compact.getGapBoundaries());
+
+      long trimStart = doubles.getStartTime() + 80 * interval;
+      long trimEnd = doubles.getEndTime() - 20 * interval;
+      doubles.trim(trimStart, trimEnd);
+      compact.trim(trimStart, trimEnd);
+      assertArrayEquals(doubles.getData(), compact.getData(), 0.);
+      doubles.untrim();
+    }
+  }
+
+  @Test
+  public void setDefaultSampleFormat_appliesToNewBlocks() {
+    long interval = 25;
+    SampleFormat previous = DataBlock.getDefaultSampleFormat();
+    try {
+      DataBlock.setDefaultSampleFormat(SampleFormat.INTEGER);
+      DataBlock block = new DataBlock(makeCountsMap(interval), interval, "XX_TST_00_BHZ");
+      assertEquals(SampleFormat.INTEGER, block.getSampleFormat());
+      Map<Long, double[]> original = makeCountsMap(interval);
+      double[] first = original.get(block.getStartTime());
+      assertArrayEquals(first, Arrays.copyOfRange(block.getData(), 0, first.length), 0.);
+    } finally {
+      DataBlock.setDefaultSampleFormat(previous);
+    }
+  }
+
+  @Test
+  public void setSampleFormat_nonIntegerDataIsNotTruncated() {
+    double[] data = {0.5, 1.25, -3.75, 1E12};
+    DataBlock block = new DataBlock(data.clone(), 1000, "XX_TST_00_BHZ", 0);
+    block.setSampleFormat(SampleFormat.INTEGER);
+    assertArrayEquals(data, block.getData(), 0.);
+    assertArrayEquals(data, block.getDataMap().get(0L), 0.);
+    block.setSampleFormat(SampleFormat.FLOAT);
+    double[] rounded = block.getData();
+    for (int i = 0; i < data.length; ++i) {
+      assertEquals(data[i], rounded[i], Math.abs(data[i]) * 1E-7);
+    }
+  }
+
+  @Test
+  public void setOffHeapThreshold_offHeapDataMatchesHeapData() {
+    long interval = 25;
+    DataBlock heap = new DataBlock(makeCountsMap(interval), interval, "XX_TST_00_BHZ");
+    int previous = DataBlock.getOffHeapThreshold();
+    DataBlock offHeap;
+    try {
+      DataBlock.setOffHeapThreshold(150);
+      offHeap = new DataBlock(makeCountsMap(interval), interval, "XX_TST_00_BHZ");
+    } finally {
+      DataBlock.setOffHeapThreshold(previous);
+    }
+    assertArrayEquals(heap.getData(), offHeap.getData(), 0.);
+    long trimStart = heap.getStartTime() + 30 * interval;
+    long trimEnd = heap.getStartTime() + 180 * interval;
+    heap.trim(trimStart, trimEnd);
+    offHeap.trim(trimStart, trimEnd);
+    assertArrayEquals(heap.getData(), offHeap.getData(), 0.);
+    offHeap.setSampleFormat(SampleFormat.INTEGER);
+    offHeap.untrim();
+    heap.untrim();
+    assertArrayEquals(heap.getData(), offHeap.getData(), 0.);
+  }
+
+  @Test
+  public void release_copiesKeepSharedData() {
+    long interval = 25;
+    int previous = DataBlock.getOffHeapThreshold();
+    DataBlock block;
+    try {
+      DataBlock.setOffHeapThreshold(1);
+      block = new DataBlock(makeCountsMap(interval), interval, "XX_TST_00_BHZ");
+    } finally {
+      DataBlock.setOffHeapThreshold(previous);
+    }
+    DataBlock copy = new DataBlock(block);
+    double[] expected = block.getData().clone();
+    block.release();
+    copy.trim(copy.getStartTime() + interval, copy.getEndTime());
+    copy.untrim();
+    assertArrayEquals(expected, copy.getData(), 0.);
+    copy.release();
+    assertEquals(0, copy.getDataMap().size());
+  }
+
+
+  @Test
+  public void trim_manyGapsGivesDataAndGapsInWindow() {
+    // 2000 records of 10 samples, each followed by a gap of 5 samples
+    long interval = 25;
+    long start = 1500000000000L;
+    long stride = 15 * interval;
+    Map<Long, double[]> map = new LinkedHashMap<>();
+    for (int record = 0; record < 2000; ++record) {
+      double[] data = new double[10];
+      Arrays.fill(data, record + 1);
+      map.put(start + record * stride, data);
+    }
+    DataBlock block = new DataBlock(map, interval, "XX_TST_00_BHZ");
+    assertEquals(1999, block.getGapBoundaries().size());
+
+    // start partway into record 1000 and end inside the gap after record 1010
+    long trimStart = start + 1000 * stride + 3 * interval;
+    long trimEnd = start + 1010 * stride + 12 * interval;
+    block.trim(trimStart, trimEnd);
+    double[] data = block.getData();
+    assertEquals((trimEnd - trimStart) / interval, data.length);
+    for (int i = 0; i < data.length; ++i) {
+      long offset = trimStart + i * interval - start;
+      long record = offset / stride;
+      double expected = (offset % stride < 10 * interval) ? record + 1 : 0.;
+      assertEquals(expected, data[i], 0.);
+    }
+
+    List<Pair<Long, Long>> gaps = block.getGapBoundaries();
+    assertEquals(11, gaps.size());
+    for (int i = 0; i < gaps.size(); ++i) {
+      long gapStart = start + (1000 + i) * stride + 10 * interval;
+      assertEquals(gapStart, (long) gaps.get(i).getFirst());
+      assertEquals(Math.min(gapStart + 5 * interval, trimEnd), (long) gaps.get(i).getSecond());
+    }
+  }
+
+
+  @Test
+  public void view_matchesTrimmedDataWithoutChangingWindow() {
+    long interval = 25;
+    DataBlock block = new DataBlock(makeCountsMap(interval), interval, "XX_TST_00_BHZ");
+    DataBlock trimmed = new DataBlock(block);
+    long start = block.getStartTime();
+    long end = block.getEndTime();
+
+    // inside the first contiguous block, across the gap, and decimated
+    long[][] windows = {
+        {start + 10 * interval, start + 150 * interval},
+        {start + 150 * interval, end - 10 * interval}
+    };
+    for (long[] window : windows) {
+      trimmed.trim(window[0], window[1]);
+      DataView view = block.view(window[0], window[1]);
+      assertEquals(trimmed.getStartTime(), view.getStartTime());
+      assertArrayEquals(trimmed.getData(), view.toArray(), 0.);
+      assertEquals(trimmed.getData()[5], view.get(5), 0.);
+    }
+    assertEquals(start, block.getStartTime());
+    assertEquals(end, block.getEndTime());
+
+    block.trim(windows[0][0], windows[0][1]);
+    assertArrayEquals(block.getData(), block.view().toArray(), 0.);
+    block.resample(2 * interval);
+    trimmed.trim(windows[0][0], windows[0][1]);
+    trimmed.resample(2 * interval);
+    assertArrayEquals(trimmed.getData(), block.view().toArray(), 0.);
+    assertEquals(2 * interval, block.view().getInterval());
+  }
+
+
+  @Test
+  public void segmentedView_matchesDataWithoutFillingGaps() {
+    long interval = 25;
+    DataBlock block = new DataBlock(makeCountsMap(interval), interval, "XX_TST_00_BHZ");
+    long start = block.getStartTime();
+    long end = block.getEndTime();
+
+    // inside the first contiguous block, then across the gap
+    block.trim(start + 10 * interval, start + 150 * interval);
+    SegmentedView inside = block.segmentedView();
+    assertFalse(inside.hasGaps());
+    assertEquals(1, inside.getSegmentCount());
+    assertArrayEquals(block.getData(), inside.toArray(), 0.);
+
+    block.trim(start + 150 * interval, end - 10 * interval);
+    SegmentedView across = block.segmentedView();
+    assertTrue(across.hasGaps());
+    assertEquals(2, across.getSegmentCount());
+    assertEquals(block.getGapBoundaries(), across.getGaps());
+    assertArrayEquals(block.getData(), across.toArray(), 0.);
+    int gapStart = across.getSegment(0).length();
+    assertEquals(0, across.getSegmentOffset(0));
+    assertTrue(across.overlapsGap(gapStart - 1, gapStart + 1));
+    assertFalse(across.overlapsGap(0, gapStart));
+    assertFalse(across.overlapsGap(across.getSegmentOffset(1), across.length()));
+
+    // decimated data is a single segment, still with the gap marked
+    block.resample(2 * interval);
+    SegmentedView decimated = block.segmentedView();
+    assertEquals(1, decimated.getSegmentCount());
+    assertTrue(decimated.hasGaps());
+    assertArrayEquals(block.getData(), decimated.toArray(), 0.);
+  }
+
+
+  private static Map<Long, double[]> makeRecords(long start, long interval, int count, int seed) {
+    // contiguous 100-sample records
+    Map<Long, double[]> map = new LinkedHashMap<>();
+    Random random = new Random(seed);
+    for (int record = 0; record < count; ++record) {
+      double[] counts = new double[100];
+      for (int i = 0; i < counts.length; ++i) {
+        counts[i] = random.nextInt(1 << 24) - (1 << 23);
+      }
+      map.put(start + record * counts.length * interval, counts);
+    }
+    return map;
+  }
+
+  @Test
+  public void appendTimeSeries_incrementalAppendMatchesFullMerge() {
+    long interval = 25;
+    long start = 1500000000000L;
+    long recordLength = 100 * interval;
+    Map<Long, double[]> all = new LinkedHashMap<>();
+    DataBlock appended = null;
+    for (int day = 0; day < 10; ++day) {
+      long dayStart = start + day * 10 * recordLength;
+      if (day == 6) {
+        // leave a gap between files
+        continue;
+      }
+      Map<Long, double[]> records = makeRecords(dayStart, interval, 10, day);
+      // overlap the previous file by a couple of samples
+      if (day > 0) {
+        double[] overlap = new double[2];
+        System.arraycopy(records.get(dayStart), 0, overlap, 0, 2);
+        records.put(dayStart - 2 * interval, overlap);
+      }
+      all.putAll(records);
+      if (appended == null) {
+        appended = new DataBlock(records, interval, "XX_TST_00_BHZ");
+      } else {
+        appended.appendTimeSeries(records);
+      }
+    }
+    DataBlock merged = new DataBlock(all, interval, "XX_TST_00_BHZ");
+    assertEquals(merged.getStartTime(), appended.getStartTime());
+    assertEquals(merged.getEndTime(), appended.getEndTime());
+    assertEquals(2, appended.getDataMap().size());
+    assertEquals(merged.getGapBoundaries(), appended.getGapBoundaries());
+    assertArrayEquals(merged.getData(), appended.getData(), 0.);
+  }
+
+  @Test
+  public void appendTimeSeries_copiesKeepTheirOwnData() {
+    long interval = 25;
+    long start = 1500000000000L;
+    long next = start + 10 * 100 * interval;
+    DataBlock block = new DataBlock(makeRecords(start, interval, 10, 1), interval, "XX_TST_00_BHZ");
+    block.appendTimeSeries(makeRecords(next, interval, 1, 2));
+    DataBlock copy = new DataBlock(block);
+    double[] shared = block.getData().clone();
+
+    // both blocks add different data after the data they share
+    long after = next + 100 * interval;
+    block.appendTimeSeries(makeRecords(after, interval, 1, 3));
+    copy.appendTimeSeries(makeRecords(after, interval, 1, 4));
+
+    double[] blockData = block.getData();
+    double[] copyData = copy.getData();
+    assertArrayEquals(shared, Arrays.copyOfRange(blockData, 0, shared.length), 0.);
+    assertArrayEquals(shared, Arrays.copyOfRange(copyData, 0, shared.length), 0.);
+    assertArrayEquals(makeRecords(after, interval, 1, 3).get(after),
+        Arrays.copyOfRange(blockData, shared.length, blockData.length), 0.);
+    assertArrayEquals(makeRecords(after, interval, 1, 4).get(after),
+        Arrays.copyOfRange(copyData, shared.length, copyData.length), 0.);
+  }
+
+  @Test
+  public void appendTimeSeries_offHeapAppendsMatchHeapAppends() {
+    long interval = 25;
+    long start = 1500000000000L;
+    long recordLength = 100 * interval;
+    DataBlock heap = new DataBlock(makeRecords(start, interval, 10, 0), interval, "XX_TST_00_BHZ");
+    int previous = DataBlock.getOffHeapThreshold();
+    try {
+      DataBlock.setOffHeapThreshold(1);
+      DataBlock offHeap =
+          new DataBlock(makeRecords(start, interval, 10, 0), interval, "XX_TST_00_BHZ");
+      offHeap.setSampleFormat(SampleFormat.INTEGER);
+      DataBlock copy = null;
+      for (int file = 1; file < 8; ++file) {
+        Map<Long, double[]> records =
+            makeRecords(start + file * 10 * recordLength, interval, 10, file);
+        heap.appendTimeSeries(records);
+        offHeap.appendTimeSeries(records);
+        assertArrayEquals(heap.getData(), offHeap.getData(), 0.);
+        if (file == 4) {
+          copy = new DataBlock(offHeap);
+        }
+      }
+
+      // a copy adding its own data keeps the data it shares with the block it was copied from
+      double[] shared = copy.getData().clone();
+      long after = start + 5 * 10 * recordLength;
+      copy.appendTimeSeries(makeRecords(after, interval, 1, 100));
+      double[] copyData = copy.getData();
+      assertArrayEquals(shared, Arrays.copyOfRange(copyData, 0, shared.length), 0.);
+      assertArrayEquals(makeRecords(after, interval, 1, 100).get(after),
+          Arrays.copyOfRange(copyData, shared.length, copyData.length), 0.);
+      assertArrayEquals(heap.getData(), offHeap.getData(), 0.);
+
+      // data that isn't whole numbers can still be added to data held as integers
+      long end = offHeap.getEndTime();
+      Map<Long, double[]> fractional = new LinkedHashMap<>();
+      fractional.put(end, new double[]{0.5, 1.5, 2.5});
+      heap.appendTimeSeries(fractional);
+      offHeap.appendTimeSeries(fractional);
+      assertArrayEquals(heap.getData(), offHeap.getData(), 0.);
+    } finally {
+      DataBlock.setOffHeapThreshold(previous);
+    }
+  }
+
+  @Test
+  public void release_blockAppendedInPlaceKeepsSharedMapping() {
+    long interval = 25;
+    long start = 1500000000000L;
+    long recordLength = 100 * interval;
+    DataBlock heap = new DataBlock(makeRecords(start, interval, 10, 0), interval, "XX_TST_00_BHZ");
+    int previous = DataBlock.getOffHeapThreshold();
+    try {
+      DataBlock.setOffHeapThreshold(1);
+      DataBlock offHeap =
+          new DataBlock(makeRecords(start, interval, 10, 0), interval, "XX_TST_00_BHZ");
+      // the first append moves the data into a larger mapping, which the next one writes into
+      for (int file = 1; file < 3; ++file) {
+        Map<Long, double[]> records =
+            makeRecords(start + file * 10 * recordLength, interval, 2, file);
+        heap.appendTimeSeries(records);
+        DataBlock copy = new DataBlock(offHeap);
+        offHeap.appendTimeSeries(records);
+        // the copy's data may be in the same mapping as the block's, which has to stay mapped
+        copy.release();
+        assertArrayEquals(heap.getData(), offHeap.getData(), 0.);
+      }
+      offHeap.release();
+      assertEquals(0, offHeap.getData().length);
+    } finally {
+      DataBlock.setOffHeapThreshold(previous);
+    }
+  }
+
+}
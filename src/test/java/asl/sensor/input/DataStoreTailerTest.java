@@ -0,0 +1,173 @@
+package asl.sensor.input;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import asl.sensor.test.TestUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DataStoreTailerTest {
+
+  private static final String folder = TestUtils.TEST_DATA_LOCATION + TestUtils.SUBPAGE;
+  private static final String filter = "IU_ANMO_00_LHZ";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static void appendBytes(File file, byte[] source, int from, int to) throws Exception {
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(source, from, to - from);
+    }
+  }
+
+  @Test
+  public void update_appendsOnlyNewRecords() throws Exception {
+    String source = folder + "multiplex/cat.seed";
+    byte[] bytes = Files.readAllBytes(new File(source).toPath());
+    DataBlock expected = SeedFileContents.read(source).getBlock(filter);
+
+    // start with the first half of the file and part of the record after it
+    int half = (bytes.length / 2) / 512 * 512;
+    File live = new File(tempFolder.getRoot(), "live.seed");
+    appendBytes(live, bytes, 0, half + 100);
+
+    DataStore dataStore = new DataStore();
+    try (DataStoreTailer tailer = new DataStoreTailer(dataStore)) {
+      tailer.watch(0, live.getPath(), filter);
+      assertTrue(dataStore.blockIsSet(0));
+      DataBlock block = dataStore.getBlock(0);
+      assertEquals(expected.getStartTime(), block.getStartTime());
+      assertTrue(block.getEndTime() < expected.getEndTime());
+      assertFalse(tailer.update());
+
+      // follow the last hour of data as the rest of the file arrives
+      long window = 3600000L;
+      long firstEnd = block.getEndTime();
+      block.trim(firstEnd - window, firstEnd);
+      appendBytes(live, bytes, half + 100, bytes.length);
+      assertTrue(tailer.update());
+
+      assertEquals(expected.getEndTime(), block.getEndTime());
+      assertEquals(expected.getEndTime() - window, block.getStartTime());
+      block.untrim();
+      assertArrayEquals(expected.getData(), block.getData(), 0.);
+      assertFalse(tailer.update());
+    }
+  }
+
+  @Test
+  public void update_changesDataStoreOnlyThroughExecutor() throws Exception {
+    String source = folder + "multiplex/cat.seed";
+    byte[] bytes = Files.readAllBytes(new File(source).toPath());
+    DataBlock expected = SeedFileContents.read(source).getBlock(filter);
+
+    int half = (bytes.length / 2) / 512 * 512;
+    File live = new File(tempFolder.getRoot(), "queued.seed");
+    appendBytes(live, bytes, 0, half);
+
+    // stands in for the thread that reads the data, running changes only when told to
+    final Queue<Runnable> queued = new ArrayDeque<>();
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        queued.add(command);
+      }
+    };
+
+    DataStore dataStore = new DataStore();
+    try (DataStoreTailer tailer = new DataStoreTailer(dataStore, executor)) {
+      tailer.watch(0, live.getPath(), filter);
+      assertFalse(dataStore.blockIsSet(0));
+      appendBytes(live, bytes, half, bytes.length);
+      assertTrue(tailer.update());
+      assertFalse(dataStore.blockIsSet(0));
+
+      assertEquals(2, queued.size());
+      while (!queued.isEmpty()) {
+        queued.remove().run();
+      }
+      DataBlock block = dataStore.getBlock(0);
+      assertEquals(expected.getEndTime(), block.getEndTime());
+      block.untrim();
+      assertArrayEquals(expected.getData(), block.getData(), 0.);
+      assertFalse(tailer.update());
+      assertTrue(queued.isEmpty());
+    }
+  }
+
+  @Test
+  public void update_truncatedFileReplacesData() throws Exception {
+    String source = folder + "multiplex/cat.seed";
+    byte[] bytes = Files.readAllBytes(new File(source).toPath());
+    DataBlock expected = SeedFileContents.read(source).getBlock(filter);
+    int half = (bytes.length / 2) / 512 * 512;
+    File halfFile = new File(tempFolder.getRoot(), "half.seed");
+    appendBytes(halfFile, bytes, 0, half);
+    DataBlock expectedHalf = SeedFileContents.read(halfFile.getPath()).getBlock(filter);
+
+    File live = new File(tempFolder.getRoot(), "rotated.seed");
+    appendBytes(live, bytes, 0, bytes.length);
+    DataStore dataStore = new DataStore();
+    try (DataStoreTailer tailer = new DataStoreTailer(dataStore)) {
+      tailer.watch(0, live.getPath(), filter);
+      DataBlock original = dataStore.getBlock(0);
+      assertArrayEquals(expected.getData(), original.getData(), 0.);
+
+      // the file is rewritten with less data than was read from it before
+      Files.write(live.toPath(), Arrays.copyOf(bytes, half));
+      assertTrue(tailer.update());
+      DataBlock rewritten = dataStore.getBlock(0);
+      assertNotSame(original, rewritten);
+      assertEquals(expectedHalf.getStartTime(), rewritten.getStartTime());
+      assertArrayEquals(expectedHalf.getData(), rewritten.getData(), 0.);
+
+      // emptied and then written again from the start
+      Files.write(live.toPath(), new byte[0]);
+      assertTrue(tailer.update());
+      assertFalse(dataStore.blockIsSet(0));
+      appendBytes(live, bytes, 0, bytes.length);
+      assertTrue(tailer.update());
+      assertArrayEquals(expected.getData(), dataStore.getBlock(0).getData(), 0.);
+      assertFalse(tailer.update());
+    }
+  }
+
+  @Test
+  public void watch_fileCreatedLater() throws Exception {
+    String source = folder + "multiplex/cat.seed";
+    byte[] bytes = Files.readAllBytes(new File(source).toPath());
+    DataBlock expected = SeedFileContents.read(source).getBlock(filter);
+
+    File live = new File(tempFolder.getRoot(), "later.seed");
+    DataStore dataStore = new DataStore();
+    try (DataStoreTailer tailer = new DataStoreTailer(dataStore)) {
+      tailer.watch(1, live.getPath(), filter);
+      assertFalse(dataStore.blockIsSet(1));
+
+      appendBytes(live, bytes, 0, bytes.length);
+      assertTrue(tailer.update());
+      assertTrue(dataStore.blockIsSet(1));
+      assertArrayEquals(expected.getData(), dataStore.getBlock(1).getData(), 0.);
+
+      // data put in the slot by something else is not touched
+      DataBlock replacement = new DataBlock(new double[]{1., 2., 3.}, 1000L, filter, 0L);
+      dataStore.setBlock(1, replacement);
+      appendBytes(live, bytes, 0, 512 * 10);
+      assertFalse(tailer.update());
+      assertArrayEquals(new double[]{1., 2., 3.}, dataStore.getBlock(1).getData(), 0.);
+    }
+  }
+
+}
@@ -2,21 +2,41 @@ package asl.sensor.input;
 
 import static asl.sensor.test.TestUtils.RESP_LOCATION;
 import static asl.sensor.test.TestUtils.getSeedFolder;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import asl.sensor.gui.InputPanel;
 import asl.sensor.test.TestUtils;
+import asl.sensor.utils.FFTResult;
 import asl.sensor.utils.TimeSeriesUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class DataStoreTest {
 
   private static final String folder = TestUtils.TEST_DATA_LOCATION + TestUtils.SUBPAGE;
 
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
   @Test
   public void trim_BCIPData_timeAndLengthMatch_firstValuesMatch() {
     String respName = RESP_LOCATION + "RESP.CU.BCIP.00.BHZ_2017_268";
@@ -243,4 +263,212 @@ public class DataStoreTest {
     assertFalse(dataStore.isAnythingSet());
   }
 
-}
\ No newline at end of file
+  @Test
+  public void setBlock_multiplexedFile_matchesSingleChannelLoads() throws Exception {
+    String filename = folder + "multiplex/cat.seed";
+    DataStore dataStore = new DataStore();
+    Set<String> names = dataStore.getChannelNames(filename);
+    assertEquals(TimeSeriesUtils.getMplexNameSet(filename), names);
+
+    String[] channels = {"IU_ANMO_00_LH1", "IU_ANMO_00_LH2", "IU_ANMO_00_LHZ"};
+    for (int i = 0; i < channels.length; ++i) {
+      dataStore.setBlock(i, filename, channels[i], DataStore.FILE_COUNT);
+      DataBlock expected = TimeSeriesUtils.getTimeSeries(filename, channels[i]);
+      DataBlock loaded = dataStore.getBlock(i);
+      assertEquals(channels[i], loaded.getName());
+      assertEquals(expected.getStartTime(), loaded.getStartTime());
+      assertEquals(expected.getEndTime(), loaded.getEndTime());
+      assertArrayEquals(expected.getData(), loaded.getData(), 0.);
+    }
+  }
+
+  @Test
+  public void setBlocks_loadsAllRequestsTogether() throws Exception {
+    String filename = folder + "multiplex/cat.seed";
+    String respName = "src/main/resources/resps/STS1T5_Q330HR";
+    String[] channels = {"IU_ANMO_00_LH1", "IU_ANMO_00_LH2", "IU_ANMO_00_LHZ"};
+    List<DataStore.LoadRequest> requests = new ArrayList<>();
+    for (int i = 0; i < channels.length; ++i) {
+      requests.add(new DataStore.LoadRequest(i, filename, channels[i], respName));
+    }
+    requests.add(new DataStore.LoadRequest(3, folder + "multiplex/missing.seed", null, null));
+    requests.add(new DataStore.LoadRequest(4, null, null, respName));
+
+    final Set<Integer> loaded = Collections.synchronizedSet(new HashSet<Integer>());
+    final Set<Integer> failed = Collections.synchronizedSet(new HashSet<Integer>());
+    DataStore dataStore = new DataStore();
+    Map<Integer, Exception> failures =
+        dataStore.setBlocks(requests, DataStore.FILE_COUNT, new DataStore.LoadListener() {
+          @Override
+          public void slotLoaded(int idx) {
+            loaded.add(idx);
+          }
+
+          @Override
+          public void slotFailed(int idx, Exception e) {
+            failed.add(idx);
+          }
+        });
+
+    assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 4)), loaded);
+    assertEquals(Collections.singleton(3), failed);
+    assertEquals(Collections.singleton(3), failures.keySet());
+    for (int i = 0; i < channels.length; ++i) {
+      assertTrue(dataStore.bothComponentsSet(i));
+      DataBlock expected = TimeSeriesUtils.getTimeSeries(filename, channels[i]);
+      assertEquals(channels[i], dataStore.getBlock(i).getName());
+      assertArrayEquals(expected.getData(), dataStore.getBlock(i).getData(), 0.);
+    }
+    assertFalse(dataStore.blockIsSet(3));
+    assertFalse(dataStore.responseIsSet(3));
+    assertFalse(dataStore.blockIsSet(4));
+    assertTrue(dataStore.responseIsSet(4));
+  }
+
+  @Test
+  public void setBlock_releasesReplacedBlock() {
+    DataStore dataStore = new DataStore();
+    DataBlock first = new DataBlock(new double[]{1., 2., 3.}, 1000L, "XX_FRST_00_LHZ", 0L);
+    DataBlock second = new DataBlock(new double[]{4., 5., 6.}, 1000L, "XX_SCND_00_LHZ", 0L);
+    dataStore.setBlock(0, first);
+    dataStore.setBlock(0, first);
+    assertEquals(3, first.getData().length);
+    dataStore.setBlock(0, second);
+    assertEquals(0, first.getData().length);
+    assertArrayEquals(new double[]{4., 5., 6.}, dataStore.getBlock(0).getData(), 0.);
+  }
+
+  @Test
+  public void setBlocks_readsDataFromFileChangedAfterListingChannels() throws Exception {
+    byte[] bytes = Files.readAllBytes(new File(folder + "multiplex/cat.seed").toPath());
+    File copy = new File(tempFolder.getRoot(), "cat.seed");
+    Files.write(copy.toPath(), bytes);
+    DataStore dataStore = new DataStore();
+    assertTrue(dataStore.getChannelNames(copy.getPath()).contains("IU_ANMO_00_LHZ"));
+
+    // only the record headers were kept, so the shortened file has to be scanned again
+    int half = (bytes.length / 2) / 512 * 512;
+    Files.write(copy.toPath(), Arrays.copyOf(bytes, half));
+    assertTrue(copy.setLastModified(copy.lastModified() - 10000));
+    List<DataStore.LoadRequest> requests = new ArrayList<>();
+    requests.add(new DataStore.LoadRequest(0, copy.getPath(), "IU_ANMO_00_LHZ", null));
+    assertTrue(dataStore.setBlocks(requests, 1, null).isEmpty());
+
+    DataBlock expected = TimeSeriesUtils.getTimeSeries(copy.getPath(), "IU_ANMO_00_LHZ");
+    assertEquals(expected.getEndTime(), dataStore.getBlock(0).getEndTime());
+    assertArrayEquals(expected.getData(), dataStore.getBlock(0).getData(), 0.);
+  }
+
+  @Test
+  public void setBlocks_rejectsDataNotIntersectingActivePlots() throws Exception {
+    String filename = folder + "multiplex/cat.seed";
+    DataStore dataStore = new DataStore();
+    DataBlock early = new DataBlock(new double[]{1., 2., 3.}, 1000L, "XX_EARLY_00_LHZ", 0L);
+    dataStore.setBlock(2, early);
+
+    List<DataStore.LoadRequest> requests = new ArrayList<>();
+    requests.add(new DataStore.LoadRequest(0, filename, "IU_ANMO_00_LHZ", null));
+    Map<Integer, Exception> failures = dataStore.setBlocks(requests, 3, null);
+    assertEquals(Collections.singleton(0), failures.keySet());
+    assertFalse(dataStore.blockIsSet(0));
+    assertTrue(dataStore.blockIsSet(2));
+
+    // data outside of the active plots is unloaded instead
+    failures = dataStore.setBlocks(requests, 1, null);
+    assertTrue(failures.isEmpty());
+    assertTrue(dataStore.blockIsSet(0));
+    assertFalse(dataStore.blockIsSet(2));
+  }
+
+  /**
+   * Store with random data and a response at the first three indices
+   */
+  private static DataStore createRandomStore() throws IOException {
+    Random random = new Random(0);
+    DataStore dataStore = new DataStore();
+    InstrumentResponse ir = InstrumentResponse.loadEmbeddedResponse("STS2gen3_Q330HR");
+    for (int i = 0; i < 3; ++i) {
+      double[] data = new double[8192];
+      for (int j = 0; j < data.length; ++j) {
+        data[j] = random.nextGaussian() * 1000;
+      }
+      dataStore.setBlock(i, new DataBlock(data, 25L, "XX_RAND_0" + i + "_BHZ", 0L));
+      dataStore.setResponse(i, ir);
+    }
+    return dataStore;
+  }
+
+  @Test
+  public void getPSD_reusesResultsAcrossCopies() throws IOException {
+    DataStore dataStore = createRandomStore();
+    DataBlock block = dataStore.getBlock(0);
+    InstrumentResponse ir = dataStore.getResponse(0);
+    FFTResult psd = dataStore.getPSD(0);
+    FFTResult expected = FFTResult.crossPower(block, block, ir, ir);
+    assertArrayEquals(expected.getFFTArrays()[0], psd.getFFTArrays()[0], 0.);
+    assertArrayEquals(expected.getFFTArrays()[1], psd.getFFTArrays()[1], 0.);
+
+    assertSame(psd, dataStore.getPSD(0));
+    // experiments are given copies of the data, which share the results
+    assertSame(psd, new DataStore(dataStore).getPSD(0));
+    // as do crosspowers calculated together over data without gaps
+    FFTResult[][] crossPowers = dataStore.getCrossPowers(0, 1, 2);
+    assertSame(psd, crossPowers[0][0]);
+    assertSame(crossPowers[1][2], dataStore.getCrossPower(1, 2));
+    assertEquals(9, dataStore.getCachedSpectraCount());
+  }
+
+  @Test
+  public void getPSD_recalculatedWhenInputsChange() throws IOException {
+    DataStore dataStore = createRandomStore();
+    FFTResult psd = dataStore.getPSD(0);
+    assertEquals(1, dataStore.getCachedSpectraCount());
+
+    // results for the data as it was before being trimmed are dropped
+    long start = dataStore.getBlock(0).getStartTime();
+    dataStore.trim(start, start + 4096 * 25L);
+    assertEquals(0, dataStore.getCachedSpectraCount());
+    FFTResult trimmedPSD = dataStore.getPSD(0);
+    assertNotEquals(psd.size(), trimmedPSD.size());
+    assertSame(trimmedPSD, dataStore.getPSD(0));
+
+    dataStore.setResponse(0, InstrumentResponse.loadEmbeddedResponse("STS1T5_Q330HR"));
+    assertEquals(0, dataStore.getCachedSpectraCount());
+    FFTResult newResponsePSD = dataStore.getPSD(0);
+    assertNotSame(trimmedPSD, newResponsePSD);
+    assertEquals(trimmedPSD.size(), newResponsePSD.size());
+
+    dataStore.setBlock(0, new DataBlock(dataStore.getBlock(1)));
+    assertEquals(0, dataStore.getCachedSpectraCount());
+    assertNotSame(newResponsePSD, dataStore.getPSD(0));
+
+    dataStore.resample(10.);
+    assertEquals(0, dataStore.getCachedSpectraCount());
+    assertNotEquals(newResponsePSD.size(), dataStore.getPSD(0).size());
+  }
+
+  @Test
+  public void getPSD_leastRecentlyUsedResultsEvicted() throws IOException {
+    long cacheSize = DataStore.getSpectralCacheSize();
+    try {
+      DataStore dataStore = createRandomStore();
+      int entrySize = 3 * 8 * dataStore.getPSD(0).size();
+      DataStore.setSpectralCacheSize(2 * entrySize);
+      FFTResult first = dataStore.getPSD(0);
+      FFTResult second = dataStore.getPSD(1);
+      // marks the first as more recently used than the second
+      assertSame(first, dataStore.getPSD(0));
+      dataStore.getPSD(2);
+      assertEquals(2, dataStore.getCachedSpectraCount());
+      assertSame(first, dataStore.getPSD(0));
+      assertNotSame(second, dataStore.getPSD(1));
+
+      DataStore.setSpectralCacheSize(0);
+      FFTResult uncached = new DataStore(createRandomStore()).getPSD(0);
+      assertNotSame(uncached, dataStore.getPSD(0));
+    } finally {
+      DataStore.setSpectralCacheSize(cacheSize);
+    }
+  }
+
+}
@@ -0,0 +1,163 @@
+package asl.sensor.input;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import asl.sensor.test.TestUtils;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class SeedStreamIngesterTest {
+
+  private static final String folder = TestUtils.TEST_DATA_LOCATION + TestUtils.SUBPAGE;
+
+  /**
+   * Stand-in for a digitizer feed: sends the given bytes to the first client to connect
+   */
+  private static ServerSocket serve(final byte[] bytes) throws Exception {
+    final ServerSocket server = new ServerSocket(0);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try (Socket client = server.accept(); OutputStream out = client.getOutputStream()) {
+          out.write(bytes);
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+    return server;
+  }
+
+  private static void ingestFromServer(SeedStreamIngester ingester, byte[] bytes)
+      throws Exception {
+    try (ServerSocket server = serve(bytes);
+        Socket socket = new Socket("localhost", server.getLocalPort())) {
+      ingester.ingest(socket.getInputStream());
+    }
+    ingester.flush();
+  }
+
+  @Test
+  public void ingest_demultiplexesChannels() throws Exception {
+    String source = folder + "multiplex/cat.seed";
+    byte[] bytes = Files.readAllBytes(new File(source).toPath());
+    SeedFileContents contents = SeedFileContents.read(source);
+
+    try (SeedStreamIngester ingester = new SeedStreamIngester(30 * 86400000L, 2)) {
+      ingestFromServer(ingester, bytes);
+      assertEquals(contents.getNames(), ingester.getNames());
+      for (String name : contents.getNames()) {
+        DataBlock expected = contents.getBlock(name);
+        DataBlock streamed = ingester.getBlock(name);
+        assertEquals(expected.getStartTime(), streamed.getStartTime());
+        assertEquals(expected.getEndTime(), streamed.getEndTime());
+        assertArrayEquals(expected.getData(), streamed.getData(), 0.);
+      }
+      assertNull(ingester.getBlock("XX_NONE_00_LHZ"));
+    }
+  }
+
+  @Test
+  public void ingest_keepsOnlyBufferedLength() throws Exception {
+    String source = folder + "multiplex/cat.seed";
+    byte[] bytes = Files.readAllBytes(new File(source).toPath());
+    String name = "IU_ANMO_00_LHZ";
+    DataBlock expected = SeedFileContents.read(source).getBlock(name);
+    long bufferLength = 3600000L; // one hour
+
+    try (SeedStreamIngester ingester = new SeedStreamIngester(bufferLength, 1)) {
+      ingestFromServer(ingester, bytes);
+      DataBlock streamed = ingester.getBlock(name);
+      assertEquals(expected.getEndTime(), streamed.getEndTime());
+      assertEquals(expected.getEndTime() - bufferLength, streamed.getStartTime());
+
+      double[] all = expected.getData();
+      double[] recent = streamed.getData();
+      assertEquals(bufferLength / expected.getInterval(), recent.length);
+      assertArrayEquals(Arrays.copyOfRange(all, all.length - recent.length, all.length),
+          recent, 0.);
+
+      // a copy in a DataStore is not affected by later data
+      DataStore dataStore = new DataStore();
+      assertTrue(ingester.setBlock(dataStore, 0, name));
+      assertArrayEquals(recent, dataStore.getBlock(0).getData(), 0.);
+    }
+  }
+
+  /**
+   * Listener keeping every problem reported to it
+   */
+  private static class RecordingListener implements SeedStreamIngester.ErrorListener {
+
+    private final List<Exception> skipped =
+        Collections.synchronizedList(new ArrayList<Exception>());
+    private final CountDownLatch failed = new CountDownLatch(1);
+
+    @Override
+    public void recordSkipped(Exception e) {
+      skipped.add(e);
+    }
+
+    @Override
+    public void streamFailed(Exception e) {
+      failed.countDown();
+    }
+  }
+
+  @Test
+  public void ingest_skipsRecordWithoutBlockette1000() throws Exception {
+    String source = folder + "multiplex/cat.seed";
+    byte[] bytes = Files.readAllBytes(new File(source).toPath());
+    SeedFileContents contents = SeedFileContents.read(source);
+    // remove the first record's blockettes, leaving nothing to give its length or encoding
+    bytes[39] = 0;
+    bytes[46] = 0;
+    bytes[47] = 0;
+
+    RecordingListener listener = new RecordingListener();
+    try (SeedStreamIngester ingester = new SeedStreamIngester(30 * 86400000L, 2)) {
+      ingester.setErrorListener(listener);
+      ingestFromServer(ingester, bytes);
+      assertEquals(1, listener.skipped.size());
+      // every record after it is still read
+      assertEquals(contents.getNames(), ingester.getNames());
+      String name = "IU_ANMO_00_LHZ";
+      assertEquals(contents.getBlock(name).getEndTime(), ingester.getBlock(name).getEndTime());
+    }
+  }
+
+  @Test
+  public void connect_reportsStreamEndingPartwayThroughRecord() throws Exception {
+    String source = folder + "multiplex/cat.seed";
+    byte[] bytes = Files.readAllBytes(new File(source).toPath());
+
+    RecordingListener listener = new RecordingListener();
+    try (ServerSocket server = serve(Arrays.copyOf(bytes, 512 * 3 + 100));
+        SeedStreamIngester ingester = new SeedStreamIngester(30 * 86400000L, 1)) {
+      ingester.setErrorListener(listener);
+      ingester.connect("localhost", server.getLocalPort());
+      assertTrue(listener.failed.await(10, TimeUnit.SECONDS));
+      // the records before the end of the stream were still read in
+      ingester.flush();
+      assertFalse(ingester.getNames().isEmpty());
+      assertTrue(listener.skipped.isEmpty());
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+package asl.sensor.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+
+public class ComplexArraysTest {
+
+  // ordinary values along with the edge cases Complex treats specially
+  private static final double[] SPECIAL = {0., -0., 1., -2.5, 1E-310, 1E300, -1E300,
+      Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN};
+
+  /**
+   * Every pairing of the special values as the real and imaginary parts of a number, followed by
+   * random values
+   */
+  private static Complex[] makeValues(int seed) {
+    Random random = new Random(seed);
+    int pairs = SPECIAL.length * SPECIAL.length;
+    Complex[] values = new Complex[pairs + 200];
+    for (int i = 0; i < pairs; ++i) {
+      values[i] = new Complex(SPECIAL[i / SPECIAL.length], SPECIAL[i % SPECIAL.length]);
+    }
+    for (int i = pairs; i < values.length; ++i) {
+      values[i] = new Complex(random.nextGaussian() * 100, random.nextGaussian() * 100);
+    }
+    return values;
+  }
+
+  /**
+   * Values that pair up every value of makeValues(0) with every other one; the first holds
+   * each value repeated, the second holds the whole list repeated
+   */
+  private static Complex[][] makePairs() {
+    Complex[] values = makeValues(0);
+    Complex[] first = new Complex[values.length * values.length];
+    Complex[] second = new Complex[first.length];
+    for (int i = 0; i < first.length; ++i) {
+      first[i] = values[i / values.length];
+      second[i] = values[i % values.length];
+    }
+    return new Complex[][]{first, second};
+  }
+
+  private static void assertSame(Complex expected, double[][] actual, int idx) {
+    String message = "at index " + idx;
+    assertEquals(message, expected.getReal(), actual[0][idx], 0.);
+    assertEquals(message, expected.getImaginary(), actual[1][idx], 0.);
+  }
+
+  @Test
+  public void abs_matchesComplex() {
+    Complex[] values = makeValues(1);
+    double[] abs = ComplexArrays.abs(ComplexArrays.fromComplex(values));
+    for (int i = 0; i < values.length; ++i) {
+      assertEquals(values[i].abs(), abs[i], 0.);
+    }
+  }
+
+  @Test
+  public void arithmetic_matchesComplex() {
+    Complex[][] pairs = makePairs();
+    Complex[] a = pairs[0];
+    Complex[] b = pairs[1];
+    double[][] arrayA = ComplexArrays.fromComplex(a);
+    double[][] arrayB = ComplexArrays.fromComplex(b);
+    double[][] out = ComplexArrays.create(a.length);
+
+    ComplexArrays.add(arrayA, arrayB, out);
+    for (int i = 0; i < a.length; ++i) {
+      assertSame(a[i].add(b[i]), out, i);
+    }
+    ComplexArrays.subtract(arrayA, arrayB, out);
+    for (int i = 0; i < a.length; ++i) {
+      assertSame(a[i].subtract(b[i]), out, i);
+    }
+    ComplexArrays.multiply(arrayA, arrayB, out);
+    for (int i = 0; i < a.length; ++i) {
+      assertSame(a[i].multiply(b[i]), out, i);
+    }
+    ComplexArrays.multiplyConjugate(arrayA, arrayB, out);
+    for (int i = 0; i < a.length; ++i) {
+      assertSame(a[i].multiply(b[i].conjugate()), out, i);
+    }
+    ComplexArrays.divide(arrayA, arrayB, out);
+    for (int i = 0; i < a.length; ++i) {
+      assertSame(a[i].divide(b[i]), out, i);
+    }
+    double[] divisors = new double[a.length];
+    for (int i = 0; i < a.length; ++i) {
+      divisors[i] = b[i].getReal();
+    }
+    ComplexArrays.divide(arrayA, divisors, out);
+    for (int i = 0; i < a.length; ++i) {
+      assertSame(a[i].divide(divisors[i]), out, i);
+    }
+  }
+
+  @Test
+  public void scalarOperations_matchComplex() {
+    Complex[] values = makeValues(2);
+    double[][] array = ComplexArrays.fromComplex(values);
+    double[][] out = ComplexArrays.create(values.length);
+    for (double scalar : SPECIAL) {
+      ComplexArrays.multiply(array, scalar, out);
+      for (int i = 0; i < values.length; ++i) {
+        assertSame(values[i].multiply(scalar), out, i);
+      }
+      ComplexArrays.divide(array, scalar, out);
+      for (int i = 0; i < values.length; ++i) {
+        assertSame(values[i].divide(scalar), out, i);
+      }
+    }
+    ComplexArrays.conjugate(array, out);
+    for (int i = 0; i < values.length; ++i) {
+      assertSame(values[i].conjugate(), out, i);
+    }
+    ComplexArrays.pow(array, 2, out);
+    for (int i = 0; i < values.length; ++i) {
+      assertSame(values[i].pow(2), out, i);
+    }
+  }
+
+  @Test
+  public void operationsInPlace_matchComplex() {
+    Complex[] values = makeValues(3);
+    double[][] array = ComplexArrays.fromComplex(values);
+    ComplexArrays.multiply(array, array, array);
+    for (int i = 0; i < values.length; ++i) {
+      assertSame(values[i].multiply(values[i]), array, i);
+    }
+  }
+
+  @Test
+  public void addScaledConjugateProduct_matchesComplex() {
+    Complex[][] pairs = makePairs();
+    Complex[] a = pairs[0];
+    Complex[] b = pairs[1];
+    Complex[] sum = makeValues(4);
+    double[][] arrayA = ComplexArrays.fromComplex(a);
+    double[][] arrayB = ComplexArrays.fromComplex(b);
+    for (double divisor : new double[]{3.7, 0., Double.POSITIVE_INFINITY}) {
+      double[][] arraySum = ComplexArrays.create(a.length);
+      Complex[] expected = new Complex[a.length];
+      for (int i = 0; i < a.length; ++i) {
+        expected[i] = sum[i % sum.length];
+        arraySum[0][i] = expected[i].getReal();
+        arraySum[1][i] = expected[i].getImaginary();
+      }
+      ComplexArrays.addScaledConjugateProduct(arrayA, arrayB, 2, divisor, arraySum);
+      for (int i = 0; i < a.length; ++i) {
+        Complex product = a[i].multiply(b[i].conjugate()).multiply(2).divide(divisor);
+        assertSame(expected[i].add(product), arraySum, i);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+package asl.sensor.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import asl.sensor.input.DataBlock;
+import asl.sensor.input.InstrumentResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class CrossSpectralMatrixTest {
+
+  private static final long INTERVAL = 25000;
+
+  /**
+   * Three series of random data sharing a common signal, as from co-located sensors
+   */
+  private static DataBlock[] makeBlocks(int length) {
+    Random random = new Random(0);
+    double[][] data = new double[3][length];
+    for (int i = 0; i < length; ++i) {
+      double signal = random.nextGaussian() * 1000;
+      for (int j = 0; j < data.length; ++j) {
+        data[j][i] = signal * (j + 1) + random.nextGaussian() * 100;
+      }
+    }
+    DataBlock[] blocks = new DataBlock[data.length];
+    for (int j = 0; j < data.length; ++j) {
+      blocks[j] = new DataBlock(data[j], INTERVAL, "XX_TEST_0" + j + "_BHZ", 0L);
+    }
+    return blocks;
+  }
+
+  private static void assertSameResult(FFTResult expected, FFTResult actual) {
+    assertArrayEquals(expected.getFreqs(), actual.getFreqs(), 0.);
+    assertArrayEquals(expected.getFFTArrays()[0], actual.getFFTArrays()[0], 0.);
+    assertArrayEquals(expected.getFFTArrays()[1], actual.getFFTArrays()[1], 0.);
+  }
+
+  @Test
+  public void spectralMatrix_matchesSpectralCalc() {
+    DataBlock[] blocks = makeBlocks(20000);
+    CrossSpectralMatrix matrix = FFTResult.spectralMatrix(blocks);
+    assertEquals(blocks.length, matrix.size());
+    for (int i = 0; i < blocks.length; ++i) {
+      for (int j = 0; j < blocks.length; ++j) {
+        assertSameResult(FFTResult.spectralCalc(blocks[i], blocks[j]), matrix.get(i, j));
+      }
+    }
+    assertArrayEquals(matrix.get(0, 0).getFreqs(), matrix.getFreqs(), 0.);
+  }
+
+  @Test
+  public void crossPower_matchesFFTResultCrossPower() throws IOException {
+    DataBlock[] blocks = makeBlocks(20000);
+    InstrumentResponse ir1 = InstrumentResponse.loadEmbeddedResponse("STS1T5_Q330HR");
+    InstrumentResponse ir2 = InstrumentResponse.loadEmbeddedResponse("STS2gen3_Q330HR");
+    CrossSpectralMatrix matrix = FFTResult.spectralMatrix(blocks);
+    assertSameResult(FFTResult.crossPower(blocks[0], blocks[0], ir1, ir1),
+        matrix.crossPower(0, 0, ir1, ir1));
+    assertSameResult(FFTResult.crossPower(blocks[1], blocks[2], ir1, ir2),
+        matrix.crossPower(1, 2, ir1, ir2));
+    assertSameResult(FFTResult.crossPower(blocks[2], blocks[0], ir2, ir1),
+        matrix.crossPower(2, 0, ir2, ir1));
+  }
+
+  @Test
+  public void spectralMatrix_sharesSpectraOfBlocksWithSameName() {
+    DataBlock[] blocks = makeBlocks(4096);
+    DataBlock copy = new DataBlock(blocks[0]);
+    CrossSpectralMatrix matrix = FFTResult.spectralMatrix(blocks[0], blocks[1], copy);
+    assertSame(matrix.get(0, 0), matrix.get(2, 2));
+    assertSame(matrix.get(0, 0), matrix.get(0, 2));
+    assertSame(matrix.get(1, 0), matrix.get(1, 2));
+  }
+
+  @Test
+  public void spectralMatrix_leavesOutWindowsOverlappingGapInAnyBlock() {
+    int length = 16384;
+    DataBlock[] blocks = makeBlocks(length);
+    // the same data as each of the first two blocks, with a gap of 2048 samples in the second
+    Map<Long, double[]> map = new LinkedHashMap<>();
+    double[] data = blocks[1].getData();
+    map.put(0L, Arrays.copyOfRange(data, 0, 8192));
+    map.put(10240 * INTERVAL, Arrays.copyOfRange(data, 10240, length));
+    DataBlock gapped = new DataBlock(map, INTERVAL, "XX_GAP_01_BHZ");
+    map = new LinkedHashMap<>();
+    data = blocks[0].getData();
+    map.put(0L, Arrays.copyOfRange(data, 0, 8192));
+    map.put(10240 * INTERVAL, Arrays.copyOfRange(data, 10240, length));
+    DataBlock firstGapped = new DataBlock(map, INTERVAL, "XX_GAP_00_BHZ");
+
+    // the first block's PSD uses only the windows the gap in the second block doesn't touch
+    CrossSpectralMatrix matrix = FFTResult.spectralMatrix(blocks[0], gapped);
+    assertSameResult(FFTResult.spectralCalc(firstGapped, firstGapped), matrix.get(0, 0));
+    assertSameResult(FFTResult.spectralCalc(gapped, gapped), matrix.get(1, 1));
+    assertSameResult(FFTResult.spectralCalc(blocks[0], gapped), matrix.get(0, 1));
+  }
+
+}
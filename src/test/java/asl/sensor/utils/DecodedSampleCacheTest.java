@@ -0,0 +1,159 @@
+package asl.sensor.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import asl.sensor.input.DataBlock;
+import asl.sensor.test.TestUtils;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.math3.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DecodedSampleCacheTest {
+
+  private static final String folder = TestUtils.TEST_DATA_LOCATION + TestUtils.SUBPAGE;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File previousDirectory;
+  private long previousMaxSize;
+  private boolean previouslyEnabled;
+
+  @Before
+  public void useTemporaryCache() throws Exception {
+    previousDirectory = DecodedSampleCache.getDirectory();
+    previousMaxSize = DecodedSampleCache.getMaxSize();
+    previouslyEnabled = DecodedSampleCache.isEnabled();
+    DecodedSampleCache.setDirectory(tempFolder.newFolder("cache"));
+    DecodedSampleCache.setEnabled(true);
+  }
+
+  @After
+  public void restoreCache() {
+    DecodedSampleCache.setDirectory(previousDirectory);
+    DecodedSampleCache.setMaxSize(previousMaxSize);
+    DecodedSampleCache.setEnabled(previouslyEnabled);
+  }
+
+  private static Pair<Long, Map<Long, double[]>> makeData(int spans, int length, double scale) {
+    Map<Long, double[]> timeListMap = new LinkedHashMap<>();
+    for (int i = 0; i < spans; ++i) {
+      double[] data = new double[length];
+      for (int j = 0; j < length; ++j) {
+        data[j] = (i * length + j - 500) * scale;
+      }
+      timeListMap.put(i * 10000000L, data);
+    }
+    return new Pair<>(1000L, timeListMap);
+  }
+
+  private static void assertSameData(Pair<Long, Map<Long, double[]>> expected,
+      Pair<Long, Map<Long, double[]>> actual) {
+    assertEquals(expected.getFirst(), actual.getFirst());
+    assertEquals(new ArrayList<>(expected.getSecond().keySet()),
+        new ArrayList<>(actual.getSecond().keySet()));
+    for (long time : expected.getSecond().keySet()) {
+      assertArrayEquals(expected.getSecond().get(time), actual.getSecond().get(time), 0.);
+    }
+  }
+
+  @Test
+  public void get_returnsDataThatWasPut() {
+    Pair<Long, Map<Long, double[]>> integers = makeData(3, 1001, 1.);
+    Pair<Long, Map<Long, double[]>> doubles = makeData(2, 20000, 0.37);
+    DecodedSampleCache.put("/data/a.seed", 100L, 5L, "IU_ANMO_00_LHZ", integers);
+    DecodedSampleCache.put("/data/a.seed", 100L, 5L, "IU_ANMO_00_LH1", doubles);
+
+    assertSameData(integers, DecodedSampleCache.get("/data/a.seed", 100L, 5L, "IU_ANMO_00_LHZ"));
+    assertSameData(doubles, DecodedSampleCache.get("/data/a.seed", 100L, 5L, "IU_ANMO_00_LH1"));
+
+    // any change to the file means the entry no longer applies
+    assertNull(DecodedSampleCache.get("/data/a.seed", 100L, 6L, "IU_ANMO_00_LHZ"));
+    assertNull(DecodedSampleCache.get("/data/a.seed", 101L, 5L, "IU_ANMO_00_LHZ"));
+    assertNull(DecodedSampleCache.get("/data/b.seed", 100L, 5L, "IU_ANMO_00_LHZ"));
+
+    DecodedSampleCache.setEnabled(false);
+    assertNull(DecodedSampleCache.get("/data/a.seed", 100L, 5L, "IU_ANMO_00_LHZ"));
+  }
+
+  @Test
+  public void put_evictsLeastRecentlyUsed() throws Exception {
+    Pair<Long, Map<Long, double[]>> data = makeData(1, 10000, 1.);
+    // room for two entries of 10000 integer samples each, but not three
+    DecodedSampleCache.setMaxSize(100000L);
+    DecodedSampleCache.put("/data/a.seed", 1L, 1L, "A", data);
+    DecodedSampleCache.put("/data/b.seed", 1L, 1L, "B", data);
+
+    // make the first entry the most recently used
+    File directory = DecodedSampleCache.getDirectory();
+    for (File entry : directory.listFiles()) {
+      assertTrue(entry.setLastModified(System.currentTimeMillis() - 100000L));
+    }
+    assertNotNull(DecodedSampleCache.get("/data/a.seed", 1L, 1L, "A"));
+
+    DecodedSampleCache.put("/data/c.seed", 1L, 1L, "C", data);
+    assertEquals(2, directory.listFiles().length);
+    assertNotNull(DecodedSampleCache.get("/data/a.seed", 1L, 1L, "A"));
+    assertNull(DecodedSampleCache.get("/data/b.seed", 1L, 1L, "B"));
+    assertNotNull(DecodedSampleCache.get("/data/c.seed", 1L, 1L, "C"));
+
+    // data too large for the cache at all is not kept
+    DecodedSampleCache.put("/data/d.seed", 1L, 1L, "D", makeData(1, 100000, 1.));
+    assertNull(DecodedSampleCache.get("/data/d.seed", 1L, 1L, "D"));
+  }
+
+  @Test
+  public void getTimeSeries_cachedMatchesDecoded() throws Exception {
+    File seed = new File(tempFolder.getRoot(), "cat.seed");
+    Files.copy(new File(folder + "multiplex/cat.seed").toPath(), seed.toPath());
+    String filter = "IU_ANMO_00_LH2";
+
+    DecodedSampleCache.setEnabled(false);
+    DataBlock decoded = TimeSeriesUtils.getTimeSeries(seed.getPath(), filter);
+    long start = decoded.getStartTime() + 40000000L;
+    long end = start + 3600000L;
+    DataBlock decodedWindow = TimeSeriesUtils.getTimeSeries(seed.getPath(), filter, start, end);
+
+    DecodedSampleCache.setEnabled(true);
+    File directory = DecodedSampleCache.getDirectory();
+    // reading only a window of the file neither decodes nor caches the rest of it
+    DataBlock uncachedWindow = TimeSeriesUtils.getTimeSeries(seed.getPath(), filter, start, end);
+    assertEquals(0, directory.listFiles().length);
+    DataBlock first = TimeSeriesUtils.getTimeSeries(seed.getPath(), filter);
+    assertEquals(1, directory.listFiles().length);
+    DataBlock cached = TimeSeriesUtils.getTimeSeries(seed.getPath(), filter);
+    DataBlock cachedWindow = TimeSeriesUtils.getTimeSeries(seed.getPath(), filter, start, end);
+    assertTrue(cachedWindow.getStartTime() <= start);
+    assertTrue(cachedWindow.getEndTime() >= end);
+
+    for (DataBlock block : new DataBlock[]{first, cached}) {
+      assertEquals(decoded.getStartTime(), block.getStartTime());
+      assertEquals(decoded.getEndTime(), block.getEndTime());
+      assertArrayEquals(decoded.getData(), block.getData(), 0.);
+    }
+    // the cached data is cut down to the same whole records as are decoded for a window
+    for (DataBlock block : new DataBlock[]{uncachedWindow, cachedWindow}) {
+      assertEquals(decodedWindow.getStartTime(), block.getStartTime());
+      assertEquals(decodedWindow.getEndTime(), block.getEndTime());
+      assertArrayEquals(decodedWindow.getData(), block.getData(), 0.);
+    }
+
+    // a change to the file means it is decoded again
+    assertTrue(seed.setLastModified(seed.lastModified() - 10000));
+    TimeSeriesUtils.getTimeSeries(seed.getPath(), filter);
+    assertEquals(2, directory.listFiles().length);
+  }
+
+}
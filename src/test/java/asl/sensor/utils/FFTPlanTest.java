@@ -0,0 +1,101 @@
+package asl.sensor.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+import org.junit.Test;
+
+public class FFTPlanTest {
+
+  private static Complex[] makeData(int length, int seed) {
+    Random random = new Random(seed);
+    Complex[] data = new Complex[length];
+    for (int i = 0; i < length; ++i) {
+      data[i] = new Complex(random.nextGaussian() * 100, random.nextGaussian() * 100);
+    }
+    return data;
+  }
+
+  private static void assertTransformMatches(int length, TransformType type, int seed) {
+    Complex[] data = makeData(length, seed);
+    FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+    Complex[] expected = fft.transform(data, type);
+    double[][] result = ComplexArrays.fromComplex(data);
+    FFTPlan.forLength(length).transform(result, type);
+
+    double scale = 0.;
+    for (Complex value : expected) {
+      scale = Math.max(scale, value.abs());
+    }
+    for (int i = 0; i < length; ++i) {
+      assertEquals(expected[i].getReal(), result[0][i], scale * 1E-12);
+      assertEquals(expected[i].getImaginary(), result[1][i], scale * 1E-12);
+    }
+  }
+
+  @Test
+  public void transform_matchesFastFourierTransformer() {
+    for (int length : new int[]{1, 2, 4, 8, 256, 16384}) {
+      assertTransformMatches(length, TransformType.FORWARD, length);
+      assertTransformMatches(length, TransformType.INVERSE, length + 1);
+    }
+  }
+
+  @Test
+  public void forLength_reusesPlans() {
+    FFTPlan plan = FFTPlan.forLength(1024);
+    assertEquals(1024, plan.getLength());
+    assertSame(plan, FFTPlan.forLength(1024));
+    // scratch space is kept per thread
+    assertSame(plan.getScratch(), plan.getScratch());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void forLength_rejectsLengthNotPowerOfTwo() {
+    FFTPlan.forLength(1000);
+  }
+
+  @Test
+  public void transform_sharedPlanGivesSameResultsOnEachThread() throws Exception {
+    final int length = 4096;
+    final double[][] input = ComplexArrays.fromComplex(makeData(length, 0));
+    final double[][] expected = new double[][]{input[0].clone(), input[1].clone()};
+    FFTPlan.forLength(length).transform(expected, TransformType.FORWARD);
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<double[][]>> results = new ArrayList<>();
+      for (int i = 0; i < 16; ++i) {
+        results.add(pool.submit(new Callable<double[][]>() {
+          @Override
+          public double[][] call() {
+            double[][] data = new double[][]{input[0].clone(), input[1].clone()};
+            FFTPlan.forLength(length).transform(data, TransformType.FORWARD);
+            return data;
+          }
+        }));
+      }
+      for (Future<double[][]> result : results) {
+        double[][] data = result.get();
+        for (int i = 0; i < length; ++i) {
+          assertEquals(expected[0][i], data[0][i], 0.);
+          assertEquals(expected[1][i], data[1][i], 0.);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+}
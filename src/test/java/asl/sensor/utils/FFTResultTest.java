@@ -1,5 +1,6 @@
 package asl.sensor.utils;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
@@ -15,7 +16,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import javax.imageio.ImageIO;
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.transform.DftNormalization;
@@ -709,4 +713,71 @@ public class FFTResultTest {
     assertEquals(65536, FFTResult.findFFTPaddingLength(65535));
     assertEquals(65536, FFTResult.findFFTPaddingLength(65536));
   }
+
+  @Test
+  public void spectralCalc_leavesOutWindowsOverlappingGaps() {
+    // a sine with a period of 64 samples, so every window of the data (which slide by 1024
+    // samples) has the same contents; leaving out any of them shouldn't change the result
+    long interval = 1000;
+    int length = 16384;
+    double[] dense = new double[length];
+    for (int i = 0; i < length; ++i) {
+      dense[i] = Math.sin(2 * Math.PI * i / 64.);
+    }
+    // same data with a gap of 2048 samples partway through
+    Map<Long, double[]> map = new LinkedHashMap<>();
+    map.put(0L, Arrays.copyOfRange(dense, 0, 8192));
+    map.put(10240 * interval, Arrays.copyOfRange(dense, 10240, length));
+    DataBlock gapped = new DataBlock(map, interval, "XX_GAP_00_LHZ");
+    assertEquals(length, gapped.getData().length);
+
+    FFTResult expected = FFTResult.spectralCalc(dense, dense, interval);
+    FFTResult withGap = FFTResult.spectralCalc(gapped, gapped);
+    FFTResult zeroFilled = FFTResult.spectralCalc(gapped.getData(), gapped.getData(), interval);
+    assertArrayEquals(expected.getFreqs(), withGap.getFreqs(), 0.);
+    int peak = FFTResult.getIndexOfFrequency(expected.getFreqs(), 1. / 64);
+    double tolerance = expected.getFFT(peak).abs() * 1E-9;
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.getFFT(i).getReal(), withGap.getFFT(i).getReal(), tolerance);
+      assertEquals(expected.getFFT(i).getImaginary(), withGap.getFFT(i).getImaginary(), tolerance);
+    }
+    // filling the gap with zeros drags the estimate down
+    assertTrue(zeroFilled.getFFT(peak).abs() < 0.9 * expected.getFFT(peak).abs());
+  }
+
+  @Test
+  public void spectralCalc_parallelResultsAreStable() {
+    Random random = new Random(0);
+    double[] data1 = new double[100000];
+    double[] data2 = new double[data1.length];
+    for (int i = 0; i < data1.length; ++i) {
+      data1[i] = random.nextGaussian() * 1000;
+      data2[i] = data1[i] * 0.5 + random.nextGaussian() * 100;
+    }
+
+    int parallelism = FFTResult.getSpectralParallelism();
+    try {
+      FFTResult.setSpectralParallelism(1);
+      FFTResult serial = FFTResult.spectralCalc(data1, data2, 25);
+      FFTResult.setSpectralParallelism(4);
+      FFTResult parallel = FFTResult.spectralCalc(data1, data2, 25);
+      FFTResult again = FFTResult.spectralCalc(data1, data2, 25);
+
+      assertArrayEquals(serial.getFreqs(), parallel.getFreqs(), 0.);
+      double tolerance = 0.;
+      for (int i = 0; i < serial.size(); ++i) {
+        tolerance = Math.max(tolerance, serial.getFFT(i).abs() * 1E-12);
+      }
+      for (int i = 0; i < serial.size(); ++i) {
+        assertEquals(serial.getFFT(i).getReal(), parallel.getFFT(i).getReal(), tolerance);
+        assertEquals(serial.getFFT(i).getImaginary(), parallel.getFFT(i).getImaginary(),
+            tolerance);
+      }
+      // the same number of threads always gives exactly the same result
+      assertArrayEquals(parallel.getFFTArrays()[0], again.getFFTArrays()[0], 0.);
+      assertArrayEquals(parallel.getFFTArrays()[1], again.getFFTArrays()[1], 0.);
+    } finally {
+      FFTResult.setSpectralParallelism(parallelism);
+    }
+  }
 }
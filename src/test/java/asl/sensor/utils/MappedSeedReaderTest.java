@@ -0,0 +1,167 @@
+package asl.sensor.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import asl.sensor.test.TestUtils;
+import edu.sc.seis.seisFile.mseed.DataHeader;
+import edu.sc.seis.seisFile.mseed.DataRecord;
+import edu.sc.seis.seisFile.mseed.SeedRecord;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.apache.commons.math3.util.Pair;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedSeedReaderTest {
+
+  private static final String folder = TestUtils.TEST_DATA_LOCATION + TestUtils.SUBPAGE;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void headersMatchSeisFileRecords() throws Exception {
+    String filename = folder + "multiplex/cat.seed";
+    int recordsChecked = 0;
+    try (DataInputStream dis = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(filename)));
+        MappedSeedReader reader = new MappedSeedReader(filename)) {
+      long offset = 0;
+      while (true) {
+        SeedRecord sr;
+        try {
+          sr = SeedRecord.read(dis, 4096);
+        } catch (EOFException e) {
+          break;
+        }
+        SeedRecordHeader header = reader.readHeader(offset);
+        offset += reader.getRecordLength(header);
+        if (!(sr instanceof DataRecord)) {
+          continue;
+        }
+        DataRecord dr = (DataRecord) sr;
+        DataHeader dh = dr.getHeader();
+        String station = dh.getStationIdentifier().replaceAll("\\s+", "");
+        String name = dh.getNetworkCode() + "_" + station + "_" + dh.getLocationIdentifier() + "_"
+            + dh.getChannelIdentifier();
+        assertEquals(name, header.getName());
+        assertEquals(dh.getNumSamples(), header.getNumSamples());
+        assertEquals(dh.getStartBtime().convertToCalendar().getTimeInMillis(),
+            header.getStartTime());
+        assertEquals(dr.getRecordSize(), header.getRecordLength());
+        assertArrayEquals(dr.decompress().getAsDouble(), reader.decompress(header), 0.);
+        ++recordsChecked;
+      }
+    }
+    assertTrue(recordsChecked > 0);
+  }
+
+  @Test
+  public void getTimeSeriesMap_onlyGetsFilteredChannel() throws Exception {
+    String filename = folder + "multiplex/cat.seed";
+    Pair<Long, Map<Long, double[]>> lh1 =
+        MappedSeedReader.getTimeSeriesMap(new String[]{filename}, "IU_ANMO_00_LH1");
+    Pair<Long, Map<Long, double[]>> none =
+        MappedSeedReader.getTimeSeriesMap(new String[]{filename}, "IU_ANMO_00_BHZ");
+    assertEquals(1000L, (long) lh1.getFirst());
+    assertTrue(lh1.getSecond().size() > 0);
+    assertEquals(0, none.getSecond().size());
+  }
+
+  @Test
+  public void getTimeSeriesMap_windowSkipsRecordsOutsideRange() throws Exception {
+    String[] filenames = {folder + "multiplex/cat.seed"};
+    String filter = "IU_ANMO_00_LHZ";
+    Pair<Long, Map<Long, double[]>> fullPair = MappedSeedReader.getTimeSeriesMap(filenames, filter);
+    long interval = fullPair.getFirst();
+    long fullStart = Collections.min(fullPair.getSecond().keySet());
+    double[] full = fullPair.getSecond().get(fullStart);
+    // window well inside of the first contiguous span of data
+    long start = fullStart + (full.length / 4) * interval;
+    long end = fullStart + (full.length / 2) * interval;
+    Map<Long, double[]> windowed =
+        MappedSeedReader.getTimeSeriesMap(filenames, filter, start, end).getSecond();
+    assertEquals(1, windowed.size());
+    long windowedStart = windowed.keySet().iterator().next();
+    double[] data = windowed.get(windowedStart);
+    // records before and after the window are left out, but those overlapping it are kept
+    assertTrue(windowedStart > fullStart && windowedStart <= start);
+    assertTrue(windowedStart + data.length * interval >= end);
+    assertTrue(data.length < full.length);
+    int offset = (int) ((windowedStart - fullStart) / interval);
+    assertArrayEquals(Arrays.copyOfRange(full, offset, offset + data.length), data, 0.);
+  }
+
+  @Test
+  public void getTimeSeriesMap_parallelDecodeMatchesSerial() throws Exception {
+    String[] filenames = {folder + "multiplex/cat.seed"};
+    String filter = "IU_ANMO_00_LHZ";
+    int defaultParallelism = MappedSeedReader.getDecodeParallelism();
+    try {
+      MappedSeedReader.setDecodeParallelism(1);
+      Map<Long, double[]> serial = MappedSeedReader.getTimeSeriesMap(filenames, filter).getSecond();
+      MappedSeedReader.setDecodeParallelism(4);
+      Map<Long, double[]> parallel =
+          MappedSeedReader.getTimeSeriesMap(filenames, filter).getSecond();
+      assertEquals(new ArrayList<>(serial.keySet()), new ArrayList<>(parallel.keySet()));
+      for (long time : serial.keySet()) {
+        assertArrayEquals(serial.get(time), parallel.get(time), 0.);
+      }
+    } finally {
+      MappedSeedReader.setDecodeParallelism(defaultParallelism);
+    }
+  }
+
+  @Test
+  public void getTimeSeriesMap_splitFilesMatchWholeFile() throws Exception {
+    String filename = folder + "multiplex/cat.seed";
+    String filter = "IU_ANMO_00_LH2";
+    byte[] bytes = Files.readAllBytes(new File(filename).toPath());
+    // two pieces of the file, overlapping by a hundred records
+    int split = (bytes.length / 512 / 2) * 512;
+    File first = tempFolder.newFile("first.seed");
+    File second = tempFolder.newFile("second.seed");
+    Files.write(first.toPath(), Arrays.copyOfRange(bytes, 0, split + 50 * 512));
+    Files.write(second.toPath(), Arrays.copyOfRange(bytes, split - 50 * 512, bytes.length));
+    String[] filenames = {second.getPath(), first.getPath()};
+
+    Map<Long, double[]> whole =
+        MappedSeedReader.getTimeSeriesMap(new String[]{filename}, filter).getSecond();
+    int defaultParallelism = MappedSeedReader.getDecodeParallelism();
+    File defaultDirectory = DecodedSampleCache.getDirectory();
+    boolean defaultEnabled = DecodedSampleCache.isEnabled();
+    try {
+      DecodedSampleCache.setDirectory(tempFolder.newFolder("cache"));
+      for (boolean cached : new boolean[]{false, true, true}) {
+        DecodedSampleCache.setEnabled(cached);
+        for (int parallelism : new int[]{1, 4}) {
+          MappedSeedReader.setDecodeParallelism(parallelism);
+          Pair<Long, Map<Long, double[]>> pieces =
+              MappedSeedReader.getTimeSeriesMap(filenames, filter);
+          assertEquals(1000L, (long) pieces.getFirst());
+          Map<Long, double[]> merged = pieces.getSecond();
+          assertEquals(new ArrayList<>(whole.keySet()), new ArrayList<>(merged.keySet()));
+          for (long time : whole.keySet()) {
+            assertArrayEquals(whole.get(time), merged.get(time), 0.);
+          }
+        }
+      }
+    } finally {
+      MappedSeedReader.setDecodeParallelism(defaultParallelism);
+      DecodedSampleCache.setDirectory(defaultDirectory);
+      DecodedSampleCache.setEnabled(defaultEnabled);
+    }
+  }
+
+}
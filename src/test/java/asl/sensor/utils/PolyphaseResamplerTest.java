@@ -0,0 +1,98 @@
+package asl.sensor.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class PolyphaseResamplerTest {
+
+  /**
+   * Resample by putting zeros between samples, filtering at the upsampled rate and keeping every
+   * down-th sample of the result
+   */
+  private static double[] resampleDirectly(double[] data, int up, int down) {
+    double[] upped = new double[data.length * up];
+    for (int i = 0; i < data.length; ++i) {
+      upped[i * up] = data[i];
+    }
+    double[] filtered = FFTResult.lowPassFilter(upped, 2. * down, 1.);
+    return TimeSeriesUtils.downsample(filtered, down);
+  }
+
+  private static void assertResampleMatches(int up, int down, int length) {
+    Random random = new Random(up * 31 + down);
+    double[] data = new double[length];
+    for (int i = 0; i < length; ++i) {
+      data[i] = random.nextGaussian() * 1000 + 50 * Math.sin(i / 10.);
+    }
+    double[] expected = resampleDirectly(data, up, down);
+    double[] result = PolyphaseResampler.forRatio(up, down).resample(data);
+    assertEquals(expected.length, result.length);
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(expected[i], result[i], 1E-7);
+    }
+  }
+
+  @Test
+  public void resample_matchesFilteringUpsampledData() {
+    assertResampleMatches(1, 40, 20000);
+    assertResampleMatches(1, 20, 20001);
+    assertResampleMatches(2, 5, 5003);
+    assertResampleMatches(3, 7, 4000);
+  }
+
+  @Test
+  public void resample_longDataReadInPiecesMatchesFilteringUpsampledData() {
+    assertResampleMatches(2, 5, 200000);
+  }
+
+  @Test
+  public void resample_onlyDownsamplingGivesSameResultAsFilteringData() {
+    Random random = new Random(0);
+    double[] data = new double[10000];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = random.nextDouble();
+    }
+    assertArrayEquals(resampleDirectly(data, 1, 25),
+        PolyphaseResampler.forRatio(1, 25).resample(data), 0.);
+  }
+
+  @Test
+  public void resample_shortDataGivesOutputOfSameLength() {
+    // data shorter than the filter still has every sample it covers resampled
+    assertResampleMatches(1, 40, 200);
+    assertResampleMatches(2, 5, 3);
+    assertEquals(0, PolyphaseResampler.forRatio(1, 40).resample(new double[39]).length);
+  }
+
+  @Test
+  public void decimate_matchesFilteringUpsampledData() {
+    Random random = new Random(0);
+    double[] data = new double[10000];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = random.nextGaussian() * 1000;
+    }
+    // 2.5Hz (400 ms interval) to 1Hz: up by 2 and down by 5
+    double[] expected = resampleDirectly(data, 2, 5);
+    double[] result = TimeSeriesUtils.decimate(data, 400L, TimeSeriesUtils.ONE_HZ_INTERVAL);
+    assertEquals(expected.length, result.length);
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(expected[i], result[i], 1E-7);
+    }
+  }
+
+  @Test
+  public void forRatio_reusesResamplers() {
+    PolyphaseResampler resampler = PolyphaseResampler.forRatio(2, 5);
+    assertSame(resampler, PolyphaseResampler.forRatio(2, 5));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void forRatio_rejectsNonPositiveFactor() {
+    PolyphaseResampler.forRatio(0, 5);
+  }
+
+}
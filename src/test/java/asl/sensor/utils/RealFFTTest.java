@@ -0,0 +1,85 @@
+package asl.sensor.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+import org.junit.Test;
+
+public class RealFFTTest {
+
+  private static double[] makeData(int length, int seed) {
+    Random random = new Random(seed);
+    double[] data = new double[length];
+    for (int i = 0; i < length; ++i) {
+      data[i] = random.nextGaussian() * 1000 + Math.sin(i / 10.) * 500;
+    }
+    return data;
+  }
+
+  @Test
+  public void forward_matchesFullComplexTransform() {
+    FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+    // data of the full length, and data short enough that it has to be padded
+    int[][] lengths = {{2, 2}, {4, 4}, {64, 64}, {4096, 4096}, {3000, 4096}, {1, 2}};
+    for (int[] length : lengths) {
+      double[] data = makeData(length[0], length[1]);
+      int padding = length[1];
+      Complex[] expected =
+          fft.transform(Arrays.copyOf(data, padding), TransformType.FORWARD);
+      double[][] result = RealFFT.forward(data, padding);
+      assertEquals(padding / 2 + 1, ComplexArrays.length(result));
+
+      double scale = 0.;
+      for (Complex value : expected) {
+        scale = Math.max(scale, value.abs());
+      }
+      for (int i = 0; i < ComplexArrays.length(result); ++i) {
+        assertEquals(expected[i].getReal(), result[0][i], scale * 1E-12);
+        assertEquals(expected[i].getImaginary(), result[1][i], scale * 1E-12);
+      }
+    }
+  }
+
+  @Test
+  public void inverse_recoversData() {
+    for (int padding : new int[]{2, 8, 4096}) {
+      double[] data = makeData(padding, padding);
+      double[][] spectrum = RealFFT.forward(data, padding);
+      assertArrayEquals(data, RealFFT.inverse(spectrum, padding), 1E-9);
+      // trimmed to only some of the data
+      double[] trimmed = RealFFT.inverse(spectrum, padding / 2 + 1);
+      assertArrayEquals(Arrays.copyOf(data, trimmed.length), trimmed, 1E-9);
+    }
+  }
+
+  @Test
+  public void inverse_matchesRealPartOfFullComplexTransform() {
+    // spectrum that isn't from real data, including imaginary parts at 0 Hz and Nyquist
+    int padding = 1024;
+    Random random = new Random(0);
+    Complex[] full = new Complex[padding];
+    double[][] singleSide = ComplexArrays.create(padding / 2 + 1);
+    for (int i = 0; i <= padding / 2; ++i) {
+      full[i] = new Complex(random.nextGaussian(), random.nextGaussian());
+      singleSide[0][i] = full[i].getReal();
+      singleSide[1][i] = full[i].getImaginary();
+    }
+    for (int i = 1; i < padding / 2; ++i) {
+      full[padding - i] = full[i].conjugate();
+    }
+    FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+    Complex[] inverse = fft.transform(full, TransformType.INVERSE);
+    double[] expected = new double[padding];
+    for (int i = 0; i < padding; ++i) {
+      expected[i] = inverse[i].getReal();
+    }
+    assertArrayEquals(expected, RealFFT.inverse(singleSide, padding), 1E-12);
+  }
+
+}
@@ -0,0 +1,93 @@
+package asl.sensor.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import edu.iris.dmc.seedcodec.B1000Types;
+import edu.iris.dmc.seedcodec.Codec;
+import edu.iris.dmc.seedcodec.Steim1;
+import edu.iris.dmc.seedcodec.Steim2;
+import edu.iris.dmc.seedcodec.SteimFrameBlock;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class RecordDecoderTest {
+
+  // 7 frames fit in a 512-byte record after a 64-byte header
+  private static final int FRAMES = 7;
+
+  private static int[] randomWalk(int length, int maxStep) {
+    Random random = new Random(12345);
+    int[] data = new int[length];
+    int value = 0;
+    for (int i = 0; i < length; ++i) {
+      value += random.nextInt(2 * maxStep + 1) - maxStep;
+      data[i] = value;
+    }
+    return data;
+  }
+
+  private static SeedRecordHeader makeHeader(int encoding, int numSamples, boolean littleEndian) {
+    return new SeedRecordHeader(0L, 512, "XX_TST_00_BHZ", 0L, numSamples, 25L, encoding,
+        littleEndian, 64);
+  }
+
+  private static void checkSteim(int encoding, int maxStep) throws Exception {
+    int[] data = randomWalk(2000, maxStep);
+    SteimFrameBlock block = (encoding == B1000Types.STEIM1) ?
+        Steim1.encode(data, FRAMES) : Steim2.encode(data, FRAMES);
+    byte[] encoded = block.getEncodedData();
+    int numSamples = block.getNumSamples();
+    SeedRecordHeader header = makeHeader(encoding, numSamples, false);
+
+    double[] expected =
+        new Codec().decompress(encoding, encoded, numSamples, false).getAsDouble();
+    double[] decoded = new double[numSamples];
+    int written = RecordDecoder.decode(header, ByteBuffer.wrap(encoded), decoded, 0, 0);
+    assertEquals(numSamples, written);
+    assertArrayEquals(expected, decoded, 0.);
+
+    // skipped samples are left out and the rest are written at the given offset
+    double[] offset = new double[numSamples + 10];
+    written = RecordDecoder.decode(header, ByteBuffer.wrap(encoded), offset, 10, 5);
+    assertEquals(numSamples - 5, written);
+    assertArrayEquals(Arrays.copyOfRange(expected, 5, numSamples),
+        Arrays.copyOfRange(offset, 10, numSamples + 5), 0.);
+  }
+
+  @Test
+  public void decode_steim1MatchesSeedCodec() throws Exception {
+    checkSteim(B1000Types.STEIM1, 10); // mostly 8-bit differences
+    checkSteim(B1000Types.STEIM1, 1000); // mostly 16-bit differences
+    checkSteim(B1000Types.STEIM1, 100000); // mostly 32-bit differences
+  }
+
+  @Test
+  public void decode_steim2MatchesSeedCodec() throws Exception {
+    checkSteim(B1000Types.STEIM2, 3); // 4- and 5-bit differences
+    checkSteim(B1000Types.STEIM2, 25); // 6- and 8-bit differences
+    checkSteim(B1000Types.STEIM2, 400); // 10-bit differences
+    checkSteim(B1000Types.STEIM2, 10000); // 15-bit differences
+    checkSteim(B1000Types.STEIM2, 10000000); // 30-bit differences
+  }
+
+  @Test
+  public void decode_littleEndianIntegers() throws Exception {
+    int[] data = randomWalk(100, 100000);
+    ByteBuffer buffer = ByteBuffer.allocate(data.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    for (int value : data) {
+      buffer.putInt(value);
+    }
+    buffer.flip();
+    SeedRecordHeader header = makeHeader(B1000Types.INTEGER, data.length, true);
+    double[] decoded = new double[data.length];
+    RecordDecoder.decode(header, buffer, decoded, 0, 0);
+    for (int i = 0; i < data.length; ++i) {
+      assertEquals(data[i], decoded[i], 0.);
+    }
+  }
+
+}
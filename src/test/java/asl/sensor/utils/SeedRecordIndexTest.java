@@ -0,0 +1,94 @@
+package asl.sensor.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import asl.sensor.test.TestUtils;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SeedRecordIndexTest {
+
+  private static final String folder = TestUtils.TEST_DATA_LOCATION + TestUtils.SUBPAGE;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private boolean wasWritingSidecars;
+
+  @Before
+  public void enableSidecars() {
+    wasWritingSidecars = SeedRecordIndex.isWritingSidecars();
+    SeedRecordIndex.setWritingSidecars(true);
+  }
+
+  @After
+  public void restoreSidecars() {
+    SeedRecordIndex.setWritingSidecars(wasWritingSidecars);
+  }
+
+  private File copyTestFile() throws Exception {
+    File source = new File(folder + "multiplex/cat.seed");
+    File copy = new File(tempFolder.getRoot(), "cat.seed");
+    Files.copy(source.toPath(), copy.toPath());
+    return copy;
+  }
+
+  @Test
+  public void forFile_writesSidecarThatMatchesScan() throws Exception {
+    File seed = copyTestFile();
+    SeedRecordIndex built = SeedRecordIndex.build(seed.getPath());
+    SeedRecordIndex first = SeedRecordIndex.forFile(seed.getPath());
+    File sidecar = new File(seed.getPath() + SeedRecordIndex.INDEX_EXTENSION);
+    assertTrue(sidecar.isFile());
+
+    // second call is loaded from the sidecar rather than built
+    SeedRecordIndex loaded = SeedRecordIndex.forFile(seed.getPath());
+    assertEquals(built.getNames(), first.getNames());
+    assertEquals(built.getNames(), loaded.getNames());
+    assertEquals(built.getRecordLength(), loaded.getRecordLength());
+
+    List<SeedRecordHeader> expected = built.getHeaders("IU_ANMO_00_LH1");
+    List<SeedRecordHeader> actual = loaded.getHeaders("IU_ANMO_00_LH1");
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i).getOffset(), actual.get(i).getOffset());
+      assertEquals(expected.get(i).getStartTime(), actual.get(i).getStartTime());
+      assertEquals(expected.get(i).getNumSamples(), actual.get(i).getNumSamples());
+      assertEquals(expected.get(i).getInterval(), actual.get(i).getInterval());
+    }
+  }
+
+  @Test
+  public void forFile_writesNoSidecarWhenDisabled() throws Exception {
+    SeedRecordIndex.setWritingSidecars(false);
+    File seed = copyTestFile();
+    SeedRecordIndex index = SeedRecordIndex.forFile(seed.getPath());
+    assertFalse(index.getHeaders().isEmpty());
+    assertFalse(new File(seed.getPath() + SeedRecordIndex.INDEX_EXTENSION).exists());
+  }
+
+  @Test
+  public void isCurrent_falseAfterFileModified() throws Exception {
+    File seed = copyTestFile();
+    SeedRecordIndex index = SeedRecordIndex.forFile(seed.getPath());
+    assertTrue(index.isCurrent(seed));
+    assertTrue(seed.setLastModified(seed.lastModified() - 10000));
+    assertFalse(index.isCurrent(seed));
+  }
+
+  @Test
+  public void getMplexNameSet_matchesIndexNames() throws Exception {
+    File seed = copyTestFile();
+    assertEquals(SeedRecordIndex.build(seed.getPath()).getNames(),
+        TimeSeriesUtils.getMplexNameSet(seed.getPath()));
+  }
+
+}
@@ -11,6 +11,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import asl.sensor.input.DataBlock;
+import asl.sensor.input.SegmentedView;
 import asl.sensor.test.TestUtils;
 import edu.iris.dmc.seedcodec.B1000Types;
 import edu.iris.dmc.seedcodec.CodecException;
@@ -30,8 +31,10 @@ import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import org.junit.Test;
 
@@ -524,4 +527,49 @@ public class TimeSeriesUtilsTest {
     }
   }
 
+  /**
+   * 40Hz data with a gap in it, longer than the pieces the data is read into decimation in
+   */
+  private static DataBlock makeGappedBlock() {
+    long interval = 25;
+    Random random = new Random(0);
+    Map<Long, double[]> map = new LinkedHashMap<>();
+    for (int piece = 0; piece < 2; ++piece) {
+      double[] data = new double[50000];
+      for (int i = 0; i < data.length; ++i) {
+        data[i] = random.nextGaussian() * 1000 + 200 + i * 0.01;
+      }
+      map.put(piece * 60000 * interval, data);
+    }
+    return new DataBlock(map, interval, "XX_TST_00_BHZ");
+  }
+
+  @Test
+  public void decimate_segmentedViewMatchesDecimatedArray() {
+    DataBlock block = makeGappedBlock();
+    SegmentedView view = block.segmentedView();
+    assertTrue(view.hasGaps());
+    double[] expected = TimeSeriesUtils.decimate(view.toArray(), block.getInterval(),
+        TimeSeriesUtils.ONE_HZ_INTERVAL);
+    assertArrayEquals(expected,
+        TimeSeriesUtils.decimate(view, TimeSeriesUtils.ONE_HZ_INTERVAL), 0.);
+    // 2.5Hz (up by 2 and down by 5) to 1Hz
+    block.resample(400);
+    view = block.segmentedView();
+    expected = TimeSeriesUtils.decimate(view.toArray(), 400, TimeSeriesUtils.ONE_HZ_INTERVAL);
+    assertArrayEquals(expected,
+        TimeSeriesUtils.decimate(view, TimeSeriesUtils.ONE_HZ_INTERVAL), 0.);
+  }
+
+  @Test
+  public void decimateDetrended_matchesDecimatedDetrendedArray() {
+    DataBlock block = makeGappedBlock();
+    SegmentedView view = block.segmentedView();
+    double[] detrended = TimeSeriesUtils.detrend(TimeSeriesUtils.demean(view.toArray()));
+    double[] expected = TimeSeriesUtils.decimate(detrended, block.getInterval(),
+        TimeSeriesUtils.ONE_HZ_INTERVAL);
+    assertArrayEquals(expected,
+        TimeSeriesUtils.decimateDetrended(view, TimeSeriesUtils.ONE_HZ_INTERVAL), 0.);
+  }
+
 }